@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.okse.protocol.amqp.AMQPServer;
+import no.ntnu.okse.protocol.amqp.MessageBytes;
+import org.apache.qpid.proton.message.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding of the AMQP 1.0 messages sent to subscribers, both on its own and together
+ * with the conversion from an OKSE message, for text and binary payloads.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar AMQPServerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AMQPServerBenchmark {
+
+  @Param({"64", "4096"})
+  public int payloadSize;
+
+  @Param({"false", "true"})
+  public boolean binary;
+
+  private no.ntnu.okse.core.messaging.Message okseMessage;
+  private Message amqpMessage;
+
+  @Setup
+  public void setup() {
+    BenchmarkSupport.quietLogging();
+    if (binary) {
+      byte[] payload = new byte[payloadSize];
+      Arrays.fill(payload, (byte) 'x');
+      okseMessage = new no.ntnu.okse.core.messaging.Message(payload, "application/octet-stream",
+          "bench/amqp/topic", null, "Benchmark");
+    } else {
+      char[] payload = new char[payloadSize];
+      Arrays.fill(payload, 'x');
+      okseMessage = new no.ntnu.okse.core.messaging.Message(new String(payload),
+          "bench/amqp/topic", null, "Benchmark");
+    }
+    amqpMessage = AMQPServer.convertOkseMessageToAMQP(okseMessage, "localhost");
+  }
+
+  @Benchmark
+  public MessageBytes convertAMQPMessageToMessageBytes() {
+    return AMQPServer.convertAMQPMessageToMessageBytes(amqpMessage);
+  }
+
+  @Benchmark
+  public MessageBytes convertAndEncode() {
+    return AMQPServer.convertAMQPMessageToMessageBytes(
+        AMQPServer.convertOkseMessageToAMQP(okseMessage, "localhost"));
+  }
+}
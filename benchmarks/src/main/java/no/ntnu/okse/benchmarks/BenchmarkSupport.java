@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Helpers shared by the benchmarks
+ */
+final class BenchmarkSupport {
+
+  private static final long AWAIT_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+  private BenchmarkSupport() {
+  }
+
+  /**
+   * Raises the broker log level to WARN, so the benchmarks measure the code paths and not the
+   * per message INFO logging
+   */
+  static void quietLogging() {
+    Logger.getRootLogger().setLevel(Level.WARN);
+    Logger.getLogger("no.ntnu.okse").setLevel(Level.WARN);
+  }
+
+  /**
+   * Waits for work handed to one of the core service threads to complete
+   *
+   * @param condition The condition that is true once the work is done
+   * @throws IllegalStateException If the condition is not met within 30 seconds
+   */
+  static void await(BooleanSupplier condition) {
+    long deadline = System.nanoTime() + AWAIT_TIMEOUT;
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Timed out waiting for the broker");
+      }
+      Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import no.ntnu.okse.core.CoreService;
+import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.core.messaging.MessageService;
+import no.ntnu.okse.protocol.AbstractProtocolServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures dispatch through the MessageService, from distributeMessage until the message has been
+ * handed to a protocol server. A counting protocol server stands in for the real ones, so only
+ * the queueing, lane dispatch and mapping fan out is measured.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar MessageServiceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageServiceBenchmark {
+
+  private static final int BATCH = 1000;
+
+  @Param({"1", "64"})
+  public int topics;
+
+  private MessageService messageService;
+  private CountingProtocolServer server;
+  private String[] topicNames;
+  private long expected;
+
+  @Setup
+  public void setup() {
+    BenchmarkSupport.quietLogging();
+    server = new CountingProtocolServer();
+    CoreService.getInstance().addProtocolServer(server);
+    messageService = MessageService.getInstance();
+    messageService.boot();
+
+    topicNames = new String[topics];
+    for (int i = 0; i < topics; i++) {
+      topicNames[i] = "bench/dispatch/" + i;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    messageService.stop();
+    CoreService.getInstance().removeProtocolServer(server);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void distributeAndDeliver() {
+    for (int i = 0; i < BATCH; i++) {
+      messageService.distributeMessage(
+          new Message("benchmark", topicNames[i % topics], null, "Benchmark"));
+    }
+    expected += BATCH;
+    BenchmarkSupport.await(() -> server.delivered.get() >= expected);
+  }
+
+  /**
+   * Protocol server that only counts the messages it is given
+   */
+  static class CountingProtocolServer extends AbstractProtocolServer {
+
+    final AtomicLong delivered = new AtomicLong();
+
+    CountingProtocolServer() {
+      protocolServerType = "Benchmark";
+    }
+
+    @Override
+    public void boot() {
+    }
+
+    @Override
+    public void run() {
+    }
+
+    @Override
+    public void stopServer() {
+    }
+
+    @Override
+    public String getProtocolServerType() {
+      return protocolServerType;
+    }
+
+    @Override
+    public void sendMessage(Message message) {
+      delivered.incrementAndGet();
+    }
+
+    @Override
+    public void sendMessages(List<Message> messages) {
+      delivered.addAndGet(messages.size());
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.benchmarks;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.okse.core.subscription.Subscriber;
+import no.ntnu.okse.core.subscription.SubscriptionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the subscriber lookup done for every message delivery. The subscribers are spread over
+ * a fixed set of topics, and one in a hundred subscribes with a wildcard.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar SubscriptionServiceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionServiceBenchmark {
+
+  private static final int TOPICS = 1000;
+
+  @Param({"1000", "100000"})
+  public int subscribers;
+
+  private SubscriptionService subscriptionService;
+  private String[] topicNames;
+  private int next;
+
+  @Setup
+  public void setup() {
+    BenchmarkSupport.quietLogging();
+    subscriptionService = SubscriptionService.getInstance();
+    subscriptionService.boot();
+
+    topicNames = new String[TOPICS];
+    for (int i = 0; i < TOPICS; i++) {
+      topicNames[i] = "bench/group" + (i % 10) + "/topic" + i;
+    }
+    for (int i = 0; i < subscribers; i++) {
+      String topic = i % 100 == 0 ? "bench/group" + (i % 10) + "/#" : topicNames[i % TOPICS];
+      subscriptionService.addSubscriber(new Subscriber("10.0.0.1", i, topic, "Benchmark"));
+    }
+    BenchmarkSupport.await(() -> subscriptionService.getNumberOfSubscribers() == subscribers);
+  }
+
+  @TearDown
+  public void tearDown() {
+    subscriptionService.stop();
+  }
+
+  @Benchmark
+  public HashSet<Subscriber> getAllSubscribersForTopic() {
+    next = (next + 1) % TOPICS;
+    return subscriptionService.getAllSubscribersForTopic(topicNames[next]);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.benchmarks;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.okse.core.topic.Topic;
+import no.ntnu.okse.core.topic.TopicService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building topic nodes from raw topic strings, both for topics that share no levels with
+ * the existing tree and for new leaves under an existing parent, and the full asynchronous
+ * addTopic path through the TopicService thread.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar TopicServiceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicServiceBenchmark {
+
+  private static final int BATCH = 1000;
+
+  @Param({"3", "8"})
+  public int depth;
+
+  private TopicService topicService;
+  private String newTopic;
+  private String existingParent;
+
+  @Setup
+  public void setup() {
+    BenchmarkSupport.quietLogging();
+    topicService = TopicService.getInstance();
+    topicService.boot();
+
+    newTopic = buildTopic("fresh", depth);
+    existingParent = buildTopic("bench", depth - 1);
+    topicService.addTopic(existingParent);
+    BenchmarkSupport.await(() -> topicService.topicExists(existingParent));
+  }
+
+  @TearDown
+  public void tearDown() {
+    topicService.stop();
+  }
+
+  @Benchmark
+  public HashSet<Topic> generateNewTopicNodes() {
+    return topicService.generateTopicNodesFromRawTopicString(newTopic);
+  }
+
+  @Benchmark
+  public HashSet<Topic> generateLeafUnderExistingParent() {
+    return topicService.generateTopicNodesFromRawTopicString(existingParent + "/leaf");
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void addTopic(TopicBatch batch) {
+    String last = null;
+    for (int i = 0; i < BATCH; i++) {
+      last = batch.root + "/" + i + "/leaf";
+      topicService.addTopic(last);
+    }
+    // Tasks run in order on the TopicService thread, so the last topic is added last
+    String lastTopic = last;
+    BenchmarkSupport.await(() -> topicService.topicExists(lastTopic));
+  }
+
+  /**
+   * Builds a topic string with the given number of levels
+   */
+  private static String buildTopic(String root, int levels) {
+    StringBuilder topic = new StringBuilder(root);
+    for (int i = 1; i < levels; i++) {
+      topic.append("/level").append(i);
+    }
+    return topic.toString();
+  }
+
+  /**
+   * Gives every addTopic invocation its own root topic, and removes it again afterwards, so the
+   * topic tree does not grow for the duration of the run
+   */
+  @State(Scope.Thread)
+  public static class TopicBatch {
+
+    private long counter;
+    String root;
+
+    @Setup(Level.Invocation)
+    public void next() {
+      root = "batch" + (counter++);
+    }
+
+    @TearDown(Level.Invocation)
+    public void delete() {
+      TopicService topicService = TopicService.getInstance();
+      topicService.deleteTopic(root);
+      BenchmarkSupport.await(() -> !topicService.topicExists(root));
+    }
+  }
+}
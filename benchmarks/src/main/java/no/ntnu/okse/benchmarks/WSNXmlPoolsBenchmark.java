@@ -0,0 +1,137 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.benchmarks;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.JAXBElement;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.protocol.wsn.WSNTools;
+import org.ntnunotif.wsnu.base.soap.Soap;
+import org.ntnunotif.wsnu.base.util.InternalMessage;
+import org.ntnunotif.wsnu.services.general.ServiceUtilities;
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.oasis_open.docs.wsn.b_2.SubscribeResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Node;
+
+/**
+ * Compares parsing and serializing WS-Notification content with XML factories and JAXB parsing
+ * set up on every call, as the WSN package did before WSNXmlPools, against the per-thread pools.
+ * The perCall benchmarks reproduce the previous implementations, while the pooled benchmarks call
+ * the current WSNTools methods.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar WSNXmlPoolsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WSNXmlPoolsBenchmark {
+
+  private static final String SUBSCRIBE_RESPONSE =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+          "<s:Envelope xmlns:wsa=\"http://www.w3.org/2005/08/addressing\" " +
+          "xmlns:wsnt=\"http://docs.oasis-open.org/wsn/b-2\" " +
+          "xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+          "<s:Body><wsnt:SubscribeResponse><wsnt:SubscriptionReference>" +
+          "<wsa:Address>http://127.0.0.1:61000/subscriptionManager/?wsn-subscriberkey=bench" +
+          "</wsa:Address></wsnt:SubscriptionReference>" +
+          "<wsnt:TerminationTime>2030-01-01T00:00:00.000+01:00</wsnt:TerminationTime>" +
+          "</wsnt:SubscribeResponse></s:Body></s:Envelope>";
+
+  private Message message;
+  private InternalMessage subscribeResponse;
+  private Node content;
+
+  @Setup
+  public void setup() {
+    BenchmarkSupport.quietLogging();
+    message = new Message(
+        "<data xmlns=\"http://okse.default.message\"><value unit=\"C\">21.5</value></data>",
+        "bench/wsn/topic", null, "Benchmark");
+    subscribeResponse = new InternalMessage(
+        InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE, SUBSCRIBE_RESPONSE);
+    content = (Node) WSNTools.extractMessageContentFromNotify(WSNTools.createNotify(message));
+  }
+
+  @Benchmark
+  public Notify createNotifyPerCall() {
+    // Parses a complete SOAP envelope through the WS-Nu XMLParser
+    JAXBElement envelope = (JAXBElement) WSNTools
+        .parseRawXmlString(WSNTools.generateRawSoapEnvelopedNotifyString(message)).getMessage();
+    return (Notify) Soap.createSameAs(envelope).getBodyContent(envelope.getValue()).get(0);
+  }
+
+  @Benchmark
+  public Notify createNotifyPooled() {
+    return WSNTools.createNotify(message);
+  }
+
+  @Benchmark
+  public String extractSubscriptionReferencePerCall() {
+    JAXBElement envelope = (JAXBElement) WSNTools
+        .parseRawXmlString(subscribeResponse.getMessage().toString()).getMessage();
+    SubscribeResponse response = (SubscribeResponse) Soap.createSameAs(envelope)
+        .getBodyContent(envelope.getValue()).get(0);
+    return ServiceUtilities.getAddress(response.getSubscriptionReference());
+  }
+
+  @Benchmark
+  public String extractSubscriptionReferencePooled() {
+    return WSNTools.extractSubscriptionReferenceFromRawXmlResponse(subscribeResponse);
+  }
+
+  @Benchmark
+  public String serializeContentPerCall() throws TransformerException {
+    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    StringWriter buffer = new StringWriter();
+    transformer.transform(new DOMSource(content), new StreamResult(buffer));
+    return buffer.toString();
+  }
+
+  @Benchmark
+  public String serializeContentPooled() {
+    return WSNTools.extractRawXmlContentFromDomNode(content);
+  }
+}
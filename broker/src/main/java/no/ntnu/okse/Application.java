@@ -31,8 +31,11 @@ import java.io.InputStream;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import no.ntnu.okse.core.CoreService;
+import no.ntnu.okse.core.IdGenerator;
+import no.ntnu.okse.core.InstrumentedExecutor;
 import no.ntnu.okse.core.Utilities;
 import no.ntnu.okse.core.messaging.MessageService;
+import no.ntnu.okse.core.messaging.RingBufferQueue;
 import no.ntnu.okse.core.subscription.SubscriptionService;
 import no.ntnu.okse.core.topic.TopicService;
 import no.ntnu.okse.db.DB;
@@ -66,12 +69,51 @@ public class Application {
   public static boolean CACHE_MESSAGES = true;
   public static long DEFAULT_SUBSCRIPTION_TERMINATION_TIME = 15552000000L; // Half a year
   public static long DEFAULT_PUBLISHER_TERMINATION_TIME = 15552000000L; // Half a year
+  public static int MESSAGE_DISPATCH_LANES = 0; // One lane per available processor
+  public static int MESSAGE_QUEUE_CAPACITY = 100000;
+  public static MessageService.OverflowPolicy MESSAGE_QUEUE_OVERFLOW_POLICY =
+      MessageService.OverflowPolicy.BLOCK;
+  public static int EGRESS_BATCH_SIZE = 64;
+  public static boolean RING_BUFFER_PIPELINE = false;
+  public static int RING_BUFFER_SIZE = 65536;
+  public static RingBufferQueue.WaitStrategy RING_BUFFER_WAIT_STRATEGY =
+      RingBufferQueue.WaitStrategy.BLOCK;
+  public static IdGenerator.Type ID_GENERATOR = IdGenerator.Type.TIME_ORDERED;
+  public static int ID_GENERATOR_NODE_ID = -1; // Random node ID
+  public static boolean VIRTUAL_THREADS = false;
+  public static int WSN_CIRCUIT_FAILURE_THRESHOLD = 5;
+  public static long WSN_RETRY_INITIAL_BACKOFF = 1000L; // Milliseconds
+  public static long WSN_RETRY_MAX_BACKOFF = 60000L; // Milliseconds
+  public static int WSN_REDELIVERY_QUEUE_SIZE = 100;
+  public static int WSN_MAX_DELIVERY_ATTEMPTS = 10;
+  public static long WSN_PAUSE_UNREACHABLE_AFTER = 300000L; // Five minutes
+  public static int WSN_FILTER_PARALLELISM = 0; // Use the common fork-join pool
+  public static int WSN_FILTER_PARALLEL_THRESHOLD = 64;
+  public static int WSN_STREAMING_THRESHOLD = 1048576; // 1 MiB
+  public static int EXECUTOR_CORE_POOL_SIZE = 0; // One thread per available processor
+  public static int EXECUTOR_MAX_POOL_SIZE = 64;
+  public static int EXECUTOR_QUEUE_CAPACITY = 10000;
+  public static InstrumentedExecutor.RejectionPolicy EXECUTOR_REJECTION_POLICY =
+      InstrumentedExecutor.RejectionPolicy.CALLER_RUNS;
+  public static int LAST_VALUE_CACHE_MAX_ENTRIES = 100000;
+  public static long LAST_VALUE_CACHE_MAX_BYTES = 67108864L; // 64 MiB
+  public static boolean LAST_VALUE_CACHE_OFF_HEAP = false;
+  public static String MESSAGE_HISTORY = ""; // No topics keep a history
+  public static String PERSISTENT_TOPICS = ""; // No persistent topics
+  public static String MESSAGE_LOG_DIRECTORY = "data/messagelog";
+  public static int MESSAGE_LOG_SEGMENT_SIZE = 67108864; // 64 MiB
+  public static long MESSAGE_LOG_FLUSH_INTERVAL = 10; // Milliseconds
+  public static long MESSAGE_LOG_RETENTION_BYTES = 1073741824L; // 1 GiB
+  public static long MESSAGE_LOG_RETENTION_TIME = 604800000L; // A week
 
   /* Public reference to the properties object for potential custom options */
   public static Properties config = new Properties();
 
   private static Logger log;
   public static CoreService cs;
+  // The settings the active ID generator was created with, null and -1 before it is configured
+  private static IdGenerator.Type activeIdGenerator;
+  private static int activeIdGeneratorNodeId = -1;
   public static Server webserver;
 
   /**
@@ -199,6 +241,217 @@ public class Application {
             log.error("Malformed subscription termination time, using internal default");
           }
           break;
+        case "MESSAGE_DISPATCH_LANES":
+          try {
+            MESSAGE_DISPATCH_LANES = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed message dispatch lane count, using internal default");
+          }
+          break;
+        case "MESSAGE_QUEUE_CAPACITY":
+          try {
+            MESSAGE_QUEUE_CAPACITY = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed message queue capacity, using internal default");
+          }
+          break;
+        case "MESSAGE_QUEUE_OVERFLOW_POLICY":
+          try {
+            MESSAGE_QUEUE_OVERFLOW_POLICY = MessageService.OverflowPolicy
+                .valueOf(properties.getProperty(option).trim().toUpperCase());
+          } catch (IllegalArgumentException argEx) {
+            log.error("Unknown message queue overflow policy, using internal default");
+          }
+          break;
+        case "EGRESS_BATCH_SIZE":
+          try {
+            EGRESS_BATCH_SIZE = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed egress batch size, using internal default");
+          }
+          break;
+        case "RING_BUFFER_PIPELINE":
+          RING_BUFFER_PIPELINE = properties.getProperty(option).equalsIgnoreCase("true");
+          break;
+        case "RING_BUFFER_SIZE":
+          try {
+            RING_BUFFER_SIZE = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed ring buffer size, using internal default");
+          }
+          break;
+        case "RING_BUFFER_WAIT_STRATEGY":
+          try {
+            RING_BUFFER_WAIT_STRATEGY = RingBufferQueue.WaitStrategy
+                .valueOf(properties.getProperty(option).trim().toUpperCase());
+          } catch (IllegalArgumentException argEx) {
+            log.error("Unknown ring buffer wait strategy, using internal default");
+          }
+          break;
+        case "ID_GENERATOR":
+          try {
+            ID_GENERATOR = IdGenerator.Type
+                .valueOf(properties.getProperty(option).trim().toUpperCase());
+          } catch (IllegalArgumentException argEx) {
+            log.error("Unknown ID generator, using internal default");
+          }
+          break;
+        case "ID_GENERATOR_NODE_ID":
+          try {
+            ID_GENERATOR_NODE_ID = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed ID generator node ID, using internal default");
+          }
+          break;
+        case "VIRTUAL_THREADS":
+          VIRTUAL_THREADS = properties.getProperty(option).equalsIgnoreCase("true");
+          break;
+        case "WSN_CIRCUIT_FAILURE_THRESHOLD":
+          try {
+            WSN_CIRCUIT_FAILURE_THRESHOLD = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN circuit failure threshold, using internal default");
+          }
+          break;
+        case "WSN_RETRY_INITIAL_BACKOFF":
+          try {
+            WSN_RETRY_INITIAL_BACKOFF = Long.parseLong(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN retry backoff, using internal default");
+          }
+          break;
+        case "WSN_RETRY_MAX_BACKOFF":
+          try {
+            WSN_RETRY_MAX_BACKOFF = Long.parseLong(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN max retry backoff, using internal default");
+          }
+          break;
+        case "WSN_REDELIVERY_QUEUE_SIZE":
+          try {
+            WSN_REDELIVERY_QUEUE_SIZE = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN redelivery queue size, using internal default");
+          }
+          break;
+        case "WSN_MAX_DELIVERY_ATTEMPTS":
+          try {
+            WSN_MAX_DELIVERY_ATTEMPTS = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN max delivery attempts, using internal default");
+          }
+          break;
+        case "WSN_PAUSE_UNREACHABLE_AFTER":
+          try {
+            WSN_PAUSE_UNREACHABLE_AFTER = Long.parseLong(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN unreachable timeout, using internal default");
+          }
+          break;
+        case "WSN_FILTER_PARALLELISM":
+          try {
+            WSN_FILTER_PARALLELISM = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN filter parallelism, using internal default");
+          }
+          break;
+        case "WSN_FILTER_PARALLEL_THRESHOLD":
+          try {
+            WSN_FILTER_PARALLEL_THRESHOLD = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN filter parallel threshold, using internal default");
+          }
+          break;
+        case "WSN_STREAMING_THRESHOLD":
+          try {
+            WSN_STREAMING_THRESHOLD = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed WSN streaming threshold, using internal default");
+          }
+          break;
+        case "EXECUTOR_CORE_POOL_SIZE":
+          try {
+            EXECUTOR_CORE_POOL_SIZE = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed executor core pool size, using internal default");
+          }
+          break;
+        case "EXECUTOR_MAX_POOL_SIZE":
+          try {
+            EXECUTOR_MAX_POOL_SIZE = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed executor max pool size, using internal default");
+          }
+          break;
+        case "EXECUTOR_QUEUE_CAPACITY":
+          try {
+            EXECUTOR_QUEUE_CAPACITY = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed executor queue capacity, using internal default");
+          }
+          break;
+        case "EXECUTOR_REJECTION_POLICY":
+          try {
+            EXECUTOR_REJECTION_POLICY = InstrumentedExecutor.RejectionPolicy
+                .valueOf(properties.getProperty(option).trim().toUpperCase());
+          } catch (IllegalArgumentException argEx) {
+            log.error("Unknown executor rejection policy, using internal default");
+          }
+          break;
+        case "LAST_VALUE_CACHE_MAX_ENTRIES":
+          try {
+            LAST_VALUE_CACHE_MAX_ENTRIES = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed last value cache entry limit, using internal default");
+          }
+          break;
+        case "LAST_VALUE_CACHE_MAX_BYTES":
+          try {
+            LAST_VALUE_CACHE_MAX_BYTES = Long.parseLong(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed last value cache size limit, using internal default");
+          }
+          break;
+        case "LAST_VALUE_CACHE_OFF_HEAP":
+          LAST_VALUE_CACHE_OFF_HEAP = properties.getProperty(option).equalsIgnoreCase("true");
+          break;
+        case "MESSAGE_HISTORY":
+          MESSAGE_HISTORY = properties.getProperty(option).trim();
+          break;
+        case "PERSISTENT_TOPICS":
+          PERSISTENT_TOPICS = properties.getProperty(option).trim();
+          break;
+        case "MESSAGE_LOG_DIRECTORY":
+          MESSAGE_LOG_DIRECTORY = properties.getProperty(option).trim();
+          break;
+        case "MESSAGE_LOG_SEGMENT_SIZE":
+          try {
+            MESSAGE_LOG_SEGMENT_SIZE = Integer.parseInt(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed message log segment size, using internal default");
+          }
+          break;
+        case "MESSAGE_LOG_FLUSH_INTERVAL":
+          try {
+            MESSAGE_LOG_FLUSH_INTERVAL = Long.parseLong(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed message log flush interval, using internal default");
+          }
+          break;
+        case "MESSAGE_LOG_RETENTION_BYTES":
+          try {
+            MESSAGE_LOG_RETENTION_BYTES = Long.parseLong(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed message log retention size, using internal default");
+          }
+          break;
+        case "MESSAGE_LOG_RETENTION_TIME":
+          try {
+            MESSAGE_LOG_RETENTION_TIME = Long.parseLong(properties.getProperty(option));
+          } catch (NumberFormatException numEx) {
+            log.error("Malformed message log retention time, using internal default");
+          }
+          break;
         case "ENABLE_WSNU_DEBUG_OUTPUT":
           if (properties.getProperty(option).equalsIgnoreCase("true")) {
             Log.setEnableDebug(true);
@@ -209,6 +462,27 @@ public class Application {
 
       }
     }
+
+    configureIdGenerator();
+  }
+
+  /**
+   * Replaces the active ID generator, but only when the configured type or node ID has changed.
+   * The configuration is read again by several services, and a new time ordered generator would
+   * otherwise be created each time, with a new random node ID and sequence.
+   */
+  private static synchronized void configureIdGenerator() {
+    if (ID_GENERATOR == activeIdGenerator && ID_GENERATOR_NODE_ID == activeIdGeneratorNodeId) {
+      return;
+    }
+    try {
+      Utilities.setIdGenerator(IdGenerator.create(ID_GENERATOR, ID_GENERATOR_NODE_ID));
+    } catch (IllegalArgumentException argEx) {
+      log.error("Invalid ID generator node ID, using a random node ID");
+      Utilities.setIdGenerator(IdGenerator.create(ID_GENERATOR, -1));
+    }
+    activeIdGenerator = ID_GENERATOR;
+    activeIdGeneratorNodeId = ID_GENERATOR_NODE_ID;
   }
 
   private static void bootOptionalProtocolSupportServers() {
@@ -32,9 +32,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -64,7 +63,7 @@ public class CoreService extends AbstractCoreService {
 
   // Service specific fields
   private LinkedBlockingQueue<Event> eventQueue;
-  private ExecutorService executor;
+  private InstrumentedExecutor executor;
   private HashSet<AbstractCoreService> services;
   private ArrayList<ProtocolServer> protocolServers;
   private ArrayList<String> secondaryServers = new ArrayList<>();
@@ -106,8 +105,11 @@ public class CoreService extends AbstractCoreService {
     eventQueue = new LinkedBlockingQueue();
     services = new HashSet<>();
     protocolServers = new ArrayList<>();
-    // Initialize the ExecutorService (Dynamic threadpool that increases and decreases on demand in runtime)
-    executor = Executors.newCachedThreadPool();
+    // Initialize the ExecutorService (Bounded threadpool that grows towards its maximum size when
+    // the task queue is full)
+    executor = new InstrumentedExecutor("CoreService-executor", Application.EXECUTOR_CORE_POOL_SIZE,
+        Application.EXECUTOR_MAX_POOL_SIZE, Application.EXECUTOR_QUEUE_CAPACITY,
+        Application.EXECUTOR_REJECTION_POLICY);
     // Set the invoked flag
     _invoked = true;
   }
@@ -199,6 +201,17 @@ public class CoreService extends AbstractCoreService {
       }
     }
     // We have passed the main run loop, which means we are shutting down.
+    // Let the executor finish the tasks already submitted, as its threads are not daemon threads
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+        log.warn("Executor tasks did not complete within 5 seconds, interrupting them");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
     log.info("CoreService stopped");
   }
 
@@ -252,6 +265,17 @@ public class CoreService extends AbstractCoreService {
     this.executor.execute(r);
   }
 
+  /**
+   * This command executes a job implementing the Runnable interface, recording the executor
+   * statistics of the job under the given task type
+   *
+   * @param type The task type, e.g. the protocol or operation submitting the job
+   * @param r The Runnable job to be executed
+   */
+  public void execute(String type, Runnable r) {
+    this.executor.execute(type, r);
+  }
+
   /**
    * Fetches the eventQueue. <p>
    *
@@ -266,7 +290,7 @@ public class CoreService extends AbstractCoreService {
    *
    * @return The ExecutorService
    */
-  public ExecutorService getExecutor() {
+  public InstrumentedExecutor getExecutor() {
     return executor;
   }
 
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+/**
+ * Generates the unique IDs of messages, subscribers and topics. Implementations must be thread
+ * safe, and should be cheap enough to call for every message. The active generator is set through
+ * Utilities.setIdGenerator.
+ */
+public interface IdGenerator {
+
+  /**
+   * The generators that can be selected in the configuration file
+   */
+  enum Type {
+    TIME_ORDERED,
+    MD5
+  }
+
+  /**
+   * Generate a new unique ID
+   *
+   * @return A string of 32 hexadecimal characters
+   */
+  String generateID();
+
+  /**
+   * Create one of the built in generators
+   *
+   * @param type The type of generator
+   * @param nodeId The node ID for time ordered IDs, or a negative number to pick one at random
+   * @return A new IdGenerator instance
+   */
+  static IdGenerator create(Type type, int nodeId) {
+    switch (type) {
+      case MD5:
+        return new MD5IdGenerator();
+      case TIME_ORDERED:
+      default:
+        return nodeId < 0 ? new TimeOrderedIdGenerator() : new TimeOrderedIdGenerator(nodeId);
+    }
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded thread pool that keeps statistics per task type. Every task is tagged with a type,
+ * and the pool records how many tasks of each type were submitted, completed and rejected, and how
+ * long they waited in the queue and ran.
+ *
+ * The pool keeps its core threads alive, grows towards the maximum size only when the queue is
+ * full, and hands tasks to the rejection policy once both the queue and the pool are full.
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor {
+
+  /**
+   * What to do with a task when both the queue and the pool are full
+   */
+  public enum RejectionPolicy {
+    // Run the task on the submitting thread, slowing the submitter down
+    CALLER_RUNS,
+    // Throw a RejectedExecutionException to the submitter
+    ABORT,
+    // Silently drop the task
+    DISCARD,
+    // Drop the oldest queued task and retry
+    DISCARD_OLDEST
+  }
+
+  public static final String DEFAULT_TASK_TYPE = "default";
+
+  private static Logger log = Logger.getLogger(InstrumentedExecutor.class.getName());
+
+  private final ConcurrentHashMap<String, TaskStats> stats;
+
+  /**
+   * Constructs a new executor
+   *
+   * @param name The name prefix of the pool threads
+   * @param corePoolSize The number of threads kept alive, values less than 1 will use one thread
+   * per available processor
+   * @param maxPoolSize The maximum number of threads, raised to the core size if smaller
+   * @param queueCapacity The maximum number of queued tasks, 0 or less for an unbounded queue
+   * @param policy What to do with tasks that do not fit in the queue
+   */
+  public InstrumentedExecutor(String name, int corePoolSize, int maxPoolSize, int queueCapacity,
+      RejectionPolicy policy) {
+    this(name, corePoolSize < 1 ? Runtime.getRuntime().availableProcessors() : corePoolSize,
+        maxPoolSize, queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity)
+            : new LinkedBlockingQueue<>(), policy);
+  }
+
+  private InstrumentedExecutor(String name, int corePoolSize, int maxPoolSize,
+      BlockingQueue<Runnable> queue, RejectionPolicy policy) {
+    super(corePoolSize, Math.max(corePoolSize, maxPoolSize), 60L, TimeUnit.SECONDS, queue,
+        new NamedThreadFactory(name));
+    this.stats = new ConcurrentHashMap<>();
+    setRejectedExecutionHandler(new CountingRejectionHandler(policy));
+  }
+
+  /**
+   * Executes a task of the default type
+   *
+   * @param command The task to execute
+   */
+  @Override
+  public void execute(Runnable command) {
+    execute(DEFAULT_TASK_TYPE, command);
+  }
+
+  /**
+   * Executes a task, recording its statistics under the given type
+   *
+   * @param type The task type, e.g. the protocol or operation submitting it
+   * @param command The task to execute
+   */
+  public void execute(String type, Runnable command) {
+    TaskStats taskStats = stats.computeIfAbsent(type, TaskStats::new);
+    taskStats.submitted.incrementAndGet();
+    super.execute(new TimedTask(taskStats, command));
+  }
+
+  /**
+   * Retrieves a snapshot of the statistics of every task type that has been submitted
+   *
+   * @return A map from task type to its statistics
+   */
+  public Map<String, TaskStats> getTaskStats() {
+    return new HashMap<>(stats);
+  }
+
+  /**
+   * Retrieves the pool and per task type statistics, in a form suitable for the statistics API
+   *
+   * @return A map of statistic names to values
+   */
+  public HashMap<String, Object> getStatistics() {
+    HashMap<String, Object> result = new HashMap<>();
+    result.put("poolSize", getPoolSize());
+    result.put("activeThreads", getActiveCount());
+    result.put("largestPoolSize", getLargestPoolSize());
+    result.put("maxPoolSize", getMaximumPoolSize());
+    result.put("queueDepth", getQueue().size());
+    HashMap<String, Object> tasks = new HashMap<>();
+    stats.forEach((type, s) -> tasks.put(type, s.toMap()));
+    result.put("tasks", tasks);
+    return result;
+  }
+
+  @Override
+  protected void beforeExecute(Thread t, Runnable r) {
+    if (r instanceof TimedTask) {
+      ((TimedTask) r).started = System.nanoTime();
+    }
+  }
+
+  /**
+   * The statistics of one task type
+   */
+  public static final class TaskStats {
+
+    private final String type;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    private TaskStats(String type) {
+      this.type = type;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public long getSubmitted() {
+      return submitted.get();
+    }
+
+    public long getCompleted() {
+      return completed.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    /**
+     * @return The number of tasks the pool could not accept, including tasks run by the caller
+     */
+    public long getRejected() {
+      return rejected.get();
+    }
+
+    /**
+     * @return The mean time tasks spent in the queue, in microseconds
+     */
+    public double getMeanQueueWaitMicros() {
+      long done = completed.get() + failed.get();
+      return done == 0 ? 0 : queueWaitNanos.get() / 1000.0 / done;
+    }
+
+    /**
+     * @return The longest time a task spent in the queue, in microseconds
+     */
+    public double getMaxQueueWaitMicros() {
+      return maxQueueWaitNanos.get() / 1000.0;
+    }
+
+    /**
+     * @return The mean time tasks spent running, in microseconds
+     */
+    public double getMeanRunMicros() {
+      long done = completed.get() + failed.get();
+      return done == 0 ? 0 : runNanos.get() / 1000.0 / done;
+    }
+
+    private HashMap<String, Object> toMap() {
+      HashMap<String, Object> map = new HashMap<>();
+      map.put("submitted", getSubmitted());
+      map.put("completed", getCompleted());
+      map.put("failed", getFailed());
+      map.put("rejected", getRejected());
+      map.put("meanQueueWaitMicros", getMeanQueueWaitMicros());
+      map.put("maxQueueWaitMicros", getMaxQueueWaitMicros());
+      map.put("meanRunMicros", getMeanRunMicros());
+      return map;
+    }
+  }
+
+  /**
+   * Wraps a task to record when it was queued, how long it waited and how long it ran
+   */
+  private static final class TimedTask implements Runnable {
+
+    private final TaskStats stats;
+    private final Runnable task;
+    private final long queued;
+    private volatile long started;
+
+    private TimedTask(TaskStats stats, Runnable task) {
+      this.stats = stats;
+      this.task = task;
+      this.queued = System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+      // Tasks run by the caller never pass through beforeExecute
+      long start = started != 0 ? started : System.nanoTime();
+      long wait = start - queued;
+      stats.queueWaitNanos.addAndGet(wait);
+      stats.maxQueueWaitNanos.accumulateAndGet(wait, Math::max);
+      try {
+        task.run();
+        stats.completed.incrementAndGet();
+      } catch (RuntimeException e) {
+        // Logged here rather than rethrown, so the pool thread survives
+        stats.failed.incrementAndGet();
+        log.error("Uncaught exception in " + stats.type + " task: " + e.getMessage(), e);
+      } finally {
+        stats.runNanos.addAndGet(System.nanoTime() - start);
+      }
+    }
+  }
+
+  /**
+   * Counts rejections per task type before applying the configured policy
+   */
+  private static final class CountingRejectionHandler implements RejectedExecutionHandler {
+
+    private final RejectionPolicy policy;
+    private final RejectedExecutionHandler delegate;
+
+    private CountingRejectionHandler(RejectionPolicy policy) {
+      this.policy = policy;
+      switch (policy) {
+        case ABORT:
+          delegate = new AbortPolicy();
+          break;
+        case DISCARD:
+        case DISCARD_OLDEST:
+          delegate = new DiscardPolicy();
+          break;
+        case CALLER_RUNS:
+        default:
+          delegate = new CallerRunsPolicy();
+          break;
+      }
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      log.debug("Executor is saturated, applying rejection policy " + policy);
+      // The JDK policy would resubmit through execute, wrapping the task a second time, so the
+      // oldest task is swapped out for the new one directly
+      if (policy == RejectionPolicy.DISCARD_OLDEST && !executor.isShutdown()) {
+        countRejected(executor.getQueue().poll());
+        if (executor.getQueue().offer(r)) {
+          return;
+        }
+      }
+      countRejected(r);
+      delegate.rejectedExecution(r, executor);
+    }
+
+    private static void countRejected(Runnable r) {
+      if (r instanceof TimedTask) {
+        ((TimedTask) r).stats.rejected.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Names the pool threads, so they can be told apart in thread dumps
+   */
+  private static final class NamedThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private NamedThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r);
+      thread.setName(name + "-" + count.incrementAndGet());
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 128 bit IDs in the spirit of Snowflake and ULID, rendered as 32 lowercase hexadecimal
+ * characters so they are drop-in replacements for the previous MD5 based IDs. The layout is:
+ *
+ * <pre>
+ *   48 bits  milliseconds since the epoch, never moving backwards
+ *   16 bits  node ID
+ *   64 bits  sequence number, starting at a random offset
+ * </pre>
+ *
+ * The sequence number alone makes every ID from one generator unique, without any locking, while
+ * the node ID and timestamp keep IDs from other brokers and earlier runs apart. IDs generated by
+ * the same thread sort in generation order.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+  public static final int MAX_NODE_ID = 0xffff;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final long nodeId;
+  private final AtomicLong lastTimestamp;
+  private final AtomicLong sequence;
+
+  /**
+   * Create a generator with a random node ID
+   */
+  public TimeOrderedIdGenerator() {
+    this(new SecureRandom().nextInt(MAX_NODE_ID + 1));
+  }
+
+  /**
+   * Create a generator with a fixed node ID, which should be unique among the brokers sharing IDs
+   *
+   * @param nodeId A number between 0 and MAX_NODE_ID
+   */
+  public TimeOrderedIdGenerator(int nodeId) {
+    if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+      throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID);
+    }
+    this.nodeId = nodeId;
+    this.lastTimestamp = new AtomicLong();
+    // Start in the lower half of the range, so the sequence can not wrap around in practice
+    this.sequence = new AtomicLong(new SecureRandom().nextLong() >>> 1);
+  }
+
+  @Override
+  public String generateID() {
+    // A clock moving backwards must not make IDs go backwards
+    long timestamp = lastTimestamp.accumulateAndGet(System.currentTimeMillis(), Math::max);
+    long seq = sequence.getAndIncrement();
+
+    char[] id = new char[32];
+    writeHex(id, 0, (timestamp << 16) | nodeId);
+    writeHex(id, 16, seq);
+    return new String(id);
+  }
+
+  /**
+   * @return The node ID of this generator
+   */
+  public int getNodeId() {
+    return (int) nodeId;
+  }
+
+  /**
+   * Writes a long as 16 hexadecimal characters, most significant first
+   */
+  private static void writeHex(char[] target, int offset, long value) {
+    for (int i = offset + 15; i >= offset; i--) {
+      target[i] = HEX_DIGITS[(int) (value & 0xf)];
+      value >>>= 4;
+    }
+  }
+}
@@ -2,12 +2,9 @@ package no.ntnu.okse.core;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
-import org.springframework.security.crypto.codec.Hex;
 
 import java.io.*;
 import java.nio.file.Files;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.util.Date;
@@ -19,6 +16,8 @@ public class Utilities {
 
   public static final Logger log = Logger.getLogger(Utilities.class.getName());
 
+  private static volatile IdGenerator idGenerator = new TimeOrderedIdGenerator();
+
   /**
    * Returns a ISO 8601 HH:mm:ss.SSS formatted string of a Duration object
    *
@@ -112,10 +111,31 @@ public class Utilities {
     Files.copy(file, new File(path).toPath());
   }
 
-  public static String generateID() throws NoSuchAlgorithmException {
-    MessageDigest m = MessageDigest.getInstance("MD5");
-    m.update(Long.toString(System.nanoTime()).getBytes());
-    byte[] hash = m.digest();
-    return new String(Hex.encode(hash));
+  /**
+   * Generates a unique ID using the active IdGenerator
+   *
+   * @return A string of 32 hexadecimal characters
+   */
+  public static String generateID() {
+    return idGenerator.generateID();
+  }
+
+  /**
+   * Replaces the generator used for message, subscriber and topic IDs
+   *
+   * @param generator The IdGenerator to use
+   */
+  public static void setIdGenerator(IdGenerator generator) {
+    if (generator == null) {
+      throw new IllegalArgumentException("IdGenerator can not be null");
+    }
+    idGenerator = generator;
+  }
+
+  /**
+   * @return The IdGenerator currently in use
+   */
+  public static IdGenerator getIdGenerator() {
+    return idGenerator;
   }
 }
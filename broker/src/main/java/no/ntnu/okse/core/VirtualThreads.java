@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import no.ntnu.okse.Application;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Creates executors running every task on a virtual thread of its own, for protocol adapters that
+ * block a thread per request. OKSE is built for Java 8, so virtual threads are looked up through
+ * reflection, and are only used when the VIRTUAL_THREADS option is enabled and the running JVM
+ * supports them (Java 21, or 19 and 20 with preview features enabled).
+ */
+public final class VirtualThreads {
+
+  private static Logger log = Logger.getLogger(VirtualThreads.class.getName());
+
+  // Null if the running JVM does not support virtual threads
+  private static final Method OF_VIRTUAL = lookup("java.lang.Thread", "ofVirtual");
+  private static final Method BUILDER_NAME = lookup("java.lang.Thread$Builder", "name",
+      String.class, long.class);
+  private static final Method BUILDER_FACTORY = lookup("java.lang.Thread$Builder", "factory");
+  private static final Method THREAD_PER_TASK_EXECUTOR = lookup("java.util.concurrent.Executors",
+      "newThreadPerTaskExecutor", ThreadFactory.class);
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * Checks if the running JVM can create virtual threads
+   *
+   * @return True if virtual threads are supported, false otherwise
+   */
+  public static boolean isSupported() {
+    return createFactory("probe") != null;
+  }
+
+  /**
+   * Creates an executor that runs every task on a new virtual thread if VIRTUAL_THREADS is enabled
+   * and supported, or the fallback executor otherwise
+   *
+   * @param name The name prefix of the threads
+   * @param fallback Creates the executor to use without virtual threads
+   * @return An ExecutorService
+   */
+  public static ExecutorService newExecutor(String name, Supplier<ExecutorService> fallback) {
+    if (Application.VIRTUAL_THREADS) {
+      ExecutorService executor = newThreadPerTaskExecutor(name);
+      if (executor != null) {
+        log.info("Running " + name + " tasks on virtual threads");
+        return executor;
+      }
+      log.warn("Virtual threads are not supported by this JVM, using a thread pool for " + name);
+    }
+    return fallback.get();
+  }
+
+  /**
+   * Creates an executor that runs every task on a new virtual thread
+   *
+   * @param name The name prefix of the threads
+   * @return An ExecutorService, or null if virtual threads are not supported
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String name) {
+    ThreadFactory factory = createFactory(name);
+    if (factory == null) {
+      return null;
+    }
+    try {
+      return (ExecutorService) THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Could not create a virtual thread executor: " + e);
+      return null;
+    }
+  }
+
+  /* Private helper methods */
+
+  private static ThreadFactory createFactory(String name) {
+    if (OF_VIRTUAL == null || BUILDER_NAME == null || BUILDER_FACTORY == null
+        || THREAD_PER_TASK_EXECUTOR == null) {
+      return null;
+    }
+    try {
+      // Throws UnsupportedOperationException on Java 19 and 20 without preview features
+      Object builder = OF_VIRTUAL.invoke(null);
+      builder = BUILDER_NAME.invoke(builder, name + "-", 0L);
+      return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Could not create a virtual thread factory: " + e);
+      return null;
+    }
+  }
+
+  private static Method lookup(String className, String method, Class<?>... parameterTypes) {
+    try {
+      return Class.forName(className).getMethod(method, parameterTypes);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import no.ntnu.okse.core.messaging.MessageService.DistributionResult;
+import no.ntnu.okse.core.messaging.MessageService.OverflowPolicy;
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The queue messages wait in before the MessageService assigns them a dispatch lane. When the
+ * queue is full, an overflow policy decides what happens to new messages. System messages are
+ * never dropped: they always wait for room, and a system message evicted by DROP_OLDEST is moved
+ * to a separate queue that is taken from before the rest.
+ */
+public class IngressQueue {
+
+  private static Logger log = Logger.getLogger(IngressQueue.class.getName());
+
+  private final BlockingQueue<Message> queue;
+  private final Queue<Message> evictedSystemMessages;
+  private final OverflowPolicy overflowPolicy;
+  private final AtomicLong totalDropped;
+  private final AtomicLong totalRejected;
+
+  /**
+   * Constructs an ingress queue
+   *
+   * @param capacity The maximum number of waiting messages, values less than 1 means unbounded
+   * (or RING_BUFFER_SIZE if the ring buffer pipeline is enabled)
+   * @param overflowPolicy The policy applied when a message arrives while the queue is full
+   */
+  public IngressQueue(int capacity, OverflowPolicy overflowPolicy) {
+    this.queue = MessageQueues.newQueue(capacity);
+    this.evictedSystemMessages = new ConcurrentLinkedQueue<>();
+    this.overflowPolicy = overflowPolicy;
+    this.totalDropped = new AtomicLong(0);
+    this.totalRejected = new AtomicLong(0);
+  }
+
+  /**
+   * Adds a message to the queue, applying the overflow policy if the queue is full
+   *
+   * @param m The message to add
+   * @return ACCEPTED if the message was queued, DROPPED if it was silently discarded, and REJECTED
+   * if the publisher should be told that the message was not accepted
+   */
+  public DistributionResult offer(Message m) {
+    try {
+      if (m.isSystemMessage() || overflowPolicy == OverflowPolicy.BLOCK) {
+        queue.put(m);
+        return DistributionResult.ACCEPTED;
+      }
+      if (queue.offer(m)) {
+        return DistributionResult.ACCEPTED;
+      }
+      switch (overflowPolicy) {
+        case DROP_OLDEST:
+          while (!queue.offer(m)) {
+            Message oldest = queue.poll();
+            if (oldest == null) {
+              continue;
+            }
+            if (oldest.isSystemMessage()) {
+              // Never discard system messages, they are taken before anything left in the queue
+              evictedSystemMessages.add(oldest);
+              continue;
+            }
+            totalDropped.incrementAndGet();
+            log.warn("Message queue full, dropped oldest message: " + oldest);
+          }
+          return DistributionResult.ACCEPTED;
+        case DROP_NEWEST:
+          totalDropped.incrementAndGet();
+          log.warn("Message queue full, dropped message: " + m);
+          return DistributionResult.DROPPED;
+        default:
+          totalRejected.incrementAndGet();
+          log.warn("Message queue full, rejected message: " + m);
+          return DistributionResult.REJECTED;
+      }
+    } catch (InterruptedException e) {
+      log.error("Interrupted while trying to inject message into queue");
+      Thread.currentThread().interrupt();
+      totalRejected.incrementAndGet();
+      return DistributionResult.REJECTED;
+    }
+  }
+
+  /**
+   * Retrieves the next message, waiting until one arrives
+   *
+   * @return The next message
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public Message take() throws InterruptedException {
+    Message m = evictedSystemMessages.poll();
+    return m != null ? m : queue.take();
+  }
+
+  /**
+   * Retrieve the number of messages waiting in the queue
+   *
+   * @return The number of waiting messages
+   */
+  public int size() {
+    return queue.size() + evictedSystemMessages.size();
+  }
+
+  /**
+   * Retrieve the number of messages that have been discarded due to a full queue
+   *
+   * @return The total number of dropped messages
+   */
+  public long getTotalDropped() {
+    return totalDropped.get();
+  }
+
+  /**
+   * Retrieve the number of messages that have been rejected due to a full queue
+   *
+   * @return The total number of rejected messages
+   */
+  public long getTotalRejected() {
+    return totalRejected.get();
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache holding the latest message on each topic. The cache is limited both in number
+ * of entries and in total payload bytes, and evicts approximately least recently used topics when
+ * either limit is exceeded.
+ *
+ * Reads are lock-free and only set a reference bit on the entry. Writes and evictions are
+ * serialized, and eviction follows the CLOCK (second chance) algorithm: the oldest written entry
+ * is evicted unless it has been read since it was last passed over, in which case it is moved to
+ * the back of the line.
+ *
+ * Payloads can optionally be copied into direct buffers outside the Java heap. Messages read back
+ * from an off-heap entry are new Message objects carrying the same topic, payload, content type
+ * and origin protocol, but no publisher.
+ */
+public class LastValueCache {
+
+  private static Logger log = Logger.getLogger(LastValueCache.class.getName());
+
+  private final int maxEntries;
+  private final long maxBytes;
+  private final boolean offHeap;
+  private final ConcurrentHashMap<String, Entry> entries;
+  // Write order of the entries, guarded by this
+  private final LinkedHashMap<String, Entry> clock;
+  private long sizeInBytes;
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
+
+  /**
+   * Constructs an empty cache
+   *
+   * @param maxEntries The maximum number of topics to hold a message for, 0 for no limit
+   * @param maxBytes The maximum total payload size in bytes, 0 for no limit
+   * @param offHeap Whether payloads should be stored outside the Java heap
+   */
+  public LastValueCache(int maxEntries, long maxBytes, boolean offHeap) {
+    this.maxEntries = Math.max(0, maxEntries);
+    this.maxBytes = Math.max(0, maxBytes);
+    this.offHeap = offHeap;
+    this.entries = new ConcurrentHashMap<>();
+    this.clock = new LinkedHashMap<>();
+    this.sizeInBytes = 0;
+    this.hits = new AtomicLong(0);
+    this.misses = new AtomicLong(0);
+    this.evictions = new AtomicLong(0);
+  }
+
+  /**
+   * Retrieves the latest message on a topic
+   *
+   * @param topic The topic to look up
+   * @return The latest message on the topic, or null if none is cached
+   */
+  public Message get(String topic) {
+    Entry entry = entries.get(topic);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    // Only write when the bit changes, to keep the cache line of popular entries shared
+    if (!entry.referenced) {
+      entry.referenced = true;
+    }
+    hits.incrementAndGet();
+    return entry.toMessage(topic);
+  }
+
+  /**
+   * Stores a message as the latest message on its topic
+   *
+   * @param m The message to cache
+   */
+  public void put(Message m) {
+    put(m.getTopic(), m);
+  }
+
+  /**
+   * Stores a message as the latest message on a topic, replacing any previous message
+   *
+   * @param topic The topic to cache the message on
+   * @param m The message to cache
+   */
+  public void put(String topic, Message m) {
+    if (topic == null) {
+      return;
+    }
+    Entry entry = offHeap ? new OffHeapEntry(m) : new Entry(m, m.getPayloadLength());
+    synchronized (this) {
+      unlink(topic);
+      if (maxBytes > 0 && entry.weight > maxBytes) {
+        log.debug("Message on Topic{" + topic + "} is larger than the cache, not caching it");
+        return;
+      }
+      clock.put(topic, entry);
+      entries.put(topic, entry);
+      sizeInBytes += entry.weight;
+      evict();
+    }
+  }
+
+  /**
+   * Removes the cached message on a topic
+   *
+   * @param topic The topic to remove
+   * @return True if a message was cached for the topic, false otherwise
+   */
+  public synchronized boolean remove(String topic) {
+    return unlink(topic);
+  }
+
+  /**
+   * Removes every cached message
+   */
+  public synchronized void clear() {
+    clock.clear();
+    entries.clear();
+    sizeInBytes = 0;
+  }
+
+  /**
+   * @return The number of topics with a cached message
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return The total payload size of the cached messages in bytes
+   */
+  public synchronized long getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  /**
+   * @return The number of lookups that found a cached message
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return The number of lookups that did not find a cached message
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return The number of messages evicted to stay within the limits
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /* Private helper methods */
+
+  /**
+   * Removes the entry of a topic from both maps. Must be called while holding the lock.
+   */
+  private boolean unlink(String topic) {
+    Entry previous = clock.remove(topic);
+    if (previous == null) {
+      return false;
+    }
+    entries.remove(topic, previous);
+    sizeInBytes -= previous.weight;
+    return true;
+  }
+
+  /**
+   * Evicts entries until the cache is within its limits. Must be called while holding the lock.
+   */
+  private void evict() {
+    while (overLimit() && !clock.isEmpty()) {
+      Iterator<Map.Entry<String, Entry>> iterator = clock.entrySet().iterator();
+      Map.Entry<String, Entry> oldest = iterator.next();
+      iterator.remove();
+      Entry entry = oldest.getValue();
+      if (entry.referenced) {
+        // Second chance, every pass clears a bit so this terminates
+        entry.referenced = false;
+        clock.put(oldest.getKey(), entry);
+      } else {
+        entries.remove(oldest.getKey(), entry);
+        sizeInBytes -= entry.weight;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private boolean overLimit() {
+    return (maxEntries > 0 && clock.size() > maxEntries)
+        || (maxBytes > 0 && sizeInBytes > maxBytes);
+  }
+
+  /**
+   * A cached message kept on the heap
+   */
+  private static class Entry {
+
+    private final Message message;
+    private final int weight;
+    // New entries start out referenced, so they survive at least one pass of the clock
+    private volatile boolean referenced = true;
+
+    private Entry(Message message, int weight) {
+      this.message = message;
+      this.weight = weight;
+    }
+
+    Message toMessage(String topic) {
+      return message;
+    }
+  }
+
+  /**
+   * A cached message with its payload copied into a direct buffer
+   */
+  private static final class OffHeapEntry extends Entry {
+
+    private final ByteBuffer payload;
+    private final String contentType;
+    private final String originProtocol;
+    private final boolean binary;
+
+    private OffHeapEntry(Message m) {
+      super(null, m.getPayloadLength());
+      ByteBuffer source = m.getPayload();
+      this.payload = ByteBuffer.allocateDirect(source.remaining());
+      this.payload.put(source).flip();
+      this.contentType = m.getContentType();
+      this.originProtocol = m.getOriginProtocol();
+      this.binary = m.hasBinaryPayload();
+    }
+
+    @Override
+    Message toMessage(String topic) {
+      byte[] bytes = new byte[payload.remaining()];
+      payload.duplicate().get(bytes);
+      if (binary) {
+        return new Message(bytes, contentType, topic, null, originProtocol);
+      }
+      return new Message(new String(bytes, StandardCharsets.UTF_8), topic, null, originProtocol);
+    }
+  }
+}
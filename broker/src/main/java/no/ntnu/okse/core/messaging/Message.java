@@ -28,7 +28,8 @@ import no.ntnu.okse.core.subscription.Publisher;
 import org.apache.log4j.Logger;
 
 import javax.annotation.Nonnull;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 
@@ -37,13 +38,11 @@ import static no.ntnu.okse.core.Utilities.generateID;
 public class Message {
 
   // Immutable fields
-  private final Publisher publisher;
-  private final LocalDateTime created;
+  private final Content content;
   private final String topic;
-  private final String message;
-  private final String messageID;
 
   // Mutable fields
+  private volatile String messageID;
   private String originProtocol;
   private static Logger log;
   private HashMap<String, String> attributes;
@@ -62,30 +61,77 @@ public class Message {
   public Message(@Nonnull String message, String topic, Publisher publisher,
       @Nonnull String originProtocol) {
     log = Logger.getLogger(Message.class.getName());
-    this.publisher = publisher;
+    this.content = new Content(message, null, null, false, publisher, generateMessageID());
     this.topic = topic;
-    this.created = LocalDateTime.now();
+    this.messageID = content.messageID;
     this.processed = null;
-    this.message = message;
     this.systemMessage = false;
-    this.messageID = generateMessageID();
-    this.attributes = new HashMap<>();
+    this.attributes = null;
     this.originProtocol = originProtocol;
   }
 
   /**
-   * Private method that generates an MD5 message ID
+   * Constructor that produces a single OKSE Message with a binary payload. The payload is passed on
+   * to the protocol servers as is, and only decoded if a protocol needs it as text.
+   *
+   * The message takes ownership of the payload array without copying it, so the caller must not
+   * modify the array afterwards.
+   *
+   * @param payload The message content as raw bytes (Cannot be null)
+   * @param contentType The MIME type of the payload, null if unknown
+   * @param topic An instance of OKSE Topic object
+   * @param publisher An instance of OKSE Publisher object
+   * @param originProtocol The originating protocol name of this message (Cannot be null)
+   */
+  public Message(@Nonnull byte[] payload, String contentType, String topic, Publisher publisher,
+      @Nonnull String originProtocol) {
+    log = Logger.getLogger(Message.class.getName());
+    this.content = new Content(null, payload, contentType, true, publisher, generateMessageID());
+    this.topic = topic;
+    this.messageID = content.messageID;
+    this.processed = null;
+    this.systemMessage = false;
+    this.attributes = null;
+    this.originProtocol = originProtocol;
+  }
+
+  /**
+   * Envelope constructor, used when fanning a message out to several topics. The envelope shares
+   * the immutable content of the origin message, so neither the payload nor the publisher and
+   * creation time are copied, and no message ID is generated until one is asked for.
+   *
+   * @param origin The message to share content with
+   * @param topic The topic of the new message
+   */
+  private Message(Message origin, String topic) {
+    this.content = origin.content;
+    this.topic = topic;
+    this.messageID = null;
+    this.processed = null;
+    this.systemMessage = false;
+    this.attributes = null;
+    this.originProtocol = origin.originProtocol;
+  }
+
+  /**
+   * Creates a new message on another topic, sharing the content of this message. Creating the
+   * envelope is cheap, as it only references the shared content and allocates nothing else.
+   * Attributes and flags are not carried over.
+   *
+   * @param topic The topic of the new message
+   * @return A new Message object with the same content, publisher and origin protocol
+   */
+  Message copyToTopic(String topic) {
+    return new Message(this, topic);
+  }
+
+  /**
+   * Private method that generates a unique message ID
    *
    * @return A string containing the generated messageID
    */
   private String generateMessageID() {
-    try {
-      return generateID();
-    } catch (NoSuchAlgorithmException e) {
-      log.error("Could not generate a message ID (MD5 algorithm not found)");
-    }
-
-    return null;
+    return generateID();
   }
 
   /**
@@ -94,16 +140,76 @@ public class Message {
    * @return A string containing the MessageID of this object.
    */
   public String getMessageID() {
-    return this.messageID;
+    String id = this.messageID;
+    if (id == null && content.messageID != null) {
+      // Envelopes get their own ID the first time it is asked for, so deliveries that never look
+      // at the ID do not pay for generating one
+      synchronized (this) {
+        id = this.messageID;
+        if (id == null) {
+          id = generateMessageID();
+          this.messageID = id;
+        }
+      }
+    }
+    return id;
   }
 
   /**
-   * Retrieves the raw message content of this message
+   * Retrieves the raw message content of this message, decoding a binary payload as UTF-8
    *
    * @return A string containing the message
    */
   public String getMessage() {
-    return this.message;
+    return content.getText();
+  }
+
+  /**
+   * Retrieves a read-only view of the payload of this message, encoding a text message as UTF-8.
+   * The view shares its content with the message, and every call returns an independent position
+   * and limit.
+   *
+   * @return A read-only ByteBuffer containing the payload
+   */
+  public ByteBuffer getPayload() {
+    return ByteBuffer.wrap(content.getBytes()).asReadOnlyBuffer();
+  }
+
+  /**
+   * Retrieves a copy of the payload of this message, for protocol libraries that need a byte array
+   * they can hold on to.
+   *
+   * @return A byte array containing the payload
+   */
+  public byte[] getPayloadBytes() {
+    return content.getBytes().clone();
+  }
+
+  /**
+   * Retrieves the length of the payload in bytes
+   *
+   * @return The number of bytes in the payload
+   */
+  public int getPayloadLength() {
+    return content.getBytes().length;
+  }
+
+  /**
+   * Checks to see if this message was created with a binary payload, rather than as text
+   *
+   * @return True if the payload is binary, false otherwise
+   */
+  public boolean hasBinaryPayload() {
+    return content.binary;
+  }
+
+  /**
+   * Retrieves the MIME type of the payload, if the originating protocol provided one
+   *
+   * @return A string containing the content type, null if unknown
+   */
+  public String getContentType() {
+    return content.contentType;
   }
 
   /**
@@ -122,7 +228,7 @@ public class Message {
    * @return The publisher object this message came from, null otherwise.
    */
   public Publisher getPublisher() {
-    return this.publisher;
+    return content.publisher;
   }
 
   /**
@@ -131,7 +237,7 @@ public class Message {
    * @return true, if publisher is registered
    */
   public boolean messageSentFromRegisteredPublisher() {
-    return this.publisher != null;
+    return content.publisher != null;
   }
 
   /**
@@ -159,7 +265,7 @@ public class Message {
    * @return A LocalDateTime object representing the creation time of this object.
    */
   public LocalDateTime getCreationTime() {
-    return this.created;
+    return content.created;
   }
 
   /**
@@ -190,11 +296,7 @@ public class Message {
    * @param value The value of the attribute
    */
   public void setAttribute(String key, String value) {
-    if (attributes.containsKey(key)) {
-      attributes.replace(key, value);
-    } else {
-      attributes.put(key, value);
-    }
+    getAttributes().put(key, value);
   }
 
   /**
@@ -204,10 +306,10 @@ public class Message {
    * @return The value if the attribute exists, null otherwise
    */
   public String getAttribute(String key) {
-    if (attributes.containsKey(key)) {
-      return attributes.get(key);
+    if (attributes == null) {
+      return null;
     }
-    return null;
+    return attributes.get(key);
   }
 
   /**
@@ -216,6 +318,10 @@ public class Message {
    * @return Attributes associated with the object
    */
   public HashMap<String, String> getAttributes() {
+    // Most messages never get any attributes, so the map is only allocated when needed
+    if (attributes == null) {
+      attributes = new HashMap<>();
+    }
     return attributes;
   }
 
@@ -251,8 +357,59 @@ public class Message {
 
   @Override
   public String toString() {
-    return "Message (" + messageID.substring(0, 4) + "..." + messageID.substring(28, 32) +
-        ") [systemMessage: " + systemMessage + ", created: " + created + ", " +
+    // Does not generate the ID of an envelope. The last characters are shown, as time ordered IDs
+    // only differ in their low order sequence part when created in the same millisecond.
+    String id = this.messageID;
+    return "Message (" + (id == null ? "unassigned" : "..." + id.substring(24)) +
+        ") [systemMessage: " + systemMessage + ", created: " + content.created + ", " +
         "topic: " + topic + "]";
   }
+
+  /**
+   * The immutable part of a message, shared by every envelope fanned out from the same origin
+   */
+  private static final class Content {
+
+    private final Publisher publisher;
+    private final LocalDateTime created;
+    private final String contentType;
+    private final boolean binary;
+    private final String messageID;
+
+    // The payload is kept as text, bytes or both. Whichever one is missing is converted as UTF-8
+    // the first time it is asked for, and cached. Both are immutable once set, so racing
+    // conversions are harmless.
+    private volatile String text;
+    private volatile byte[] bytes;
+
+    private Content(String text, byte[] bytes, String contentType, boolean binary,
+        Publisher publisher, String messageID) {
+      this.text = text;
+      this.bytes = bytes;
+      this.contentType = contentType;
+      this.binary = binary;
+      this.publisher = publisher;
+      this.messageID = messageID;
+      this.created = LocalDateTime.now();
+    }
+
+    private String getText() {
+      String t = text;
+      if (t == null) {
+        t = new String(bytes, StandardCharsets.UTF_8);
+        text = t;
+      }
+      return t;
+    }
+
+    // Never hand this array out of Message, as it is shared between envelopes
+    private byte[] getBytes() {
+      byte[] b = bytes;
+      if (b == null) {
+        b = text.getBytes(StandardCharsets.UTF_8);
+        bytes = b;
+      }
+      return b;
+    }
+  }
 }
@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Partitions messages onto a fixed number of worker lanes based on the hash of their topic. All
+ * messages on the same topic end up in the same lane, and are thus processed in the order they
+ * were dispatched, while messages on different topics are processed in parallel. Each lane hands
+ * its handler batches of whatever messages are waiting, up to a maximum batch size.
+ */
+public class MessageDispatcher {
+
+  private static Logger log = Logger.getLogger(MessageDispatcher.class.getName());
+
+  private final String name;
+  private final Consumer<List<Message>> handler;
+  private final int batchSize;
+  private final ArrayList<BlockingQueue<Message>> lanes;
+  private final Thread[] workers;
+  private volatile boolean running;
+
+  /**
+   * Constructs a dispatcher with a given number of unbounded lanes
+   *
+   * @param name The name prefix used for the lane worker threads
+   * @param laneCount The number of lanes, values less than 1 will use one lane per available
+   * processor
+   * @param batchSize The maximum number of messages handed to the handler at once
+   * @param handler The handler each lane invokes for every batch of messages it receives
+   */
+  public MessageDispatcher(String name, int laneCount, int batchSize,
+      Consumer<List<Message>> handler) {
+    this(name, laneCount, batchSize, 0, handler);
+  }
+
+  /**
+   * Constructs a dispatcher with a given number of lanes, sharing a total capacity. Dispatching
+   * to a full lane waits for room, so a slow lane pushes back on whoever is dispatching.
+   *
+   * @param name The name prefix used for the lane worker threads
+   * @param laneCount The number of lanes, values less than 1 will use one lane per available
+   * processor
+   * @param batchSize The maximum number of messages handed to the handler at once
+   * @param capacity The total number of messages the lanes can hold, split evenly between them.
+   * Values less than 1 means unbounded (or RING_BUFFER_SIZE per lane if the ring buffer pipeline
+   * is enabled)
+   * @param handler The handler each lane invokes for every batch of messages it receives
+   */
+  public MessageDispatcher(String name, int laneCount, int batchSize, int capacity,
+      Consumer<List<Message>> handler) {
+    if (laneCount < 1) {
+      laneCount = Runtime.getRuntime().availableProcessors();
+    }
+    this.name = name;
+    this.handler = handler;
+    this.batchSize = Math.max(1, batchSize);
+    this.lanes = new ArrayList<>(laneCount);
+    int laneCapacity = capacity > 0 ? Math.max(1, capacity / laneCount) : 0;
+    for (int i = 0; i < laneCount; i++) {
+      lanes.add(MessageQueues.newQueue(laneCapacity));
+    }
+    this.workers = new Thread[laneCount];
+    this.running = false;
+  }
+
+  /**
+   * Starts one worker thread per lane. Has no effect if the dispatcher is already running.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    for (int i = 0; i < workers.length; i++) {
+      final BlockingQueue<Message> lane = lanes.get(i);
+      workers[i] = new Thread(() -> runLane(lane));
+      workers[i].setName(name + "-lane-" + i);
+      workers[i].start();
+    }
+    log.info("Started " + workers.length + " dispatch lanes");
+  }
+
+  /**
+   * Stops all lane workers. Messages already dispatched to a lane are processed before the
+   * worker exits.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    for (Thread worker : workers) {
+      if (worker != null) {
+        worker.interrupt();
+      }
+    }
+    log.info("Stopped dispatch lanes");
+  }
+
+  /**
+   * Places a message in the lane its topic hashes to
+   *
+   * @param m The message to dispatch
+   */
+  public void dispatch(Message m) {
+    try {
+      lanes.get(laneFor(m.getTopic())).put(m);
+    } catch (InterruptedException e) {
+      log.error("Interrupted while trying to inject message into dispatch lane");
+    }
+  }
+
+  /**
+   * Calculates which lane a given topic belongs to. Messages without a topic always go to the
+   * first lane.
+   *
+   * @param topic The raw topic string
+   * @return The index of the lane
+   */
+  public int laneFor(String topic) {
+    if (topic == null) {
+      return 0;
+    }
+    return (topic.hashCode() & 0x7fffffff) % lanes.size();
+  }
+
+  /**
+   * Retrieve the number of lanes in this dispatcher
+   *
+   * @return The number of lanes
+   */
+  public int getLaneCount() {
+    return lanes.size();
+  }
+
+  /**
+   * Retrieve the current number of messages waiting in each lane
+   *
+   * @return A list of queue depths, indexed by lane
+   */
+  public List<Integer> getLaneQueueDepths() {
+    ArrayList<Integer> depths = new ArrayList<>(lanes.size());
+    lanes.forEach(lane -> depths.add(lane.size()));
+    return depths;
+  }
+
+  /**
+   * Check if the lane workers are running
+   *
+   * @return True if the dispatcher is running, false otherwise
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Main loop of a single lane worker
+   *
+   * @param lane The lane queue this worker consumes
+   */
+  private void runLane(BlockingQueue<Message> lane) {
+    ArrayList<Message> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        MessageQueues.takeBatch(lane, batch, batchSize);
+        handle(batch);
+      } catch (InterruptedException e) {
+        if (running) {
+          log.warn("Dispatch lane interrupted while waiting for messages");
+        }
+      }
+    }
+    // Process anything left in the lane before exiting
+    while (lane.drainTo(batch, batchSize) > 0) {
+      handle(batch);
+    }
+  }
+
+  /**
+   * Invokes the handler and clears the batch, making sure a failing batch does not kill the lane
+   *
+   * @param batch The messages to handle
+   */
+  private void handle(List<Message> batch) {
+    try {
+      handler.accept(batch);
+    } catch (Exception e) {
+      log.error("Failed to process a batch of " + batch.size() + " messages: " + e.getMessage());
+    } finally {
+      batch.clear();
+    }
+  }
+}
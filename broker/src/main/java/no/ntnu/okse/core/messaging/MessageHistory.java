@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import no.ntnu.okse.core.topic.TopicTrie;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the most recent messages on selected topics in memory, so they can be replayed to
+ * subscribers that join late. Every topic matching a history pattern gets a ring of its own,
+ * holding at most a set number of messages for at most a set time.
+ *
+ * Patterns are given as a comma separated list of pattern:size:ttl entries, where the TTL is in
+ * milliseconds and 0 means messages never expire, e.g. "sensors/#:100:60000,alarms:10:0". If
+ * several patterns match a topic, the largest size and TTL are used.
+ */
+public class MessageHistory {
+
+  private static Logger log = Logger.getLogger(MessageHistory.class.getName());
+
+  private final TopicTrie<Policy> policies;
+  private final ConcurrentHashMap<String, Ring> rings;
+  // Topics without a matching pattern map to the NONE policy
+  private final ConcurrentHashMap<String, Policy> policyCache;
+
+  private static final Policy NONE = new Policy(0, 0);
+
+  /**
+   * Constructs a message history from a pattern list
+   *
+   * @param patterns A comma separated list of pattern:size:ttl entries
+   */
+  public MessageHistory(String patterns) {
+    this.policies = new TopicTrie<>();
+    this.rings = new ConcurrentHashMap<>();
+    this.policyCache = new ConcurrentHashMap<>();
+    if (patterns == null) {
+      return;
+    }
+    for (String entry : patterns.split(",")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+      String[] parts = entry.trim().split(":");
+      try {
+        if (parts.length != 3) {
+          throw new IllegalArgumentException("expected pattern:size:ttl");
+        }
+        Policy policy = new Policy(Integer.parseInt(parts[1].trim()),
+            Long.parseLong(parts[2].trim()));
+        if (policy.size < 1 || policy.ttl < 0) {
+          throw new IllegalArgumentException("size must be positive and ttl not negative");
+        }
+        policies.add(parts[0].trim(), policy);
+      } catch (IllegalArgumentException e) {
+        log.error("Malformed message history entry \"" + entry + "\", ignoring it: "
+            + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @return True if any topic patterns keep a history
+   */
+  public boolean isEnabled() {
+    return policies.size() > 0;
+  }
+
+  /**
+   * Adds a message to the history of a topic, if the topic matches a history pattern
+   *
+   * @param topic The topic the message is delivered on
+   * @param m The message to add
+   */
+  public void record(String topic, Message m) {
+    if (topic == null || !isEnabled()) {
+      return;
+    }
+    Policy policy = policyCache.computeIfAbsent(topic, this::resolve);
+    if (policy == NONE) {
+      return;
+    }
+    rings.computeIfAbsent(topic, t -> new Ring(policy)).add(m, System.currentTimeMillis());
+  }
+
+  /**
+   * Retrieves the retained messages on a topic, oldest first. Histories are kept per concrete
+   * topic, so a pattern with wildcards has no history of its own.
+   *
+   * @param topic The concrete topic
+   * @param last The maximum number of messages to return, 0 or less for every retained message
+   * @param since Only return messages recorded at or after this time in epoch milliseconds, 0 or
+   * less for no time limit
+   * @return A list of messages, empty if the topic has no history
+   */
+  public List<Message> getMessages(String topic, int last, long since) {
+    Ring ring = rings.get(topic);
+    if (ring == null) {
+      return Collections.emptyList();
+    }
+    return ring.get(last, since, System.currentTimeMillis());
+  }
+
+  /**
+   * Drops the history of a topic
+   *
+   * @param topic The topic
+   */
+  public void remove(String topic) {
+    rings.remove(topic);
+    policyCache.remove(topic);
+  }
+
+  /* Private helper methods */
+
+  private Policy resolve(String topic) {
+    int size = 0;
+    long ttl = -1;
+    for (Policy policy : policies.match(topic)) {
+      size = Math.max(size, policy.size);
+      ttl = (ttl == 0 || policy.ttl == 0) ? 0 : Math.max(ttl, policy.ttl);
+    }
+    return size == 0 ? NONE : new Policy(size, ttl);
+  }
+
+  /**
+   * How many messages to keep on a topic, and for how long
+   */
+  private static final class Policy {
+
+    private final int size;
+    private final long ttl;
+
+    private Policy(int size, long ttl) {
+      this.size = size;
+      this.ttl = ttl;
+    }
+  }
+
+  /**
+   * A fixed size ring of messages and the time they were recorded
+   */
+  private static final class Ring {
+
+    private final Message[] messages;
+    private final long[] timestamps;
+    private final long ttl;
+    // Index of the oldest message, and the number of messages held
+    private int head;
+    private int count;
+
+    private Ring(Policy policy) {
+      this.messages = new Message[policy.size];
+      this.timestamps = new long[policy.size];
+      this.ttl = policy.ttl;
+    }
+
+    private synchronized void add(Message m, long now) {
+      int tail = (head + count) % messages.length;
+      messages[tail] = m;
+      timestamps[tail] = now;
+      if (count == messages.length) {
+        head = (head + 1) % messages.length;
+      } else {
+        count++;
+      }
+      expire(now);
+    }
+
+    private synchronized List<Message> get(int last, long since, long now) {
+      expire(now);
+      int skip = (last > 0 && last < count) ? count - last : 0;
+      List<Message> result = new ArrayList<>(count - skip);
+      for (int i = skip; i < count; i++) {
+        int index = (head + i) % messages.length;
+        if (timestamps[index] >= since) {
+          result.add(messages[index]);
+        }
+      }
+      return result;
+    }
+
+    // Drops messages older than the TTL from the head of the ring
+    private void expire(long now) {
+      if (ttl == 0) {
+        return;
+      }
+      while (count > 0 && timestamps[head] < now - ttl) {
+        messages[head] = null;
+        head = (head + 1) % messages.length;
+        count--;
+      }
+    }
+  }
+}
@@ -0,0 +1,806 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, segmented commit log of messages, kept in memory mapped files. Every message
+ * appended gets a global offset, and an offset within its topic, so all messages on a topic can be
+ * replayed in order from any point without scanning the rest of the log.
+ *
+ * Appends only copy the message into the mapped segment, and a background thread forces dirty
+ * segments to disk at a fixed interval, so an appended message is durable within one flush
+ * interval. Callers that need a message to be durable before going on can wait for it with
+ * awaitFlushed, and all callers waiting at the same time share a single fsync. Whole segments
+ * are deleted, oldest first, when the log grows beyond its size limit or the segment is older than
+ * the retention time.
+ *
+ * Each record is stored as its length and CRC32, followed by the body. The length is written last,
+ * so a record that was only partly written before a crash is detected, and discarded, when the log
+ * is opened again.
+ */
+public class MessageLog implements Closeable {
+
+  private static Logger log = Logger.getLogger(MessageLog.class.getName());
+
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final int RECORD_HEADER_SIZE = 8;
+  // offset, topic offset, timestamp, flags and the four length fields
+  private static final int RECORD_FIXED_SIZE = 8 + 8 + 8 + 1 + 2 + 2 + 2 + 4;
+  private static final byte FLAG_BINARY = 1;
+  // Null before Java 9, where the cleaner of the buffer is used to unmap segments instead
+  private static final Method INVOKE_CLEANER = lookupInvokeCleaner();
+  private static final Object UNSAFE = lookupUnsafe();
+
+  private final File directory;
+  private final int segmentSize;
+  private final long flushInterval;
+  private final long retentionBytes;
+  private final long retentionTime;
+
+  // Guarded by this
+  private final ArrayList<Segment> segments = new ArrayList<>();
+  private final HashMap<String, TopicIndex> topics = new HashMap<>();
+  private final ArrayList<Segment> dirty = new ArrayList<>();
+  private Segment active;
+  private long nextOffset;
+
+  // Guarded by flushLock
+  private final Object flushLock = new Object();
+  private long flushedOffset;
+  private boolean flushRequested;
+
+  private final Thread flusher;
+  private volatile boolean running;
+
+  /**
+   * Opens the log in a directory, recovering any segments already there, and starts the background
+   * flusher
+   *
+   * @param directory The directory holding the segment files, created if missing
+   * @param segmentSize The size of each segment file in bytes
+   * @param flushInterval Milliseconds between each fsync of dirty segments. With 0 or less, the
+   * flusher only runs when someone is waiting in awaitFlushed
+   * @param retentionBytes The total size the log may grow to before old segments are deleted, 0 or
+   * less for no limit
+   * @param retentionTime Milliseconds a segment is kept after its last message was appended, 0 or
+   * less for no limit
+   * @throws IOException If the directory or segments can not be read or created
+   */
+  public MessageLog(File directory, int segmentSize, long flushInterval, long retentionBytes,
+      long retentionTime) throws IOException {
+    if (segmentSize < RECORD_HEADER_SIZE + RECORD_FIXED_SIZE) {
+      throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.flushInterval = flushInterval;
+    this.retentionBytes = retentionBytes;
+    this.retentionTime = retentionTime;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create message log directory " + directory);
+    }
+    recover();
+    flushedOffset = nextOffset;
+
+    running = true;
+    flusher = new Thread(this::runFlusher);
+    flusher.setName("MessageLog-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /* Begin public API */
+
+  /**
+   * Appends a message to the end of the log. The message is durable once awaitFlushed returns for
+   * the offset, or after the next periodic flush.
+   *
+   * @param m The message to append
+   * @return The global offset of the message, or -1 if it is too large to fit in a segment
+   * @throws IOException If a new segment is needed and could not be created
+   */
+  public synchronized long append(Message m) throws IOException {
+    if (!running) {
+      throw new IOException("The message log is closed");
+    }
+    byte[] topic = bytes(m.getTopic());
+    byte[] protocol = bytes(m.getOriginProtocol());
+    byte[] contentType = bytes(m.getContentType());
+    byte[] payload = m.getPayloadBytes();
+    int length = RECORD_FIXED_SIZE + topic.length + protocol.length + contentType.length
+        + payload.length;
+    if (RECORD_HEADER_SIZE + length > segmentSize || topic.length > Short.MAX_VALUE
+        || protocol.length > Short.MAX_VALUE || contentType.length > Short.MAX_VALUE) {
+      log.error("Message is too large for the message log: " + m);
+      return -1;
+    }
+    if (active.writer.remaining() < RECORD_HEADER_SIZE + length) {
+      roll();
+    }
+
+    String topicName = m.getTopic();
+    TopicIndex index = topics.computeIfAbsent(topicName, t -> new TopicIndex(0));
+    long offset = nextOffset;
+    long topicOffset = index.nextTopicOffset();
+    long timestamp = System.currentTimeMillis();
+
+    ByteBuffer writer = active.writer;
+    int position = writer.position();
+    writer.position(position + RECORD_HEADER_SIZE);
+    writer.putLong(offset);
+    writer.putLong(topicOffset);
+    writer.putLong(timestamp);
+    writer.put(m.hasBinaryPayload() ? FLAG_BINARY : 0);
+    putBytes(writer, topic);
+    putBytes(writer, protocol);
+    putBytes(writer, contentType);
+    writer.putInt(payload.length);
+    writer.put(payload);
+
+    CRC32 crc = new CRC32();
+    ByteBuffer body = active.buffer.duplicate();
+    body.limit(position + RECORD_HEADER_SIZE + length).position(position + RECORD_HEADER_SIZE);
+    crc.update(body);
+    writer.putInt(position + 4, (int) crc.getValue());
+    // The length marks the record as complete, so it goes last
+    writer.putInt(position, length);
+
+    active.add(position, timestamp);
+    index.add(offset);
+    if (!dirty.contains(active)) {
+      dirty.add(active);
+    }
+    nextOffset++;
+    return offset;
+  }
+
+  /**
+   * Waits until every message up to and including the given offset has been forced to disk
+   *
+   * @param offset The offset returned from append
+   * @param timeout The maximum number of milliseconds to wait
+   * @return True if the offset is durable, false if the wait timed out or was interrupted
+   */
+  public boolean awaitFlushed(long offset, long timeout) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    synchronized (flushLock) {
+      while (flushedOffset <= offset) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0 || !running) {
+          return flushedOffset > offset;
+        }
+        flushRequested = true;
+        flushLock.notifyAll();
+        try {
+          flushLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Forces every segment that has been written to since the last flush to disk
+   */
+  public void flush() {
+    List<Segment> toFlush;
+    long flushedUpTo;
+    synchronized (this) {
+      toFlush = new ArrayList<>(dirty);
+      dirty.clear();
+      flushedUpTo = nextOffset;
+    }
+    for (Segment segment : toFlush) {
+      segment.force();
+    }
+    synchronized (flushLock) {
+      if (flushedUpTo > flushedOffset) {
+        flushedOffset = flushedUpTo;
+      }
+      flushLock.notifyAll();
+    }
+  }
+
+  /**
+   * Replays the messages on a topic, in the order they were appended
+   *
+   * @param topic The topic to replay
+   * @param fromTopicOffset The first topic offset to replay, earlier offsets that are still in the
+   * log are skipped
+   * @param consumer Receives every record
+   * @return The topic offset following the last replayed record
+   */
+  public long replay(String topic, long fromTopicOffset, Consumer<Record> consumer) {
+    long topicOffset = fromTopicOffset;
+    while (true) {
+      List<Record> chunk = new ArrayList<>();
+      synchronized (this) {
+        TopicIndex index = topics.get(topic);
+        if (index == null) {
+          return topicOffset;
+        }
+        topicOffset = Math.max(topicOffset, index.firstTopicOffset);
+        long end = Math.min(index.nextTopicOffset(), topicOffset + 1024);
+        for (long o = topicOffset; o < end; o++) {
+          chunk.add(read(index.offsetOf(o)));
+        }
+      }
+      if (chunk.isEmpty()) {
+        return topicOffset;
+      }
+      chunk.forEach(consumer);
+      topicOffset += chunk.size();
+    }
+  }
+
+  /**
+   * Replays the whole log sequentially, starting at a global offset
+   *
+   * @param fromOffset The first global offset to replay
+   * @param consumer Receives every record
+   * @return The offset following the last replayed record
+   */
+  public long replayAll(long fromOffset, Consumer<Record> consumer) {
+    long offset = fromOffset;
+    while (true) {
+      List<Record> chunk = new ArrayList<>();
+      synchronized (this) {
+        offset = Math.max(offset, getStartOffset());
+        long end = Math.min(nextOffset, offset + 1024);
+        for (long o = offset; o < end; o++) {
+          chunk.add(read(o));
+        }
+      }
+      if (chunk.isEmpty()) {
+        return offset;
+      }
+      chunk.forEach(consumer);
+      offset += chunk.size();
+    }
+  }
+
+  /**
+   * Reads the most recent record on a topic
+   *
+   * @param topic The topic
+   * @return The latest record, or null if the log has no messages on the topic
+   */
+  public synchronized Record readLatest(String topic) {
+    TopicIndex index = topics.get(topic);
+    if (index == null || index.size == 0) {
+      return null;
+    }
+    return read(index.offsetOf(index.nextTopicOffset() - 1));
+  }
+
+  /**
+   * @return The topics that have messages in the log
+   */
+  public synchronized Set<String> getTopics() {
+    TreeSet<String> names = new TreeSet<>();
+    topics.forEach((topic, index) -> {
+      if (index.size > 0) {
+        names.add(topic);
+      }
+    });
+    return Collections.unmodifiableSet(names);
+  }
+
+  /**
+   * Fetches the topic offset the next message on a topic will get
+   *
+   * @param topic The topic
+   * @return The next topic offset, 0 if the topic has never been written to
+   */
+  public synchronized long getNextTopicOffset(String topic) {
+    TopicIndex index = topics.get(topic);
+    return index == null ? 0 : index.nextTopicOffset();
+  }
+
+  /**
+   * @return The global offset of the oldest message still in the log
+   */
+  public synchronized long getStartOffset() {
+    return segments.get(0).baseOffset;
+  }
+
+  /**
+   * @return The global offset the next appended message will get
+   */
+  public synchronized long getNextOffset() {
+    return nextOffset;
+  }
+
+  /**
+   * @return The total size of the segment files in bytes
+   */
+  public synchronized long getSizeInBytes() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.buffer.capacity();
+    }
+    return size;
+  }
+
+  /**
+   * Flushes the log, stops the flusher and closes all segment files
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      running = false;
+    }
+    flusher.interrupt();
+    try {
+      flusher.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    synchronized (this) {
+      segments.forEach(Segment::close);
+    }
+    log.info("Closed message log in " + directory);
+  }
+
+  /* End public API */
+
+  /**
+   * Background loop forcing dirty segments to disk, and deleting segments past retention
+   */
+  private void runFlusher() {
+    while (running) {
+      synchronized (flushLock) {
+        try {
+          if (!flushRequested) {
+            if (flushInterval > 0) {
+              flushLock.wait(flushInterval);
+            } else {
+              flushLock.wait();
+            }
+          }
+        } catch (InterruptedException e) {
+          // Interrupted by close, do a final round before exiting
+        }
+        flushRequested = false;
+      }
+      try {
+        flush();
+        enforceRetention();
+      } catch (Exception e) {
+        log.error("Failed to flush the message log: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Deletes the oldest segments while the log is over its size limit, or while they are past the
+   * retention time. The active segment is never deleted.
+   */
+  private synchronized void enforceRetention() {
+    long expiredBefore = System.currentTimeMillis() - retentionTime;
+    while (segments.size() > 1) {
+      Segment oldest = segments.get(0);
+      boolean tooLarge = retentionBytes > 0 && getSizeInBytes() > retentionBytes;
+      boolean tooOld = retentionTime > 0 && oldest.lastTimestamp < expiredBefore;
+      if (!tooLarge && !tooOld) {
+        return;
+      }
+      segments.remove(0);
+      dirty.remove(oldest);
+      long startOffset = segments.get(0).baseOffset;
+      // Empty indexes are kept, so topic offsets keep increasing for the lifetime of the broker
+      topics.values().forEach(index -> index.truncateBefore(startOffset));
+      oldest.close();
+      if (!oldest.file.delete()) {
+        log.warn("Could not delete message log segment " + oldest.file);
+      }
+      log.info("Deleted message log segment " + oldest.file.getName());
+    }
+  }
+
+  /**
+   * Starts a new segment after the active one
+   */
+  private void roll() throws IOException {
+    Segment segment = Segment.create(new File(directory, segmentName(nextOffset)), nextOffset,
+        segmentSize);
+    segments.add(segment);
+    active = segment;
+    log.debug("Rolled message log to segment " + segment.file.getName());
+  }
+
+  /**
+   * Opens the existing segments, rebuilding the offset indexes, and positions the log after the
+   * last complete record
+   */
+  private synchronized void recover() throws IOException {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+    if (files == null) {
+      throw new IOException("Could not list message log directory " + directory);
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      long baseOffset;
+      try {
+        baseOffset = Long.parseLong(file.getName().replace(SEGMENT_SUFFIX, ""));
+      } catch (NumberFormatException e) {
+        log.warn("Ignoring unknown file in the message log directory: " + file);
+        continue;
+      }
+      Segment segment = Segment.open(file, baseOffset);
+      scan(segment);
+      if (segment.count > 0 || segments.isEmpty()) {
+        segments.add(segment);
+        nextOffset = segment.baseOffset + segment.count;
+      } else {
+        segment.close();
+      }
+    }
+
+    if (segments.isEmpty()) {
+      roll();
+    } else {
+      active = segments.get(segments.size() - 1);
+      if (active.buffer.capacity() < segmentSize) {
+        // The last segment was already full, or was written with a smaller segment size
+        roll();
+      } else {
+        // Wipe whatever is left after the last complete record, so a torn record can never be
+        // mistaken for a complete one after more records are written over it
+        ByteBuffer tail = active.buffer.duplicate();
+        tail.position(active.writer.position());
+        byte[] zeros = new byte[64 * 1024];
+        while (tail.hasRemaining()) {
+          tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+        }
+      }
+    }
+    log.info("Opened message log in " + directory + " with " + (nextOffset - getStartOffset())
+        + " messages on " + topics.size() + " topics");
+  }
+
+  /**
+   * Indexes every complete record in a segment, and sets the write position after the last one
+   */
+  private void scan(Segment segment) {
+    ByteBuffer buffer = segment.buffer.duplicate();
+    int position = 0;
+    while (position + RECORD_HEADER_SIZE + RECORD_FIXED_SIZE <= buffer.capacity()) {
+      int length = buffer.getInt(position);
+      if (length < RECORD_FIXED_SIZE
+          || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+        break;
+      }
+      CRC32 crc = new CRC32();
+      ByteBuffer body = buffer.duplicate();
+      body.limit(position + RECORD_HEADER_SIZE + length).position(position + RECORD_HEADER_SIZE);
+      crc.update(body);
+      if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+        log.warn("Discarding corrupt record at position " + position + " in " + segment.file);
+        break;
+      }
+      Record record = decode(buffer, position);
+      if (record.offset != segment.baseOffset + segment.count) {
+        log.warn("Discarding out of sequence record at position " + position + " in "
+            + segment.file);
+        break;
+      }
+      topics.computeIfAbsent(record.topic, t -> new TopicIndex(record.topicOffset))
+          .add(record.offset);
+      segment.add(position, record.timestamp);
+      position += RECORD_HEADER_SIZE + length;
+    }
+    segment.writer.position(position);
+  }
+
+  /**
+   * Reads the record at a global offset, which must be in the log
+   */
+  private Record read(long offset) {
+    if (!running) {
+      // The segments may already be unmapped
+      throw new IllegalStateException("The message log is closed");
+    }
+    int low = 0;
+    int high = segments.size() - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (segments.get(mid).baseOffset <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    Segment segment = segments.get(low);
+    return decode(segment.buffer, segment.positions[(int) (offset - segment.baseOffset)]);
+  }
+
+  private static Record decode(ByteBuffer buffer, int position) {
+    ByteBuffer reader = buffer.duplicate();
+    reader.position(position + RECORD_HEADER_SIZE);
+    long offset = reader.getLong();
+    long topicOffset = reader.getLong();
+    long timestamp = reader.getLong();
+    boolean binary = (reader.get() & FLAG_BINARY) != 0;
+    String topic = getString(reader);
+    String protocol = getString(reader);
+    String contentType = getString(reader);
+    byte[] payload = new byte[reader.getInt()];
+    reader.get(payload);
+    return new Record(offset, topicOffset, timestamp, topic, protocol, contentType, binary,
+        payload);
+  }
+
+  private static String segmentName(long baseOffset) {
+    return String.format("%020d", baseOffset) + SEGMENT_SUFFIX;
+  }
+
+  private static byte[] bytes(String s) {
+    return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+    buffer.putShort((short) bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort()];
+    buffer.get(bytes);
+    return bytes.length == 0 ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A message read back from the log
+   */
+  public static final class Record {
+
+    public final long offset;
+    public final long topicOffset;
+    public final long timestamp;
+    public final String topic;
+    public final String originProtocol;
+    public final String contentType;
+    public final boolean binary;
+    private final byte[] payload;
+
+    private Record(long offset, long topicOffset, long timestamp, String topic,
+        String originProtocol, String contentType, boolean binary, byte[] payload) {
+      this.offset = offset;
+      this.topicOffset = topicOffset;
+      this.timestamp = timestamp;
+      this.topic = topic;
+      this.originProtocol = originProtocol;
+      this.contentType = contentType;
+      this.binary = binary;
+      this.payload = payload;
+    }
+
+    /**
+     * Creates a new Message with the content of this record
+     *
+     * @return A new Message object, without a publisher
+     */
+    public Message toMessage() {
+      if (binary) {
+        return new Message(payload, contentType, topic, null, originProtocol);
+      }
+      return new Message(new String(payload, StandardCharsets.UTF_8), topic, null,
+          originProtocol);
+    }
+  }
+
+  /**
+   * The global offsets of the messages on a topic, indexed by topic offset
+   */
+  private static final class TopicIndex {
+
+    private long[] offsets = new long[16];
+    private int start;
+    private int size;
+    // The topic offset of offsets[start]
+    private long firstTopicOffset;
+
+    TopicIndex(long firstTopicOffset) {
+      this.firstTopicOffset = firstTopicOffset;
+    }
+
+    long nextTopicOffset() {
+      return firstTopicOffset + size;
+    }
+
+    long offsetOf(long topicOffset) {
+      return offsets[start + (int) (topicOffset - firstTopicOffset)];
+    }
+
+    void add(long offset) {
+      if (start + size == offsets.length) {
+        if (start > offsets.length / 2) {
+          System.arraycopy(offsets, start, offsets, 0, size);
+        } else {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+          System.arraycopy(offsets, start, offsets, 0, size);
+        }
+        start = 0;
+      }
+      offsets[start + size++] = offset;
+    }
+
+    /**
+     * Drops the entries before a global offset
+     */
+    void truncateBefore(long offset) {
+      while (size > 0 && offsets[start] < offset) {
+        start++;
+        size--;
+        firstTopicOffset++;
+      }
+    }
+  }
+
+  /**
+   * A single memory mapped segment file
+   */
+  private static final class Segment {
+
+    final File file;
+    final long baseOffset;
+    final RandomAccessFile raf;
+    final MappedByteBuffer buffer;
+    // Only used by the appending thread, while holding the log lock
+    final ByteBuffer writer;
+    int[] positions = new int[1024];
+    int count;
+    long lastTimestamp;
+    private boolean closed;
+
+    private Segment(File file, long baseOffset, RandomAccessFile raf, MappedByteBuffer buffer) {
+      this.file = file;
+      this.baseOffset = baseOffset;
+      this.raf = raf;
+      this.buffer = buffer;
+      this.writer = buffer.duplicate();
+      this.lastTimestamp = file.lastModified();
+    }
+
+    static Segment create(File file, long baseOffset, int size) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.setLength(size);
+      return new Segment(file, baseOffset, raf,
+          raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    static Segment open(File file, long baseOffset) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      return new Segment(file, baseOffset, raf,
+          raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+    }
+
+    void add(int position, long timestamp) {
+      if (count == positions.length) {
+        positions = Arrays.copyOf(positions, positions.length * 2);
+      }
+      positions[count++] = position;
+      lastTimestamp = timestamp;
+    }
+
+    // Forcing a segment is done without the log lock, so it must not race with unmapping it
+    synchronized void force() {
+      if (!closed) {
+        buffer.force();
+      }
+    }
+
+    /**
+     * Closes the file and unmaps the segment, so its file can be deleted. Must be called while
+     * holding the log lock, after the segment is removed from the log, as the buffer can not be
+     * read once unmapped.
+     */
+    synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        raf.close();
+      } catch (IOException e) {
+        log.warn("Failed to close message log segment " + file + ": " + e.getMessage());
+      }
+      unmap(buffer);
+    }
+  }
+
+  /**
+   * Releases the memory mapping of a buffer right away, instead of when it is garbage collected.
+   * Until then the file stays mapped, and can not be deleted on Windows. There is no public API for
+   * this, so Unsafe.invokeCleaner is used on Java 9 and later, and the cleaner of the buffer on
+   * Java 8. If neither works the mapping is left to the garbage collector.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      if (INVOKE_CLEANER != null && UNSAFE != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else {
+        Method cleaner = buffer.getClass().getMethod("cleaner");
+        cleaner.setAccessible(true);
+        Object c = cleaner.invoke(buffer);
+        if (c != null) {
+          c.getClass().getMethod("clean").invoke(c);
+        }
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Could not unmap message log segment: " + e);
+    }
+  }
+
+  private static Method lookupInvokeCleaner() {
+    try {
+      return Class.forName("sun.misc.Unsafe").getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static Object lookupUnsafe() {
+    try {
+      Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return field.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
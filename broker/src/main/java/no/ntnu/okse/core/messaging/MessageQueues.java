@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import no.ntnu.okse.Application;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Factory for the queues used between the stages of the message pipeline (ingress, dispatch lanes
+ * and protocol server egress). Depending on the RING_BUFFER_PIPELINE setting, the queues are
+ * either linked blocking queues or pre-allocated ring buffers.
+ */
+public class MessageQueues {
+
+  /**
+   * Creates a new, unbounded queue. If the ring buffer pipeline is enabled, the queue is bounded
+   * by RING_BUFFER_SIZE instead.
+   *
+   * @param <E> The type of elements held in the queue
+   * @return A new blocking queue
+   */
+  public static <E> BlockingQueue<E> newQueue() {
+    return newQueue(0);
+  }
+
+  /**
+   * Creates a new queue with a given capacity
+   *
+   * @param capacity The capacity of the queue, values less than 1 means unbounded (or
+   * RING_BUFFER_SIZE if the ring buffer pipeline is enabled)
+   * @param <E> The type of elements held in the queue
+   * @return A new blocking queue
+   */
+  public static <E> BlockingQueue<E> newQueue(int capacity) {
+    if (Application.RING_BUFFER_PIPELINE) {
+      return new RingBufferQueue<>(capacity > 0 ? capacity : Application.RING_BUFFER_SIZE,
+          Application.RING_BUFFER_WAIT_STRATEGY);
+    }
+    return capacity > 0 ? new LinkedBlockingQueue<>(capacity) : new LinkedBlockingQueue<>();
+  }
+
+  /**
+   * Waits for at least one element in the queue, and then drains as many elements as are
+   * immediately available into the batch, up to a given maximum
+   *
+   * @param queue The queue to take elements from
+   * @param batch The list to add the elements to
+   * @param maxElements The maximum number of elements to take
+   * @param <E> The type of elements held in the queue
+   * @return The number of elements added to the batch
+   * @throws InterruptedException If interrupted while waiting for the first element
+   */
+  public static <E> int takeBatch(BlockingQueue<E> queue, List<? super E> batch, int maxElements)
+      throws InterruptedException {
+    batch.add(queue.take());
+    if (maxElements > 1) {
+      return 1 + queue.drainTo(batch, maxElements - 1);
+    }
+    return 1;
+  }
+}
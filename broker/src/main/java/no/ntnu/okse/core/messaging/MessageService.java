@@ -31,22 +31,42 @@ import no.ntnu.okse.core.event.TopicChangeEvent;
 import no.ntnu.okse.core.event.listeners.TopicChangeListener;
 import no.ntnu.okse.core.topic.Topic;
 import no.ntnu.okse.core.topic.TopicService;
+import no.ntnu.okse.core.topic.TopicTrie;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
 
 public class MessageService extends AbstractCoreService implements TopicChangeListener {
 
+  /**
+   * The policy applied when a message is distributed while the ingress queue is full
+   */
+  public enum OverflowPolicy {
+    BLOCK, DROP_OLDEST, DROP_NEWEST, REJECT
+  }
+
+  /**
+   * The outcome of handing a message to the MessageService
+   */
+  public enum DistributionResult {
+    ACCEPTED, DROPPED, REJECTED
+  }
+
   private static boolean _invoked = false;
   private static MessageService _singleton;
   private static Thread _serviceThread;
-  private LinkedBlockingQueue<Message> queue;
-  private ConcurrentHashMap<String, Message> latestMessages;
+  private IngressQueue queue;
+  private LastValueCache latestMessages;
+  private MessageHistory history;
+  private MessageDispatcher dispatcher;
+  private MessageLog messageLog;
+  private TopicTrie<String> persistentTopics;
   private Properties config;
 
   /**
@@ -67,8 +87,14 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
   protected void init() {
     config = Application.readConfigurationFiles();
     log.info("Initializing MessageService...");
-    queue = new LinkedBlockingQueue<>();
-    latestMessages = new ConcurrentHashMap<>();
+    queue = new IngressQueue(Application.MESSAGE_QUEUE_CAPACITY,
+        Application.MESSAGE_QUEUE_OVERFLOW_POLICY);
+    latestMessages = new LastValueCache(Application.LAST_VALUE_CACHE_MAX_ENTRIES,
+        Application.LAST_VALUE_CACHE_MAX_BYTES, Application.LAST_VALUE_CACHE_OFF_HEAP);
+    history = new MessageHistory(Application.MESSAGE_HISTORY);
+    openMessageLog();
+    dispatcher = new MessageDispatcher("MessageService", Application.MESSAGE_DISPATCH_LANES,
+        Application.EGRESS_BATCH_SIZE, Application.MESSAGE_QUEUE_CAPACITY, this::processMessages);
     _invoked = true;
   }
 
@@ -116,6 +142,7 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
    */
   public void run() {
     if (_invoked) {
+      dispatcher.start();
       log.info("MessageService booted successfully");
       while (_running) {
         try {
@@ -123,94 +150,174 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
           Message m = queue.take();
           log.info("Received a message for distribution: " + m);
 
-          // Do we have a system message?
-          if (m.isSystemMessage() && m.getTopic() == null) {
-
-            log.debug("Received message was a SystemMessage: " + m.getMessage());
-
-            // Check if we are to broadcast this system message
-            if (Application.BROADCAST_SYSTEM_MESSAGES_TO_SUBSCRIBERS) {
-
-              log.debug("System Message Broadcast set to TRUE, distributing system message...");
-
-              // Generate duplicate messages to all topics and iterate over them
-              generateMessageToAllTopics(m).forEach(message -> {
-                // Fetch all protocol servers, and call sendMessage on each
-                CoreService.getInstance().getAllProtocolServers()
-                    .forEach(s -> s.sendMessage(message));
-                // Flag the message as processed
-                message.setProcessed();
-              });
-
-              log.info("System message distribution completed");
-            }
-
-            // Set original message as processed.
-            m.setProcessed();
-
-            // Continue the run loop
-            continue;
-          }
-
-          HashSet<Topic> mappings = TopicService.getInstance()
-              .getAllMappingsAgainstTopic(m.getTopic());
-          if (mappings == null) {
-            log.debug("The Topic{" + m.getTopic() + "} has no mappings");
-          } else {
-            log.debug(
-                "Found the following mappings against Topic{" + m.getTopic() + "}: " + mappings);
-
-            generateMessageForAGivenTopicSet(m, mappings).forEach(duplicateMessage -> {
-              duplicateMessage.setAttribute("duplicate", m.getTopic());
-
-              if (m.getAttribute("duplicate") != null) {
-                if (!m.getTopic().equals(duplicateMessage.getAttribute("duplicate"))) {
-                  distributeMessage(duplicateMessage);
-                  log.debug(
-                      "The message to Topic{" + duplicateMessage.getTopic() + "} was distributed");
-                } else {
-                  log.debug("The message to Topic{" + duplicateMessage.getTopic()
-                      + "} is a duplicate against Topic{" + m.getTopic()
-                      + "}, and will not be distributed");
-                }
-              } else if (TopicService.getInstance().topicExists(m.getTopic())) {
-                distributeMessage(duplicateMessage);
-                log.debug(
-                    "The message to Topic{" + duplicateMessage.getTopic() + "} was distributed");
-              } else {
-                log.debug(
-                    "The message was not sent. Most likely since the Topic{" + duplicateMessage
-                        .getTopic() + "} does not exist");
-              }
-
-            });
-          }
-
-          // Tell the ExecutorService to execute the following job
-          CoreService.getInstance().execute(() -> {
-            // Add message to latestMessages cache
-            latestMessages.put(m.getTopic(), m);
-            // Fetch all registered protocol servers, and call the sendMessage() method on them
-            CoreService.getInstance().getAllProtocolServers().forEach(p -> {
-              // Fire the sendMessage on all servers
-              p.sendMessage(m);
-            });
-            // Set the message as processed, and store the completion time
-            LocalDateTime completedAt = m.setProcessed();
-            log.info(
-                "Message successfully distributed: " + m + " (Finished at: " + completedAt + ")");
-          });
+          // Hand the message over to the lane its topic belongs to
+          dispatcher.dispatch(m);
 
         } catch (InterruptedException e) {
           log.error("Interrupted while attempting to fetch next Message from queue");
         }
       }
+      dispatcher.stop();
+      if (messageLog != null) {
+        messageLog.close();
+      }
       log.debug("MessageService serverThread exited main run loop");
     } else {
       log.error("Run method called before invocation of the MessageService getInstance method");
     }
   }
 
+  /**
+   * Processes a batch of messages taken from a single dispatch lane. Each message is fanned out to
+   * its mapped topics in place, and the batch is then handed to every protocol server in one call.
+   * System messages are handled one by one, in order with the rest of the batch.
+   *
+   * @param batch The messages to be processed
+   */
+  private void processMessages(List<Message> batch) {
+    ArrayList<Message> outgoing = new ArrayList<>(batch.size());
+    for (Message m : batch) {
+      try {
+        // Do we have a system message?
+        if (m.isSystemMessage() && m.getTopic() == null) {
+          // Flush what we have so far, to keep the ordering
+          sendToProtocolServers(outgoing);
+          outgoing = new ArrayList<>();
+          processSystemMessage(m);
+        } else {
+          routeMessage(m, outgoing);
+        }
+      } catch (Exception e) {
+        log.error("Failed to process message " + m + ": " + e.getMessage());
+      }
+    }
+    sendToProtocolServers(outgoing);
+  }
+
+  /**
+   * Handles a system message, broadcasting it to all topics if configured to do so
+   *
+   * @param m The system message
+   */
+  private void processSystemMessage(Message m) {
+    log.debug("Received message was a SystemMessage: " + m.getMessage());
+
+    // Check if we are to broadcast this system message
+    if (Application.BROADCAST_SYSTEM_MESSAGES_TO_SUBSCRIBERS) {
+
+      log.debug("System Message Broadcast set to TRUE, distributing system message...");
+
+      // Generate envelopes of the message to all topics, and hand them to the protocol servers in
+      // a single batch
+      List<Message> broadcast = generateMessageToAllTopics(m);
+      CoreService.getInstance().getAllProtocolServers().forEach(s -> s.sendMessages(broadcast));
+      // Flag the messages as processed
+      broadcast.forEach(Message::setProcessed);
+
+      log.info("System message distribution completed");
+    }
+
+    // Set original message as processed.
+    m.setProcessed();
+  }
+
+  /**
+   * Adds a message and its duplicates on every topic it is mapped against to the outgoing batch,
+   * caching each of them as the latest message on its topic. The mapped topics come from the
+   * precomputed mapping table in TopicService, which already follows mappings transitively, so the
+   * duplicates are delivered directly instead of being put back on the message queue.
+   *
+   * @param m The message to be routed
+   * @param outgoing The batch to add the message and its duplicates to
+   */
+  private void routeMessage(Message m, List<Message> outgoing) {
+    outgoing.add(m);
+    cacheMessage(m.getTopic(), m);
+
+    // Duplicates have already been fanned out from their origin topic
+    if (m.getAttribute("duplicate") != null) {
+      return;
+    }
+    persistMessage(m);
+
+    Set<String> mappedTopics = TopicService.getInstance().getMappedTopics(m.getTopic());
+    if (mappedTopics.isEmpty()) {
+      log.debug("The Topic{" + m.getTopic() + "} has no mappings");
+      return;
+    }
+    if (!TopicService.getInstance().topicExists(m.getTopic())) {
+      log.debug("The message was not duplicated. Most likely since the Topic{" + m.getTopic()
+          + "} does not exist");
+      return;
+    }
+
+    for (String topic : mappedTopics) {
+      Message duplicateMessage = m.copyToTopic(topic);
+      duplicateMessage.setAttribute("duplicate", m.getTopic());
+      outgoing.add(duplicateMessage);
+      cacheMessage(topic, duplicateMessage);
+      log.debug("The message to Topic{" + topic + "} was duplicated from Topic{" + m.getTopic()
+          + "}");
+    }
+  }
+
+  /**
+   * Adds a message to the latest message cache, if caching is enabled, and to the history of its
+   * topic
+   *
+   * @param topic The topic to cache the message on
+   * @param m The message to be cached
+   */
+  private void cacheMessage(String topic, Message m) {
+    if (Application.CACHE_MESSAGES) {
+      latestMessages.put(topic, m);
+    }
+    history.record(topic, m);
+  }
+
+  /**
+   * Appends a message to the message log, if its topic matches one of the persistent topic
+   * patterns. Only messages published on a topic are persisted, not the duplicates made for mapped
+   * topics. The message is not forced to disk here, so it becomes durable with the next periodic
+   * flush of the log, within MESSAGE_LOG_FLUSH_INTERVAL milliseconds.
+   *
+   * @param m The message to be persisted
+   */
+  private void persistMessage(Message m) {
+    if (messageLog == null || m.getTopic() == null) {
+      return;
+    }
+    if (persistentTopics.match(m.getTopic()).isEmpty()) {
+      return;
+    }
+    try {
+      messageLog.append(m);
+    } catch (IOException e) {
+      log.error("Failed to append message to the message log: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Fetches all registered protocol servers, and hands them the messages in a single batch. This is
+   * done directly on the lane thread, so that ordering within a topic is preserved.
+   *
+   * @param messages The messages to send
+   */
+  private void sendToProtocolServers(List<Message> messages) {
+    if (messages.isEmpty()) {
+      return;
+    }
+    CoreService.getInstance().getAllProtocolServers().forEach(p -> {
+      // Fire the sendMessages on all servers
+      p.sendMessages(messages);
+    });
+    messages.forEach(m -> {
+      // Set the message as processed, and store the completion time
+      LocalDateTime completedAt = m.setProcessed();
+      log.info("Message successfully distributed: " + m + " (Finished at: " + completedAt + ")");
+    });
+  }
+
   /**
    * Graceful shutdown method
    */
@@ -224,26 +331,22 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
     // Set it to system message
     m.setSystemMessage(true);
 
-    try {
-      queue.put(m);
-    } catch (InterruptedException e) {
-      log.error("Interrupted while trying to inject shutdown message to queue");
-    }
+    queue.offer(m);
   }
 
   /* Begin Public API */
 
   /**
-   * Adds a Message object into the message queue for distribution
+   * Adds a Message object into the message queue for distribution. If the queue is full, the
+   * configured overflow policy decides what happens. System messages are never dropped, and will
+   * always wait for room in the queue.
    *
    * @param m The message object to be distributed
+   * @return ACCEPTED if the message was queued, DROPPED if it was silently discarded, and REJECTED
+   * if the publisher should be told that the message was not accepted
    */
-  public void distributeMessage(Message m) {
-    try {
-      this.queue.put(m);
-    } catch (InterruptedException e) {
-      log.error("Interrupted while trying to inject message into queue");
-    }
+  public DistributionResult distributeMessage(Message m) {
+    return queue.offer(m);
   }
 
   /**
@@ -253,11 +356,84 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
    * @return The message object for the specified topic, null if there has not been any messages yet
    */
   public Message getLatestMessage(String topic) {
-    if (latestMessages.containsKey(topic)) {
-      return latestMessages.get(topic);
-    }
+    return latestMessages.get(topic);
+  }
+
+  /**
+   * Retrieves the recent messages on a topic, for replay to a new subscriber. Only topics matching
+   * a MESSAGE_HISTORY pattern keep a history, and only concrete topics have one.
+   *
+   * @param topic The concrete topic to retrieve the history of
+   * @param last The maximum number of messages, 0 or less for every retained message
+   * @param since Only return messages sent at or after this time in epoch milliseconds, 0 or less
+   * for no time limit
+   * @return A list of messages, oldest first
+   */
+  public List<Message> getMessageHistory(String topic, int last, long since) {
+    return history.getMessages(topic, last, since);
+  }
 
-    return null;
+  /**
+   * Retrieve the cache holding the latest message on each topic, for statistics
+   *
+   * @return The LastValueCache of the MessageService
+   */
+  public LastValueCache getLastValueCache() {
+    return latestMessages;
+  }
+
+  /**
+   * Retrieve the number of messages waiting in the ingress queue, before being assigned a lane
+   *
+   * @return The size of the ingress queue
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Retrieve the number of messages that have been discarded due to a full ingress queue
+   *
+   * @return The total number of dropped messages
+   */
+  public long getTotalDroppedMessages() {
+    return queue.getTotalDropped();
+  }
+
+  /**
+   * Retrieve the number of messages that have been rejected due to a full ingress queue
+   *
+   * @return The total number of rejected messages
+   */
+  public long getTotalRejectedMessages() {
+    return queue.getTotalRejected();
+  }
+
+  /**
+   * Retrieve the number of dispatch lanes used by the MessageService
+   *
+   * @return The number of lanes
+   */
+  public int getDispatchLaneCount() {
+    return dispatcher.getLaneCount();
+  }
+
+  /**
+   * Retrieve the current number of messages waiting in each dispatch lane
+   *
+   * @return A list of queue depths, indexed by lane
+   */
+  public List<Integer> getLaneQueueDepths() {
+    return dispatcher.getLaneQueueDepths();
+  }
+
+  /**
+   * Retrieve the message log holding the messages on persistent topics
+   *
+   * @return The MessageLog, or null if no topics are persistent
+   */
+  public MessageLog getMessageLog() {
+    return messageLog;
   }
 
   /**
@@ -272,7 +448,8 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
 
   /**
    * Takes in a message and a HashSet of topics and creates duplicate messages of the origin
-   * message, and returns it as a list.
+   * message, and returns it as a list. The duplicates are envelopes sharing the content of the
+   * origin message.
    *
    * @param m The origin message
    * @param topics A HashSet containing all the topics that the message topic is mapped against
@@ -283,8 +460,7 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
 
     topics
         .forEach(t -> {
-          Message msg = new Message(m.getMessage(), t.getFullTopicString(), m.getPublisher(),
-              m.getOriginProtocol());
+          Message msg = m.copyToTopic(t.getFullTopicString());
           collector.add(msg);
         });
 
@@ -297,19 +473,49 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
   /* Private helper methods */
 
   /**
-   * Private helper method to duplicate an incoming message to be
+   * Opens the message log if any topics are configured as persistent, and restores the latest
+   * message and the topic node of every topic in it
+   */
+  private void openMessageLog() {
+    persistentTopics = new TopicTrie<>();
+    for (String pattern : Application.PERSISTENT_TOPICS.split(",")) {
+      if (!pattern.trim().isEmpty()) {
+        persistentTopics.add(pattern.trim(), pattern.trim());
+      }
+    }
+    if (persistentTopics.size() == 0) {
+      return;
+    }
+
+    try {
+      messageLog = new MessageLog(new File(Application.MESSAGE_LOG_DIRECTORY),
+          Application.MESSAGE_LOG_SEGMENT_SIZE, Application.MESSAGE_LOG_FLUSH_INTERVAL,
+          Application.MESSAGE_LOG_RETENTION_BYTES, Application.MESSAGE_LOG_RETENTION_TIME);
+    } catch (IOException | IllegalArgumentException e) {
+      log.error("Failed to open the message log, messages will not be persisted: "
+          + e.getMessage());
+      return;
+    }
+    for (String topic : messageLog.getTopics()) {
+      TopicService.getInstance().addTopic(topic);
+      cacheMessage(topic, messageLog.readLatest(topic).toMessage());
+    }
+  }
+
+  /**
+   * Private helper method to duplicate an incoming message to all topics. The duplicates are
+   * envelopes sharing the content of the incoming message, so this is cheap even with many topics.
    *
    * @param m The message to be duplicated to all topics
-   * @return A HashSet of the generated messages
+   * @return A List of the generated messages
    */
-  private HashSet<Message> generateMessageToAllTopics(Message m) {
+  private List<Message> generateMessageToAllTopics(Message m) {
     // Initialize the collector
-    HashSet<Message> generated = new HashSet<>();
+    ArrayList<Message> generated = new ArrayList<>();
     // Iterate over all topics and generate individual messages per topic
     TopicService.getInstance().getAllTopics().forEach(t -> {
-      // Create the message wrapper
-      Message msg = new Message(m.getMessage(), t.getFullTopicString(), m.getPublisher(),
-          m.getOriginProtocol());
+      // Create the message envelope
+      Message msg = m.copyToTopic(t.getFullTopicString());
       // Flag the generated message the same as the originating message
       msg.setSystemMessage(m.isSystemMessage());
       // Add the message to the collector
@@ -329,10 +535,10 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
 
       // If we have messages in cache for the topic in question, remove it to remove any remaining
       // reference to the Topic node, so the garbage collector can do its job.
-      if (latestMessages.containsKey(rawTopicString)) {
-        latestMessages.remove(rawTopicString);
+      if (latestMessages.remove(rawTopicString)) {
         log.debug("Removed a message from cache due to its topic being deleted");
       }
+      history.remove(rawTopicString);
     }
   }
 
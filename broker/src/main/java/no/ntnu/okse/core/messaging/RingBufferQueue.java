@@ -0,0 +1,359 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded, lock-free multi-producer multi-consumer queue backed by a pre-allocated ring of
+ * slots. Every slot carries a sequence number that tells producers and consumers whether it is
+ * free or filled, so offer and poll only need a single compare-and-set on the fast path, and no
+ * nodes are allocated per element.
+ *
+ * Blocking operations wait according to a {@link WaitStrategy}. Removing arbitrary elements is
+ * not supported, and iteration returns a weakly consistent snapshot.
+ *
+ * @param <E> The type of elements held in this queue
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+  /**
+   * How a thread waits when the ring is full (producers) or empty (consumers)
+   */
+  public enum WaitStrategy {
+    // Spin on the CPU, lowest latency at the cost of a fully occupied core
+    BUSY_SPIN,
+    // Yield the CPU between each attempt
+    YIELD,
+    // Park the thread until signalled
+    BLOCK
+  }
+
+  private final Object[] buffer;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong head;
+  private final AtomicLong tail;
+  private final WaitStrategy waitStrategy;
+
+  // Only used by the BLOCK wait strategy
+  private final ReentrantLock lock;
+  private final Condition notEmpty;
+  private final Condition notFull;
+  private final AtomicInteger waitingConsumers;
+  private final AtomicInteger waitingProducers;
+
+  /**
+   * Constructs a ring buffer queue
+   *
+   * @param capacity The minimum capacity of the ring, rounded up to the nearest power of two
+   * @param waitStrategy The strategy used by blocking operations
+   */
+  public RingBufferQueue(int capacity, WaitStrategy waitStrategy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    if (capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity must be at most 2^30");
+    }
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.buffer = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.mask = size - 1;
+    this.head = new AtomicLong(0);
+    this.tail = new AtomicLong(0);
+    this.waitStrategy = waitStrategy;
+    this.lock = new ReentrantLock();
+    this.notEmpty = lock.newCondition();
+    this.notFull = lock.newCondition();
+    this.waitingConsumers = new AtomicInteger(0);
+    this.waitingProducers = new AtomicInteger(0);
+  }
+
+  /**
+   * Retrieve the total number of slots in the ring
+   *
+   * @return The capacity of this queue
+   */
+  public int getCapacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Retrieve the wait strategy used by the blocking operations of this queue
+   *
+   * @return The wait strategy
+   */
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    long position = tail.get();
+    while (true) {
+      int index = (int) (position & mask);
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          buffer[index] = e;
+          sequences.lazySet(index, position + 1);
+          signal(waitingConsumers, notEmpty);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        // The slot has not been consumed since the last lap, the ring is full
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E poll() {
+    long position = head.get();
+    while (true) {
+      int index = (int) (position & mask);
+      long difference = sequences.get(index) - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          E e = (E) buffer[index];
+          buffer[index] = null;
+          sequences.lazySet(index, position + mask + 1);
+          signal(waitingProducers, notFull);
+          return e;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        // The slot has not been published yet, the ring is empty
+        return null;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E peek() {
+    long position = head.get();
+    int index = (int) (position & mask);
+    if (sequences.get(index) == position + 1) {
+      return (E) buffer[index];
+    }
+    return null;
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    while (!offer(e)) {
+      await(waitingProducers, notFull, () -> size() < buffer.length, 0);
+    }
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(e)) {
+      if (!await(waitingProducers, notFull, () -> size() < buffer.length, deadline)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    E e;
+    while ((e = poll()) == null) {
+      await(waitingConsumers, notEmpty, () -> size() > 0, 0);
+    }
+    return e;
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    E e;
+    while ((e = poll()) == null) {
+      if (!await(waitingConsumers, notEmpty, () -> size() > 0, deadline)) {
+        return null;
+      }
+    }
+    return e;
+  }
+
+  @Override
+  public int size() {
+    // Read head first, so that the difference never underestimates a concurrent consumer
+    long consumed = head.get();
+    long produced = tail.get();
+    long size = produced - consumed;
+    if (size < 0) {
+      return 0;
+    }
+    return (int) Math.min(size, buffer.length);
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return buffer.length - size();
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int drained = 0;
+    E e;
+    while (drained < maxElements && (e = poll()) != null) {
+      c.add(e);
+      drained++;
+    }
+    return drained;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Iterator<E> iterator() {
+    ArrayList<E> snapshot = new ArrayList<>();
+    long position = head.get();
+    long end = tail.get();
+    for (; position < end; position++) {
+      int index = (int) (position & mask);
+      Object e = buffer[index];
+      if (sequences.get(index) == position + 1 && e != null) {
+        snapshot.add((E) e);
+      }
+    }
+    Iterator<E> it = snapshot.iterator();
+    return new Iterator<E>() {
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public E next() {
+        return it.next();
+      }
+    };
+  }
+
+  /**
+   * Wakes up any threads blocked on the given condition. Does nothing unless the BLOCK wait
+   * strategy is used and someone is actually waiting, keeping the fast path free of locks.
+   *
+   * @param waiters The counter of threads waiting on the condition
+   * @param condition The condition to signal
+   */
+  private void signal(AtomicInteger waiters, Condition condition) {
+    if (waitStrategy == WaitStrategy.BLOCK && waiters.get() > 0) {
+      lock.lock();
+      try {
+        condition.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Waits a single round according to the wait strategy
+   *
+   * @param waiters The counter of threads waiting on the condition
+   * @param condition The condition to wait on when blocking
+   * @param ready Returns true when there is a point in retrying the operation
+   * @param deadline The System.nanoTime() at which to give up, 0 to wait forever
+   * @return False if the deadline has passed, true otherwise
+   * @throws InterruptedException If interrupted while waiting
+   */
+  private boolean await(AtomicInteger waiters, Condition condition, BooleanSupplier ready,
+      long deadline) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (deadline != 0 && deadline - System.nanoTime() <= 0) {
+      return false;
+    }
+    switch (waitStrategy) {
+      case BUSY_SPIN:
+        break;
+      case YIELD:
+        Thread.yield();
+        break;
+      default:
+        waiters.incrementAndGet();
+        lock.lockInterruptibly();
+        try {
+          // Re-check under the lock, so that a signal can not be missed
+          while (!ready.getAsBoolean()) {
+            if (deadline == 0) {
+              condition.await();
+            } else {
+              long remaining = deadline - System.nanoTime();
+              if (remaining <= 0) {
+                return false;
+              }
+              condition.awaitNanos(remaining);
+            }
+          }
+        } finally {
+          lock.unlock();
+          waiters.decrementAndGet();
+        }
+    }
+    return true;
+  }
+}
@@ -27,7 +27,6 @@ package no.ntnu.okse.core.subscription;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import org.apache.log4j.Logger;
 
-import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -74,18 +73,12 @@ public class Subscriber {
   }
 
   /**
-   * Private method that generates an MD5 subscriber ID
+   * Private method that generates a unique subscriber ID
    *
    * @return A string containing the generated subscriber ID
    */
   private String generateSubscriberID() {
-    try {
-      return generateID();
-    } catch (NoSuchAlgorithmException e) {
-      log.error("Could not generate a subscriber ID (MD5 algorithm not found)");
-    }
-
-    return null;
+    return generateID();
   }
 
   /**
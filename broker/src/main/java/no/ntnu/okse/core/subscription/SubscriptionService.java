@@ -33,6 +33,7 @@ import no.ntnu.okse.core.event.listeners.PublisherChangeListener;
 import no.ntnu.okse.core.event.listeners.SubscriptionChangeListener;
 import no.ntnu.okse.core.event.listeners.TopicChangeListener;
 import no.ntnu.okse.core.topic.TopicService;
+import no.ntnu.okse.core.topic.TopicTrie;
 import org.eclipse.jetty.util.ConcurrentHashSet;
 
 import java.util.HashSet;
@@ -59,6 +60,9 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
   private ConcurrentHashSet<SubscriptionChangeListener> _subscriptionListeners;
   private ConcurrentHashSet<PublisherChangeListener> _registrationListeners;
   private ConcurrentHashSet<Subscriber> _subscribers;
+  // Topic index over _subscribers, and the subscribers without a topic that receive everything
+  private TopicTrie<Subscriber> _subscriberIndex;
+  private ConcurrentHashSet<Subscriber> _subscribersOnAllTopics;
   private ConcurrentHashSet<Publisher> _publishers;
 
   /**
@@ -93,6 +97,8 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     queue = new LinkedBlockingQueue<>();
     scheduler = Executors.newScheduledThreadPool(1);
     _subscribers = new ConcurrentHashSet<>();
+    _subscriberIndex = new TopicTrie<>();
+    _subscribersOnAllTopics = new ConcurrentHashSet<>();
     _publishers = new ConcurrentHashSet<>();
     _registrationListeners = new ConcurrentHashSet<>();
     _subscriptionListeners = new ConcurrentHashSet<>();
@@ -217,6 +223,7 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     if (!_subscribers.contains(s)) {
       // Add the subscriber
       _subscribers.add(s);
+      indexSubscriber(s);
       log.info("Added new subscriber: " + s);
       // Fire the subscribe event
       fireSubscriptionChangeEvent(s, SubscriptionChangeEvent.Type.SUBSCRIBE);
@@ -225,6 +232,32 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     }
   }
 
+  /**
+   * Adds a subscriber to the topic index
+   *
+   * @param s : A Subscriber instance with the proper fields set
+   */
+  private void indexSubscriber(Subscriber s) {
+    if (s.getTopic() == null) {
+      _subscribersOnAllTopics.add(s);
+    } else {
+      _subscriberIndex.add(s.getTopic(), s);
+    }
+  }
+
+  /**
+   * Removes a subscriber from the topic index
+   *
+   * @param s : A Subscriber instance that exists in the topic index
+   */
+  private void unindexSubscriber(Subscriber s) {
+    if (s.getTopic() == null) {
+      _subscribersOnAllTopics.remove(s);
+    } else {
+      _subscriberIndex.remove(s.getTopic(), s);
+    }
+  }
+
   /**
    * Service-local private method to remove a subscriber from the list of subscribers
    *
@@ -234,6 +267,7 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     if (_subscribers.contains(s)) {
       // Remove the subscriber
       _subscribers.remove(s);
+      unindexSubscriber(s);
       log.info("Removed subscriber: " + s);
       // Fire the unsubscribe event
       fireSubscriptionChangeEvent(s, SubscriptionChangeEvent.Type.UNSUBSCRIBE);
@@ -513,21 +547,32 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
   }
 
   /**
-   * Retrieve a HashSet of all subscribers that have subscribed to a specific topic
+   * Retrieve a HashSet of all subscribers that have subscribed to a specific topic. Subscriptions
+   * using the wildcards supported by TopicTrie ("+", "*" and "#") are included when they match the
+   * topic, as are subscribers without a topic.
    *
    * @param topic A raw topic string of the topic to select subscribers from
    * @return A HashSet of Subscriber objects that have subscribed to the specified topic
    */
   public HashSet<Subscriber> getAllSubscribersForTopic(String topic) {
-    // Initialize a collector
-    HashSet<Subscriber> results = new HashSet<>();
+    // Look up the matching subscribers in the topic index
+    HashSet<Subscriber> results = topic == null ? new HashSet<>() : _subscriberIndex.match(topic);
+    // Subscribers without a topic receive everything
+    results.addAll(_subscribersOnAllTopics);
 
-    // Iterate over all subscribers
-    getAllSubscribers().stream()
-        // Only pass on those who match topic argument
-        .filter(s -> s.getTopic() == null || s.getTopic().equals(topic))
-        // Collect in the results set
-        .forEach(results::add);
+    return results;
+  }
+
+  /**
+   * Retrieve a HashSet of the subscribers that have subscribed to exactly this topic string,
+   * without expanding wildcard subscriptions. Subscribers without a topic are included.
+   *
+   * @param topic A raw topic string of the topic to select subscribers from
+   * @return A HashSet of Subscriber objects that have subscribed with the specified topic string
+   */
+  public HashSet<Subscriber> getAllSubscribersForExactTopic(String topic) {
+    HashSet<Subscriber> results = topic == null ? new HashSet<>() : _subscriberIndex.get(topic);
+    results.addAll(_subscribersOnAllTopics);
 
     return results;
   }
@@ -680,7 +725,7 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
       String fullRawTopicString = event.getData().getFullTopicString();
 
       // Remove all the subscribers for the topic that was deleted
-      getAllSubscribersForTopic(fullRawTopicString).forEach(this::removeSubscriber);
+      getAllSubscribersForExactTopic(fullRawTopicString).forEach(this::removeSubscriber);
       // Remove all the publishers for the topic that was deleted
       getAllPublishersForTopic(fullRawTopicString).forEach(this::removePublisher);
     }
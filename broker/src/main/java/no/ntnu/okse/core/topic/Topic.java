@@ -28,7 +28,6 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import org.apache.log4j.Logger;
 
 import javax.validation.constraints.NotNull;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 
 import static no.ntnu.okse.core.Utilities.generateID;
@@ -77,17 +76,12 @@ public class Topic {
   }
 
   /**
-   * Private method that generates an MD5 topic ID
+   * Private method that generates a unique topic ID
    *
    * @return A string containing the generated topicID
    */
   private String generateTopicID() {
-    try {
-      return generateID();
-    } catch (NoSuchAlgorithmException e) {
-      log.error("Could not generate a topic ID (MD5 algorithm not found)");
-    }
-    return null;
+    return generateID();
   }
 
   /**
@@ -45,6 +45,8 @@ public class TopicService extends AbstractCoreService {
   private ConcurrentHashMap<String, Topic> allTopics;
   private ConcurrentHashSet<TopicChangeListener> _listeners;
   private ConcurrentHashMap<String, HashSet<String>> mappings;
+  // Immutable transitive closure of mappings, replaced as a whole whenever the mappings change
+  private volatile Map<String, Set<String>> mappingTable;
 
   /**
    * Private constructor that passes this classname to superclass log instance. Uses getInstance to
@@ -81,6 +83,7 @@ public class TopicService extends AbstractCoreService {
     allTopics = new ConcurrentHashMap<>();
     _listeners = new ConcurrentHashSet<>();
     mappings = new ConcurrentHashMap<>();
+    mappingTable = Collections.emptyMap();
     _invoked = true;
 
     log.info("Initializing topic mapping from configuration file");
@@ -281,6 +284,21 @@ public class TopicService extends AbstractCoreService {
     return collector;
   }
 
+  /**
+   * Fetch every topic a message on the given topic should be fanned out to, following mappings
+   * transitively. The returned set is shared and immutable, and never contains the topic itself.
+   * Nothing is allocated, so this is safe to call for every message.
+   *
+   * @param rawTopicString The string to identify the topic
+   * @return An immutable Set of raw topic strings, empty if the topic has no mappings
+   */
+  public Set<String> getMappedTopics(String rawTopicString) {
+    if (rawTopicString == null) {
+      return Collections.emptySet();
+    }
+    return mappingTable.getOrDefault(rawTopicString, Collections.emptySet());
+  }
+
   /**
    * Attempts to fetch all mappings for a topic, based on the raw topic string
    *
@@ -417,9 +435,10 @@ public class TopicService extends AbstractCoreService {
    *
    * @param mapping The mapping represented as a string
    */
-  public void deleteMapping(String mapping) {
+  public synchronized void deleteMapping(String mapping) {
     if (mappings.containsKey(mapping)) {
-      HashSet<String> mappedAgainst = mappings.remove(mapping);
+      mappings.remove(mapping);
+      rebuildMappingTable();
       log.info("Removed the mappings for Topic{" + mapping + "}");
     } else {
       log.warn("Attempt to remove a mapping that did in fact not exist ");
@@ -467,18 +486,43 @@ public class TopicService extends AbstractCoreService {
    * @param fromTopic Topic to map from
    * @param toTopic Topic to map to
    */
-  public void addMappingBetweenTopics(String fromTopic, String toTopic) {
+  public synchronized void addMappingBetweenTopics(String fromTopic, String toTopic) {
     addTopic(fromTopic);
     addTopic(toTopic);
 
-    if (!mappings.containsKey(fromTopic)) {
-      mappings.put(fromTopic, new HashSet<>(Collections.singletonList(toTopic)));
-    } else {
-      mappings.get(fromTopic).add(toTopic);
-    }
+    // Replace rather than modify the set, as it may be iterated by getAllMappings callers
+    HashSet<String> mappedAgainst = new HashSet<>(
+        mappings.getOrDefault(fromTopic, new HashSet<>()));
+    mappedAgainst.add(toTopic);
+    mappings.put(fromTopic, mappedAgainst);
+    rebuildMappingTable();
     log.debug("Added mapping between Topic{" + fromTopic + "} and Topic{" + toTopic + "}");
   }
 
+  /**
+   * Recomputes the transitive closure of all mappings and publishes it as a new immutable table.
+   * Mappings change rarely compared to how often they are read, so the whole table is rebuilt with
+   * a breadth first search from every mapped topic. Cycles are cut by never revisiting a topic, and
+   * a topic is never mapped to itself.
+   */
+  private void rebuildMappingTable() {
+    HashMap<String, Set<String>> table = new HashMap<>();
+    for (String fromTopic : mappings.keySet()) {
+      LinkedHashSet<String> reachable = new LinkedHashSet<>();
+      ArrayDeque<String> pending = new ArrayDeque<>(mappings.get(fromTopic));
+      while (!pending.isEmpty()) {
+        String topic = pending.poll();
+        if (!topic.equals(fromTopic) && reachable.add(topic)) {
+          pending.addAll(mappings.getOrDefault(topic, new HashSet<>()));
+        }
+      }
+      if (!reachable.isEmpty()) {
+        table.put(fromTopic, Collections.unmodifiableSet(reachable));
+      }
+    }
+    mappingTable = Collections.unmodifiableMap(table);
+  }
+
   /**
    * Add a topic to the TopicService
    *
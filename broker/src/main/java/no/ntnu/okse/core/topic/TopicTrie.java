@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.topic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent index from topic patterns to values, typically subscribers. Patterns are split on
+ * the same "/" separator as the Topic node tree in TopicService, so every trie level corresponds to
+ * one Topic node level. A level can also be a wildcard: "+" (MQTT) or "*" (AMQP) match exactly one
+ * level, and "#" matches zero or more levels. Looking up a concrete topic visits only the branches
+ * that can match it, so the cost grows with topic depth rather than with the number of indexed
+ * values.
+ *
+ * Lookups are lock free and return values in the order they were added to each pattern.
+ * Modifications are serialized on the trie instance, allowing empty branches to be pruned safely.
+ *
+ * @param <T> The type of the indexed values
+ */
+public class TopicTrie<T> {
+
+  public static final String LEVEL_SEPARATOR = "/";
+  public static final String MULTI_LEVEL_WILDCARD = "#";
+  public static final String SINGLE_LEVEL_WILDCARD = "+";
+  public static final String SINGLE_LEVEL_WILDCARD_AMQP = "*";
+
+  private final Node<T> root;
+  private int size;
+
+  public TopicTrie() {
+    root = new Node<>();
+    size = 0;
+  }
+
+  /**
+   * Index a value under a topic pattern
+   *
+   * @param pattern A raw topic string, which may contain wildcard levels
+   * @param value The value to index
+   * @return True if the value was added, false if it was already indexed under this pattern
+   */
+  public synchronized boolean add(String pattern, T value) {
+    Node<T> node = root;
+    for (String level : split(pattern)) {
+      node = node.children.computeIfAbsent(level, k -> new Node<>());
+    }
+    if (node.values.add(value)) {
+      node.publish();
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Remove a value indexed under a topic pattern, pruning branches that become empty
+   *
+   * @param pattern The raw topic string the value was added with
+   * @param value The value to remove
+   * @return True if the value was removed, false if it was not indexed under this pattern
+   */
+  public synchronized boolean remove(String pattern, T value) {
+    String[] levels = split(pattern);
+    @SuppressWarnings("unchecked")
+    Node<T>[] path = new Node[levels.length + 1];
+    path[0] = root;
+    for (int i = 0; i < levels.length; i++) {
+      path[i + 1] = path[i].children.get(levels[i]);
+      if (path[i + 1] == null) {
+        return false;
+      }
+    }
+    if (!path[levels.length].values.remove(value)) {
+      return false;
+    }
+    path[levels.length].publish();
+    size--;
+    // Walk back up and detach nodes that no longer hold anything
+    for (int i = levels.length; i > 0 && path[i].isEmpty(); i--) {
+      path[i - 1].children.remove(levels[i - 1], path[i]);
+    }
+    return true;
+  }
+
+  /**
+   * Retrieve the values indexed under exactly this pattern, without wildcard expansion
+   *
+   * @param pattern A raw topic string
+   * @return A LinkedHashSet of the values added with this exact pattern
+   */
+  public LinkedHashSet<T> get(String pattern) {
+    LinkedHashSet<T> results = new LinkedHashSet<>();
+    Node<T> node = root;
+    for (String level : split(pattern)) {
+      node = node.children.get(level);
+      if (node == null) {
+        return results;
+      }
+    }
+    results.addAll(node.snapshot);
+    return results;
+  }
+
+  /**
+   * Retrieve all values whose pattern matches a concrete topic
+   *
+   * @param topic A raw topic string of a concrete topic, such as the topic of a message
+   * @return A LinkedHashSet of all values with a matching pattern
+   */
+  public LinkedHashSet<T> match(String topic) {
+    LinkedHashSet<T> results = new LinkedHashSet<>();
+    match(root, split(topic), 0, results);
+    return results;
+  }
+
+  /**
+   * @return The total number of pattern and value pairs in the trie
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Remove everything from the trie
+   */
+  public synchronized void clear() {
+    root.children.clear();
+    root.values.clear();
+    root.publish();
+    size = 0;
+  }
+
+  /**
+   * Checks whether a topic pattern level is a wildcard
+   *
+   * @param level A single level of a raw topic string
+   * @return True if the level is one of the supported wildcards
+   */
+  public static boolean isWildcard(String level) {
+    return MULTI_LEVEL_WILDCARD.equals(level) || SINGLE_LEVEL_WILDCARD.equals(level) ||
+        SINGLE_LEVEL_WILDCARD_AMQP.equals(level);
+  }
+
+  /**
+   * Checks whether a raw topic string is a pattern, rather than a concrete topic
+   *
+   * @param topic A raw topic string
+   * @return True if any of its levels is a wildcard
+   */
+  public static boolean containsWildcard(String topic) {
+    for (String level : topic.split(LEVEL_SEPARATOR)) {
+      if (isWildcard(level)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Collects the values of every node below the given node that matches levels[index..]
+   */
+  private static <T> void match(Node<T> node, String[] levels, int index, Set<T> results) {
+    Node<T> multi = node.children.get(MULTI_LEVEL_WILDCARD);
+    if (multi != null) {
+      matchMultiLevel(multi, levels, index, results);
+    }
+    if (index == levels.length) {
+      results.addAll(node.snapshot);
+      return;
+    }
+    Node<T> child = node.children.get(levels[index]);
+    if (child != null) {
+      match(child, levels, index + 1, results);
+    }
+    // A literal "+" or "*" level has already been visited as an exact match above
+    if (!SINGLE_LEVEL_WILDCARD.equals(levels[index])) {
+      child = node.children.get(SINGLE_LEVEL_WILDCARD);
+      if (child != null) {
+        match(child, levels, index + 1, results);
+      }
+    }
+    if (!SINGLE_LEVEL_WILDCARD_AMQP.equals(levels[index])) {
+      child = node.children.get(SINGLE_LEVEL_WILDCARD_AMQP);
+      if (child != null) {
+        match(child, levels, index + 1, results);
+      }
+    }
+  }
+
+  /**
+   * Lets a "#" node swallow zero or more of the remaining levels
+   */
+  private static <T> void matchMultiLevel(Node<T> multi, String[] levels, int index,
+      Set<T> results) {
+    results.addAll(multi.snapshot);
+    // A trailing "#" is by far the most common case, and has nothing more to match
+    if (multi.children.isEmpty()) {
+      return;
+    }
+    for (int i = index; i <= levels.length; i++) {
+      matchBelow(multi, levels, i, results);
+    }
+  }
+
+  /**
+   * Matches the children of a node against levels[index..], skipping the node's own values
+   */
+  private static <T> void matchBelow(Node<T> node, String[] levels, int index, Set<T> results) {
+    for (Map.Entry<String, Node<T>> entry : node.children.entrySet()) {
+      String level = entry.getKey();
+      if (MULTI_LEVEL_WILDCARD.equals(level)) {
+        matchMultiLevel(entry.getValue(), levels, index, results);
+      } else if (index < levels.length && (level.equals(levels[index]) ||
+          SINGLE_LEVEL_WILDCARD.equals(level) || SINGLE_LEVEL_WILDCARD_AMQP.equals(level))) {
+        match(entry.getValue(), levels, index + 1, results);
+      }
+    }
+  }
+
+  private static String[] split(String topic) {
+    return topic.split(LEVEL_SEPARATOR, -1);
+  }
+
+  private static class Node<T> {
+
+    private final ConcurrentHashMap<String, Node<T>> children = new ConcurrentHashMap<>();
+    // Guarded by the trie, readers only ever see the immutable snapshot
+    private final LinkedHashSet<T> values = new LinkedHashSet<>();
+    private volatile List<T> snapshot = Collections.emptyList();
+
+    private void publish() {
+      snapshot = values.isEmpty() ? Collections.emptyList()
+          : Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    private boolean isEmpty() {
+      return children.isEmpty() && values.isEmpty();
+    }
+  }
+}
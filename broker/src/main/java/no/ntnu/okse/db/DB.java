@@ -179,7 +179,10 @@ public class DB {
    * @param originProtocol The protocol the message originated from
    * @return True if the query was successful, false otherwise
    * @throws SQLException If error during query
+   * @deprecated Messages on persistent topics are written to the
+   * {@link no.ntnu.okse.core.messaging.MessageLog} by the MessageService
    */
+  @Deprecated
   public static boolean insertPersistentMessage(String message, String topic, String originProtocol)
       throws SQLException {
     conDB();
@@ -203,7 +206,9 @@ public class DB {
    * @param topic The topic to query
    * @return A ResultSet containing all messages on the topic
    * @throws SQLException If error during query
+   * @deprecated Use {@link no.ntnu.okse.core.messaging.MessageLog#replay} instead
    */
+  @Deprecated
   public static ResultSet getPersistentMessages(String topic) throws SQLException {
     conDB();
     String select = "SELECT * FROM persistence WHERE topic = ?";
@@ -26,6 +26,8 @@ package no.ntnu.okse.protocol;
 
 import no.ntnu.okse.core.messaging.Message;
 
+import java.util.List;
+
 public interface ProtocolServer {
 
   class BootErrorException extends RuntimeException {
@@ -112,4 +114,15 @@ public interface ProtocolServer {
    * @param message An instance of Message containing the required data to distribute a message.
    */
   void sendMessage(Message message);
+
+  /**
+   * Distributes a batch of messages, in order. Protocol servers that can amortize work across
+   * several messages (subscriber lookups, socket flushes, wake-ups) should override this, the
+   * default implementation calls sendMessage for each message.
+   *
+   * @param messages A list of messages to distribute
+   */
+  default void sendMessages(List<Message> messages) {
+    messages.forEach(this::sendMessage);
+  }
 }
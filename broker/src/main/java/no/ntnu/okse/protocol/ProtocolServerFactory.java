@@ -183,9 +183,22 @@ public class ProtocolServerFactory {
         stringToInt(attr.getNamedItem("wan_port").getNodeValue(), DEFAULT_WAN_PORT) :
         DEFAULT_WAN_PORT;
 
-    return new WSNotificationServer(
+    int max_connections = attr.getNamedItem("max_connections") != null ?
+        stringToInt(attr.getNamedItem("max_connections").getNodeValue(),
+            WSNotificationServer.DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT) :
+        WSNotificationServer.DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+
+    int max_in_flight = attr.getNamedItem("max_in_flight") != null ?
+        stringToInt(attr.getNamedItem("max_in_flight").getNodeValue(),
+            WSNotificationServer.DEFAULT_MAX_IN_FLIGHT_PER_ENDPOINT) :
+        WSNotificationServer.DEFAULT_MAX_IN_FLIGHT_PER_ENDPOINT;
+
+    WSNotificationServer server = new WSNotificationServer(
         host, port, Integer.toUnsignedLong(timeout), pool_size,
         wrapper_name, nat, wan_host, wan_port);
+    server.setMaxConnectionsPerEndpoint(max_connections);
+    server.setMaxInFlightPerEndpoint(max_in_flight);
+    return server;
   }
 
   private static ProtocolServer createStomp(NamedNodeMap attr) {
@@ -27,15 +27,20 @@ package no.ntnu.okse.protocol.amqp;
 import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.topic.TopicService;
 import org.apache.log4j.Logger;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Rejected;
+import org.apache.qpid.proton.amqp.transport.ErrorCondition;
 import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.engine.*;
 import org.apache.qpid.proton.message.Message;
 import org.apache.qpid.proton.messenger.impl.Address;
 
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class AMQPServer extends BaseHandler {
 
@@ -78,14 +83,18 @@ public class AMQPServer extends BaseHandler {
   private static Logger log;
   private final boolean quiet;
   private int tag = 0;
-  private final LinkedBlockingQueue<String> queue;
+  /**
+   * Topics with messages waiting to be sent. This is drained by the reactor thread, which also
+   * publishes into the MessageService, so it is unbounded and never blocks the dispatch lanes.
+   */
+  private final Queue<String> queue;
   private final AMQProtocolServer ps;
 
   public AMQPServer(AMQProtocolServer ps, SubscriptionHandler subscriptionHandler, boolean quiet) {
     this.subscriptionHandler = subscriptionHandler;
     this.quiet = quiet;
     log = Logger.getLogger(AMQPServer.class.getName());
-    queue = new LinkedBlockingQueue<>();
+    queue = new ConcurrentLinkedQueue<>();
     this.ps = ps;
   }
 
@@ -182,19 +191,41 @@ public class AMQPServer extends BaseHandler {
    * @param message : OKSE internal message
    */
   public void addMessageToQueue(no.ntnu.okse.core.messaging.Message message) {
+    enqueueMessage(message);
+
+    log.debug("The first message in the queue is currently: " + queue.peek());
+
+    ps.getDriver().wakeUp();
+  }
+
+  /**
+   * Convert a batch of OKSE messages to AMQP and add them to the message queue, waking up the
+   * reactor only once for the whole batch.
+   *
+   * @param messages : OKSE internal messages
+   */
+  public void addMessagesToQueue(List<no.ntnu.okse.core.messaging.Message> messages) {
+    messages.forEach(this::enqueueMessage);
+
+    ps.getDriver().wakeUp();
+  }
+
+  /**
+   * Convert a OKSE message to AMQP and put it in the message store and queue, without waking up
+   * the reactor.
+   *
+   * @param message : OKSE internal message
+   */
+  private void enqueueMessage(no.ntnu.okse.core.messaging.Message message) {
     Message msg = convertOkseMessageToAMQP(message, ps.getHost());
 
     MessageBytes mb = convertAMQPMessageToMessageBytes(msg);
 
     String address = message.getTopic();
     messages.put(address, mb);
-    queue.add(address);
+    queue.offer(address);
 
     log.debug("Added message on topic: " + address + " to queue");
-
-    log.debug("The first message in the queue is currently: " + queue.peek());
-
-    ps.getDriver().wakeUp();
   }
 
   /**
@@ -209,7 +240,6 @@ public class AMQPServer extends BaseHandler {
     byte[] buffer = guesstimateMessageByteSize(msg);
 
     MessageBytes mb = new MessageBytes(buffer);
-    System.out.println("This is mb.length: " + mb.getBytes().length);
     return mb;
   }
 
@@ -257,7 +287,16 @@ public class AMQPServer extends BaseHandler {
       String host) {
     Message msg = Message.Factory.create();
 
-    Section body = new AmqpValue(message.getMessage());
+    // Binary payloads with a content type go out as a data section, so they are never decoded as
+    // text on the way. Payloads without one, such as MQTT publishes, keep going out as a string
+    // value, which is what existing AMQP consumers expect.
+    Section body;
+    if (message.hasBinaryPayload() && message.getContentType() != null) {
+      body = new Data(new Binary(message.getPayloadBytes()));
+      msg.setContentType(message.getContentType());
+    } else {
+      body = new AmqpValue(message.getMessage());
+    }
 
     msg.setAddress(host + "/" + message.getTopic());
     msg.setSubject("OKSE translated message");
@@ -265,21 +304,23 @@ public class AMQPServer extends BaseHandler {
     return msg;
   }
 
+  /**
+   * Retrieve the number of messages waiting to be sent
+   *
+   * @return The number of queued messages
+   */
+  int getQueueSize() {
+    return queue.size();
+  }
+
   /**
    * Send the messages that are ready to go out.
    */
   public void sendNextMessagesInQueue() {
-    try {
-      if (queue.size() > 0) {
-        while (queue.size() > 0) {
-          String messageTopic = queue.take();
-          send(messageTopic);
-          log.debug("Distributed messages with topic: " + messageTopic);
-        }
-      }
-    } catch (InterruptedException e) {
-      ps.incrementTotalErrors();
-      log.error("Got interrupted: " + e.getMessage());
+    String messageTopic;
+    while ((messageTopic = queue.poll()) != null) {
+      send(messageTopic);
+      log.debug("Distributed messages with topic: " + messageTopic);
     }
   }
 
@@ -312,8 +353,6 @@ public class AMQPServer extends BaseHandler {
       if (!dlv.isPartial()) {
         byte[] bytes = new byte[dlv.pending()];
         rcv.recv(bytes, 0, bytes.length);
-        dlv.disposition(Accepted.getInstance());
-        dlv.settle();
 
         Message msg = Message.Factory.create();
         msg.decode(bytes, 0, bytes.length);
@@ -324,20 +363,29 @@ public class AMQPServer extends BaseHandler {
 
         log.debug("Received a message with queue/topic: " + address.getName());
 
-        TopicService.getInstance().addTopic(address.getName());
+        no.ntnu.okse.core.messaging.Message message = convertAMQPmessageToOkseMessage(msg, address);
 
-        // Add straight to AMQP queue
-        try {
-          messages.put(address.getName(), mb);
-          queue.put(address.getName());
-        } catch (InterruptedException e) {
+        // Only accept the delivery if OKSE accepted the message, otherwise reject it
+        if (MessageService.getInstance().distributeMessage(message)
+            == MessageService.DistributionResult.REJECTED) {
+          Rejected rejected = new Rejected();
+          rejected.setError(new ErrorCondition(Symbol.getSymbol("amqp:resource-limit-exceeded"),
+              "The broker is overloaded"));
+          dlv.disposition(rejected);
+          dlv.settle();
+          log.warn("Rejected message on queue/topic: " + address.getName());
           ps.incrementTotalErrors();
-          log.error("Got interrupted: " + e.getMessage());
+          ps.incrementTotalRequests();
+          return;
         }
+        dlv.disposition(Accepted.getInstance());
+        dlv.settle();
 
-        no.ntnu.okse.core.messaging.Message message = convertAMQPmessageToOkseMessage(msg, address);
+        TopicService.getInstance().addTopic(address.getName());
 
-        MessageService.getInstance().distributeMessage(message);
+        // Add straight to AMQP queue
+        messages.put(address.getName(), mb);
+        queue.offer(address.getName());
 
         log.debug(String
             .format("Got and distributed message(%s): %s from %s", address.getName(), message,
@@ -352,15 +400,30 @@ public class AMQPServer extends BaseHandler {
 
   public static no.ntnu.okse.core.messaging.Message convertAMQPmessageToOkseMessage(
       Message AMQPMessage, Address address) {
-    AmqpValue amqpMessageBodyString = (AmqpValue) AMQPMessage.getBody();
-
-    no.ntnu.okse.core.messaging.Message okseMessage =
-        new no.ntnu.okse.core.messaging.Message(
-            (String) amqpMessageBodyString.getValue(),
-            address.getName(),
-            null,
-            AMQProtocolServer.SERVERTYPE
-        );
+    no.ntnu.okse.core.messaging.Message okseMessage;
+
+    if (AMQPMessage.getBody() instanceof Data) {
+      // Keep data sections as bytes, along with their content type. The binary may be a view into
+      // the transfer buffer, so its bytes are copied out.
+      Binary binary = ((Data) AMQPMessage.getBody()).getValue();
+      okseMessage = new no.ntnu.okse.core.messaging.Message(
+          Arrays.copyOfRange(binary.getArray(), binary.getArrayOffset(),
+              binary.getArrayOffset() + binary.getLength()),
+          AMQPMessage.getContentType(),
+          address.getName(),
+          null,
+          AMQProtocolServer.SERVERTYPE
+      );
+    } else {
+      AmqpValue amqpMessageBodyString = (AmqpValue) AMQPMessage.getBody();
+
+      okseMessage = new no.ntnu.okse.core.messaging.Message(
+          (String) amqpMessageBodyString.getValue(),
+          address.getName(),
+          null,
+          AMQProtocolServer.SERVERTYPE
+      );
+    }
 
     okseMessage.setOriginProtocol(AMQProtocolServer.SERVERTYPE);
 
@@ -32,6 +32,8 @@ import org.apache.qpid.proton.engine.Collector;
 
 import java.io.IOException;
 import java.nio.channels.UnresolvedAddressException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class AMQProtocolServer extends AbstractProtocolServer {
 
@@ -127,6 +129,17 @@ public class AMQProtocolServer extends AbstractProtocolServer {
     }
   }
 
+  @Override
+  public void sendMessages(List<Message> messages) {
+    List<Message> toSend = messages.stream()
+        .filter(message -> !message.getOriginProtocol().equals(protocolServerType)
+            || message.getAttribute("duplicate") != null)
+        .collect(Collectors.toList());
+    if (!toSend.isEmpty()) {
+      server.addMessagesToQueue(toSend);
+    }
+  }
+
   private AMQPServer server;
 
   public Driver getDriver() {
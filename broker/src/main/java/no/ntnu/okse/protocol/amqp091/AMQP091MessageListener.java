@@ -73,21 +73,26 @@ public class AMQP091MessageListener implements AMQPMessageListener, Subscription
    */
   @Override
   public void onMessageReceived(MessageReceived messageReceived) {
-    String message = new String(messageReceived.getBody());
+    byte[] message = messageReceived.getBody();
     String topic = messageReceived.getExchange();
     String host = messageReceived.getHost();
     int port = messageReceived.getPort();
-    log.debug(String.format("Message received from %s:%d on topic %s with contents \"%s\"",
-        host, port, topic, message
+    log.debug(String.format("Message received from %s:%d on topic %s with %d bytes of content",
+        host, port, topic, message.length
     ));
 
     String protocolServerType = amqpProtocolServer.getProtocolServerType();
 
-    MessageService.getInstance()
-        .distributeMessage(new Message(message, topic, null, protocolServerType));
+    MessageService.DistributionResult result = MessageService.getInstance()
+        .distributeMessage(new Message(message, null, topic, null, protocolServerType));
+    amqpProtocolServer.incrementTotalRequests();
+    if (result == MessageService.DistributionResult.REJECTED) {
+      log.warn(String.format("Message from %s:%d on topic %s was rejected", host, port, topic));
+      amqpProtocolServer.incrementTotalErrors();
+      return;
+    }
     TopicService.getInstance().addTopic(topic);
     amqpProtocolServer.incrementTotalMessagesReceived();
-    amqpProtocolServer.incrementTotalRequests();
   }
 
   /**
@@ -7,7 +7,9 @@ import no.ntnu.okse.protocol.AbstractProtocolServer;
 import no.ntnu.okse.protocol.ProtocolServer;
 import org.apache.log4j.Logger;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -105,17 +107,52 @@ public class AMQP091ProtocolServer extends AbstractProtocolServer {
     incrementMessageSentForTopic(message.getTopic());
   }
 
+  /**
+   * Send a batch of messages, only counting subscribers once per topic in the batch
+   *
+   * @param messages messages
+   */
+  @Override
+  public void sendMessages(List<Message> messages) {
+    HashMap<String, Long> subscriberCounts = new HashMap<>();
+    for (Message message : messages) {
+      amqpService.sendMessage(message);
+      incrementMessagesSent(
+          subscriberCounts.computeIfAbsent(message.getTopic(), this::countSubscribersForTopic));
+    }
+  }
+
   /**
    * Increment messages sent for a specific topic
    *
    * @param topic topic
    */
   private void incrementMessageSentForTopic(String topic) {
-    HashSet<Subscriber> allSubscribers = subscriptionService.getAllSubscribers();
-    allSubscribers.stream()
+    incrementMessagesSent(countSubscribersForTopic(topic));
+  }
+
+  /**
+   * Count the AMQP 0.9.1 subscribers on a specific topic
+   *
+   * @param topic topic
+   * @return number of subscribers
+   */
+  private long countSubscribersForTopic(String topic) {
+    HashSet<Subscriber> topicSubscribers = subscriptionService.getAllSubscribersForTopic(topic);
+    return topicSubscribers.stream()
         .filter(subscriber -> subscriber.getOriginProtocol().equals(getProtocolServerType()))
-        .filter(subscriber -> subscriber.getTopic().equals(topic))
-        .forEach(subscriber -> incrementTotalMessagesSent());
+        .count();
+  }
+
+  /**
+   * Increment messages sent a number of times
+   *
+   * @param count number of messages sent
+   */
+  private void incrementMessagesSent(long count) {
+    for (long i = 0; i < count; i++) {
+      incrementTotalMessagesSent();
+    }
   }
 
   /**
@@ -1,16 +1,18 @@
 package no.ntnu.okse.protocol.amqp091;
 
 import fr.dyade.aaa.agent.AgentServer;
+import no.ntnu.okse.Application;
 import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.core.messaging.MessageQueues;
 import org.apache.log4j.Logger;
 import org.ow2.joram.mom.amqp.AMQPService;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -23,7 +25,7 @@ public class AMQP091Service {
   private static final Logger log = Logger.getLogger(AMQP091Service.class.getName());
   private final AMQP091MessageListener messageListener;
   private final AMQP091ProtocolServer protocolServer;
-  private final LinkedBlockingQueue<Message> messageQueue;
+  private final BlockingQueue<Message> messageQueue;
   private Thread messageSenderThread;
   private final AtomicBoolean running;
 
@@ -37,7 +39,7 @@ public class AMQP091Service {
     this.host = amqp091ProtocolServer.getHost();
     this.port = amqp091ProtocolServer.getPort();
     messageListener = new AMQP091MessageListener(amqp091ProtocolServer);
-    messageQueue = new LinkedBlockingQueue<>();
+    messageQueue = MessageQueues.newQueue();
     running = new AtomicBoolean(false);
   }
 
@@ -66,13 +68,17 @@ public class AMQP091Service {
     AMQPService.setPublishing(false);
 
     messageSenderThread = new Thread(() -> {
+      ArrayList<Message> batch = new ArrayList<>();
       while (running.get()) {
         try {
-          Message message = messageQueue.take();
-          AMQPService.internalPublish(message.getTopic(), "",
-              message.getMessage().getBytes(StandardCharsets.UTF_8));
+          MessageQueues.takeBatch(messageQueue, batch, Application.EGRESS_BATCH_SIZE);
+          for (Message message : batch) {
+            AMQPService.internalPublish(message.getTopic(), "", message.getPayloadBytes());
+          }
         } catch (InterruptedException e) {
           log.info("AMQP 0.9.1 message queue interrupted, stopping?");
+        } finally {
+          batch.clear();
         }
 
       }
@@ -129,6 +135,12 @@ public class AMQP091Service {
    * @param message message
    */
   public void sendMessage(Message message) {
-    messageQueue.add(message);
+    try {
+      // Waits for room if the queue is a full ring buffer
+      messageQueue.put(message);
+    } catch (InterruptedException e) {
+      log.error("Interrupted while queueing AMQP 0.9.1 message");
+      protocolServer.incrementTotalErrors();
+    }
   }
 }
@@ -3,9 +3,11 @@ package no.ntnu.okse.protocol.amqp091;
 import no.ntnu.okse.core.subscription.Subscriber;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Helper class for mapping host, port and topic to subscribers
+ * Helper class for mapping host, port and topic to subscribers. Both lookups are backed by
+ * concurrent maps, as the AMQP 0.9.1 listener callbacks arrive on connection threads.
  */
 public class SubscriberMap {
 
@@ -37,20 +39,19 @@ public class SubscriberMap {
         return false;
       }
       Client other = (Client) o;
-      return Objects.equals(host, other.host) && Objects.equals(port, other.port);
+      return Objects.equals(host, other.host) && Objects.equals(port, other.port) &&
+          Objects.equals(topic, other.topic);
     }
 
     public int hashCode() {
-      int hash = 1;
-      hash = hash * 13 + port;
-      hash = hash * 7 + host.hashCode();
-      hash = hash * 31 + (topic == null ? 0 : topic.hashCode());
-      return hash;
+      return Objects.hash(host, port, topic);
     }
   }
 
-  private final Map<Client, Subscriber> topicSubscriberMap = new HashMap<>();
-  private final Map<Client, List<Subscriber>> subscribersMap = new HashMap<>();
+  // Subscribers by host, port and topic, and by host and port
+  private final Map<Client, Subscriber> topicSubscriberMap = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Client, Set<Subscriber>> subscribersMap =
+      new ConcurrentHashMap<>();
 
   /**
    * Put subscriber in map
@@ -58,29 +59,37 @@ public class SubscriberMap {
    * @param subscriber subscriber to add
    */
   public void putSubscriber(Subscriber subscriber) {
-    Client topicClient = new Client(subscriber);
-    topicSubscriberMap.put(topicClient, subscriber);
+    Subscriber previous = topicSubscriberMap.put(new Client(subscriber), subscriber);
     Client client = new Client(subscriber.getHost(), subscriber.getPort());
-    List<Subscriber> subscribers;
-    if (subscribersMap.containsKey(client)) {
-      subscribers = subscribersMap.get(client);
-    } else {
-      subscribers = new ArrayList<>();
-      subscribersMap.put(client, subscribers);
-    }
-    subscribers.add(subscriber);
+    subscribersMap.compute(client, (key, subscribers) -> {
+      if (subscribers == null) {
+        subscribers = ConcurrentHashMap.newKeySet();
+      }
+      if (previous != null) {
+        subscribers.remove(previous);
+      }
+      subscribers.add(subscriber);
+      return subscribers;
+    });
   }
 
+  /**
+   * Remove subscriber from map
+   *
+   * @param subscriber subscriber to remove, ignored if null
+   */
   public void removeSubscriber(Subscriber subscriber) {
-    // Remove subscriber from topics
-    Client topicClient = new Client(subscriber);
-    topicSubscriberMap.remove(topicClient);
-    // Remove subscriber from subscribersMap
+    if (subscriber == null) {
+      return;
+    }
+    // Remove subscriber from topics, unless it has been replaced by another subscriber
+    topicSubscriberMap.remove(new Client(subscriber), subscriber);
+    // Remove subscriber from subscribersMap, dropping the host:port entry once it is empty
     Client client = new Client(subscriber.getHost(), subscriber.getPort());
-    if (subscribersMap.containsKey(client)) {
-      List<Subscriber> subscribers = subscribersMap.get(client);
+    subscribersMap.computeIfPresent(client, (key, subscribers) -> {
       subscribers.remove(subscriber);
-    }
+      return subscribers.isEmpty() ? null : subscribers;
+    });
   }
 
   /**
@@ -96,17 +105,18 @@ public class SubscriberMap {
   }
 
   /**
-   * Get list of subscribers for a specific host:port
+   * Get list of subscribers for a specific host:port. The list is a copy, so callers may remove
+   * subscribers while iterating over it.
    *
    * @param host hostname
    * @param port port
    * @return list of subscribers
    */
   public List<Subscriber> getSubscribers(String host, int port) {
-    List<Subscriber> subscribers = subscribersMap.get(new Client(host, port));
+    Set<Subscriber> subscribers = subscribersMap.get(new Client(host, port));
     if (subscribers == null) {
-      subscribers = new ArrayList<>();
+      return new ArrayList<>();
     }
-    return subscribers;
+    return new ArrayList<>(subscribers);
   }
 }
@@ -13,7 +13,9 @@ import io.moquette.server.Server;
 import io.moquette.server.config.IConfig;
 import io.moquette.server.config.MemoryConfig;
 import io.netty.channel.Channel;
+import no.ntnu.okse.Application;
 import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.core.messaging.MessageQueues;
 import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.topic.TopicService;
 import org.apache.log4j.Logger;
@@ -23,9 +25,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MQTTServer extends Server {
@@ -36,7 +39,7 @@ public class MQTTServer extends Server {
   private final IConfig config;
   private final List<InterceptHandler> interceptHandlers;
   private MQTTSubscriptionManager subscriptionManager;
-  private final LinkedBlockingQueue<Message> messageQueue;
+  private final BlockingQueue<Message> messageQueue;
   private Thread messageSenderThread;
   private final AtomicBoolean running;
 
@@ -80,7 +83,7 @@ public class MQTTServer extends Server {
     interceptHandlers = new ArrayList<>();
     interceptHandlers.add(createListeners());
     config = new MemoryConfig(getConfig(host, port));
-    messageQueue = new LinkedBlockingQueue<>();
+    messageQueue = MessageQueues.newQueue();
     running = new AtomicBoolean(false);
   }
 
@@ -94,12 +97,15 @@ public class MQTTServer extends Server {
       }
 
       messageSenderThread = new Thread(() -> {
+        ArrayList<Message> batch = new ArrayList<>();
         while (running.get()) {
           try {
-            Message message = messageQueue.take();
-            sendMessage(message);
+            MessageQueues.takeBatch(messageQueue, batch, Application.EGRESS_BATCH_SIZE);
+            sendMessages(batch);
           } catch (InterruptedException e) {
             log.info("MQTT message queue interrupted, stopping?");
+          } finally {
+            batch.clear();
           }
 
         }
@@ -137,13 +143,19 @@ public class MQTTServer extends Server {
     }
 
     String topic = message.getTopicName();
-    String payload = getPayload(message);
+    byte[] payload = getPayload(message);
 
     TopicService.getInstance().addTopic(topic);
 
-    Message msg = new Message(payload, topic, null, protocolServerType);
+    // MQTT payloads are opaque bytes, so they are passed on without decoding
+    Message msg = new Message(payload, null, topic, null, protocolServerType);
     msg.setAttribute("qos", String.valueOf(message.getQos().byteValue()));
-    sendMessageToOKSE(msg);
+    if (sendMessageToOKSE(msg) == MessageService.DistributionResult.REJECTED) {
+      // MQTT 3.1.1 has no negative acknowledgement for PUBLISH, so all we can do is to account for it
+      log.warn("Message from ID: " + message.getClientID() + " was rejected by OKSE");
+      ps.incrementTotalErrors();
+      return;
+    }
     ps.incrementTotalMessagesReceived();
   }
 
@@ -200,20 +212,23 @@ public class MQTTServer extends Server {
    * Sends a message into the OKSE core
    *
    * @param msg the OKSE message to send into the core
+   * @return the result of the distribution
    */
-  public void sendMessageToOKSE(Message msg) {
-    MessageService.getInstance().distributeMessage(msg);
+  public MessageService.DistributionResult sendMessageToOKSE(Message msg) {
+    return MessageService.getInstance().distributeMessage(msg);
   }
 
   /**
    * This method returns the payload of a publish message
    *
    * @param message the publish message that was sent to Moquette from, a client.
-   * @return the payload of the message
+   * @return a copy of the payload of the message, as Moquette may reuse its buffer
    */
-  private String getPayload(InterceptPublishMessage message) {
-    ByteBuffer buffer = message.getPayload();
-    return new String(buffer.array(), buffer.position(), buffer.limit());
+  private byte[] getPayload(InterceptPublishMessage message) {
+    ByteBuffer buffer = message.getPayload().duplicate();
+    byte[] payload = new byte[buffer.remaining()];
+    buffer.get(payload);
+    return payload;
   }
 
   /**
@@ -267,7 +282,13 @@ public class MQTTServer extends Server {
    * @param message Message to queue
    */
   public void queueMessage(@NotNull Message message) {
-    messageQueue.add(message);
+    try {
+      // Waits for room if the queue is a full ring buffer
+      messageQueue.put(message);
+    } catch (InterruptedException e) {
+      log.error("Interrupted while queueing MQTT message");
+      ps.incrementTotalErrors();
+    }
   }
 
   /**
@@ -292,6 +313,26 @@ public class MQTTServer extends Server {
     }
   }
 
+  /**
+   * Sends a batch of messages to the subscribers of their topics. Subscribers are only looked up
+   * once per topic in the batch.
+   *
+   * @param messages the messages that are sent from OKSE core
+   */
+  public void sendMessages(@NotNull List<Message> messages) {
+    HashMap<String, Integer> subscriberCounts = new HashMap<>();
+    for (Message message : messages) {
+      int subscribers = subscriberCounts.computeIfAbsent(message.getTopic(),
+          topic -> subscriptionManager.getAllSubscribersFromTopic(topic).size());
+      if (subscribers > 0) {
+        for (int i = 0; i < subscribers; i++) {
+          ps.incrementTotalMessagesSent();
+        }
+        internalPublish(createMQTTMessage(message));
+      }
+    }
+  }
+
   /**
    * Creates an MQTT message from the given arguments
    *
@@ -299,7 +340,8 @@ public class MQTTServer extends Server {
    */
   protected PublishMessage createMQTTMessage(@NotNull Message message) {
     PublishMessage msg = new PublishMessage();
-    ByteBuffer payload = ByteBuffer.wrap(message.getMessage().getBytes());
+    // Moquette holds on to the buffer of retained and in-flight messages, so it gets its own copy
+    ByteBuffer payload = ByteBuffer.wrap(message.getPayloadBytes());
 
     String topicName = message.getTopic();
 
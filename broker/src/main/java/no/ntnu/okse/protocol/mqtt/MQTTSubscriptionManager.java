@@ -5,26 +5,42 @@ import no.ntnu.okse.core.event.listeners.SubscriptionChangeListener;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.core.subscription.SubscriptionService;
 import no.ntnu.okse.core.topic.TopicService;
+import no.ntnu.okse.core.topic.TopicTrie;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class handles subscriptions, will add and remove subscribers based on clientID, a subscriber
  * object or a host, a port and a topic.
+ *
+ * Subscribers are kept in concurrent indexes by host, port and topic, by host and port, by clientID
+ * and by topic, as Moquette calls in from its Netty threads. Lookups never lock, while changes are
+ * serialized on the manager so the indexes stay consistent with each other.
  */
 public class MQTTSubscriptionManager implements SubscriptionChangeListener {
 
   private static Logger log;
   private SubscriptionService subscriptionService = null;
-  private final ArrayList<MQTTSubscriber> subscriberList;
+  private final ConcurrentHashMap<String, MQTTSubscriber> subscribers;
+  private final ConcurrentHashMap<String, Set<MQTTSubscriber>> subscribersByConnection;
+  private final ConcurrentHashMap<String, Set<MQTTSubscriber>> subscribersByClientID;
+  private final ConcurrentHashMap<Subscriber, MQTTSubscriber> subscribersByCoreSubscriber;
+  private final TopicTrie<MQTTSubscriber> topicIndex;
 
   /**
-   * Constructor Instantiates the log Instantiates the local subscriber list
+   * Constructor Instantiates the log Instantiates the local subscriber indexes
    */
   public MQTTSubscriptionManager() {
     log = Logger.getLogger(MQTTSubscriptionManager.class.getName());
-    subscriberList = new ArrayList<>();
+    subscribers = new ConcurrentHashMap<>();
+    subscribersByConnection = new ConcurrentHashMap<>();
+    subscribersByClientID = new ConcurrentHashMap<>();
+    subscribersByCoreSubscriber = new ConcurrentHashMap<>();
+    topicIndex = new TopicTrie<>();
   }
 
   /**
@@ -44,8 +60,8 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
    * @param topic the topic of the subscription
    * @param clientID the clientID of the connection
    */
-  public void addSubscriber(String host, int port, String topic, String clientID) {
-    if (getSubscriberIndex(host, port, topic) != -1) {
+  public synchronized void addSubscriber(String host, int port, String topic, String clientID) {
+    if (containsSubscriber(host, port, topic)) {
       log.warn("This subscriber is already added");
       return;
     }
@@ -58,8 +74,14 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
     TopicService.getInstance().addTopic(topic);
     //Add the subscriber to OKSE
     subscriptionService.addSubscriber(sub);
-    //Add the subscriber to the local map
-    subscriberList.add(mqttSub);
+    //Add the subscriber to the local indexes
+    subscribers.put(subscriptionKey(host, port, topic), mqttSub);
+    subscribersByConnection.computeIfAbsent(connectionKey(host, port),
+        k -> ConcurrentHashMap.newKeySet()).add(mqttSub);
+    subscribersByClientID.computeIfAbsent(clientID, k -> ConcurrentHashMap.newKeySet())
+        .add(mqttSub);
+    subscribersByCoreSubscriber.put(sub, mqttSub);
+    topicIndex.add(topic, mqttSub);
   }
 
   /**
@@ -69,11 +91,11 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
    * @param port the port of the connection
    * @param topic the topic of the subscription
    */
-  public void removeSubscriber(String host, int port, String topic) {
-    int index = getSubscriberIndex(host, port, topic);
-    if (index > -1) {
-      subscriptionService.removeSubscriber(subscriberList.get(index).getSubscriber());
-      subscriberList.remove(index);
+  public synchronized void removeSubscriber(String host, int port, String topic) {
+    MQTTSubscriber mqttSub = subscribers.get(subscriptionKey(host, port, topic));
+    if (mqttSub != null) {
+      subscriptionService.removeSubscriber(mqttSub.getSubscriber());
+      removeLocal(mqttSub);
     }
   }
 
@@ -83,11 +105,9 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
    * @param sub the OKSE subscriber instance to remove
    */
   public void removeSubscriber(Subscriber sub) {
-    for (MQTTSubscriber mqtt_sub : subscriberList) {
-      if (mqtt_sub.getSubscriber() == sub) {
-        removeSubscriber(mqtt_sub.getHost(), mqtt_sub.getPort(), mqtt_sub.getTopic());
-        return;
-      }
+    MQTTSubscriber mqttSub = subscribersByCoreSubscriber.get(sub);
+    if (mqttSub != null) {
+      removeSubscriber(mqttSub.getHost(), mqttSub.getPort(), mqttSub.getTopic());
     }
   }
 
@@ -96,34 +116,61 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
    *
    * @param clientID the clientID, used to remove subscribers
    */
-  public void removeSubscribers(String clientID) {
-    ArrayList<Integer> list = getSubscriberIndexes(clientID);
-    int count = 0;
-    for (Integer aList : list) {
-      int index = aList;
-      //Each time we delete from the lists we also have to subtract 1 from all the indexes
-      //We achieve this easiest by counting the number of the removed subscribers and simply subtracting
-      //that number from the correct index.
-      subscriptionService.removeSubscriber(subscriberList.get(index - count).getSubscriber());
-      subscriberList.remove(index - count);
-      count++;
+  public synchronized void removeSubscribers(String clientID) {
+    for (MQTTSubscriber mqttSub : getSubscribers(clientID)) {
+      subscriptionService.removeSubscriber(mqttSub.getSubscriber());
+      removeLocal(mqttSub);
     }
   }
 
   /**
-   * Returns the subscriber index, in the local map, based on the host, port and topic given
+   * Removes a subscriber from all the local indexes
+   *
+   * @param mqttSub the subscriber to remove
+   */
+  private void removeLocal(MQTTSubscriber mqttSub) {
+    subscribers.remove(
+        subscriptionKey(mqttSub.getHost(), mqttSub.getPort(), mqttSub.getTopic()), mqttSub);
+    removeFromIndex(subscribersByConnection, connectionKey(mqttSub.getHost(), mqttSub.getPort()),
+        mqttSub);
+    removeFromIndex(subscribersByClientID, mqttSub.getClientID(), mqttSub);
+    subscribersByCoreSubscriber.remove(mqttSub.getSubscriber());
+    topicIndex.remove(mqttSub.getTopic(), mqttSub);
+  }
+
+  /**
+   * Removes a subscriber from a multi-valued index, dropping the key once it has no subscribers
+   */
+  private static void removeFromIndex(ConcurrentHashMap<String, Set<MQTTSubscriber>> index,
+      String key, MQTTSubscriber mqttSub) {
+    index.computeIfPresent(key, (k, subs) -> {
+      subs.remove(mqttSub);
+      return subs.isEmpty() ? null : subs;
+    });
+  }
+
+  /**
+   * Returns the subscriber index based on the host, port and topic given
    *
    * @param host the host of the connection
    * @param port the port of the connection
    * @param topic the topic of the subscription
-   * @return the index of that subscriber in the local map
+   * @return the position of that subscriber in the local map, or -1 if it does not exist
+   * @deprecated positions are not stable as subscribers come and go, use {@link
+   * #getSubscriber(String, int, String)} or {@link #containsSubscriber(String, int, String)}
    */
+  @Deprecated
   public int getSubscriberIndex(String host, int port, String topic) {
-    for (int i = 0; i < subscriberList.size(); i++) {
-      MQTTSubscriber sub = subscriberList.get(i);
-      if (sub.getHost().equals(host) && sub.getPort() == port && sub.getTopic().equals(topic)) {
+    MQTTSubscriber mqttSub = getSubscriber(host, port, topic);
+    if (mqttSub == null) {
+      return -1;
+    }
+    int i = 0;
+    for (MQTTSubscriber sub : subscribers.values()) {
+      if (sub == mqttSub) {
         return i;
       }
+      i++;
     }
     return -1;
   }
@@ -133,14 +180,18 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
    *
    * @param clientID the clientID to return indexes for
    * @return returns an ArrayList of indexes
+   * @deprecated positions are not stable as subscribers come and go, use {@link
+   * #getSubscribers(String)}
    */
+  @Deprecated
   public ArrayList<Integer> getSubscriberIndexes(String clientID) {
     ArrayList<Integer> indexes = new ArrayList<>();
-    for (int i = 0; i < subscriberList.size(); i++) {
-      MQTTSubscriber sub = subscriberList.get(i);
+    int i = 0;
+    for (MQTTSubscriber sub : subscribers.values()) {
       if (sub.getClientID().equals(clientID)) {
         indexes.add(i);
       }
+      i++;
     }
     return indexes;
   }
@@ -154,7 +205,7 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
    * @return returns true if there exists a subscriber with these values.
    */
   public boolean containsSubscriber(String host, int port, String topic) {
-    return getSubscriberIndex(host, port, topic) != -1;
+    return subscribers.containsKey(subscriptionKey(host, port, topic));
   }
 
   /**
@@ -166,27 +217,41 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
    * @return returns the MQTTSubscriber instance
    */
   public MQTTSubscriber getSubscriber(String host, int port, String topic) {
-    int index = getSubscriberIndex(host, port, topic);
-    if (index == -1) {
-      return null;
-    }
-    return subscriberList.get(index);
+    return subscribers.get(subscriptionKey(host, port, topic));
+  }
+
+  /**
+   * Returns all subscribers registered under a clientID
+   *
+   * @param clientID the clientID of the connection
+   * @return returns an ArrayList of MQTTSubscriber instances
+   */
+  public ArrayList<MQTTSubscriber> getSubscribers(String clientID) {
+    return new ArrayList<>(
+        subscribersByClientID.getOrDefault(clientID, Collections.emptySet()));
   }
 
   /**
-   * Returns all subscribers from a certain topic
+   * Returns all subscribers from a certain connection
+   *
+   * @param host the host of the connection
+   * @param port the port of the connection
+   * @return returns an ArrayList of MQTTSubscriber instances
+   */
+  public ArrayList<MQTTSubscriber> getSubscribers(String host, int port) {
+    return new ArrayList<>(
+        subscribersByConnection.getOrDefault(connectionKey(host, port), Collections.emptySet()));
+  }
+
+  /**
+   * Returns all subscribers from a certain topic, including those subscribed through a "+" or "#"
+   * topic filter that matches it
    *
    * @param topic the topic to return subscribers for
    * @return returns an ArrayList of MQTTSubscriber instances
    */
   public ArrayList<MQTTSubscriber> getAllSubscribersFromTopic(String topic) {
-    ArrayList<MQTTSubscriber> subscribers = new ArrayList<>();
-    for (MQTTSubscriber sub : subscriberList) {
-      if (sub.getTopic().equals(topic)) {
-        subscribers.add(sub);
-      }
-    }
-    return subscribers;
+    return new ArrayList<>(topicIndex.match(topic));
   }
 
   @Override
@@ -198,4 +263,18 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
       }
     }
   }
+
+  /**
+   * @return the key of a connection, host and port never contain "/"
+   */
+  private static String connectionKey(String host, int port) {
+    return host + ":" + port;
+  }
+
+  /**
+   * @return the key of a subscription, unique as the connection key ends at the first "/"
+   */
+  private static String subscriptionKey(String host, int port, String topic) {
+    return connectionKey(host, port) + "/" + topic;
+  }
 }
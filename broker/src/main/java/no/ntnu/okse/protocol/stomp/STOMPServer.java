@@ -7,7 +7,9 @@ import asia.stampy.server.message.message.MessageMessage;
 import asia.stampy.server.netty.Boilerplate;
 import asia.stampy.server.netty.ServerNettyMessageGateway;
 import io.moquette.server.Server;
+import no.ntnu.okse.Application;
 import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.core.messaging.MessageQueues;
 import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.protocol.stomp.listeners.*;
@@ -16,7 +18,7 @@ import org.apache.log4j.Logger;
 
 import javax.validation.constraints.NotNull;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class STOMPServer extends Server {
@@ -25,7 +27,7 @@ public class STOMPServer extends Server {
   public ServerNettyMessageGateway gateway;
   private static STOMPProtocolServer ps;
   private final Logger log;
-  private final LinkedBlockingQueue<Message> messageQueue;
+  private final BlockingQueue<Message> messageQueue;
   private Thread messageSenderThread;
   private final AtomicBoolean running;
 
@@ -34,7 +36,7 @@ public class STOMPServer extends Server {
    */
   public STOMPServer() {
     log = Logger.getLogger(STOMPProtocolServer.class.getName());
-    messageQueue = new LinkedBlockingQueue<>();
+    messageQueue = MessageQueues.newQueue();
     running = new AtomicBoolean(false);
   }
 
@@ -97,6 +99,7 @@ public class STOMPServer extends Server {
     ErrorListener errorListener = new ErrorListener();
 
     subListener.setSubscriptionManager(subscriptionManager);
+    subListener.setServer(this);
     unsubListener.setSubscriptionManager(subscriptionManager);
 
     messageListener.setProtocolServer(ps);
@@ -128,12 +131,15 @@ public class STOMPServer extends Server {
     gateway.connect();
 
     messageSenderThread = new Thread(() -> {
+      ArrayList<Message> batch = new ArrayList<>();
       while (running.get()) {
         try {
-          Message message = messageQueue.take();
-          sendMessage(message);
+          MessageQueues.takeBatch(messageQueue, batch, Application.EGRESS_BATCH_SIZE);
+          sendMessages(batch);
         } catch (InterruptedException e) {
           log.info("STOMP message queue interrupted, stopping?");
+        } finally {
+          batch.clear();
         }
 
       }
@@ -156,7 +162,13 @@ public class STOMPServer extends Server {
    * @param message Message to queue
    */
   public void queueMessage(@NotNull Message message) {
-    messageQueue.add(message);
+    try {
+      // Waits for room if the queue is a full ring buffer
+      messageQueue.put(message);
+    } catch (InterruptedException e) {
+      log.error("Interrupted while queueing STOMP message");
+      ps.incrementTotalErrors();
+    }
   }
 
   /**
@@ -166,9 +178,16 @@ public class STOMPServer extends Server {
    * @param message is the message that is sent from OKSE core
    */
   public void sendMessage(@NotNull Message message) {
-    HashMap<String, Subscriber> subs = subscriptionManager
-        .getAllSubscribersForTopic(message.getTopic());
+    sendMessage(message, subscriptionManager.getAllSubscribersForTopic(message.getTopic()));
+  }
 
+  /**
+   * Sends the message to the given subscribers
+   *
+   * @param message is the message that is sent from OKSE core
+   * @param subs the subscribers of the topic of the message, keyed by subscription id
+   */
+  private void sendMessage(@NotNull Message message, HashMap<String, Subscriber> subs) {
     for (Map.Entry pair : subs.entrySet()) {
       String key = (String) pair.getKey();
 
@@ -186,6 +205,37 @@ public class STOMPServer extends Server {
     }
   }
 
+  /**
+   * Replays earlier messages to a single new subscriber. Messages published while the replay is
+   * being sent may be delivered before the last replayed message.
+   *
+   * @param messages the messages to replay, oldest first
+   * @param sub the subscriber
+   * @param subscriptionId the id of the subscription
+   */
+  public void sendHistory(@NotNull List<Message> messages, Subscriber sub, String subscriptionId) {
+    HashMap<String, Subscriber> subs = new HashMap<>();
+    subs.put(subscriptionId, sub);
+    for (Message message : messages) {
+      sendMessage(message, subs);
+    }
+  }
+
+  /**
+   * Sends a batch of messages to the subscribers of their topics. Subscribers are only looked up
+   * once per topic in the batch.
+   *
+   * @param messages the messages that are sent from OKSE core
+   */
+  public void sendMessages(@NotNull List<Message> messages) {
+    HashMap<String, HashMap<String, Subscriber>> subscribersByTopic = new HashMap<>();
+    for (Message message : messages) {
+      HashMap<String, Subscriber> subs = subscribersByTopic.computeIfAbsent(message.getTopic(),
+          topic -> subscriptionManager.getAllSubscribersForTopic(topic));
+      sendMessage(message, subs);
+    }
+  }
+
   /**
    * Creates a STOMP message from an OKSE message
    *
@@ -4,18 +4,31 @@ import no.ntnu.okse.core.event.SubscriptionChangeEvent;
 import no.ntnu.okse.core.event.listeners.SubscriptionChangeListener;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.core.subscription.SubscriptionService;
+import no.ntnu.okse.core.topic.TopicTrie;
 import org.apache.log4j.Logger;
 import org.oasis_open.docs.wsn.bw_2.SubscriptionManager;
 
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Keeps track of the STOMP subscribers by client id. The client ids are also indexed by topic, by
+ * host and port and by OKSE subscriber id, so that publishing, disconnects and unsubscribe events
+ * do not have to scan every subscriber. Changes are serialized on the manager to keep the indexes
+ * consistent, lookups do not lock.
+ */
 public class STOMPSubscriptionManager implements SubscriptionChangeListener {
 
   private static Logger log;
   private SubscriptionService subscriptionService = null;
   public final ConcurrentHashMap<String, Subscriber> localSubscriberMap;
+  // Client ids in localSubscriberMap, indexed by the topic, connection and id of their subscriber
+  private final TopicTrie<String> topicIndex;
+  private final ConcurrentHashMap<String, Set<String>> clientIDsByConnection;
+  private final ConcurrentHashMap<String, Set<String>> clientIDsBySubscriberID;
 
   /**
    * Setup of variables
@@ -23,6 +36,9 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
   public STOMPSubscriptionManager() {
     log = Logger.getLogger(SubscriptionManager.class.getName());
     localSubscriberMap = new ConcurrentHashMap<>();
+    topicIndex = new TopicTrie<>();
+    clientIDsByConnection = new ConcurrentHashMap<>();
+    clientIDsBySubscriberID = new ConcurrentHashMap<>();
   }
 
   /**
@@ -40,7 +56,7 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
    * @param s OKSE subscriber
    * @param clientID Some specific clientID
    */
-  public void addSubscriber(Subscriber s, String clientID) {
+  public synchronized void addSubscriber(Subscriber s, String clientID) {
     if (containsSubscriber(clientID)) {
       log.warn("This subscriber is already added");
       return;
@@ -48,6 +64,7 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
     subscriptionService.addSubscriber(s);
     log.debug("Adding Subscriber to local mappings: " + clientID);
     localSubscriberMap.put(clientID, s);
+    indexSubscriber(clientID, s);
   }
 
   /**
@@ -55,10 +72,11 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
    *
    * @param clientID the client id of the message
    */
-  public void removeSubscriber(String clientID) {
-    if (containsSubscriber(clientID)) {
-      subscriptionService.removeSubscriber(getSubscriber(clientID));
-      localSubscriberMap.remove(clientID);
+  public synchronized void removeSubscriber(String clientID) {
+    Subscriber sub = localSubscriberMap.remove(clientID);
+    if (sub != null) {
+      subscriptionService.removeSubscriber(sub);
+      unindexSubscriber(clientID, sub);
     }
   }
 
@@ -68,15 +86,9 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
    * @param host the host of the connection
    * @param port the port of the connection
    */
-  public void removeSubscriber(String host, int port) {
-    Enumeration<String> enum_keys = localSubscriberMap.keys();
-    while (enum_keys.hasMoreElements()) {
-      String key = enum_keys.nextElement();
-      Subscriber sub = localSubscriberMap.get(key);
-      if (sub.getHost().equals(host) && sub.getPort() == port) {
-        subscriptionService.removeSubscriber(sub);
-        localSubscriberMap.remove(key);
-      }
+  public synchronized void removeSubscriber(String host, int port) {
+    for (String clientID : getClientIDs(clientIDsByConnection, connectionKey(host, port))) {
+      removeSubscriber(clientID);
     }
   }
 
@@ -85,14 +97,12 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
    *
    * @param sub The subscriber to remove
    */
-  public void removeSubscriber(Subscriber sub) {
-    Enumeration<String> enum_keys = localSubscriberMap.keys();
-    while (enum_keys.hasMoreElements()) {
-      String key = enum_keys.nextElement();
-      Subscriber local_sub = localSubscriberMap.get(key);
-      if (local_sub.getSubscriberID().equals(sub.getSubscriberID())) {
+  public synchronized void removeSubscriber(Subscriber sub) {
+    for (String clientID : getClientIDs(clientIDsBySubscriberID, sub.getSubscriberID())) {
+      Subscriber local_sub = localSubscriberMap.remove(clientID);
+      if (local_sub != null) {
         subscriptionService.removeSubscriber(sub);
-        localSubscriberMap.remove(key);
+        unindexSubscriber(clientID, local_sub);
       }
     }
   }
@@ -116,23 +126,77 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
   }
 
   /**
-   * Gets all subscribers for some specific topic
+   * Gets all subscribers for some specific topic, including wildcard subscriptions matching it
    *
    * @param topic the topic to filter on
    */
   public HashMap<String, Subscriber> getAllSubscribersForTopic(String topic) {
     HashMap<String, Subscriber> newHashMap = new HashMap<>();
-    Object[] keyArr = localSubscriberMap.keySet().toArray();
-    for (int i = 0; i < localSubscriberMap.size(); i++) {
-      String key = (String) keyArr[i];
-      Subscriber sub = localSubscriberMap.get(key);
-      if (sub.getTopic().equals(topic)) {
-        newHashMap.put(key, sub);
+    for (String clientID : topicIndex.match(topic)) {
+      Subscriber sub = localSubscriberMap.get(clientID);
+      if (sub != null) {
+        newHashMap.put(clientID, sub);
       }
     }
     return newHashMap;
   }
 
+  /**
+   * Adds a client id to the topic, connection and subscriber id indexes
+   *
+   * @param clientID the client id of the connection
+   * @param sub the subscriber of the client
+   */
+  private void indexSubscriber(String clientID, Subscriber sub) {
+    if (sub.getTopic() != null) {
+      topicIndex.add(sub.getTopic(), clientID);
+    }
+    clientIDsByConnection.computeIfAbsent(connectionKey(sub.getHost(), sub.getPort()),
+        k -> ConcurrentHashMap.newKeySet()).add(clientID);
+    clientIDsBySubscriberID.computeIfAbsent(sub.getSubscriberID(),
+        k -> ConcurrentHashMap.newKeySet()).add(clientID);
+  }
+
+  /**
+   * Removes a client id from the topic, connection and subscriber id indexes
+   *
+   * @param clientID the client id of the connection
+   * @param sub the subscriber of the client
+   */
+  private void unindexSubscriber(String clientID, Subscriber sub) {
+    if (sub.getTopic() != null) {
+      topicIndex.remove(sub.getTopic(), clientID);
+    }
+    removeClientID(clientIDsByConnection, connectionKey(sub.getHost(), sub.getPort()), clientID);
+    removeClientID(clientIDsBySubscriberID, sub.getSubscriberID(), clientID);
+  }
+
+  /**
+   * Copies the client ids stored under a key in one of the indexes
+   */
+  private static ArrayList<String> getClientIDs(ConcurrentHashMap<String, Set<String>> index,
+      String key) {
+    return new ArrayList<>(index.getOrDefault(key, Collections.emptySet()));
+  }
+
+  /**
+   * Removes a client id from one of the indexes, dropping the key once it is empty
+   */
+  private static void removeClientID(ConcurrentHashMap<String, Set<String>> index, String key,
+      String clientID) {
+    index.computeIfPresent(key, (k, clientIDs) -> {
+      clientIDs.remove(clientID);
+      return clientIDs.isEmpty() ? null : clientIDs;
+    });
+  }
+
+  /**
+   * @return the key of a connection in the connection index
+   */
+  private static String connectionKey(String host, int port) {
+    return host + ":" + port;
+  }
+
   /**
    * Method that is called from OKSE whenever a subscription changes
    *
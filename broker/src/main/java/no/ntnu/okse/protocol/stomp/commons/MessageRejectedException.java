@@ -0,0 +1,12 @@
+package no.ntnu.okse.protocol.stomp.commons;
+
+/**
+ * Exception that can be thrown when OKSE refuses to accept a message, resulting in an ERROR frame
+ * being sent back to the client
+ */
+public class MessageRejectedException extends Exception {
+
+  public MessageRejectedException(String msg) {
+    super(msg);
+  }
+}
@@ -9,6 +9,7 @@ import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.topic.TopicService;
 import no.ntnu.okse.protocol.stomp.STOMPProtocolServer;
+import no.ntnu.okse.protocol.stomp.commons.MessageRejectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,7 +50,8 @@ public class MessageListener implements StampyMessageListener {
   }
 
   @Override
-  public void messageReceived(StampyMessage<?> stampyMessage, HostPort hostPort) {
+  public void messageReceived(StampyMessage<?> stampyMessage, HostPort hostPort)
+      throws MessageRejectedException {
     SendMessage sendMessage = (SendMessage) stampyMessage;
     String destination = sendMessage.getHeader().getDestination();
 
@@ -76,7 +78,10 @@ public class MessageListener implements StampyMessageListener {
       }
     }
 
-    sendMessageToOKSE(okseMsg);
+    if (sendMessageToOKSE(okseMsg) == MessageService.DistributionResult.REJECTED) {
+      protocolServer.incrementTotalErrors();
+      throw new MessageRejectedException("The broker is overloaded, message was not accepted");
+    }
     protocolServer.incrementTotalMessagesReceived();
   }
 
@@ -84,9 +89,10 @@ public class MessageListener implements StampyMessageListener {
    * Sends a message into OKSE
    *
    * @param msg the message to send
+   * @return the result of the distribution
    */
-  private void sendMessageToOKSE(Message msg) {
-    messageService.distributeMessage(msg);
+  private MessageService.DistributionResult sendMessageToOKSE(Message msg) {
+    return messageService.distributeMessage(msg);
   }
 
   /**
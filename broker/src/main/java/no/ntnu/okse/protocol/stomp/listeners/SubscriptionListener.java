@@ -5,17 +5,38 @@ import asia.stampy.common.gateway.HostPort;
 import asia.stampy.common.gateway.StampyMessageListener;
 import asia.stampy.common.message.StampyMessage;
 import asia.stampy.common.message.StompMessageType;
+import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.core.topic.TopicService;
+import no.ntnu.okse.core.topic.TopicTrie;
+import no.ntnu.okse.protocol.stomp.STOMPServer;
 import no.ntnu.okse.protocol.stomp.STOMPSubscriptionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.List;
 
 /**
  * This class listens to the SUBSCRIBE message type and handles any connection that wants to
  * subscribe to a topic
+ *
+ * A subscriber can ask for recent messages on the topic to be replayed with the okse-history-last
+ * header, giving the maximum number of messages, and the okse-history-since header, giving the
+ * earliest time in epoch milliseconds. The history is sent before the subscription is registered,
+ * so replayed messages are never duplicated or overtaken by live ones, but messages published while
+ * the history is being sent are not delivered. History is only kept per concrete topic, so
+ * destinations containing wildcards get no replay.
  */
 public class SubscriptionListener implements StampyMessageListener {
 
+  public static final String HISTORY_LAST_HEADER = "okse-history-last";
+  public static final String HISTORY_SINCE_HEADER = "okse-history-since";
+
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private STOMPSubscriptionManager subscriptionManager;
+  private STOMPServer server;
   private final String protocol;
 
   /**
@@ -40,10 +61,64 @@ public class SubscriptionListener implements StampyMessageListener {
     SubscribeMessage subMessage = (SubscribeMessage) stampyMessage;
     Subscriber sub = new Subscriber(hostPort.getHost(), hostPort.getPort(),
         subMessage.getHeader().getDestination(), protocol);
+    replayHistory(subMessage, sub);
     subscriptionManager.addSubscriber(sub, subMessage.getHeader().getId());
     TopicService.getInstance().addTopic(sub.getTopic());
   }
 
+  /**
+   * Replays the history of the topic to a new subscriber, if it was asked for in the headers
+   *
+   * @param subMessage the SUBSCRIBE message
+   * @param sub the new subscriber
+   */
+  private void replayHistory(SubscribeMessage subMessage, Subscriber sub) {
+    String last = getHeader(subMessage, HISTORY_LAST_HEADER);
+    String since = getHeader(subMessage, HISTORY_SINCE_HEADER);
+    if ((last == null && since == null) || server == null) {
+      return;
+    }
+    if (TopicTrie.containsWildcard(sub.getTopic())) {
+      log.warn("Ignoring history request on wildcard Topic{" + sub.getTopic() + "}");
+      return;
+    }
+    List<Message> history;
+    try {
+      history = getMessageHistory(sub.getTopic(),
+          last == null ? 0 : Integer.parseInt(last.trim()),
+          since == null ? 0 : Long.parseLong(since.trim()));
+    } catch (NumberFormatException e) {
+      log.warn("Malformed history header from " + sub.getHost() + ":" + sub.getPort());
+      return;
+    }
+    log.debug("Replaying " + history.size() + " messages on Topic{" + sub.getTopic() + "}");
+    server.sendHistory(history, sub, subMessage.getHeader().getId());
+  }
+
+  /**
+   * Fetches the retained messages on a topic from the MessageService
+   *
+   * @param topic the concrete topic
+   * @param last the maximum number of messages, 0 for all of them
+   * @param since the earliest time in epoch milliseconds, 0 for no limit
+   * @return the messages, oldest first
+   */
+  List<Message> getMessageHistory(String topic, int last, long since) {
+    return MessageService.getInstance().getMessageHistory(topic, last, since);
+  }
+
+  /**
+   * Fetches the first value of a header
+   *
+   * @param subMessage the SUBSCRIBE message
+   * @param key the header name
+   * @return the header value, or null if the header is missing
+   */
+  private static String getHeader(SubscribeMessage subMessage, String key) {
+    List<String> values = subMessage.getHeader().getHeaders().get(key);
+    return (values == null || values.isEmpty()) ? null : values.get(0);
+  }
+
   /**
    * Sets the subscriptionManager for this class, it is used to remove any subscribers after they
    * disconnect
@@ -53,4 +128,13 @@ public class SubscriptionListener implements StampyMessageListener {
   public void setSubscriptionManager(STOMPSubscriptionManager subscriptionManager) {
     this.subscriptionManager = subscriptionManager;
   }
+
+  /**
+   * Sets the server used to replay the history of a topic to new subscribers
+   *
+   * @param server the STOMP server instance
+   */
+  public void setServer(STOMPServer server) {
+    this.server = server;
+  }
 }
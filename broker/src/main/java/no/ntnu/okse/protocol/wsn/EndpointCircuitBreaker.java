@@ -0,0 +1,358 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the health of every endpoint notifications are delivered to, so dead endpoints do not
+ * receive a full connection attempt for every message.
+ *
+ * An endpoint starts out CLOSED, where every delivery is sent. After a number of consecutive
+ * failures the circuit OPENs, and deliveries are held in a bounded redelivery queue instead. Once
+ * the backoff has passed a single probe is sent in the HALF_OPEN state. A successful probe closes
+ * the circuit and sends the queued deliveries, while a failed probe opens it again with twice the
+ * backoff. Endpoints that have been failing for longer than the unreachable timeout are reported
+ * through a callback and forgotten. A single delivery is given up after a maximum number of failed
+ * attempts, even if its endpoint keeps accepting other deliveries.
+ *
+ * @param <T> The type of delivery, which must be possible to send more than once
+ */
+public class EndpointCircuitBreaker<T> {
+
+  /**
+   * The circuit state of an endpoint
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static Logger log = Logger.getLogger(EndpointCircuitBreaker.class.getName());
+
+  private final int failureThreshold;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  private final int queueCapacity;
+  private final int maxAttempts;
+  private final long unreachableAfter;
+  private final BiConsumer<String, T> sender;
+  private final Consumer<String> onUnreachable;
+  private final ScheduledExecutorService scheduler;
+  private final ConcurrentHashMap<String, Endpoint<T>> endpoints;
+  private final AtomicLong dropped;
+
+  /**
+   * Constructs a circuit breaker
+   *
+   * @param failureThreshold Consecutive failures before the circuit of an endpoint opens
+   * @param initialBackoff Milliseconds before the first probe of an open circuit
+   * @param maxBackoff Upper limit of the backoff in milliseconds
+   * @param queueCapacity Maximum number of deliveries held per endpoint while its circuit is open
+   * @param maxAttempts Failed attempts before a delivery is dropped, 0 or less to never give up
+   * @param unreachableAfter Milliseconds of failures before an endpoint is reported unreachable, 0
+   * or less to never report endpoints
+   * @param sender Sends a delivery to an endpoint, reporting back through onSuccess or onFailure
+   * @param onUnreachable Called with endpoints that have stayed unreachable
+   * @param scheduler Schedules the probes of open circuits
+   */
+  public EndpointCircuitBreaker(int failureThreshold, long initialBackoff, long maxBackoff,
+      int queueCapacity, int maxAttempts, long unreachableAfter, BiConsumer<String, T> sender,
+      Consumer<String> onUnreachable, ScheduledExecutorService scheduler) {
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.initialBackoff = Math.max(1, initialBackoff);
+    this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+    this.queueCapacity = Math.max(0, queueCapacity);
+    this.maxAttempts = maxAttempts;
+    this.unreachableAfter = unreachableAfter;
+    this.sender = sender;
+    this.onUnreachable = onUnreachable;
+    this.scheduler = scheduler;
+    this.endpoints = new ConcurrentHashMap<>();
+    this.dropped = new AtomicLong(0);
+  }
+
+  /**
+   * Sends a delivery to an endpoint if its circuit allows it, or queues it for later
+   *
+   * @param endpoint The endpoint address
+   * @param delivery The delivery
+   */
+  public void submit(String endpoint, T delivery) {
+    Endpoint<T> state = endpoints.computeIfAbsent(endpoint, e -> new Endpoint<>());
+    synchronized (state) {
+      switch (state.state) {
+        case CLOSED:
+          break;
+        case OPEN:
+          if (System.currentTimeMillis() >= state.retryAt) {
+            state.state = State.HALF_OPEN;
+            log.debug("Probing endpoint " + endpoint);
+            break;
+          }
+          enqueue(state, delivery);
+          return;
+        case HALF_OPEN:
+        default:
+          enqueue(state, delivery);
+          return;
+      }
+    }
+    sender.accept(endpoint, delivery);
+  }
+
+  /**
+   * Reports a successful delivery, closing the circuit of the endpoint and sending any queued
+   * deliveries
+   *
+   * @param endpoint The endpoint address
+   * @param delivery The delivery that succeeded
+   */
+  public void onSuccess(String endpoint, T delivery) {
+    Endpoint<T> state = endpoints.get(endpoint);
+    if (state == null) {
+      return;
+    }
+    List<T> queued;
+    synchronized (state) {
+      if (state.state != State.CLOSED) {
+        log.info("Endpoint " + endpoint + " recovered, closing its circuit");
+      }
+      state.state = State.CLOSED;
+      state.failures = 0;
+      state.firstFailure = 0;
+      state.backoff = 0;
+      state.attempts.remove(delivery);
+      queued = new ArrayList<>(state.queue);
+      state.queue.clear();
+    }
+    queued.forEach(next -> sender.accept(endpoint, next));
+  }
+
+  /**
+   * Reports a failed delivery. The circuit of the endpoint is opened if it has failed too many
+   * times, and the delivery is queued for another attempt, or retried after the initial backoff if
+   * the circuit is still closed. A delivery that has used up its attempts is dropped instead.
+   *
+   * @param endpoint The endpoint address
+   * @param delivery The delivery that failed
+   */
+  public void onFailure(String endpoint, T delivery) {
+    Endpoint<T> state = endpoints.computeIfAbsent(endpoint, e -> new Endpoint<>());
+    long now = System.currentTimeMillis();
+    long backoff = 0;
+    boolean retry = false;
+    boolean unreachable = false;
+    synchronized (state) {
+      state.failures++;
+      if (state.firstFailure == 0) {
+        state.firstFailure = now;
+      }
+      int attempts = state.attempts.merge(delivery, 1, Integer::sum);
+      boolean exhausted = maxAttempts > 0 && attempts >= maxAttempts;
+      if (exhausted) {
+        state.attempts.remove(delivery);
+        dropped.incrementAndGet();
+        log.warn("Giving up on a delivery to " + endpoint + " after " + attempts + " attempts");
+      }
+      if (state.state == State.HALF_OPEN
+          || (state.state == State.CLOSED && state.failures >= failureThreshold)) {
+        state.state = State.OPEN;
+        state.backoff = state.backoff == 0 ? initialBackoff
+            : Math.min(state.backoff * 2, maxBackoff);
+        state.retryAt = now + state.backoff;
+        backoff = state.backoff;
+      }
+      if (state.state == State.CLOSED) {
+        retry = !exhausted;
+      } else if (!exhausted) {
+        enqueue(state, delivery);
+      }
+      if (state.state == State.OPEN && unreachableAfter > 0
+          && now - state.firstFailure >= unreachableAfter) {
+        unreachable = true;
+        dropped.addAndGet(state.queue.size());
+        state.queue.clear();
+        state.attempts.clear();
+        endpoints.remove(endpoint, state);
+      }
+    }
+    try {
+      if (unreachable) {
+        log.warn("Endpoint " + endpoint + " has been unreachable for " + unreachableAfter + "ms");
+        onUnreachable.accept(endpoint);
+      } else if (backoff > 0) {
+        log.warn("Opened circuit of endpoint " + endpoint + ", retrying in " + backoff + "ms");
+        scheduler.schedule(() -> probe(endpoint, state), backoff, TimeUnit.MILLISECONDS);
+      } else if (retry) {
+        // Below the failure threshold, so try again once the initial backoff has passed
+        scheduler.schedule(() -> submit(endpoint, delivery), initialBackoff, TimeUnit.MILLISECONDS);
+      }
+    } catch (RejectedExecutionException e) {
+      // The scheduler has been shut down, so nothing will be redelivered
+      log.debug("Not redelivering to " + endpoint + ", the scheduler is shut down");
+      if (retry) {
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Forgets an endpoint, dropping its queued deliveries
+   *
+   * @param endpoint The endpoint address
+   */
+  public void reset(String endpoint) {
+    Endpoint<T> state = endpoints.remove(endpoint);
+    if (state != null) {
+      synchronized (state) {
+        dropped.addAndGet(state.queue.size());
+        state.queue.clear();
+        state.attempts.clear();
+      }
+    }
+  }
+
+  /**
+   * Forgets every endpoint, dropping all queued deliveries
+   */
+  public void reset() {
+    endpoints.keySet().forEach(this::reset);
+  }
+
+  /**
+   * @param endpoint The endpoint address
+   * @return The circuit state of the endpoint
+   */
+  public State getState(String endpoint) {
+    Endpoint<T> state = endpoints.get(endpoint);
+    if (state == null) {
+      return State.CLOSED;
+    }
+    synchronized (state) {
+      return state.state;
+    }
+  }
+
+  /**
+   * @param endpoint The endpoint address
+   * @return The number of deliveries waiting for the endpoint
+   */
+  public int getQueuedCount(String endpoint) {
+    Endpoint<T> state = endpoints.get(endpoint);
+    if (state == null) {
+      return 0;
+    }
+    synchronized (state) {
+      return state.queue.size();
+    }
+  }
+
+  /**
+   * @return The number of endpoints with an open or half open circuit
+   */
+  public int getOpenCircuitCount() {
+    int open = 0;
+    for (Endpoint<T> state : endpoints.values()) {
+      synchronized (state) {
+        if (state.state != State.CLOSED) {
+          open++;
+        }
+      }
+    }
+    return open;
+  }
+
+  /**
+   * @return The number of deliveries dropped because a redelivery queue was full, the delivery
+   * failed too many times, or the endpoint was unreachable
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /* Private helper methods */
+
+  /**
+   * Sends the oldest queued delivery as a probe, once the backoff of an open circuit has passed
+   */
+  private void probe(String endpoint, Endpoint<T> state) {
+    T delivery;
+    synchronized (state) {
+      if (endpoints.get(endpoint) != state || state.state != State.OPEN
+          || System.currentTimeMillis() < state.retryAt) {
+        return;
+      }
+      delivery = state.queue.poll();
+      if (delivery == null) {
+        // The next submitted delivery will probe the endpoint
+        return;
+      }
+      state.state = State.HALF_OPEN;
+    }
+    log.debug("Probing endpoint " + endpoint);
+    sender.accept(endpoint, delivery);
+  }
+
+  // Must be called while holding the lock of the endpoint
+  private void enqueue(Endpoint<T> state, T delivery) {
+    if (queueCapacity == 0) {
+      state.attempts.remove(delivery);
+      dropped.incrementAndGet();
+      return;
+    }
+    if (state.queue.size() >= queueCapacity) {
+      state.attempts.remove(state.queue.poll());
+      dropped.incrementAndGet();
+    }
+    state.queue.add(delivery);
+  }
+
+  /**
+   * The health of a single endpoint, guarded by its own monitor
+   */
+  private static final class Endpoint<T> {
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long firstFailure;
+    private long backoff;
+    private long retryAt;
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    // Failed attempts of the deliveries that are still being retried
+    private final IdentityHashMap<T, Integer> attempts = new IdentityHashMap<>();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.apache.log4j.Logger;
+import org.ntnunotif.wsnu.base.soap.Soap;
+import org.oasis_open.docs.wsn.b_2.Notify;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the serialized SOAP envelopes of a single outgoing Notify, so the fan-out of a message
+ * marshals it once per SOAP version and raw/wrapped variant instead of once per recipient.
+ *
+ * Every recipient receiving the same Notify, either unfiltered or through the same filters, may
+ * share the template. Variants are serialized lazily by the first recipient that needs them, and
+ * concurrent requests for the same variant wait for that serialization rather than repeating it.
+ */
+public class NotifyTemplateCache {
+
+  /**
+   * Serializes a Notify into the bytes sent across the wire
+   */
+  @FunctionalInterface
+  public interface Serializer {
+
+    /**
+     * Serializes a Notify into a SOAP envelope
+     *
+     * @param notify The Notify to serialize
+     * @param version The SOAP version of the envelope
+     * @param raw Whether the Notify wrapping should be removed from the payload
+     * @return The serialized envelope
+     * @throws IOException If the envelope could not be written
+     */
+    byte[] serialize(Notify notify, Soap.SoapVersion version, boolean raw) throws IOException;
+  }
+
+  private static Logger log = Logger.getLogger(NotifyTemplateCache.class.getName());
+
+  private final Notify notify;
+  private final Serializer serializer;
+  private final ConcurrentHashMap<String, byte[]> variants;
+  private final AtomicInteger serializations;
+
+  /**
+   * Constructs a template cache for a Notify
+   *
+   * @param notify The Notify being fanned out
+   * @param serializer The serializer used to produce each variant
+   */
+  public NotifyTemplateCache(Notify notify, Serializer serializer) {
+    this.notify = notify;
+    this.serializer = serializer;
+    this.variants = new ConcurrentHashMap<>();
+    this.serializations = new AtomicInteger(0);
+  }
+
+  /**
+   * Retrieves the serialized envelope of a variant, serializing it if this is the first request
+   *
+   * @param version The SOAP version of the envelope
+   * @param raw Whether the Notify wrapping should be removed from the payload
+   * @return The serialized envelope, or null if it could not be serialized
+   */
+  public byte[] get(Soap.SoapVersion version, boolean raw) {
+    String key = version.name() + (raw ? ":raw" : "");
+    try {
+      return variants.computeIfAbsent(key, k -> {
+        try {
+          serializations.incrementAndGet();
+          return serializer.serialize(notify, version, raw);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      log.error("Unable to serialize the " + key + " variant of a Notify: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Retrieves the number of variants that have been serialized
+   *
+   * @return The number of serializations performed by this template
+   */
+  public int getSerializationCount() {
+    return serializations.get();
+  }
+}
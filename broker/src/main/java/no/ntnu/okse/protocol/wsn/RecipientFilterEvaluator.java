@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.oasis_open.docs.wsn.b_2.Notify;
+
+import javax.xml.namespace.NamespaceContext;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the filters of many WS-Notification recipients against a single Notify.
+ *
+ * Recipients are grouped by a canonical key describing their filters, so a filter shared by many
+ * subscriptions (the same message content XPath, or the same topic expression) is evaluated once
+ * per message, and the result handed to every member of the group. Recipients without a key are
+ * evaluated on their own. When there are enough groups, they are evaluated in parallel on a
+ * fork-join pool. The filter function may be called concurrently, and must not modify the Notify.
+ */
+public class RecipientFilterEvaluator {
+
+  /**
+   * Evaluates the filters of a recipient against a Notify
+   */
+  @FunctionalInterface
+  public interface Filter {
+
+    /**
+     * Filters a Notify for a recipient
+     *
+     * @param recipient The subscription reference of the recipient
+     * @param notify The Notify to filter
+     * @return The Notify the recipient should receive, or null if nothing passed the filters
+     */
+    Notify evaluate(String recipient, Notify notify);
+  }
+
+  // Namespace prefixes used in topic and XPath expressions, e.g. "ns" in "ns:root/ns:leaf"
+  private static final Pattern PREFIX = Pattern.compile("([A-Za-z_][\\w.\\-]*):(?![/:])");
+
+  private final ForkJoinPool pool;
+  private final int parallelThreshold;
+
+  /**
+   * Constructs a filter evaluator
+   *
+   * @param pool The fork-join pool to evaluate filters on
+   * @param parallelThreshold The number of distinct filter groups needed to evaluate in parallel
+   */
+  public RecipientFilterEvaluator(ForkJoinPool pool, int parallelThreshold) {
+    this.pool = pool;
+    this.parallelThreshold = Math.max(1, parallelThreshold);
+  }
+
+  /**
+   * Filters a Notify for a set of recipients
+   *
+   * @param recipients The subscription references of the recipients, in delivery order
+   * @param filterKey Resolves the filter key of a recipient, or null if it cannot be shared
+   * @param notify The Notify to filter
+   * @param filter The filter evaluation of a single recipient
+   * @return The Notify to send to each recipient, in the order of the recipients. Recipients
+   * receiving nothing are left out.
+   */
+  public Map<String, Notify> evaluate(Collection<String> recipients,
+      Function<String, String> filterKey, Notify notify, Filter filter) {
+    // Group the recipients sharing filters, keeping the first recipient as representative
+    Map<String, List<String>> groups = new LinkedHashMap<>();
+    for (String recipient : recipients) {
+      String key = filterKey.apply(recipient);
+      groups.computeIfAbsent(key == null ? "\0" + recipient : key, k -> new ArrayList<>())
+          .add(recipient);
+    }
+    List<List<String>> members = new ArrayList<>(groups.values());
+    Notify[] results = new Notify[members.size()];
+
+    if (members.size() < parallelThreshold) {
+      new GroupTask(members, notify, filter, results, 0, members.size()).compute();
+    } else {
+      pool.invoke(new GroupTask(members, notify, filter, results, 0, members.size()));
+    }
+
+    Map<String, Notify> filtered = new LinkedHashMap<>();
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] != null) {
+        for (String recipient : members.get(i)) {
+          filtered.put(recipient, results[i]);
+        }
+      }
+    }
+    // Restore the delivery order of the recipients
+    Map<String, Notify> ordered = new LinkedHashMap<>();
+    for (String recipient : recipients) {
+      Notify result = filtered.get(recipient);
+      if (result != null) {
+        ordered.put(recipient, result);
+      }
+    }
+    return ordered;
+  }
+
+  /**
+   * Describes a single subscription filter canonically, including the namespaces bound to the
+   * prefixes used in the expression, so equal descriptions always select the same messages.
+   *
+   * @param name The name of the filter element
+   * @param dialect The dialect of the expression
+   * @param expression The filter expression
+   * @param namespaceContext The namespace context of the filter, may be null
+   * @return A canonical description of the filter
+   */
+  public static String describeFilter(String name, String dialect, String expression,
+      NamespaceContext namespaceContext) {
+    StringBuilder description = new StringBuilder()
+        .append(name).append('|').append(dialect).append('|').append(expression.trim());
+    SortedMap<String, String> bindings = new TreeMap<>();
+    Matcher matcher = PREFIX.matcher(expression);
+    while (matcher.find()) {
+      String prefix = matcher.group(1);
+      String namespace = namespaceContext == null ? null : namespaceContext.getNamespaceURI(prefix);
+      bindings.put(prefix, namespace == null ? "" : namespace);
+    }
+    bindings.forEach((prefix, namespace) ->
+        description.append('|').append(prefix).append('=').append(namespace));
+    return description.toString();
+  }
+
+  /**
+   * Combines the descriptions of all filters of a subscription into its filter key
+   *
+   * @param descriptions The descriptions of the filters, in any order
+   * @return The filter key of the subscription
+   */
+  public static String filterKey(Collection<String> descriptions) {
+    List<String> sorted = new ArrayList<>(descriptions);
+    Collections.sort(sorted);
+    return String.join("\n", sorted);
+  }
+
+  /**
+   * Evaluates a range of filter groups, splitting the range while it is large
+   */
+  private static class GroupTask extends RecursiveAction {
+
+    private static final int SEQUENTIAL_GROUPS = 16;
+
+    private final List<List<String>> members;
+    private final Notify notify;
+    private final Filter filter;
+    private final Notify[] results;
+    private final int from;
+    private final int to;
+
+    GroupTask(List<List<String>> members, Notify notify, Filter filter, Notify[] results,
+        int from, int to) {
+      this.members = members;
+      this.notify = notify;
+      this.filter = filter;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SEQUENTIAL_GROUPS || getPool() == null) {
+        for (int i = from; i < to; i++) {
+          results[i] = filter.evaluate(members.get(i).get(0), notify);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new GroupTask(members, notify, filter, results, from, middle),
+          new GroupTask(members, notify, filter, results, middle, to));
+    }
+  }
+}
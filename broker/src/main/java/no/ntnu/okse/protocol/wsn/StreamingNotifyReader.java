@@ -0,0 +1,410 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads WS-Notification Notify requests as a stream of events, without unmarshalling them.
+ *
+ * The topic and producer reference of every NotificationMessage are pulled out with StAX, while the
+ * message content is copied as raw bytes. Only one NotificationMessage is held in memory at a time,
+ * so large notifications pass through with memory bounded by the size of a single message, rather
+ * than by a JAXB and DOM tree of the whole request.
+ */
+public class StreamingNotifyReader {
+
+  public static final String WSNT_NAMESPACE = "http://docs.oasis-open.org/wsn/b-2";
+  // Message attribute flagging OKSE messages distributed from a streamed Notify
+  public static final String WSN_STREAMED_TOKEN = "wsn-streamed";
+  // How much of a request is read to decide if it is a Notify
+  public static final int PEEK_LIMIT = 65536;
+
+  private static final Pattern PREFIX = Pattern.compile("([A-Za-z_][\\w.\\-]*):");
+  private static Logger log = Logger.getLogger(StreamingNotifyReader.class.getName());
+
+  private final XMLInputFactory inputFactory;
+  private final XMLOutputFactory outputFactory;
+
+  /**
+   * Constructs a streaming reader, with DTDs and external entities disabled
+   */
+  public StreamingNotifyReader() {
+    inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    outputFactory = XMLOutputFactory.newInstance();
+    outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+  }
+
+  /**
+   * Reads the start of a request to decide if it is a Notify. The request is left readable from
+   * the beginning through the returned stream.
+   *
+   * @param request The request content
+   * @return A Peek of the request
+   * @throws IOException If the request could not be read
+   */
+  public Peek peek(InputStream request) throws IOException {
+    byte[] head = new byte[PEEK_LIMIT];
+    int length = 0;
+    int read;
+    while (length < head.length && (read = request.read(head, length, head.length - length)) > 0) {
+      length += read;
+    }
+    InputStream replay = new SequenceInputStream(new ByteArrayInputStream(head, 0, length),
+        request);
+    return new Peek(isNotify(new ByteArrayInputStream(head, 0, length)), replay);
+  }
+
+  /**
+   * Checks if the first element of the SOAP body is a Notify
+   */
+  private boolean isNotify(InputStream head) {
+    XMLStreamReader reader = null;
+    try {
+      reader = inputFactory.createXMLStreamReader(head);
+      // The Envelope
+      if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) {
+        return false;
+      }
+      // The Header, if any, and the Body
+      while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+        if (reader.getLocalName().equals("Body")) {
+          return reader.nextTag() == XMLStreamConstants.START_ELEMENT
+              && isWsnt(reader.getName(), "Notify");
+        }
+        skip(reader);
+      }
+    } catch (XMLStreamException e) {
+      // Either malformed, or the Notify was not reached within the peek limit
+      log.debug("Request was not recognized as a Notify: " + e.getMessage());
+    } finally {
+      close(reader);
+    }
+    return false;
+  }
+
+  /**
+   * Reads a Notify request, handing every NotificationMessage to a consumer as soon as it has been
+   * read
+   *
+   * @param request The request content
+   * @param consumer Receives each NotificationMessage
+   * @return The number of NotificationMessages read
+   * @throws XMLStreamException If the request was malformed
+   */
+  public int read(InputStream request, Consumer<StreamedNotification> consumer)
+      throws XMLStreamException {
+    XMLStreamReader reader = inputFactory.createXMLStreamReader(request);
+    int count = 0;
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+            && isWsnt(reader.getName(), "NotificationMessage")) {
+          consumer.accept(readNotificationMessage(reader));
+          count++;
+        }
+      }
+    } finally {
+      close(reader);
+    }
+    return count;
+  }
+
+  /**
+   * Reads the children of a NotificationMessage, up to and including its end element
+   */
+  private StreamedNotification readNotificationMessage(XMLStreamReader reader)
+      throws XMLStreamException {
+    StreamedNotification notification = new StreamedNotification();
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      if (isWsnt(reader.getName(), "Topic")) {
+        notification.dialect = reader.getAttributeValue(null, "Dialect");
+        notification.topic = readText(reader).trim();
+        // The namespaces declared on the Topic are still in scope at its end element
+        notification.namespaces = resolvePrefixes(notification.topic, reader);
+      } else if (isWsnt(reader.getName(), "ProducerReference")) {
+        notification.producerReference = readAddress(reader);
+      } else if (isWsnt(reader.getName(), "Message")) {
+        notification.message = copyContent(reader);
+      } else {
+        skip(reader);
+      }
+    }
+    return notification;
+  }
+
+  /**
+   * Copies the content of the current element as raw XML bytes, up to its end element
+   */
+  private byte[] copyContent(XMLStreamReader reader) throws XMLStreamException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    XMLStreamWriter writer = outputFactory.createXMLStreamWriter(content, "UTF-8");
+    // Whether the default namespace is declared in the output, for each open element
+    Deque<Boolean> defaultNamespaced = new ArrayDeque<>();
+    int depth = 0;
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          boolean parentDefault = !defaultNamespaced.isEmpty() && defaultNamespaced.peek();
+          if (reader.getNamespaceURI() == null || reader.getNamespaceURI().isEmpty()) {
+            // Only undeclare the default namespace if an ancestor has declared one
+            if (parentDefault) {
+              writer.writeStartElement("", reader.getLocalName(), "");
+            } else {
+              writer.writeStartElement(reader.getLocalName());
+            }
+            defaultNamespaced.push(false);
+          } else {
+            writer.writeStartElement(nonNull(reader.getPrefix()), reader.getLocalName(),
+                reader.getNamespaceURI());
+            defaultNamespaced.push(parentDefault || nonNull(reader.getPrefix()).isEmpty());
+          }
+          for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            writer.writeNamespace(nonNull(reader.getNamespacePrefix(i)),
+                reader.getNamespaceURI(i));
+          }
+          for (int i = 0; i < reader.getAttributeCount(); i++) {
+            writer.writeAttribute(nonNull(reader.getAttributePrefix(i)),
+                nonNull(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i),
+                reader.getAttributeValue(i));
+          }
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          if (depth-- == 0) {
+            writer.flush();
+            writer.close();
+            return content.toByteArray();
+          }
+          writer.writeEndElement();
+          defaultNamespaced.pop();
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(),
+              reader.getTextLength());
+          break;
+        case XMLStreamConstants.CDATA:
+          writer.writeCData(reader.getText());
+          break;
+        case XMLStreamConstants.COMMENT:
+          writer.writeComment(reader.getText());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+          break;
+        default:
+          break;
+      }
+    }
+    throw new XMLStreamException("Unexpected end of Message");
+  }
+
+  /**
+   * Reads the text of the current element, up to its end element
+   */
+  private static String readText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    int depth = 0;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && depth-- == 0) {
+        break;
+      }
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (reader.isCharacters() || event == XMLStreamConstants.CDATA) {
+        text.append(reader.getText());
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Reads the Address of an endpoint reference, up to the end of the reference
+   */
+  private static String readAddress(XMLStreamReader reader) throws XMLStreamException {
+    String address = null;
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      if (reader.getLocalName().equals("Address")) {
+        address = readText(reader).trim();
+      } else {
+        skip(reader);
+      }
+    }
+    return address;
+  }
+
+  /**
+   * Skips the current element, up to its end element
+   */
+  private static void skip(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 0;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT && depth-- == 0) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Resolves the namespaces of the prefixes used in a topic expression
+   */
+  private static Map<String, String> resolvePrefixes(String topic, XMLStreamReader reader) {
+    Map<String, String> namespaces = new HashMap<>();
+    Matcher matcher = PREFIX.matcher(topic);
+    while (matcher.find()) {
+      String namespace = reader.getNamespaceURI(matcher.group(1));
+      if (namespace != null && !namespace.equals(XMLConstants.NULL_NS_URI)) {
+        namespaces.put(matcher.group(1), namespace);
+      }
+    }
+    return Collections.unmodifiableMap(namespaces);
+  }
+
+  private static String nonNull(String value) {
+    return value == null ? "" : value;
+  }
+
+  private static boolean isWsnt(QName name, String localPart) {
+    return WSNT_NAMESPACE.equals(name.getNamespaceURI()) && localPart.equals(name.getLocalPart());
+  }
+
+  private static void close(XMLStreamReader reader) {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        log.debug("Unable to close XML reader: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * The start of a request, and whether it is a Notify
+   */
+  public static final class Peek {
+
+    private final boolean notify;
+    private final InputStream request;
+
+    private Peek(boolean notify, InputStream request) {
+      this.notify = notify;
+      this.request = request;
+    }
+
+    /**
+     * Checks if the request is a Notify
+     *
+     * @return True if the first element of the SOAP body is a Notify
+     */
+    public boolean isNotify() {
+      return notify;
+    }
+
+    /**
+     * Retrieves the complete request, including the part that has been peeked at
+     *
+     * @return The request content
+     */
+    public InputStream getRequest() {
+      return request;
+    }
+  }
+
+  /**
+   * A NotificationMessage read from a stream
+   */
+  public static final class StreamedNotification {
+
+    private String topic;
+    private String dialect;
+    private Map<String, String> namespaces = Collections.emptyMap();
+    private String producerReference;
+    private byte[] message;
+
+    /**
+     * @return The topic expression, or null if the message had no topic
+     */
+    public String getTopic() {
+      return topic;
+    }
+
+    /**
+     * @return The dialect of the topic expression, or null if none was given
+     */
+    public String getDialect() {
+      return dialect;
+    }
+
+    /**
+     * @return The namespaces bound to the prefixes used in the topic expression
+     */
+    public Map<String, String> getNamespaces() {
+      return namespaces;
+    }
+
+    /**
+     * @return The address of the producer reference, or null if none was given
+     */
+    public String getProducerReference() {
+      return producerReference;
+    }
+
+    /**
+     * @return The raw XML content of the message, or null if the message had no content
+     */
+    public byte[] getMessage() {
+      return message;
+    }
+
+    /**
+     * @return The raw XML content of the message as a string, or null if it had no content
+     */
+    public String getMessageAsString() {
+      return message == null ? null : new String(message, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -59,7 +59,6 @@ import javax.jws.soap.SOAPBinding;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.annotation.XmlSeeAlso;
 import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
@@ -68,6 +67,7 @@ import javax.xml.ws.wsaddressing.W3CEndpointReferenceBuilder;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 @WebService(targetNamespace = "http://docs.oasis-open.org/wsn/brw-2", name = "NotificationBroker")
 @XmlSeeAlso({org.oasis_open.docs.wsn.t_1.ObjectFactory.class,
@@ -80,6 +80,7 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
 
   private final Logger log;
   private final FilterSupport filterSupport;
+  private final RecipientFilterEvaluator filterEvaluator;
   private WSNSubscriptionManager _subscriptionManager;
   private WSNRegistrationManager _registrationManager;
   private final WSNotificationServer _protocolserver;
@@ -88,6 +89,7 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
     this.log = Logger.getLogger(WSNCommandProxy.class.getName());
     this.setHub(hub);
     this.filterSupport = FilterSupport.createDefaultFilterSupport();
+    this.filterEvaluator = createFilterEvaluator();
     this._subscriptionManager = null;
     this._registrationManager = null;
     _protocolserver = protocolserver;
@@ -96,11 +98,24 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
   public WSNCommandProxy(WSNotificationServer protocolserver) {
     this.log = Logger.getLogger(WSNCommandProxy.class.getName());
     this.filterSupport = FilterSupport.createDefaultFilterSupport();
+    this.filterEvaluator = createFilterEvaluator();
     this._subscriptionManager = null;
     this._registrationManager = null;
     _protocolserver = protocolserver;
   }
 
+  /**
+   * Creates the evaluator of recipient filters, as configured by the WSN_FILTER_PARALLELISM and
+   * WSN_FILTER_PARALLEL_THRESHOLD options
+   *
+   * @return A RecipientFilterEvaluator
+   */
+  private static RecipientFilterEvaluator createFilterEvaluator() {
+    ForkJoinPool pool = Application.WSN_FILTER_PARALLELISM > 0 ?
+        new ForkJoinPool(Application.WSN_FILTER_PARALLELISM) : ForkJoinPool.commonPool();
+    return new RecipientFilterEvaluator(pool, Application.WSN_FILTER_PARALLEL_THRESHOLD);
+  }
+
   // For now, set both WS-Nu submanager and OKSE submanager fields.
   public void setSubscriptionManager(WSNSubscriptionManager subManager) {
     this._subscriptionManager = subManager;
@@ -259,16 +274,77 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
   @WebMethod(exclude = true)
   protected Notify getRecipientFilteredNotify(String s, Notify notify,
       NuNamespaceContextResolver nuNamespaceContextResolver) {
-    // Check if we have the current recipient registered
-    if (!this._subscriptionManager.hasSubscription(s)) {
+    if (!isActiveRecipient(s)) {
       return null;
-    } else {
-      // Check if the subscription is paused
-      if (_subscriptionManager.subscriptionIsPaused(s)) {
-        return null;
+    }
+    return evaluateRecipientFilters(s, notify, nuNamespaceContextResolver);
+  }
+
+  /**
+   * Filters a Notify for every active recipient. Only recipients that may match the topics of the
+   * Notify are visited. Recipients sharing the same filters are evaluated once, through their
+   * compiled filters in the WSNFilterRegistry when possible, and large sets of distinct filters are
+   * evaluated in parallel.
+   *
+   * @param notify The Notify object to be checked
+   * @param nuNamespaceContextResolver An instance of NuNameSpaceContextResolver
+   * @return The Notify to send to each recipient, ordered as the recipients. Recipients that are
+   * expired, paused or filtered away are left out.
+   */
+  @WebMethod(exclude = true)
+  public Map<String, Notify> getFilteredNotifies(Notify notify,
+      NuNamespaceContextResolver nuNamespaceContextResolver) {
+    // Each distinct filter is evaluated once, against a Notify prepared once
+    WSNFilterRegistry registry = WSNFilterRegistry.getInstance();
+    WSNFilterRegistry.PreparedNotify prepared = WSNFilterRegistry.prepare(notify,
+        topic -> nuNamespaceContextResolver == null ? null
+            : nuNamespaceContextResolver.resolveNamespaceContext(topic));
+    List<String> recipients = new ArrayList<>();
+    Map<String, String> filterKeys = new HashMap<>();
+    // Only visit the subscribers that may match the topics of the Notify
+    for (String recipient : _subscriptionManager
+        .getCandidateRecipients(prepared.getTopicPaths())) {
+      Subscriber subscriber = _subscriptionManager.getSubscriber(recipient);
+      // Skip expired and paused subscriptions
+      if (subscriber == null || subscriber.hasExpired() || !isActiveRecipient(recipient)) {
+        continue;
       }
+      recipients.add(recipient);
+      filterKeys.put(recipient,
+          subscriber.getAttribute(WSNSubscriptionManager.WSN_FILTER_KEY_TOKEN));
     }
+    return filterEvaluator.evaluate(recipients, filterKeys::get, notify, (recipient, n) -> {
+      WSNFilterRegistry.CompiledFilter filter = registry.getFilter(filterKeys.get(recipient));
+      if (filter != null && filter.canEvaluate(prepared)) {
+        return filter.evaluate(prepared);
+      }
+      // Filters that are not compiled are left to WS-Nu
+      return evaluateRecipientFilters(recipient, n, nuNamespaceContextResolver);
+    });
+  }
+
+  /**
+   * Checks if the recipient is registered and its subscription is not paused
+   *
+   * @param s The subscriptionKey of the subscriber
+   * @return True if the recipient should receive notifications, false otherwise
+   */
+  private boolean isActiveRecipient(String s) {
+    // Check if we have the current recipient registered, and if the subscription is paused
+    return this._subscriptionManager.hasSubscription(s)
+        && !_subscriptionManager.subscriptionIsPaused(s);
+  }
 
+  /**
+   * Evaluates the WS-Nu filters of a recipient against a Notify
+   *
+   * @param s The subscriptionKey of the subscriber
+   * @param notify The Notify object to be checked
+   * @param nuNamespaceContextResolver An instance of NuNameSpaceContextResolver
+   * @return The filtered Notify, or null if nothing passed the filters
+   */
+  private Notify evaluateRecipientFilters(String s, Notify notify,
+      NuNamespaceContextResolver nuNamespaceContextResolver) {
     // If we don't have filter support, nothing more to do.
     if (this.filterSupport == null) {
       return notify;
@@ -276,6 +352,9 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
 
     // Find the current recipient to notify
     SubscriptionHandle subscriptionHandle = this._subscriptionManager.getSubscriptionHandle(s);
+    if (subscriptionHandle == null) {
+      return null;
+    }
 
     return filterSupport.evaluateNotifyToSubscription(notify, subscriptionHandle.subscriptionInfo,
         nuNamespaceContextResolver);
@@ -312,7 +391,21 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
     log.debug("Forwarding Notify");
 
     // Pass it along to the request parser
-    CoreService.getInstance().execute(() -> hub.acceptLocalMessage(outMessage));
+    CoreService.getInstance().execute("wsn-notify", () -> deliver(outMessage));
+  }
+
+  /**
+   * Hands a notification to the hub. Notifications are sent without waiting for the response
+   * when the hub is the OKSE request parser.
+   *
+   * @param outMessage The notification to deliver
+   */
+  private void deliver(InternalMessage outMessage) {
+    if (hub instanceof WSNRequestParser) {
+      ((WSNRequestParser) hub).acceptLocalMessageAsync(outMessage);
+    } else {
+      hub.acceptLocalMessage(outMessage);
+    }
   }
 
   /**
@@ -372,8 +465,14 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
                 ServiceUtilities.getAddress(publisherReference));
           }
 
-          // Add the message to the message queue for dispatch
-          messageService.distributeMessage(message);
+          // Add the message to the message queue for dispatch. Notify is one-way, so if OKSE
+          // rejects the message we can only stop it from reaching the local recipients as well.
+          if (messageService.distributeMessage(message)
+              == MessageService.DistributionResult.REJECTED) {
+            log.warn("Message on topic " + topicName + " was rejected by OKSE");
+            _protocolserver.incrementTotalErrors();
+            return;
+          }
 
         } catch (InvalidTopicExpressionFault invalidTopicExpressionFault) {
           log.warn("Tried to send a topic with an invalid expression");
@@ -410,52 +509,111 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
     currentMessage = notify;
     currentMessageNamespaceContextResolver = namespaceContextResolver;
 
-    // For all valid recipients
-    for (String recipient : this.getAllRecipients()) {
-
-      // If the subscription has expired, continue
-      if (_subscriptionManager.getSubscriber(recipient).hasExpired()) {
+    // Recipients receiving the same Notify share its serialized envelopes
+    Map<Notify, NotifyTemplateCache> templates = new IdentityHashMap<>();
+
+    // For all valid recipients, with filter handling done, if any
+    for (Map.Entry<String, Notify> filtered : getFilteredNotifies(notify,
+        namespaceContextResolver).entrySet()) {
+      String recipient = filtered.getKey();
+      Notify toSend = filtered.getValue();
+      InternalMessage outMessage = new InternalMessage(
+          InternalMessage.STATUS_OK |
+              InternalMessage.STATUS_HAS_MESSAGE |
+              InternalMessage.STATUS_ENDPOINTREF_IS_SET,
+          toSend
+      );
+      // Update the request information
+      outMessage.getRequestInformation()
+          .setEndpointReference(getEndpointReferenceOfRecipient(recipient));
+
+      // If the recipient has requested UseRaw, remove Notify payload wrapping
+      boolean raw = _subscriptionManager
+          .getSubscriber(recipient)
+          .getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null;
+      int deliveries = raw ? toSend.getNotificationMessage().size() : 1;
+
+      // Reuse the serialized envelopes instead of marshalling again, when sending through OKSE
+      if (hub instanceof WSNRequestParser) {
+        NotifyTemplateCache template =
+            templates.computeIfAbsent(toSend, _protocolserver::newNotifyTemplate);
+        String endpoint = outMessage.getRequestInformation().getEndpointReference();
+        Soap.SoapVersion version = outMessage.getVersion();
+        for (int i = 0; i < deliveries; i++) {
+          CoreService.getInstance().execute("wsn-notify", () -> _protocolserver
+              .sendSerializedNotification(endpoint, template.get(version, raw)));
+        }
         continue;
       }
 
-      // Filter do filter handling, if any
-      Notify toSend = getRecipientFilteredNotify(recipient, notify, namespaceContextResolver);
-
-      // If any message was left to send, send it
-      if (toSend != null) {
-        InternalMessage outMessage = new InternalMessage(
-            InternalMessage.STATUS_OK |
-                InternalMessage.STATUS_HAS_MESSAGE |
-                InternalMessage.STATUS_ENDPOINTREF_IS_SET,
-            toSend
-        );
-        // Update the request information
-        outMessage.getRequestInformation()
-            .setEndpointReference(getEndpointReferenceOfRecipient(recipient));
-
-        // If the recipient has requested UseRaw, remove Notify payload wrapping
-        if (_subscriptionManager
-            .getSubscriber(recipient)
-            .getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null) {
-
-          // For all bundled messages, extract and push
-          for (NotificationMessageHolderType holderType : toSend.getNotificationMessage()) {
-            // Extract the content
-            Object content = WSNTools.extractMessageContentFromNotify(toSend);
-            // Update the InternalMessage with the content of the NotificationMessage
-            outMessage.setMessage(content);
-            // Pass it to the request parser
-            CoreService.getInstance().execute(() -> hub.acceptLocalMessage(outMessage));
-          }
-        } else {
-          // Pass it along to the request parser
-          CoreService.getInstance().execute(() -> hub.acceptLocalMessage(outMessage));
+      if (raw) {
+        // For all bundled messages, extract and push
+        for (NotificationMessageHolderType holderType : toSend.getNotificationMessage()) {
+          // Extract the content
+          Object content = WSNTools.extractMessageContentFromNotify(toSend);
+          // Update the InternalMessage with the content of the NotificationMessage
+          outMessage.setMessage(content);
+          // Pass it to the request parser
+          CoreService.getInstance().execute("wsn-notify", () -> deliver(outMessage));
         }
+      } else {
+        // Pass it along to the request parser
+        CoreService.getInstance().execute("wsn-notify", () -> deliver(outMessage));
       }
     }
     log.debug("Finished sending message to valid WS-Notification recipients");
   }
 
+  /**
+   * Distributes a NotificationMessage read by the StreamingNotifyReader, without an unmarshalled
+   * Notify. The OKSE message is flagged, so the WSNotificationServer relays it to the local
+   * WS-Notification subscribers like messages from other protocols.
+   *
+   * @param notification The streamed NotificationMessage
+   * @return False if OKSE rejected the message, true otherwise
+   */
+  @WebMethod(exclude = true)
+  public boolean sendStreamedNotification(StreamingNotifyReader.StreamedNotification notification) {
+    String topic = notification.getTopic();
+    // Only messages connected to a topic are distributed
+    if (topic == null) {
+      return true;
+    }
+    String dialect = notification.getDialect();
+    if (dialect != null && !dialect.equals(WSNTools._SimpleTopicExpression)
+        && !dialect.equals(WSNTools._ConcreteTopicExpression)) {
+      log.warn("Tried to send a topic with an invalid expression dialect");
+      return true;
+    }
+    if (topic.isEmpty() || topic.contains("*") || topic.contains("|") || topic.contains("//")) {
+      log.warn("Tried to send a topic with an invalid expression");
+      return true;
+    }
+    String topicName = WSNTools.removeNameSpacePrefixesFromTopicExpression(topic);
+    log.debug("Streamed message topic extracted: " + topicName);
+
+    // Create topic
+    TopicService.getInstance().addTopic(topicName);
+
+    String content = notification.getMessageAsString();
+    Message message = new Message(content == null ? "" : content, topicName, null,
+        _protocolserver.getProtocolServerType());
+    // If we have a publisherReference, add it to the message
+    if (notification.getProducerReference() != null) {
+      message.setAttribute(WSNSubscriptionManager.WSN_ENDPOINT_TOKEN,
+          notification.getProducerReference());
+    }
+    message.setAttribute(StreamingNotifyReader.WSN_STREAMED_TOKEN, "true");
+
+    if (MessageService.getInstance().distributeMessage(message)
+        == MessageService.DistributionResult.REJECTED) {
+      log.warn("Message on topic " + topicName + " was rejected by OKSE");
+      _protocolserver.incrementTotalErrors();
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Implementation of the NotificationBroker's notify. This method does nothing but forward the
    * notify by calling {@link #sendNotification(org.oasis_open.docs.wsn.b_2.Notify)}
@@ -554,6 +712,11 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
     String requestDialect = null;
     boolean topicExpressionIsXpath = false;
     ArrayList<String> contentFilters = new ArrayList<>();
+    // Canonical descriptions of the filters, letting subscriptions with equal filters share
+    // their evaluation
+    ArrayList<String> filterDescriptions = new ArrayList<>();
+    ArrayList<WSNFilterRegistry.FilterDefinition> filterDefinitions = new ArrayList<>();
+    boolean filtersDescribed = true;
 
     if (filters != null) {
       log.debug("Filters present. Attempting to iterate over filters...");
@@ -592,6 +755,8 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
               // List and add the dialect of the expression type
               log.debug("Dialect: " + type.getDialect());
               requestDialect = type.getDialect();
+              filterDescriptions.add(RecipientFilterEvaluator.describeFilter(fName.toString(),
+                  requestDialect, TopicUtils.extractExpression(type), namespaceContext));
 
               // Check if dialect was XPATH, then we need to update the flag and add as filter
               // Since we cannot guarantee a single topic resolution
@@ -610,12 +775,20 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
                 contentFilters.add(p.toString());
               });
               requestDialect = type.getDialect();
+              StringBuilder expression = new StringBuilder();
+              type.getContent().forEach(expression::append);
+              filterDescriptions.add(RecipientFilterEvaluator.describeFilter(fName.toString(),
+                  requestDialect, expression.toString(), namespaceContext));
               // What XPATH dialect (or potentially other non-supported) was provided
               log.debug("Dialect: " + type.getDialect());
+            } else {
+              filtersDescribed = false;
             }
 
             // Add the filter to the WS-Nu filtersPresent set
             filtersPresent.put(fName, filter.getValue());
+            filterDefinitions
+                .add(new WSNFilterRegistry.FilterDefinition(filter.getValue(), namespaceContext));
           } else {
             log.warn("Subscription attempt with non-supported filter: " + filter.getName());
             ExceptionUtilities
@@ -660,7 +833,7 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
     gregorianCalendar.setTimeInMillis(terminationTime);
 
     try {
-      XMLGregorianCalendar calendar = DatatypeFactory.newInstance()
+      XMLGregorianCalendar calendar = WSNXmlPools.getDatatypeFactory()
           .newXMLGregorianCalendar(gregorianCalendar);
       response.setTerminationTime(calendar);
     } catch (DatatypeConfigurationException e) {
@@ -734,6 +907,11 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
     subscriber.setTimeout(terminationTime);
     // Add potential XPATH content filters discovered in the subscribe request
     contentFilters.forEach(subscriber::addFilter);
+    // Add the filter key if every filter could be described
+    if (filtersDescribed) {
+      subscriber.setAttribute(WSNSubscriptionManager.WSN_FILTER_KEY_TOKEN,
+          RecipientFilterEvaluator.filterKey(filterDescriptions));
+    }
     // Add useRaw flag if present
     if (useRaw) {
       subscriber.setAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN, "true");
@@ -760,7 +938,15 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
     }
 
     subscriber.setAttribute("soap_version", ver);
-    _subscriptionManager.addSubscriber(subscriber, subscriptionHandle);
+    // Compile the filters, unless another subscription already registered the same filters
+    String topicPath = null;
+    if (filtersDescribed) {
+      topicPath = WSNFilterRegistry.getInstance().acquire(
+          subscriber.getAttribute(WSNSubscriptionManager.WSN_FILTER_KEY_TOKEN), filterDefinitions)
+          .getTopicPath();
+    }
+    // Index the subscription by its topic, if it is restricted to a single concrete topic
+    _subscriptionManager.addSubscriber(subscriber, subscriptionHandle, topicPath);
 
     return response;
   }
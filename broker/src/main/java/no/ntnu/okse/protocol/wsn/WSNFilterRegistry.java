@@ -0,0 +1,541 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.apache.log4j.Logger;
+import org.oasis_open.docs.wsn.b_2.NotificationMessageHolderType;
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.oasis_open.docs.wsn.b_2.QueryExpressionType;
+import org.oasis_open.docs.wsn.b_2.TopicExpressionType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Broker wide registry of compiled WS-Notification subscription filters.
+ *
+ * Filters are interned by the canonical filter key of their subscription, so subscriptions with
+ * equal filters share a single CompiledFilter, which is compiled once when the first of them
+ * subscribes and released when the last of them is gone. Topic expressions of the Simple,
+ * Concrete and Full dialects are compiled into an automaton over namespace qualified topic paths,
+ * and XPath message content filters into XPath expressions. Notify messages are prepared once, and
+ * every distinct filter is then evaluated once against the prepared message.
+ *
+ * Filters that cannot be compiled, such as XPath topic expressions or producer property filters,
+ * and messages that cannot be prepared, are left to the WS-Nu FilterSupport.
+ */
+public class WSNFilterRegistry {
+
+  private static final String XPATH_DIALECT = "http://www.w3.org/TR/1999/REC-xpath-19991116";
+  // Separates the steps of topic paths, as namespaces may contain slashes
+  private static final char STEP = '\u001f';
+  private static final String ANY_STEP = "[^" + STEP + "]+";
+
+  private static WSNFilterRegistry _singleton = null;
+  private static Logger log = Logger.getLogger(WSNFilterRegistry.class.getName());
+
+  private final ConcurrentHashMap<String, CompiledFilter> filters;
+
+  /**
+   * Constructs an empty filter registry
+   */
+  public WSNFilterRegistry() {
+    filters = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Retrieves the broker wide filter registry
+   *
+   * @return The WSNFilterRegistry instance
+   */
+  public static synchronized WSNFilterRegistry getInstance() {
+    if (_singleton == null) {
+      _singleton = new WSNFilterRegistry();
+    }
+    return _singleton;
+  }
+
+  /**
+   * Registers a subscription's filters, compiling them if no subscription with the same filter key
+   * has been registered
+   *
+   * @param key The filter key of the subscription
+   * @param definitions The filters of the subscription
+   * @return The interned CompiledFilter
+   */
+  public CompiledFilter acquire(String key, List<FilterDefinition> definitions) {
+    return filters.compute(key, (k, filter) -> {
+      if (filter == null) {
+        filter = compile(k, definitions);
+      }
+      filter.references++;
+      return filter;
+    });
+  }
+
+  /**
+   * Releases a subscription's filters, removing them once no subscription uses them
+   *
+   * @param key The filter key of the subscription
+   */
+  public void release(String key) {
+    if (key == null) {
+      return;
+    }
+    filters.computeIfPresent(key, (k, filter) -> --filter.references > 0 ? filter : null);
+  }
+
+  /**
+   * Retrieves the compiled filter of a filter key
+   *
+   * @param key The filter key
+   * @return The CompiledFilter, or null if the key is not registered
+   */
+  public CompiledFilter getFilter(String key) {
+    return key == null ? null : filters.get(key);
+  }
+
+  /**
+   * Retrieves the number of distinct filters registered
+   *
+   * @return The number of distinct filters
+   */
+  public int size() {
+    return filters.size();
+  }
+
+  /**
+   * Prepares a Notify for evaluation by compiled filters, resolving the topics of its messages
+   *
+   * @param notify The Notify to prepare
+   * @param namespaces Resolves the namespace context of each topic in the Notify
+   * @return The prepared Notify
+   */
+  public static PreparedNotify prepare(Notify notify,
+      Function<TopicExpressionType, NamespaceContext> namespaces) {
+    return new PreparedNotify(notify, namespaces);
+  }
+
+  /**
+   * Compiles the filters of a subscription
+   */
+  private static CompiledFilter compile(String key, List<FilterDefinition> definitions) {
+    List<Pattern> topics = new ArrayList<>();
+    List<XPathExpression> contents = new ArrayList<>();
+    String topicPath = null;
+    boolean compiled = true;
+
+    for (FilterDefinition definition : definitions) {
+      try {
+        if (definition.value instanceof TopicExpressionType) {
+          Pattern topic = compileTopicExpression((TopicExpressionType) definition.value,
+              definition.namespaceContext);
+          if (topic == null) {
+            compiled = false;
+          } else {
+            topics.add(topic);
+          }
+          if (topicPath == null) {
+            topicPath = concreteTopicPath((TopicExpressionType) definition.value,
+                definition.namespaceContext);
+          }
+        } else if (definition.value instanceof QueryExpressionType
+            && XPATH_DIALECT.equals(((QueryExpressionType) definition.value).getDialect())) {
+          XPath xpath = XPathFactory.newInstance().newXPath();
+          if (definition.namespaceContext != null) {
+            xpath.setNamespaceContext(definition.namespaceContext);
+          }
+          contents.add(xpath.compile(
+              textContent(((QueryExpressionType) definition.value).getContent())));
+        } else {
+          compiled = false;
+        }
+      } catch (XPathExpressionException e) {
+        log.debug("Unable to compile message content filter, leaving it to WS-Nu: "
+            + e.getMessage());
+        compiled = false;
+      }
+    }
+    return new CompiledFilter(key, compiled, topics, contents, compiled ? topicPath : null);
+  }
+
+  /**
+   * Resolves a Simple or Concrete topic expression naming a single topic into the path of that
+   * topic, or null if the expression may match several topics
+   */
+  private static String concreteTopicPath(TopicExpressionType type,
+      NamespaceContext namespaceContext) {
+    String dialect = type.getDialect();
+    if (!WSNTools._SimpleTopicExpression.equals(dialect)
+        && !WSNTools._ConcreteTopicExpression.equals(dialect)) {
+      return null;
+    }
+    return PreparedNotify.topicPath(textContent(type.getContent()), namespaceContext);
+  }
+
+  /**
+   * Compiles a topic expression into a pattern over topic paths, or null if the dialect is not
+   * supported
+   */
+  private static Pattern compileTopicExpression(TopicExpressionType type,
+      NamespaceContext namespaceContext) {
+    String dialect = type.getDialect();
+    if (!WSNTools._SimpleTopicExpression.equals(dialect)
+        && !WSNTools._ConcreteTopicExpression.equals(dialect)
+        && !WSNTools._FullTopicExpression.equals(dialect)) {
+      return null;
+    }
+
+    StringBuilder regex = new StringBuilder();
+    for (String alternative : textContent(type.getContent()).split("\\|")) {
+      String path = alternative.trim();
+      if (path.isEmpty()) {
+        return null;
+      }
+      if (regex.length() > 0) {
+        regex.append('|');
+      }
+      regex.append("(?:");
+      boolean descendant = false;
+      boolean first = true;
+      // A leading // selects the step at any depth
+      if (path.startsWith("//")) {
+        path = path.substring(2);
+        descendant = true;
+      }
+      for (String step : path.split("/", -1)) {
+        if (step.isEmpty()) {
+          if (descendant) {
+            return null;
+          }
+          descendant = true;
+          continue;
+        }
+        if (step.equals(".")) {
+          // Descendant-or-self of the previous step, or the previous step itself
+          if (descendant) {
+            regex.append("(?:").append(STEP).append(ANY_STEP).append(")*");
+          }
+          descendant = false;
+          continue;
+        }
+        String stepRegex = compileStep(step, namespaceContext);
+        if (stepRegex == null) {
+          return null;
+        }
+        if (descendant) {
+          regex.append(first ? "" : String.valueOf(STEP))
+              .append("(?:").append(ANY_STEP).append(STEP).append(")*");
+        } else if (!first) {
+          regex.append(STEP);
+        }
+        regex.append(stepRegex);
+        descendant = false;
+        first = false;
+      }
+      if (first || descendant) {
+        return null;
+      }
+      regex.append(')');
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  /**
+   * Compiles a single step of a topic expression
+   */
+  private static String compileStep(String step, NamespaceContext namespaceContext) {
+    int colon = step.indexOf(':');
+    String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : step.substring(0, colon);
+    String name = step.substring(colon + 1);
+    if (name.isEmpty() || name.contains(":")) {
+      return null;
+    }
+    if (colon < 0 && name.equals("*")) {
+      return ANY_STEP;
+    }
+    String namespace = resolve(namespaceContext, prefix);
+    if (namespace == null) {
+      return null;
+    }
+    return Pattern.quote("{" + namespace + "}") + (name.equals("*") ? "[^" + STEP + "{]+"
+        : Pattern.quote(name));
+  }
+
+  /**
+   * Resolves the namespace of a prefix, where an unbound default prefix means no namespace
+   */
+  private static String resolve(NamespaceContext namespaceContext, String prefix) {
+    String namespace = namespaceContext == null ? null : namespaceContext.getNamespaceURI(prefix);
+    if (namespace == null || namespace.equals(XMLConstants.NULL_NS_URI)) {
+      return prefix.equals(XMLConstants.DEFAULT_NS_PREFIX) ? XMLConstants.NULL_NS_URI : null;
+    }
+    return namespace;
+  }
+
+  /**
+   * Concatenates the text content of a mixed content list
+   */
+  private static String textContent(List<Object> content) {
+    StringBuilder text = new StringBuilder();
+    content.forEach(text::append);
+    return text.toString().trim();
+  }
+
+  /**
+   * A subscription filter, as received in a Subscribe request
+   */
+  public static final class FilterDefinition {
+
+    private final Object value;
+    private final NamespaceContext namespaceContext;
+
+    /**
+     * Constructs a filter definition
+     *
+     * @param value The value of the filter element
+     * @param namespaceContext The namespace context of the filter
+     */
+    public FilterDefinition(Object value, NamespaceContext namespaceContext) {
+      this.value = value;
+      this.namespaceContext = namespaceContext;
+    }
+  }
+
+  /**
+   * The compiled filters of all subscriptions sharing a filter key
+   */
+  public static final class CompiledFilter {
+
+    private final String key;
+    private final boolean compiled;
+    private final List<Pattern> topics;
+    private final List<XPathExpression> contents;
+    private final String topicPath;
+    private int references;
+
+    private CompiledFilter(String key, boolean compiled, List<Pattern> topics,
+        List<XPathExpression> contents, String topicPath) {
+      this.key = key;
+      this.compiled = compiled;
+      this.topics = topics;
+      this.contents = contents;
+      this.topicPath = topicPath;
+      this.references = 0;
+    }
+
+    /**
+     * Retrieves the filter key this filter is interned by
+     *
+     * @return The filter key
+     */
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * Retrieves the path of the single topic this filter is restricted to by a Simple or Concrete
+     * topic expression. Messages published on any other topic never match the filter.
+     *
+     * @return The topic path, or null if the filter may match messages on several topics
+     */
+    public String getTopicPath() {
+      return topicPath;
+    }
+
+    /**
+     * Checks if this filter can be evaluated against a prepared Notify, or must be left to WS-Nu
+     *
+     * @param prepared The prepared Notify
+     * @return True if evaluate can be used, false otherwise
+     */
+    public boolean canEvaluate(PreparedNotify prepared) {
+      return compiled
+          && (topics.isEmpty() || prepared.topicsResolved())
+          && (contents.isEmpty() || prepared.contentsResolved());
+    }
+
+    /**
+     * Evaluates this filter against a prepared Notify. Every message of the Notify must match all
+     * the filters to be kept.
+     *
+     * @param prepared The prepared Notify
+     * @return The Notify itself if every message matched, a Notify holding the matching messages
+     * if some did, or null if none did
+     */
+    public Notify evaluate(PreparedNotify prepared) {
+      List<NotificationMessageHolderType> holders = prepared.notify.getNotificationMessage();
+      List<NotificationMessageHolderType> matching = new ArrayList<>();
+      for (int i = 0; i < holders.size(); i++) {
+        if (matches(prepared, i)) {
+          matching.add(holders.get(i));
+        }
+      }
+      if (matching.size() == holders.size()) {
+        return prepared.notify;
+      }
+      if (matching.isEmpty()) {
+        return null;
+      }
+      Notify filtered = new Notify();
+      filtered.getNotificationMessage().addAll(matching);
+      filtered.getAny().addAll(prepared.notify.getAny());
+      filtered.getOtherAttributes().putAll(prepared.notify.getOtherAttributes());
+      return filtered;
+    }
+
+    private boolean matches(PreparedNotify prepared, int holder) {
+      for (Pattern topic : topics) {
+        String path = prepared.topics.get(holder);
+        if (path == null || !topic.matcher(path).matches()) {
+          return false;
+        }
+      }
+      for (XPathExpression content : contents) {
+        Document document = prepared.contents.get(holder);
+        try {
+          // XPath expressions are not thread safe
+          synchronized (content) {
+            if (!(Boolean) content.evaluate(document, XPathConstants.BOOLEAN)) {
+              return false;
+            }
+          }
+        } catch (XPathExpressionException e) {
+          log.debug("Message content filter failed to evaluate: " + e.getMessage());
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * A Notify with the topic paths and message content documents needed by compiled filters
+   */
+  public static final class PreparedNotify {
+
+    private final Notify notify;
+    private final List<String> topics;
+    private final boolean topicsResolved;
+    private List<Document> contents;
+    private Boolean contentsResolved;
+
+    private PreparedNotify(Notify notify,
+        Function<TopicExpressionType, NamespaceContext> namespaces) {
+      this.notify = notify;
+      List<String> paths = new ArrayList<>();
+      boolean resolved = true;
+      for (NotificationMessageHolderType holder : notify.getNotificationMessage()) {
+        TopicExpressionType topic = holder.getTopic();
+        if (topic == null) {
+          paths.add(null);
+          continue;
+        }
+        String path = topicPath(textContent(topic.getContent()), namespaces.apply(topic));
+        resolved &= path != null;
+        paths.add(path);
+      }
+      this.topics = Collections.unmodifiableList(paths);
+      this.topicsResolved = resolved;
+    }
+
+    /**
+     * Resolves a concrete topic into a namespace qualified path, or null if it is not concrete
+     */
+    private static String topicPath(String topic, NamespaceContext namespaceContext) {
+      if (topic.isEmpty() || topic.contains("*") || topic.contains("|") || topic.contains(".")
+          || topic.contains("//")) {
+        return null;
+      }
+      StringBuilder path = new StringBuilder();
+      for (String step : topic.split("/")) {
+        int colon = step.indexOf(':');
+        String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : step.substring(0, colon);
+        String namespace = resolve(namespaceContext, prefix);
+        if (namespace == null || step.length() == colon + 1) {
+          return null;
+        }
+        if (path.length() > 0) {
+          path.append(STEP);
+        }
+        path.append('{').append(namespace).append('}').append(step.substring(colon + 1));
+      }
+      return path.toString();
+    }
+
+    boolean topicsResolved() {
+      return topicsResolved;
+    }
+
+    /**
+     * Retrieves the topic path of each message in the Notify, in the same form as
+     * CompiledFilter.getTopicPath
+     *
+     * @return The topic paths, holding null for messages without a topic, or null if some topic
+     * could not be resolved
+     */
+    public List<String> getTopicPaths() {
+      return topicsResolved ? topics : null;
+    }
+
+    /**
+     * Builds a standalone document of each message content the first time it is needed, so
+     * absolute XPath expressions are evaluated against the content rather than the envelope
+     */
+    synchronized boolean contentsResolved() {
+      if (contentsResolved == null) {
+        contentsResolved = false;
+        try {
+          DocumentBuilder builder = WSNXmlPools.getDocumentBuilder();
+          List<Document> documents = new ArrayList<>();
+          for (NotificationMessageHolderType holder : notify.getNotificationMessage()) {
+            if (holder.getMessage() == null || !(holder.getMessage().getAny() instanceof Element)) {
+              return false;
+            }
+            Document document = builder.newDocument();
+            document.appendChild(document.importNode((Element) holder.getMessage().getAny(), true));
+            documents.add(document);
+          }
+          contents = documents;
+          contentsResolved = true;
+        } catch (ParserConfigurationException e) {
+          log.error("Unable to create message content documents: " + e.getMessage());
+        }
+      }
+      return contentsResolved;
+    }
+  }
+}
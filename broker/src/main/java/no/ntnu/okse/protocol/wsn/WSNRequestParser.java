@@ -35,6 +35,7 @@ import org.ntnunotif.wsnu.base.util.Utilities;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
@@ -433,6 +434,36 @@ public class WSNRequestParser implements Hub {
     return _protocolServer.sendMessage(this.generateOutgoingMessage(internalMessage));
   }
 
+  /**
+   * Sends a local message like acceptLocalMessage, without waiting for the response
+   *
+   * @param internalMessage The message to send
+   */
+  public void acceptLocalMessageAsync(InternalMessage internalMessage) {
+    _protocolServer.sendMessageAsync(this.generateOutgoingMessage(internalMessage));
+  }
+
+  /**
+   * Serializes message content into the SOAP envelope that would be sent by acceptLocalMessage,
+   * so it can be reused for several recipients.
+   *
+   * @param content The content of the message, typically a Notify
+   * @param version The SOAP version of the envelope
+   * @return The serialized envelope
+   * @throws IOException If the content could not be serialized
+   */
+  public byte[] serializeOutgoingMessage(Object content, Soap.SoapVersion version)
+      throws IOException {
+    InternalMessage message = new InternalMessage(
+        InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE, content);
+    message.setVersion(version);
+    InternalMessage outgoing = this.generateOutgoingMessage(message);
+    if (!(outgoing.getMessage() instanceof InputStream)) {
+      throw new IOException("The message content could not be converted to a SOAP envelope");
+    }
+    return ByteStreams.toByteArray((InputStream) outgoing.getMessage());
+  }
+
   @Override
   public String getInetAdress() {
     return _protocolServer.getURI();
@@ -23,12 +23,15 @@ import javax.jws.WebService;
 import javax.jws.soap.SOAPBinding;
 import javax.xml.bind.annotation.XmlSeeAlso;
 import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 @WebService(targetNamespace = "http://docs.oasis-open.org/wsn/bw-2", name = "PausableSubscriptionManager")
@@ -45,11 +48,17 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
   public static final String WSN_DIALECT_TOKEN = "wsn-dialect";
   public static final String WSN_ENDPOINT_TOKEN = "wsn-endpoint";
   public static final String WSN_USERAW_TOKEN = "wsn-useraw";
+  public static final String WSN_FILTER_KEY_TOKEN = "wsn-filterkey";
 
   private static Logger log;
   private SubscriptionService _subscriptionService = null;
   private final ConcurrentHashMap<String, Subscriber> localSubscriberMap;
   private final ConcurrentHashMap<String, AbstractNotificationProducer.SubscriptionHandle> localSubscriberHandle;
+  // Subscriptions restricted to a single concrete topic, indexed by the path of that topic
+  private final ConcurrentHashMap<String, Set<String>> topicIndex;
+  private final ConcurrentHashMap<String, String> localSubscriberTopicPath;
+  // Subscriptions that may match any topic, and must be visited for every notification
+  private final Set<String> unindexedRecipients;
   private final WSNotificationServer _protocolserver;
 
   /**
@@ -59,6 +68,9 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
     log = Logger.getLogger(WSNSubscriptionManager.class.getName());
     localSubscriberMap = new ConcurrentHashMap<>();
     localSubscriberHandle = new ConcurrentHashMap<>();
+    topicIndex = new ConcurrentHashMap<>();
+    localSubscriberTopicPath = new ConcurrentHashMap<>();
+    unindexedRecipients = ConcurrentHashMap.newKeySet();
     _protocolserver = protocolserver;
   }
 
@@ -122,10 +134,37 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
    */
   public void addSubscriber(Subscriber s,
       AbstractNotificationProducer.SubscriptionHandle subHandle) {
+    addSubscriber(s, subHandle, null);
+  }
+
+  /**
+   * Adds a Subscriber like addSubscriber(Subscriber, SubscriptionHandle), indexing it by the
+   * single topic its filters restrict it to, so notifications on other topics never visit it.
+   *
+   * @param s An instance of OKSE Subscriber with proper fields and attributes set.
+   * @param subHandle An instance of WS-Nu SubscriptionHandle with proper fields and attributes
+   * set.
+   * @param topicPath The topic path from WSNFilterRegistry.CompiledFilter.getTopicPath, or null if
+   * the subscriber may match any topic
+   */
+  public void addSubscriber(Subscriber s,
+      AbstractNotificationProducer.SubscriptionHandle subHandle, String topicPath) {
+    String key = s.getAttribute(WSN_SUBSCRIBER_TOKEN);
+    // Index the subscriber before it becomes visible as a recipient
+    if (topicPath == null) {
+      unindexedRecipients.add(key);
+    } else {
+      localSubscriberTopicPath.put(key, topicPath);
+      topicIndex.compute(topicPath, (k, recipients) -> {
+        Set<String> indexed = recipients == null ? ConcurrentHashMap.newKeySet() : recipients;
+        indexed.add(key);
+        return indexed;
+      });
+    }
     _subscriptionService.addSubscriber(s);
-    log.debug("Adding Subscriber to local mappings: " + s.getAttribute(WSN_SUBSCRIBER_TOKEN));
-    localSubscriberMap.put(s.getAttribute(WSN_SUBSCRIBER_TOKEN), s);
-    localSubscriberHandle.put(s.getAttribute(WSN_SUBSCRIBER_TOKEN), subHandle);
+    log.debug("Adding Subscriber to local mappings: " + key);
+    localSubscriberMap.put(key, s);
+    localSubscriberHandle.put(key, subHandle);
   }
 
   // This should not be called in any of the OKSE Custom/Proxy web service implementations.
@@ -158,6 +197,28 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
     return localSubscriberMap.keySet();
   }
 
+  /**
+   * Retrieve the WS-Nu subscriptionKeys of the subscribers that may match messages on the given
+   * topics. Subscribers restricted to another concrete topic are left out, while subscribers with
+   * wildcard, Full or XPath topic expressions, or no topic expression, are always included.
+   *
+   * @param topicPaths The topic paths of the messages, as from
+   * WSNFilterRegistry.PreparedNotify.getTopicPaths, or null if they are unknown
+   * @return A Collection of WS-Nu subscriptionKeys
+   */
+  public Collection<String> getCandidateRecipients(List<String> topicPaths) {
+    if (topicPaths == null) {
+      return getAllRecipients();
+    }
+    Set<String> candidates = new LinkedHashSet<>(unindexedRecipients);
+    for (String topicPath : topicPaths) {
+      if (topicPath != null) {
+        candidates.addAll(topicIndex.getOrDefault(topicPath, Collections.emptySet()));
+      }
+    }
+    return candidates;
+  }
+
   /**
    * Retrieve the SubscriptionHandle of the subscriber identified by the argument subscriptionKey.
    *
@@ -360,8 +421,8 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
       XMLGregorianCalendar currentTime = null;
 
       try {
-        terminationTime = DatatypeFactory.newInstance().newXMLGregorianCalendar(gc);
-        currentTime = DatatypeFactory.newInstance().newXMLGregorianCalendar(cgc);
+        terminationTime = WSNXmlPools.getDatatypeFactory().newXMLGregorianCalendar(gc);
+        currentTime = WSNXmlPools.getDatatypeFactory().newXMLGregorianCalendar(cgc);
       } catch (DatatypeConfigurationException e) {
         log.error("Failed to generate the XMLGregorianCalendar instance");
       }
@@ -546,10 +607,32 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
         // Remove the local mappings from WS-Nu subscriptionKey to OKSE Subscriber object and WS-Nu subscriptionHandle
         localSubscriberMap.remove(e.getData().getAttribute(WSN_SUBSCRIBER_TOKEN));
         localSubscriberHandle.remove(e.getData().getAttribute(WSN_SUBSCRIBER_TOKEN));
+        removeFromTopicIndex(e.getData().getAttribute(WSN_SUBSCRIBER_TOKEN));
+        // Release the compiled filters of the subscription
+        WSNFilterRegistry.getInstance().release(e.getData().getAttribute(WSN_FILTER_KEY_TOKEN));
 
       } else if (e.getType().equals(SubscriptionChangeEvent.Type.SUBSCRIBE)) {
         log.debug("Received a SUBSCRIBE event");
       }
     }
   }
+
+  /**
+   * Removes a subscriber from the topic index
+   *
+   * @param key The WS-Nu subscriptionKey of the subscriber
+   */
+  private void removeFromTopicIndex(String key) {
+    if (key == null) {
+      return;
+    }
+    unindexedRecipients.remove(key);
+    String topicPath = localSubscriberTopicPath.remove(key);
+    if (topicPath != null) {
+      topicIndex.computeIfPresent(topicPath, (k, recipients) -> {
+        recipients.remove(key);
+        return recipients.isEmpty() ? null : recipients;
+      });
+    }
+  }
 }
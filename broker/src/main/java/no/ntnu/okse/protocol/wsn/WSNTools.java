@@ -40,24 +40,27 @@ import org.oasis_open.docs.wsn.bw_2.UnacceptableTerminationTimeFault;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 import javax.xml.bind.DatatypeConverter;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -75,6 +78,7 @@ public class WSNTools {
   public static final String _SimpleTopicExpression = "http://docs.oasis-open.org/wsn/t-1/TopicExpression/Simple";
   public static final String _FullTopicExpression = "http://docs.oasis-open.org/wsn/t-1/TopicExpression/Full";
   public static final String _XpathTopicExpression = "http://www.w3.org/TR/1999/REC-xpath-19991116";
+  public static final String _WSNBaseNamespace = "http://docs.oasis-open.org/wsn/b-2";
 
   /**
    * Generate a valid XML SOAP envelope containing a WS-Notification Notify
@@ -91,14 +95,7 @@ public class WSNTools {
     if (topic == null) {
       topic = "";
     }
-    // If dialect is null, check if it contains node path slash, which is not allowed in simpletopic
-    if (dialect == null) {
-      if (topic.contains("/")) {
-        dialect = _ConcreteTopicExpression;
-      } else {
-        dialect = _SimpleTopicExpression;
-      }
-    }
+    dialect = resolveDialect(topic, dialect);
 
     return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
         "<s:Envelope xmlns:ns2=\"http://www.w3.org/2001/12/soap-envelope\"\n" +
@@ -124,6 +121,53 @@ public class WSNTools {
         "        </s:Envelope>";
   }
 
+  /**
+   * Generate a WS-Notification Notify without a SOAP envelope, declaring the same namespace
+   * prefixes as the enveloped variant so the message content may use them
+   *
+   * @param topic The full raw topic path.
+   * @param dialect The namespace URI of the dialect used
+   * @param messageContent The full raw content of the message.
+   * @return A WS-Notification Notify XML structure as a string
+   */
+  private static String generateRawNotifyString(String topic, String dialect,
+      @NotNull String messageContent) {
+
+    if (topic == null) {
+      topic = "";
+    }
+    dialect = resolveDialect(topic, dialect);
+
+    return "<wsnt:Notify xmlns:ns2=\"http://www.w3.org/2001/12/soap-envelope\"\n" +
+        "            xmlns:ns3=\"http://docs.oasis-open.org/wsrf/bf-2\"\n" +
+        "            xmlns:wsa=\"http://www.w3.org/2005/08/addressing\"\n" +
+        "            xmlns:wsnt=\"http://docs.oasis-open.org/wsn/b-2\"\n" +
+        "            xmlns:ns6=\"http://docs.oasis-open.org/wsn/t-1\"\n" +
+        "            xmlns:ns7=\"http://docs.oasis-open.org/wsn/br-2\"\n" +
+        "            xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"\n" +
+        "            xmlns:ns9=\"http://docs.oasis-open.org/wsrf/r-2\">\n" +
+        "<wsnt:NotificationMessage>\n" +
+        "    <wsnt:Topic Dialect=\"" + dialect + "\">" + topic + "</wsnt:Topic>\n" +
+        "<wsnt:Message>" + messageContent + "</wsnt:Message>\n" +
+        "        </wsnt:NotificationMessage>\n" +
+        "        </wsnt:Notify>";
+  }
+
+  /**
+   * Falls back to the Concrete dialect for topic paths and the Simple dialect otherwise, as node
+   * path slashes are not allowed in simple topics
+   *
+   * @param topic The full raw topic path
+   * @param dialect The namespace URI of the dialect used, or null
+   * @return The dialect to use
+   */
+  private static String resolveDialect(String topic, String dialect) {
+    if (dialect != null) {
+      return dialect;
+    }
+    return topic.contains("/") ? _ConcreteTopicExpression : _SimpleTopicExpression;
+  }
+
   /**
    * Generate a valid XML SOAP envelope containing a WS-Notification Notify
    *
@@ -145,13 +189,10 @@ public class WSNTools {
    */
   public static String extractRawXmlContentFromDomNode(Node node) {
     try {
-      // Create transformer
-      TransformerFactory transFactory = TransformerFactory.newInstance();
-      Transformer transformer = transFactory.newTransformer();
+      // Fetch the pooled transformer, which already omits the xml declaration
+      Transformer transformer = WSNXmlPools.getTransformer();
       // Init a StringBuffer
       StringWriter buffer = new StringWriter();
-      // We don't want the xml declaration
-      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
       // Transform the node from source and beyond
       transformer.transform(new DOMSource(node), new StreamResult(buffer));
       // Convert to string
@@ -194,19 +235,16 @@ public class WSNTools {
    * @return A WS-Notification Notify wrapper containing topic, dialect and message
    */
   public static Notify createNotify(Message m) {
-    String rawXml = generateRawSoapEnvelopedNotifyString(m);
-    InternalMessage result = parseRawXmlString(rawXml);
-    if ((result.statusCode & InternalMessage.STATUS_FAULT) > 0) {
+    // No SOAP envelope is needed, so unmarshal the Notify directly with the pooled unmarshaller
+    String rawXml = generateRawNotifyString(m.getTopic(),
+        m.getAttribute(WSNSubscriptionManager.WSN_DIALECT_TOKEN), m.getMessage());
+    try {
+      return WSNXmlPools.getUnmarshaller()
+          .unmarshal(new StreamSource(new StringReader(rawXml)), Notify.class).getValue();
+    } catch (JAXBException e) {
       log.error("There was an error during parsing of raw xml string");
-      return null;
     }
-
-    Soap soap = Soap.createSameAs((JAXBElement) result.getMessage());
-    List<Object> body = soap.getBodyContent(((JAXBElement) result.getMessage()).getValue());
-    // Extract the Notify wrapper
-    Notify notify = (Notify) body.get(0);
-
-    return notify;
+    return null;
   }
 
   /**
@@ -359,8 +397,7 @@ public class WSNTools {
 
     // create message content
     try {
-      DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-      Document document = documentBuilderFactory.newDocumentBuilder().newDocument();
+      Document document = WSNXmlPools.getDocumentBuilder().newDocument();
       Element element = document.createElement(wrapper_element_name);
       element.setTextContent(content);
       return element;
@@ -381,14 +418,23 @@ public class WSNTools {
     try {
       log.debug("Extracting subscriptionRef from raw XML response: " + subResponse.getMessage()
           .toString());
-      InternalMessage parsed = parseRawXmlString(subResponse.getMessage().toString());
-      JAXBElement jaxb = (JAXBElement) parsed.getMessage();
-      Soap soap = Soap.createSameAs(jaxb);
-      SubscribeResponse sr = (SubscribeResponse) soap.getBodyContent(jaxb.getValue()).get(0);
+      // Locate the SubscribeResponse in the envelope, and unmarshal only that element
+      Document document = WSNXmlPools.getDocumentBuilder()
+          .parse(new InputSource(new StringReader(subResponse.getMessage().toString())));
+      NodeList responses = document
+          .getElementsByTagNameNS(_WSNBaseNamespace, "SubscribeResponse");
+      if (responses.getLength() == 0) {
+        log.error("The response did not contain a SubscribeResponse");
+        return null;
+      }
+      SubscribeResponse sr = WSNXmlPools.getUnmarshaller()
+          .unmarshal(responses.item(0), SubscribeResponse.class).getValue();
       return ServiceUtilities.getAddress(sr.getSubscriptionReference());
 
-    } catch (ClassCastException e) {
-      log.error("Failed to cast: " + e.getMessage());
+    } catch (ParserConfigurationException | SAXException | IOException e) {
+      log.error("Failed to parse the subscribe response: " + e.getMessage());
+    } catch (JAXBException e) {
+      log.error("Failed to unmarshal the subscribe response: " + e.getMessage());
     }
     return null;
   }
@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Per-thread pools of the XML parsers, transformers and JAXB unmarshallers used by the WSN
+ * protocol server.
+ *
+ * Looking up an XML factory scans the classpath for providers, and a JAXBContext reflects over
+ * every generated WS-Notification class, so creating them for each message costs far more than
+ * the parsing itself. The factories and the context are created once, while the objects they
+ * produce are not thread-safe and are kept one per thread. Each getter resets the object it hands
+ * out, so callers may use it for a single parse or transform without cleaning up afterwards.
+ */
+public final class WSNXmlPools {
+
+  private static volatile JAXBContext wsnContext;
+
+  private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+  private static final ThreadLocal<Transformer> transformers = new ThreadLocal<>();
+  private static final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<>();
+  private static final ThreadLocal<DatatypeFactory> datatypeFactories = new ThreadLocal<>();
+
+  private WSNXmlPools() {
+  }
+
+  /**
+   * Fetches the JAXBContext of the WS-Notification base types, creating it on first use
+   *
+   * @return The shared JAXBContext
+   * @throws JAXBException If the context could not be created
+   */
+  public static JAXBContext getContext() throws JAXBException {
+    JAXBContext context = wsnContext;
+    if (context == null) {
+      synchronized (WSNXmlPools.class) {
+        context = wsnContext;
+        if (context == null) {
+          context = JAXBContext.newInstance(org.oasis_open.docs.wsn.b_2.ObjectFactory.class,
+              org.oasis_open.docs.wsn.t_1.ObjectFactory.class);
+          wsnContext = context;
+        }
+      }
+    }
+    return context;
+  }
+
+  /**
+   * Fetches the namespace aware DocumentBuilder of the calling thread
+   *
+   * @return A reset DocumentBuilder
+   * @throws ParserConfigurationException If no DocumentBuilder could be created
+   */
+  public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+    DocumentBuilder builder = documentBuilders.get();
+    if (builder == null) {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      builder = factory.newDocumentBuilder();
+      documentBuilders.set(builder);
+    } else {
+      builder.reset();
+    }
+    return builder;
+  }
+
+  /**
+   * Fetches the Transformer of the calling thread, set up to omit the XML declaration
+   *
+   * @return A reset Transformer
+   * @throws TransformerConfigurationException If no Transformer could be created
+   */
+  public static Transformer getTransformer() throws TransformerConfigurationException {
+    Transformer transformer = transformers.get();
+    if (transformer == null) {
+      transformer = TransformerFactory.newInstance().newTransformer();
+      transformers.set(transformer);
+    } else {
+      transformer.reset();
+    }
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    return transformer;
+  }
+
+  /**
+   * Fetches the Unmarshaller of the calling thread, bound to the WS-Notification base types
+   *
+   * @return An Unmarshaller
+   * @throws JAXBException If no Unmarshaller could be created
+   */
+  public static Unmarshaller getUnmarshaller() throws JAXBException {
+    Unmarshaller unmarshaller = unmarshallers.get();
+    if (unmarshaller == null) {
+      unmarshaller = getContext().createUnmarshaller();
+      unmarshallers.set(unmarshaller);
+    }
+    return unmarshaller;
+  }
+
+  /**
+   * Fetches the DatatypeFactory of the calling thread
+   *
+   * @return A DatatypeFactory
+   * @throws DatatypeConfigurationException If no DatatypeFactory could be created
+   */
+  public static DatatypeFactory getDatatypeFactory() throws DatatypeConfigurationException {
+    DatatypeFactory factory = datatypeFactories.get();
+    if (factory == null) {
+      factory = DatatypeFactory.newInstance();
+      datatypeFactories.set(factory);
+    }
+    return factory;
+  }
+}
@@ -25,6 +25,8 @@
 package no.ntnu.okse.protocol.wsn;
 
 import com.google.common.io.ByteStreams;
+import no.ntnu.okse.Application;
+import no.ntnu.okse.core.VirtualThreads;
 import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.core.subscription.SubscriptionService;
@@ -33,6 +35,8 @@ import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.client.util.InputStreamContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
@@ -57,11 +61,15 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.net.URI;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WSNotificationServer extends AbstractProtocolServer {
 
@@ -75,6 +83,8 @@ public class WSNotificationServer extends AbstractProtocolServer {
   private static final String DEFAULT_HOST = "0.0.0.0";
   private static final int DEFAULT_PORT = 61000;
   private static final String DEFAULT_MESSAGE_CONTENT_WRAPPER_NAME = "Content";
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 8;
+  public static final int DEFAULT_MAX_IN_FLIGHT_PER_ENDPOINT = 1024;
 
   // Flag and defaults for operation behind NAT
   private final boolean behindNAT;
@@ -84,6 +94,8 @@ public class WSNotificationServer extends AbstractProtocolServer {
   // HTTP Client fields
   private final Long connectionTimeout;
   private final Integer clientPoolSize;
+  private int maxConnectionsPerEndpoint = DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+  private int maxInFlightPerEndpoint = DEFAULT_MAX_IN_FLIGHT_PER_ENDPOINT;
 
   // Non-XMl Content Wrapper Name
   private String contentWrapperElementName;
@@ -96,7 +108,10 @@ public class WSNotificationServer extends AbstractProtocolServer {
   private HttpClient _client;
   private HashSet<ServiceConnection> _services;
   private ExecutorService clientPool;
+  private ScheduledExecutorService redeliveryScheduler;
+  private EndpointCircuitBreaker<byte[]> circuitBreaker;
   private final TreeSet<String> relays = new TreeSet<>();
+  private final StreamingNotifyReader streamingReader = new StreamingNotifyReader();
 
   /**
    * Constructor that takes in configuration options for the WSNotification server. <p>
@@ -139,7 +154,21 @@ public class WSNotificationServer extends AbstractProtocolServer {
     // Declare HttpClient field
     _client = null;
 
-    clientPool = Executors.newFixedThreadPool(clientPoolSize);
+    // Each notification blocks its thread for a whole HTTP request, so virtual threads keep one
+    // slow endpoint from holding up the fixed pool
+    clientPool = VirtualThreads
+        .newExecutor("WSN-client", () -> Executors.newFixedThreadPool(clientPoolSize));
+
+    redeliveryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "WSN-redelivery");
+      thread.setDaemon(true);
+      return thread;
+    });
+    circuitBreaker = new EndpointCircuitBreaker<>(Application.WSN_CIRCUIT_FAILURE_THRESHOLD,
+        Application.WSN_RETRY_INITIAL_BACKOFF, Application.WSN_RETRY_MAX_BACKOFF,
+        Application.WSN_REDELIVERY_QUEUE_SIZE, Application.WSN_MAX_DELIVERY_ATTEMPTS,
+        Application.WSN_PAUSE_UNREACHABLE_AFTER,
+        this::sendNotification, this::pauseUnreachableEndpoint, redeliveryScheduler);
 
     if (contentWrapperElementName.contains("<") || contentWrapperElementName.contains(">")) {
       log.warn(
@@ -196,6 +225,11 @@ public class WSNotificationServer extends AbstractProtocolServer {
         this._client = new HttpClient();
         // Turn off following HTTP 30x redirects for the client
         this._client.setFollowRedirects(false);
+        // Notifications are sent asynchronously over a pool of keep-alive connections per
+        // endpoint. Requests that do not get a connection are queued on the endpoint, and
+        // rejected once the queue is full, so a slow endpoint cannot buffer unbounded messages.
+        this._client.setMaxConnectionsPerDestination(maxConnectionsPerEndpoint);
+        this._client.setMaxRequestsQueuedPerDestination(maxInFlightPerEndpoint);
         this._client.start();
         log.info("Started WSNServer HTTPClient");
 
@@ -288,6 +322,9 @@ public class WSNotificationServer extends AbstractProtocolServer {
 
       // Stop the HTTP Client
       this._client.stop();
+      // Stop redelivering, and forget the state of every endpoint
+      redeliveryScheduler.shutdownNow();
+      circuitBreaker.reset();
       // Stop the ServerConnector
       this._server.stop();
       this._serverThread = null;
@@ -332,9 +369,15 @@ public class WSNotificationServer extends AbstractProtocolServer {
   public void sendMessage(Message message) {
     log.debug("WSNServer received message for distribution");
     if (!message.getOriginProtocol().equals(protocolServerType)
-        || message.getAttribute("duplicate") != null) {
+        || message.getAttribute("duplicate") != null
+        || message.getAttribute(StreamingNotifyReader.WSN_STREAMED_TOKEN) != null) {
       log.debug("The message originated from other protocol than WSNotification");
 
+      // Without local subscribers, there is no need to build a Notify
+      if (_commandProxy.getAllRecipients().isEmpty()) {
+        return;
+      }
+
       WSNTools.NotifyWithContext notifywrapper = WSNTools
           .buildNotifyWithContext(getMessageContentWrapperElementName(), message.getMessage(),
               message.getTopic(), null, null);
@@ -388,72 +431,67 @@ public class WSNotificationServer extends AbstractProtocolServer {
         }
       }
 
-      // For all valid recipients
-      for (String recipient : _commandProxy.getAllRecipients()) {
-
-        // If the subscription has expired, continue
-        if (_commandProxy.getProxySubscriptionManager().getSubscriber(recipient).hasExpired()) {
-          continue;
-        }
-
-        // Filter do filter handling, if any
-        Notify toSend = _commandProxy
-            .getRecipientFilteredNotify(recipient, notifywrapper.notify, namespaceContextResolver);
-
-        // If any message was left to send, send it
-        if (toSend != null) {
-          InternalMessage outMessage = new InternalMessage(
-              InternalMessage.STATUS_OK |
-                  InternalMessage.STATUS_HAS_MESSAGE |
-                  InternalMessage.STATUS_ENDPOINTREF_IS_SET,
-              toSend
-          );
-          // Update the request-information
-          outMessage.getRequestInformation()
-              .setEndpointReference(_commandProxy.getEndpointReferenceOfRecipient(recipient));
-
-          // Check if the subscriber has requested raw message format
-          // If the recipient has requested UseRaw, remove Notify payload wrapping
-          if (_commandProxy
-              .getProxySubscriptionManager()
-              .getSubscriber(recipient)
-              .getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null) {
-
-            Object content = WSNTools.extractMessageContentFromNotify(toSend);
-            // Update the InternalMessage with the content of the NotificationMessage
-            outMessage.setMessage(content);
-          }
-
-          // Use the correct SOAP version for this subscriber
-          Subscriber subscriber = _commandProxy.getProxySubscriptionManager()
-              .getSubscriber(recipient);
-          String version = subscriber.getAttribute("soap_version");
-          if (version == null) {
-            outMessage.setVersion(Soap.SoapVersion.SOAP_1_1);
-          } else {
-            switch (version) {
-              default:
-              case "soap11":
-                outMessage.setVersion(Soap.SoapVersion.SOAP_1_1);
-                break;
-              case "soap12D":
-                outMessage.setVersion(Soap.SoapVersion.SOAP_1_2_2001);
-                break;
-              case "soap12F":
-                outMessage.setVersion(Soap.SoapVersion.SOAP_1_2_2003);
-                break;
-            }
-          }
-
-          // Pass it along to the request parser wrapped as a thread pool executed job
-          clientPool.execute(() -> _requestParser.acceptLocalMessage(outMessage));
-        }
+      // Recipients receiving the same Notify share its serialized envelopes
+      Map<Notify, NotifyTemplateCache> templates = new IdentityHashMap<>();
+
+      // For all valid recipients, with filter handling done, if any
+      for (Map.Entry<String, Notify> filtered : _commandProxy
+          .getFilteredNotifies(notifywrapper.notify, namespaceContextResolver).entrySet()) {
+        String recipient = filtered.getKey();
+        Notify toSend = filtered.getValue();
+        Subscriber subscriber = _commandProxy.getProxySubscriptionManager()
+            .getSubscriber(recipient);
+        String endpoint = _commandProxy.getEndpointReferenceOfRecipient(recipient);
+        // Check if the subscriber has requested raw message format
+        boolean raw = subscriber.getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null;
+        // Use the correct SOAP version for this subscriber
+        Soap.SoapVersion version = getSoapVersion(subscriber);
+
+        // The envelope is serialized by the first recipient to need it, and reused by the rest.
+        // The pool only reads the template, the HTTP exchange itself is asynchronous.
+        NotifyTemplateCache template = templates.computeIfAbsent(toSend, this::newNotifyTemplate);
+        clientPool.execute(() -> sendSerializedNotification(endpoint, template.get(version, raw)));
       }
     } else {
       log.debug("Message originated from WSN protocol, already processed");
     }
   }
 
+  /**
+   * Creates a template cache for fanning out a Notify, serializing its variants through the
+   * request parser
+   *
+   * @param notify The Notify to fan out
+   * @return A template cache for the Notify
+   */
+  public NotifyTemplateCache newNotifyTemplate(Notify notify) {
+    return new NotifyTemplateCache(notify, (n, version, raw) -> _requestParser
+        .serializeOutgoingMessage(raw ? WSNTools.extractMessageContentFromNotify(n) : n,
+            version));
+  }
+
+  /**
+   * Resolves the SOAP version a subscriber has requested notifications in
+   *
+   * @param subscriber The subscriber
+   * @return The SOAP version to use, SOAP 1.1 if none was requested
+   */
+  public static Soap.SoapVersion getSoapVersion(Subscriber subscriber) {
+    String version = subscriber.getAttribute("soap_version");
+    if (version == null) {
+      return Soap.SoapVersion.SOAP_1_1;
+    }
+    switch (version) {
+      case "soap12D":
+        return Soap.SoapVersion.SOAP_1_2_2001;
+      case "soap12F":
+        return Soap.SoapVersion.SOAP_1_2_2003;
+      case "soap11":
+      default:
+        return Soap.SoapVersion.SOAP_1_1;
+    }
+  }
+
   /**
    * Fetches the complete URI of this ProtocolServer
    *
@@ -591,23 +629,30 @@ public class WSNotificationServer extends AbstractProtocolServer {
         }
       }
 
+      InputStream requestContent = request.getInputStream();
+
+      // Large and chunked Notify requests to the broker are streamed instead of unmarshalled
+      if (isStreamingCandidate(request, isChunked)) {
+        StreamingNotifyReader.Peek peek = streamingReader.peek(requestContent);
+        if (peek.isNotify()) {
+          handleStreamedNotify(peek.getRequest(), baseRequest, response);
+          return;
+        }
+        requestContent = peek.getRequest();
+      }
+
       log.debug("Accepted message, trying to instantiate WSNu InternalMessage");
 
       // Get message content, if any
       InternalMessage outgoingMessage;
       if (request.getContentLength() > 0) {
-        InputStream inputStream = request.getInputStream();
         outgoingMessage = new InternalMessage(
-            InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE, inputStream);
+            InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE, requestContent);
       } else if (isChunked) {
-        InputStream chunkedInputStream = request.getInputStream();
-        StringWriter swriter = new StringWriter();
-        IOUtils.copy(chunkedInputStream, swriter);
-        String rawRequest = swriter.toString();
-        log.debug(rawRequest);
+        // The content is buffered as is, without decoding it to characters and back
         outgoingMessage = new InternalMessage(
             InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE,
-            new ByteArrayInputStream(rawRequest.getBytes()));
+            new ByteArrayInputStream(IOUtils.toByteArray(requestContent)));
       } else {
         outgoingMessage = new InternalMessage(InternalMessage.STATUS_OK, null);
       }
@@ -760,6 +805,61 @@ public class WSNotificationServer extends AbstractProtocolServer {
 
       }
     }
+
+    /**
+     * Checks if a request may be a Notify large enough to be streamed. Only requests to the broker
+     * endpoint are considered, as Notify requests are not accepted by the managers.
+     *
+     * @param request The HTTP request
+     * @param isChunked Whether the request uses chunked transfer encoding
+     * @return True if the request should be peeked at for a Notify
+     */
+    private boolean isStreamingCandidate(HttpServletRequest request, boolean isChunked) {
+      if (Application.WSN_STREAMING_THRESHOLD <= 0 || _commandProxy == null
+          || !HttpMethod.POST.is(request.getMethod())) {
+        return false;
+      }
+      if (!isChunked && request.getContentLength() < Application.WSN_STREAMING_THRESHOLD) {
+        return false;
+      }
+      String brokerPath = URI.create(_commandProxy.getEndpointReference()).getPath();
+      return brokerPath != null
+          && trimSlashes(brokerPath).equals(trimSlashes(request.getRequestURI()));
+    }
+
+    /**
+     * Distributes the NotificationMessages of a streamed Notify as they are read, and completes the
+     * one-way exchange
+     *
+     * @param requestContent The complete request content
+     * @param baseRequest The Jetty request
+     * @param response The HTTP response
+     */
+    private void handleStreamedNotify(InputStream requestContent, Request baseRequest,
+        HttpServletResponse response) {
+      log.debug("Streaming Notify request");
+      AtomicBoolean accepted = new AtomicBoolean(true);
+      try {
+        // Once OKSE rejects a message, the rest of the Notify is read but not distributed
+        int count = streamingReader.read(requestContent, notification -> {
+          if (accepted.get()) {
+            accepted.set(_commandProxy.sendStreamedNotification(notification));
+          }
+        });
+        log.debug("Streamed " + count + " NotificationMessages");
+        incrementTotalMessagesReceived();
+        response.setStatus(HttpStatus.OK_200);
+      } catch (XMLStreamException e) {
+        log.warn("Malformed Notify request: " + e.getMessage());
+        response.setStatus(HttpStatus.BAD_REQUEST_400);
+        totalBadRequests.incrementAndGet();
+      }
+      baseRequest.setHandled(true);
+    }
+
+    private String trimSlashes(String path) {
+      return path.replaceAll("^/+|/+$", "");
+    }
   }
 
   public InternalMessage sendMessage(InternalMessage message) {
@@ -858,6 +958,160 @@ public class WSNotificationServer extends AbstractProtocolServer {
     }
   }
 
+  /**
+   * Sends a message without waiting for the response. Used for notifications, where the response
+   * is of no interest beyond its status. The request is handed to the HttpClient, and the
+   * statistics are updated from its completion callback. The response content is discarded
+   * rather than buffered.
+   *
+   * Notifications go through the circuit breaker of their endpoint, which holds them back and
+   * redelivers them while the endpoint is failing.
+   *
+   * Messages without content are sent synchronously through sendMessage.
+   *
+   * @param message The message to send
+   */
+  public void sendMessageAsync(InternalMessage message) {
+    RequestInformation requestInformation = message.getRequestInformation();
+    String endpoint = requestInformation.getEndpointReference();
+
+    if (endpoint == null) {
+      log.error("Endpoint reference not set");
+      totalErrors.incrementAndGet();
+      return;
+    }
+    if ((message.statusCode & InternalMessage.STATUS_HAS_MESSAGE) == 0
+        || (message.statusCode & InternalMessage.STATUS_MESSAGE_IS_INPUTSTREAM) == 0
+        || !(message.getMessage() instanceof InputStream)) {
+      sendMessage(message);
+      return;
+    }
+
+    // The content is buffered, so the notification can be redelivered
+    byte[] content;
+    try {
+      content = IOUtils.toByteArray((InputStream) message.getMessage());
+    } catch (IOException e) {
+      totalErrors.incrementAndGet();
+      log.error("sendMessageAsync(): Unable to read notification content: " + e.getMessage());
+      return;
+    }
+    circuitBreaker.submit(endpoint, content);
+  }
+
+  /**
+   * Sends an already serialized notification asynchronously, without marshalling it again
+   *
+   * @param endpoint The endpoint to send to
+   * @param content The serialized notification, typically shared with other recipients
+   */
+  public void sendSerializedNotification(String endpoint, byte[] content) {
+    if (endpoint == null || content == null) {
+      log.error("sendSerializedNotification(): Missing endpoint or content");
+      totalErrors.incrementAndGet();
+      return;
+    }
+    circuitBreaker.submit(endpoint, content);
+  }
+
+  /**
+   * Sends a notification to an endpoint, reporting the result to the circuit breaker
+   *
+   * @param endpoint The endpoint to send to
+   * @param content The serialized notification
+   */
+  private void sendNotification(String endpoint, byte[] content) {
+    log.debug("Sending message with content asynchronously to " + endpoint);
+    try {
+      _client.newRequest(endpoint)
+          .method(HttpMethod.POST)
+          .timeout(connectionTimeout, TimeUnit.SECONDS)
+          .content(new BytesContentProvider(content), "application/soap+xml; charset=utf-8")
+          .send(result -> onNotificationComplete(endpoint, content, result));
+    } catch (Exception e) {
+      totalErrors.incrementAndGet();
+      log.error("sendMessageAsync(): Unable to send request to " + endpoint + ": "
+          + e.getMessage());
+      circuitBreaker.onFailure(endpoint, content);
+    }
+  }
+
+  /**
+   * Completion callback of asynchronous notifications, updating the statistics and the health of
+   * the endpoint. Transport failures and server errors count against the endpoint.
+   *
+   * @param endpoint The endpoint the notification was sent to
+   * @param content The serialized notification
+   * @param result The result of the exchange
+   */
+  private void onNotificationComplete(String endpoint, byte[] content, Result result) {
+    if (result.isFailed()) {
+      totalErrors.incrementAndGet();
+      log.debug("sendMessageAsync(): Unable to deliver notification to " + endpoint + ": "
+          + result.getFailure().getMessage());
+      circuitBreaker.onFailure(endpoint, content);
+      return;
+    }
+    int status = result.getResponse().getStatus();
+    if (HttpStatus.isServerError(status)) {
+      totalErrors.incrementAndGet();
+      log.debug("Endpoint " + endpoint + " answered notification with HTTP status " + status);
+      circuitBreaker.onFailure(endpoint, content);
+      return;
+    }
+    totalMessagesSent.incrementAndGet();
+    circuitBreaker.onSuccess(endpoint, content);
+    if (!HttpStatus.isSuccess(status)) {
+      totalBadRequests.incrementAndGet();
+      log.debug("Endpoint " + endpoint + " answered notification with HTTP status " + status);
+    }
+  }
+
+  /**
+   * Pauses every subscription delivering to an endpoint that has stayed unreachable. The
+   * subscriptions can be resumed through WS-Notification or the admin interface.
+   *
+   * @param endpoint The unreachable endpoint
+   */
+  private void pauseUnreachableEndpoint(String endpoint) {
+    for (String recipient : _commandProxy.getAllRecipients()) {
+      if (endpoint.equals(_commandProxy.getEndpointReferenceOfRecipient(recipient))) {
+        Subscriber subscriber = _commandProxy.getProxySubscriptionManager()
+            .getSubscriber(recipient);
+        log.warn("Pausing subscriber " + subscriber + " with unreachable endpoint " + endpoint);
+        SubscriptionService.getInstance().pauseSubscriber(subscriber);
+      }
+    }
+  }
+
+  /**
+   * Fetches the circuit breaker tracking the health of notification endpoints
+   *
+   * @return The EndpointCircuitBreaker of this server
+   */
+  public EndpointCircuitBreaker<byte[]> getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Sets the maximum number of connections opened to a single endpoint. Takes effect on boot.
+   *
+   * @param maxConnections The maximum number of connections per endpoint
+   */
+  public void setMaxConnectionsPerEndpoint(int maxConnections) {
+    this.maxConnectionsPerEndpoint = Math.max(1, maxConnections);
+  }
+
+  /**
+   * Sets the maximum number of requests waiting for a connection to a single endpoint. Requests
+   * beyond this fail immediately. Takes effect on boot.
+   *
+   * @param maxInFlight The maximum number of queued requests per endpoint
+   */
+  public void setMaxInFlightPerEndpoint(int maxInFlight) {
+    this.maxInFlightPerEndpoint = Math.max(1, maxInFlight);
+  }
+
   public boolean addRelay(String relay, String host, Integer port, String topic,
       Soap.SoapVersion version) {
     final Set<String> localRelays = new HashSet<String>() {{
@@ -1,5 +1,7 @@
 package no.ntnu.okse.protocol.xmpp;
 
+import no.ntnu.okse.Application;
+import no.ntnu.okse.core.VirtualThreads;
 import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.protocol.AbstractProtocolServer;
 import org.apache.log4j.Logger;
@@ -11,11 +13,22 @@ import org.jxmpp.jid.EntityBareJid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
 public class XMPPProtocolServer extends AbstractProtocolServer {
 
   private EntityBareJid jid;
   private String password;
   private XMPPServer server;
+  // Runs blocking publishes on virtual threads, null if messages are published inline
+  private volatile ExecutorService sender;
+  // The last publish submitted on each topic, so publishes on a topic run in order
+  private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingPublishes =
+      new ConcurrentHashMap<>();
   protected static final String SERVERTYPE = "xmpp";
 
   /**
@@ -48,6 +61,12 @@ public class XMPPProtocolServer extends AbstractProtocolServer {
   public void boot() {
     if (!_running) {
       _running = true;
+      if (Application.VIRTUAL_THREADS) {
+        sender = VirtualThreads.newThreadPerTaskExecutor("XMPP-sender");
+        if (sender == null) {
+          log.warn("Virtual threads are not supported by this JVM, publishing XMPP messages inline");
+        }
+      }
       _serverThread = new Thread(this::run);
       _serverThread.setName("XMPPServer");
       _serverThread.start();
@@ -71,6 +90,10 @@ public class XMPPProtocolServer extends AbstractProtocolServer {
   public void stopServer() {
     log.info("Stopping XMPPServer");
     server.stopServer();
+    if (sender != null) {
+      sender.shutdown();
+      sender = null;
+    }
     log.info("Stopping XMPPProtocolServer");
     _running = false;
 
@@ -85,24 +108,69 @@ public class XMPPProtocolServer extends AbstractProtocolServer {
   }
 
   /**
-   * Forwards the message to the server to handle, given it does not originate from this protocol
+   * Forwards the message to the server to handle, given it does not originate from this protocol.
+   * With virtual threads enabled each publish runs on a thread of its own, so a slow pubsub round
+   * trip does not hold up the dispatch lane. Publishes on the same topic are chained, so they still
+   * run in the order the messages were dispatched.
    * @param message An instance of Message containing the required data to distribute a message.
    */
   @Override
   public void sendMessage(Message message) {
     if (!message.getOriginProtocol().equals(protocolServerType)
         || message.getAttribute("duplicate") != null) {
-      incrementTotalRequests();
-      try {
-        server.sendMessage(message);
-        incrementTotalMessagesSent();
-      } catch (NotAPubSubNodeException | NoResponseException | InterruptedException e) {
+      ExecutorService executor = sender;
+      if (executor != null) {
+        submit(executor, message);
+      } else {
+        publish(message);
+      }
+    }
+  }
+
+  /**
+   * Submits a publish to the sender, after the publishes already submitted on the same topic
+   * @param executor The sender executor
+   * @param message The message to publish
+   */
+  private void submit(ExecutorService executor, Message message) {
+    String topic = message.getTopic() == null ? "" : message.getTopic();
+    CompletableFuture<Void> next;
+    try {
+      next = pendingPublishes.compute(topic, (t, previous) -> previous == null
+          ? CompletableFuture.runAsync(() -> publish(message), executor)
+          // Run after the previous publish, whether or not it failed
+          : previous.handle((result, error) -> null)
+              .thenRunAsync(() -> publish(message), executor));
+    } catch (RejectedExecutionException e) {
+      log.warn("XMPP sender is shut down, dropping message on topic " + topic);
+      incrementTotalErrors();
+      return;
+    }
+    next.whenComplete((result, error) -> {
+      pendingPublishes.remove(topic, next);
+      if (error instanceof CompletionException
+          && error.getCause() instanceof RejectedExecutionException) {
+        log.warn("XMPP sender is shut down, dropping message on topic " + topic);
         incrementTotalErrors();
-        e.printStackTrace();
-      } catch (NotConnectedException e) {
-        incrementTotalBadRequest();
-        e.printStackTrace();
       }
+    });
+  }
+
+  /**
+   * Publishes a message through the server, blocking until the pubsub service has replied
+   * @param message The message to publish
+   */
+  private void publish(Message message) {
+    incrementTotalRequests();
+    try {
+      server.sendMessage(message);
+      incrementTotalMessagesSent();
+    } catch (NotAPubSubNodeException | NoResponseException | InterruptedException e) {
+      incrementTotalErrors();
+      e.printStackTrace();
+    } catch (NotConnectedException e) {
+      incrementTotalBadRequest();
+      e.printStackTrace();
     }
   }
 
@@ -25,6 +25,7 @@
 package no.ntnu.okse.web.controller;
 
 import no.ntnu.okse.core.CoreService;
+import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.subscription.SubscriptionService;
 import no.ntnu.okse.core.topic.TopicService;
 import no.ntnu.okse.protocol.ProtocolServer;
@@ -60,6 +61,7 @@ public class StatsController {
     CoreService cs = CoreService.getInstance();
     SubscriptionService ss = SubscriptionService.getInstance();
     TopicService ts = TopicService.getInstance();
+    MessageService ms = MessageService.getInstance();
 
     HashMap<String, Object> result = new HashMap<>();
 
@@ -75,6 +77,18 @@ public class StatsController {
       put("topics", ts.getTotalNumberOfTopics());
     }});
 
+    // MessageService statistics
+    result.put("messageServiceStatistics", new HashMap<String, Object>() {{
+      put("queueDepth", ms.getQueueDepth());
+      put("totalDropped", ms.getTotalDroppedMessages());
+      put("totalRejected", ms.getTotalRejectedMessages());
+      put("dispatchLanes", ms.getDispatchLaneCount());
+      put("laneQueueDepths", ms.getLaneQueueDepths());
+    }});
+
+    // Executor statistics
+    result.put("executorStatistics", cs.getExecutor().getStatistics());
+
     // ProtocolServer statistics
     ArrayList<ProtocolServer> protocols = cs.getAllProtocolServers();
     ArrayList<ProtocolStats> protocolStats = new ArrayList<>();
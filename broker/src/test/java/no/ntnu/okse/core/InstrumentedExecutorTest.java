@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class InstrumentedExecutorTest {
+
+  InstrumentedExecutor executor;
+
+  @AfterMethod
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStatsPerTaskType() throws Exception {
+    executor = new InstrumentedExecutor("test", 2, 2, 100,
+        InstrumentedExecutor.RejectionPolicy.ABORT);
+    CountDownLatch done = new CountDownLatch(15);
+    for (int i = 0; i < 10; i++) {
+      executor.execute("a", done::countDown);
+    }
+    for (int i = 0; i < 5; i++) {
+      executor.execute(done::countDown);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    InstrumentedExecutor.TaskStats a = executor.getTaskStats().get("a");
+    assertEquals(a.getSubmitted(), 10);
+    assertEquals(a.getCompleted(), 10);
+    assertEquals(a.getRejected(), 0);
+    assertEquals(executor.getTaskStats().get(InstrumentedExecutor.DEFAULT_TASK_TYPE)
+        .getCompleted(), 5);
+    assertTrue(executor.getStatistics().containsKey("tasks"));
+  }
+
+  @Test
+  public void testFailedTasksAreCounted() throws Exception {
+    executor = new InstrumentedExecutor("test", 1, 1, 0,
+        InstrumentedExecutor.RejectionPolicy.ABORT);
+    executor.execute("failing", () -> {
+      throw new IllegalStateException("Expected failure");
+    });
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(executor.getTaskStats().get("failing").getFailed(), 1);
+  }
+
+  @Test
+  public void testRejectionPolicies() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Runnable blocker = () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+
+    // One running and one queued task fill the pool
+    executor = new InstrumentedExecutor("test", 1, 1, 1,
+        InstrumentedExecutor.RejectionPolicy.ABORT);
+    executor.execute("block", blocker);
+    executor.execute("block", blocker);
+    try {
+      executor.execute("block", blocker);
+      fail("Expected the task to be rejected");
+    } catch (RejectedExecutionException e) {
+      assertEquals(executor.getTaskStats().get("block").getRejected(), 1);
+    }
+    executor.shutdownNow();
+
+    executor = new InstrumentedExecutor("test", 1, 1, 1,
+        InstrumentedExecutor.RejectionPolicy.CALLER_RUNS);
+    executor.execute("block", blocker);
+    executor.execute("block", blocker);
+    Thread caller = Thread.currentThread();
+    Thread[] ranOn = new Thread[1];
+    executor.execute("caller", () -> ranOn[0] = Thread.currentThread());
+    assertSame(ranOn[0], caller);
+    assertEquals(executor.getTaskStats().get("caller").getRejected(), 1);
+    assertEquals(executor.getTaskStats().get("caller").getCompleted(), 1);
+
+    executor.shutdownNow();
+    executor = new InstrumentedExecutor("test", 1, 1, 1,
+        InstrumentedExecutor.RejectionPolicy.DISCARD_OLDEST);
+    CountDownLatch newest = new CountDownLatch(1);
+    executor.execute("block", blocker);
+    executor.execute("oldest", () -> fail("The oldest task should have been discarded"));
+    executor.execute("newest", newest::countDown);
+    assertEquals(executor.getTaskStats().get("oldest").getRejected(), 1);
+    assertEquals(executor.getTaskStats().get("newest").getRejected(), 0);
+    release.countDown();
+    assertTrue(newest.await(5, TimeUnit.SECONDS));
+  }
+}
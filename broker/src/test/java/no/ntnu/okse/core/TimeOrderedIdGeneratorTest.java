@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.testng.Assert.*;
+
+public class TimeOrderedIdGeneratorTest {
+
+  @Test
+  public void testFormat() {
+    TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(0x1234);
+    String id = generator.generateID();
+    assertEquals(id.length(), 32);
+    assertTrue(id.matches("[0-9a-f]{32}"));
+    // The node ID follows the 48 bit timestamp
+    assertEquals(id.substring(12, 16), "1234");
+    assertEquals(generator.getNodeId(), 0x1234);
+  }
+
+  @Test
+  public void testOrderedWithinThread() {
+    TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1);
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      ids.add(generator.generateID());
+    }
+    List<String> sorted = new ArrayList<>(ids);
+    Collections.sort(sorted);
+    assertEquals(sorted, ids);
+  }
+
+  @Test
+  public void testUniqueAcrossThreads() throws InterruptedException {
+    TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+    Set<String> ids = ConcurrentHashMap.newKeySet();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          ids.add(generator.generateID());
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(ids.size(), 40000);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidNodeId() {
+    new TimeOrderedIdGenerator(TimeOrderedIdGenerator.MAX_NODE_ID + 1);
+  }
+
+  @Test
+  public void testCreate() {
+    assertTrue(IdGenerator.create(IdGenerator.Type.MD5, -1) instanceof MD5IdGenerator);
+    IdGenerator generator = IdGenerator.create(IdGenerator.Type.TIME_ORDERED, 42);
+    assertTrue(generator instanceof TimeOrderedIdGenerator);
+    assertEquals(((TimeOrderedIdGenerator) generator).getNodeId(), 42);
+    assertTrue(new MD5IdGenerator().generateID().matches("[0-9a-f]{32}"));
+  }
+}
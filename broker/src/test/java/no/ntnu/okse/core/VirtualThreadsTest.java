@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import no.ntnu.okse.Application;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class VirtualThreadsTest {
+
+  @AfterMethod
+  public void tearDown() {
+    Application.VIRTUAL_THREADS = false;
+  }
+
+  @Test
+  public void testFallbackWhenDisabled() {
+    ExecutorService fallback = Executors.newSingleThreadExecutor();
+    assertSame(VirtualThreads.newExecutor("test", () -> fallback), fallback);
+    fallback.shutdown();
+  }
+
+  @Test
+  public void testNewExecutorWhenEnabled() throws Exception {
+    Application.VIRTUAL_THREADS = true;
+    ExecutorService fallback = Executors.newSingleThreadExecutor();
+    ExecutorService executor = VirtualThreads.newExecutor("test", () -> fallback);
+    assertEquals(executor == fallback, !VirtualThreads.isSupported());
+
+    Future<String> name = executor.submit(() -> Thread.currentThread().getName());
+    if (VirtualThreads.isSupported()) {
+      assertTrue(name.get(5, TimeUnit.SECONDS).startsWith("test-"));
+    } else {
+      assertNotNull(name.get(5, TimeUnit.SECONDS));
+      assertNull(VirtualThreads.newThreadPerTaskExecutor("test"));
+    }
+    executor.shutdown();
+    fallback.shutdown();
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import no.ntnu.okse.core.messaging.MessageService.DistributionResult;
+import no.ntnu.okse.core.messaging.MessageService.OverflowPolicy;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class IngressQueueTest {
+
+  private static Message message(String content) {
+    return new Message(content, "topic", null, "Test");
+  }
+
+  private static Message systemMessage(String content) {
+    Message m = new Message(content, null, null, "Test");
+    m.setSystemMessage(true);
+    return m;
+  }
+
+  @Test(timeOut = 10000)
+  public void testDropOldest() throws InterruptedException {
+    IngressQueue queue = new IngressQueue(2, OverflowPolicy.DROP_OLDEST);
+    assertEquals(queue.offer(message("1")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("2")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("3")), DistributionResult.ACCEPTED);
+
+    assertEquals(queue.size(), 2);
+    assertEquals(queue.getTotalDropped(), 1);
+    assertEquals(queue.getTotalRejected(), 0);
+    assertEquals(queue.take().getMessage(), "2");
+    assertEquals(queue.take().getMessage(), "3");
+  }
+
+  @Test(timeOut = 10000)
+  public void testDropOldestKeepsSystemMessages() throws InterruptedException {
+    IngressQueue queue = new IngressQueue(2, OverflowPolicy.DROP_OLDEST);
+    queue.offer(systemMessage("s1"));
+    queue.offer(systemMessage("s2"));
+    assertEquals(queue.offer(message("1")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("2")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("3")), DistributionResult.ACCEPTED);
+
+    assertEquals(queue.size(), 4);
+    assertEquals(queue.getTotalDropped(), 1);
+    assertEquals(queue.take().getMessage(), "s1");
+    assertEquals(queue.take().getMessage(), "s2");
+    assertEquals(queue.take().getMessage(), "2");
+    assertEquals(queue.take().getMessage(), "3");
+    assertEquals(queue.size(), 0);
+  }
+
+  @Test(timeOut = 10000)
+  public void testDropNewest() throws InterruptedException {
+    IngressQueue queue = new IngressQueue(2, OverflowPolicy.DROP_NEWEST);
+    assertEquals(queue.offer(message("1")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("2")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("3")), DistributionResult.DROPPED);
+    assertEquals(queue.offer(message("4")), DistributionResult.DROPPED);
+
+    assertEquals(queue.size(), 2);
+    assertEquals(queue.getTotalDropped(), 2);
+    assertEquals(queue.getTotalRejected(), 0);
+    assertEquals(queue.take().getMessage(), "1");
+    assertEquals(queue.take().getMessage(), "2");
+  }
+
+  @Test(timeOut = 10000)
+  public void testReject() throws InterruptedException {
+    IngressQueue queue = new IngressQueue(2, OverflowPolicy.REJECT);
+    assertEquals(queue.offer(message("1")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("2")), DistributionResult.ACCEPTED);
+    assertEquals(queue.offer(message("3")), DistributionResult.REJECTED);
+
+    assertEquals(queue.size(), 2);
+    assertEquals(queue.getTotalDropped(), 0);
+    assertEquals(queue.getTotalRejected(), 1);
+    assertEquals(queue.take().getMessage(), "1");
+    assertEquals(queue.offer(message("4")), DistributionResult.ACCEPTED);
+  }
+
+  @Test(timeOut = 10000)
+  public void testBlockWaitsForRoom() throws InterruptedException {
+    IngressQueue queue = new IngressQueue(1, OverflowPolicy.BLOCK);
+    queue.offer(message("1"));
+    Thread producer = new Thread(() -> queue.offer(message("2")));
+    producer.start();
+    producer.join(200);
+    assertTrue(producer.isAlive());
+
+    assertEquals(queue.take().getMessage(), "1");
+    producer.join();
+    assertEquals(queue.take().getMessage(), "2");
+    assertEquals(queue.getTotalDropped(), 0);
+    assertEquals(queue.getTotalRejected(), 0);
+  }
+}
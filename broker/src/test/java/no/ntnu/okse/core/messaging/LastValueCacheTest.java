@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class LastValueCacheTest {
+
+  private static Message message(String content, String topic) {
+    return new Message(content, topic, null, "Test");
+  }
+
+  @Test
+  public void testPutAndGet() {
+    LastValueCache cache = new LastValueCache(0, 0, false);
+    Message first = message("first", "test");
+    Message second = message("second", "test");
+    assertNull(cache.get("test"));
+    cache.put(first);
+    assertSame(cache.get("test"), first);
+    cache.put(second);
+    assertSame(cache.get("test"), second);
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.getSizeInBytes(), 6);
+    assertEquals(cache.getHitCount(), 2);
+    assertEquals(cache.getMissCount(), 1);
+
+    assertTrue(cache.remove("test"));
+    assertFalse(cache.remove("test"));
+    assertNull(cache.get("test"));
+    assertEquals(cache.getSizeInBytes(), 0);
+  }
+
+  @Test
+  public void testEntryLimitEvictsLeastRecentlyUsed() {
+    LastValueCache cache = new LastValueCache(3, 0, false);
+    cache.put(message("a", "a"));
+    cache.put(message("b", "b"));
+    cache.put(message("c", "c"));
+    // The first eviction clears every reference bit before evicting the oldest entry
+    cache.put(message("d", "d"));
+    assertEquals(cache.size(), 3);
+    assertNull(cache.get("a"));
+    // A read gives b a second chance, so c is evicted instead
+    cache.get("b");
+    cache.put(message("e", "e"));
+    assertNotNull(cache.get("b"));
+    assertNull(cache.get("c"));
+    assertEquals(cache.size(), 3);
+    assertEquals(cache.getEvictionCount(), 2);
+  }
+
+  @Test
+  public void testByteLimit() {
+    LastValueCache cache = new LastValueCache(0, 10, false);
+    cache.put(message("12345", "a"));
+    cache.put(message("12345", "b"));
+    assertEquals(cache.size(), 2);
+    cache.put(message("123", "c"));
+    assertEquals(cache.size(), 2);
+    assertTrue(cache.getSizeInBytes() <= 10);
+    assertNull(cache.get("a"));
+
+    // Messages larger than the cache are not cached, and replace the previous one
+    cache.put(message("12345678901", "b"));
+    assertNull(cache.get("b"));
+    assertEquals(cache.getSizeInBytes(), 3);
+  }
+
+  @Test
+  public void testOffHeap() {
+    LastValueCache cache = new LastValueCache(0, 0, true);
+    byte[] payload = {1, 2, 3, (byte) 0xff};
+    cache.put(new Message(payload, "application/octet-stream", "bin", null, "Test"));
+    cache.put(message("text", "text"));
+
+    Message binary = cache.get("bin");
+    assertTrue(binary.hasBinaryPayload());
+    assertEquals(binary.getPayloadBytes(), payload);
+    assertEquals(binary.getContentType(), "application/octet-stream");
+    assertEquals(binary.getTopic(), "bin");
+    assertEquals(binary.getOriginProtocol(), "Test");
+    assertEquals(cache.get("text").getMessage(), "text");
+    assertEquals(cache.getSizeInBytes(), 8);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class MessageDispatcherTest {
+
+  MessageDispatcher dispatcher;
+  List<Message> handled;
+  CountDownLatch latch;
+
+  @BeforeMethod
+  public void setUp() {
+    handled = Collections.synchronizedList(new ArrayList<>());
+    latch = new CountDownLatch(100);
+    dispatcher = new MessageDispatcher("Test", 4, 8, batch -> {
+      assertTrue(batch.size() <= 8);
+      batch.forEach(m -> {
+        handled.add(m);
+        latch.countDown();
+      });
+    });
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    dispatcher.stop();
+    dispatcher = null;
+  }
+
+  @Test
+  public void testLaneCount() {
+    assertEquals(dispatcher.getLaneCount(), 4);
+    assertEquals(dispatcher.getLaneQueueDepths().size(), 4);
+    MessageDispatcher defaultLanes = new MessageDispatcher("Test", 0, 1, batch -> {
+    });
+    assertEquals(defaultLanes.getLaneCount(), Runtime.getRuntime().availableProcessors());
+  }
+
+  @Test
+  public void testLaneFor() {
+    assertEquals(dispatcher.laneFor(null), 0);
+    assertEquals(dispatcher.laneFor("some/topic"), dispatcher.laneFor("some/topic"));
+    for (int i = 0; i < 100; i++) {
+      int lane = dispatcher.laneFor("topic" + i);
+      assertTrue(lane >= 0 && lane < 4);
+    }
+  }
+
+  @Test
+  public void testQueueDepthsBeforeStart() {
+    dispatcher.dispatch(new Message("message", "topic", null, "Test"));
+    int lane = dispatcher.laneFor("topic");
+    assertEquals((int) dispatcher.getLaneQueueDepths().get(lane), 1);
+  }
+
+  @Test(timeOut = 10000)
+  public void testDispatchWaitsForRoomInBoundedLane() throws InterruptedException {
+    // Eight messages shared by four lanes leaves room for two in each
+    MessageDispatcher bounded = new MessageDispatcher("Bounded", 4, 8, 8, batch -> {
+    });
+    bounded.dispatch(new Message("1", "topic", null, "Test"));
+    bounded.dispatch(new Message("2", "topic", null, "Test"));
+    Thread producer = new Thread(() -> bounded.dispatch(new Message("3", "topic", null, "Test")));
+    producer.start();
+    producer.join(200);
+    assertTrue(producer.isAlive());
+    assertEquals((int) bounded.getLaneQueueDepths().get(bounded.laneFor("topic")), 2);
+
+    bounded.start();
+    producer.join();
+    bounded.stop();
+  }
+
+  @Test
+  public void testOrderingIsKeptPerTopic() throws InterruptedException {
+    dispatcher.start();
+    assertTrue(dispatcher.isRunning());
+    for (int i = 0; i < 50; i++) {
+      dispatcher.dispatch(new Message("a" + i, "topicA", null, "Test"));
+      dispatcher.dispatch(new Message("b" + i, "topicB", null, "Test"));
+    }
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+    ArrayList<String> a = new ArrayList<>();
+    ArrayList<String> b = new ArrayList<>();
+    synchronized (handled) {
+      handled.forEach(m -> (m.getTopic().equals("topicA") ? a : b).add(m.getMessage()));
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(a.get(i), "a" + i);
+      assertEquals(b.get(i), "b" + i);
+    }
+  }
+}
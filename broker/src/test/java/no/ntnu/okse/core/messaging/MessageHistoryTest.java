@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class MessageHistoryTest {
+
+  private static Message message(String content, String topic) {
+    return new Message(content, topic, null, "Test");
+  }
+
+  private static void record(MessageHistory history, String topic, int count) {
+    for (int i = 0; i < count; i++) {
+      history.record(topic, message(topic + i, topic));
+    }
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    MessageHistory history = new MessageHistory("");
+    assertFalse(history.isEnabled());
+    record(history, "test", 3);
+    assertTrue(history.getMessages("test", 0, 0).isEmpty());
+  }
+
+  @Test
+  public void testRingKeepsNewestMessages() {
+    MessageHistory history = new MessageHistory("sensors/#:3:0");
+    assertTrue(history.isEnabled());
+    record(history, "sensors/a", 5);
+    record(history, "other", 5);
+
+    List<Message> messages = history.getMessages("sensors/a", 0, 0);
+    assertEquals(messages.size(), 3);
+    assertEquals(messages.get(0).getMessage(), "sensors/a2");
+    assertEquals(messages.get(2).getMessage(), "sensors/a4");
+
+    List<Message> last = history.getMessages("sensors/a", 2, 0);
+    assertEquals(last.size(), 2);
+    assertEquals(last.get(0).getMessage(), "sensors/a3");
+    assertTrue(history.getMessages("other", 0, 0).isEmpty());
+
+    history.remove("sensors/a");
+    assertTrue(history.getMessages("sensors/a", 0, 0).isEmpty());
+  }
+
+  @Test
+  public void testSinceAndTtl() throws Exception {
+    MessageHistory history = new MessageHistory("expiring:10:50, kept:10:0");
+    record(history, "expiring", 2);
+    record(history, "kept", 2);
+    Thread.sleep(100);
+    long since = System.currentTimeMillis();
+    record(history, "kept", 1);
+
+    assertTrue(history.getMessages("expiring", 0, 0).isEmpty());
+    assertEquals(history.getMessages("kept", 0, 0).size(), 3);
+    List<Message> recent = history.getMessages("kept", 0, since);
+    assertEquals(recent.size(), 1);
+    assertEquals(recent.get(0).getMessage(), "kept0");
+  }
+
+  @Test
+  public void testMalformedEntriesAreIgnored() {
+    MessageHistory history = new MessageHistory("bad,worse:x:1,neg:-1:0,good:2:0");
+    record(history, "good", 3);
+    record(history, "bad", 3);
+    assertEquals(history.getMessages("good", 0, 0).size(), 2);
+    assertTrue(history.getMessages("bad", 0, 0).isEmpty());
+  }
+}
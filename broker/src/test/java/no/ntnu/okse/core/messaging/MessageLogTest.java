@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class MessageLogTest {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  File directory;
+  MessageLog messageLog;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("okse-messagelog").toFile();
+    messageLog = open(0);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    messageLog.close();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private MessageLog open(long retentionBytes) throws IOException {
+    return new MessageLog(directory, SEGMENT_SIZE, 10, retentionBytes, 0);
+  }
+
+  private static Message message(String content, String topic) {
+    return new Message(content, topic, null, "Test");
+  }
+
+  private List<MessageLog.Record> replay(String topic, long from) {
+    List<MessageLog.Record> records = new ArrayList<>();
+    messageLog.replay(topic, from, records::add);
+    return records;
+  }
+
+  @Test
+  public void testAppendAndReplay() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      assertEquals(messageLog.append(message("a" + i, "test/a")), 2 * i);
+      assertEquals(messageLog.append(message("b" + i, "test/b")), 2 * i + 1);
+    }
+    assertEquals(messageLog.getNextOffset(), 20);
+    assertEquals(messageLog.getNextTopicOffset("test/a"), 10);
+    assertEquals(messageLog.getTopics().size(), 2);
+
+    List<MessageLog.Record> records = replay("test/a", 4);
+    assertEquals(records.size(), 6);
+    for (int i = 0; i < records.size(); i++) {
+      MessageLog.Record record = records.get(i);
+      assertEquals(record.topicOffset, i + 4);
+      assertEquals(record.topic, "test/a");
+      assertEquals(record.originProtocol, "Test");
+      assertEquals(record.toMessage().getMessage(), "a" + (i + 4));
+    }
+    assertEquals(messageLog.readLatest("test/b").toMessage().getMessage(), "b9");
+    assertNull(messageLog.readLatest("test/c"));
+    assertTrue(replay("test/c", 0).isEmpty());
+  }
+
+  @Test
+  public void testBinaryPayload() throws Exception {
+    byte[] payload = {0, 1, 2, (byte) 0xff, (byte) 0xfe};
+    messageLog.append(new Message(payload, "application/octet-stream", "test/bin", null, "Test"));
+    Message m = messageLog.readLatest("test/bin").toMessage();
+    assertTrue(m.hasBinaryPayload());
+    assertEquals(m.getContentType(), "application/octet-stream");
+    assertEquals(m.getPayloadBytes(), payload);
+  }
+
+  @Test
+  public void testRecovery() throws Exception {
+    String content = new String(new char[1000]).replace('\0', 'x');
+    for (int i = 0; i < 200; i++) {
+      messageLog.append(message(content + i, "test/" + (i % 3)));
+    }
+    assertTrue(directory.listFiles().length > 1);
+    messageLog.close();
+
+    messageLog = open(0);
+    assertEquals(messageLog.getNextOffset(), 200);
+    assertEquals(messageLog.getNextTopicOffset("test/1"), 67);
+    assertEquals(messageLog.readLatest("test/1").toMessage().getMessage(), content + 199);
+    assertEquals(messageLog.append(message("next", "test/1")), 200);
+    assertEquals(messageLog.getNextTopicOffset("test/1"), 68);
+  }
+
+  @Test
+  public void testCorruptTailIsDiscarded() throws Exception {
+    messageLog.append(message("first", "test"));
+    messageLog.append(message("second", "test"));
+    messageLog.close();
+
+    // Flip a byte in the payload of the last record
+    File segment = directory.listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      long position = 0;
+      for (int i = 0; i < 2; i++) {
+        file.seek(position);
+        position += 8 + file.readInt();
+      }
+      file.seek(position - 1);
+      byte last = file.readByte();
+      file.seek(position - 1);
+      file.writeByte(last ^ 0x55);
+    }
+
+    messageLog = open(0);
+    assertEquals(messageLog.getNextOffset(), 1);
+    assertEquals(messageLog.readLatest("test").toMessage().getMessage(), "first");
+    assertEquals(messageLog.append(message("third", "test")), 1);
+  }
+
+  @Test
+  public void testSizeRetention() throws Exception {
+    messageLog.close();
+    messageLog = open(3L * SEGMENT_SIZE);
+    String content = new String(new char[1000]).replace('\0', 'x');
+    long last = 0;
+    for (int i = 0; i < 500; i++) {
+      last = messageLog.append(message(content, "test"));
+    }
+    assertTrue(messageLog.awaitFlushed(last, 5000));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (messageLog.getSizeInBytes() > 3L * SEGMENT_SIZE
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(messageLog.getSizeInBytes() <= 3L * SEGMENT_SIZE);
+    assertTrue(messageLog.getStartOffset() > 0);
+    // Deleted segments are unmapped and removed from the directory
+    assertEquals(directory.listFiles().length * (long) SEGMENT_SIZE, messageLog.getSizeInBytes());
+
+    List<MessageLog.Record> records = replay("test", 0);
+    assertEquals(records.get(0).offset, messageLog.getStartOffset());
+    assertEquals(records.get(records.size() - 1).topicOffset, 499);
+    assertEquals(messageLog.getNextTopicOffset("test"), 500);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testReadAfterCloseFails() throws Exception {
+    messageLog.append(message("first", "test"));
+    messageLog.close();
+    messageLog.readLatest("test");
+  }
+}
@@ -54,6 +54,15 @@ public class MessageServiceTest {
     assertEquals(Application.CACHE_MESSAGES, m.isCachingMessages());
   }
 
+  @Test
+  public void testDistributeMessage() {
+    int depth = m.getQueueDepth();
+    Message msg = new Message("message", "topic", null, "Test");
+    assertEquals(m.distributeMessage(msg), MessageService.DistributionResult.ACCEPTED);
+    assertTrue(m.getQueueDepth() >= depth);
+    assertEquals(m.getTotalRejectedMessages(), 0);
+  }
+
   @Test
   public void testGenerateMessageForAGivenTopicSet() {
     HashSet<Topic> topics = new HashSet<>();
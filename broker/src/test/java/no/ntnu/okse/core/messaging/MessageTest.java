@@ -29,6 +29,8 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.HashSet;
 
@@ -168,4 +170,74 @@ public class MessageTest {
     assertNotNull(m.toString());
     assertTrue(m.toString() instanceof String);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testToStringShowsSequencePart() {
+    Message other = new Message("test", "test/sub", p, "Test");
+    assertTrue(m.toString().contains(m.getMessageID().substring(24)));
+    assertNotEquals(m.toString(), other.toString());
+  }
+
+  @Test
+  public void testToStringDoesNotGenerateEnvelopeID() {
+    Message copy = m.copyToTopic("test/other");
+    assertTrue(copy.toString().contains("unassigned"));
+    String id = copy.getMessageID();
+    assertTrue(copy.toString().contains(id.substring(24)));
+  }
+
+  @Test
+  public void testTextPayload() {
+    assertFalse(m.hasBinaryPayload());
+    assertNull(m.getContentType());
+    assertEquals(m.getPayload(), ByteBuffer.wrap("test".getBytes(StandardCharsets.UTF_8)));
+    assertEquals(m.getPayloadLength(), 4);
+  }
+
+  @Test
+  public void testBinaryPayload() {
+    byte[] payload = "bl\u00e5b\u00e6r".getBytes(StandardCharsets.UTF_8);
+    Message binary = new Message(payload, "text/plain", "test/sub", p, "Test");
+
+    assertTrue(binary.hasBinaryPayload());
+    assertEquals(binary.getContentType(), "text/plain");
+    assertEquals(binary.getMessage(), "bl\u00e5b\u00e6r");
+    assertTrue(binary.getPayload().isReadOnly());
+    assertEquals(binary.getPayload(), ByteBuffer.wrap(payload));
+
+    // Copies handed out must not write through to the message
+    binary.getPayloadBytes()[0] = 0;
+    assertEquals(binary.getPayloadBytes(), payload);
+  }
+
+  @Test
+  public void testCopyToTopic() {
+    Message binary = new Message(new byte[]{1, 2, 3}, "application/octet-stream", "test/sub", p,
+        "Test");
+    binary.setAttribute("qos", "1");
+    Message copy = binary.copyToTopic("test/other");
+
+    assertEquals(copy.getTopic(), "test/other");
+    assertTrue(copy.hasBinaryPayload());
+    assertEquals(copy.getContentType(), "application/octet-stream");
+    assertEquals(copy.getPayload(), binary.getPayload());
+    assertEquals(copy.getPublisher(), p);
+    assertNull(copy.getAttribute("qos"));
+    assertNotEquals(copy.getMessageID(), binary.getMessageID());
+    assertEquals(copy.getCreationTime(), binary.getCreationTime());
+
+    assertEquals(m.copyToTopic("test/other").getMessage(), "test");
+  }
+
+  @Test
+  public void testCopyToTopicMessageIDs() {
+    HashSet<String> ids = new HashSet<>();
+    ids.add(m.getMessageID());
+    for (int i = 0; i < 1000; i++) {
+      String id = m.copyToTopic("test/" + i).getMessageID();
+      assertTrue(id.matches("[0-9a-fA-F]{32}"));
+      assertTrue(ids.add(id));
+    }
+    assertNotNull(m.copyToTopic("test/other").toString());
+  }
+}
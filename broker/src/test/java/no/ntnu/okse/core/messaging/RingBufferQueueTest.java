@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.*;
+
+public class RingBufferQueueTest {
+
+  @DataProvider(name = "strategies")
+  public Object[][] strategies() {
+    return new Object[][]{
+        {RingBufferQueue.WaitStrategy.BUSY_SPIN},
+        {RingBufferQueue.WaitStrategy.YIELD},
+        {RingBufferQueue.WaitStrategy.BLOCK}
+    };
+  }
+
+  @Test
+  public void testCapacityIsRoundedToPowerOfTwo() {
+    RingBufferQueue<String> queue = new RingBufferQueue<>(100, RingBufferQueue.WaitStrategy.BLOCK);
+    assertEquals(queue.getCapacity(), 128);
+    assertEquals(queue.remainingCapacity(), 128);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new RingBufferQueue<String>(0, RingBufferQueue.WaitStrategy.BLOCK);
+  }
+
+  @Test
+  public void testOfferAndPoll() {
+    RingBufferQueue<String> queue = new RingBufferQueue<>(4, RingBufferQueue.WaitStrategy.BLOCK);
+    assertNull(queue.poll());
+    assertNull(queue.peek());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(queue.offer("m" + i));
+    }
+    assertFalse(queue.offer("full"));
+    assertEquals(queue.size(), 4);
+    assertEquals(queue.peek(), "m0");
+
+    ArrayList<String> drained = new ArrayList<>();
+    assertEquals(queue.drainTo(drained, 2), 2);
+    assertEquals(drained.get(0), "m0");
+    assertEquals(drained.get(1), "m1");
+    assertEquals(queue.poll(), "m2");
+    assertTrue(queue.offer("m4"));
+    assertEquals(queue.poll(), "m3");
+    assertEquals(queue.poll(), "m4");
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test(dataProvider = "strategies")
+  public void testTimedOperations(RingBufferQueue.WaitStrategy strategy)
+      throws InterruptedException {
+    RingBufferQueue<String> queue = new RingBufferQueue<>(1, strategy);
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    assertTrue(queue.offer("m", 10, TimeUnit.MILLISECONDS));
+    assertFalse(queue.offer("m", 10, TimeUnit.MILLISECONDS));
+    assertEquals(queue.poll(10, TimeUnit.MILLISECONDS), "m");
+  }
+
+  @Test(dataProvider = "strategies")
+  public void testMultipleProducers(RingBufferQueue.WaitStrategy strategy)
+      throws InterruptedException {
+    RingBufferQueue<Long> queue = new RingBufferQueue<>(16, strategy);
+    int producers = 4;
+    int perProducer = 1000;
+    ArrayList<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      Thread t = new Thread(() -> {
+        try {
+          for (long i = 1; i <= perProducer; i++) {
+            queue.put(i);
+          }
+        } catch (InterruptedException e) {
+          fail("Producer interrupted");
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+
+    AtomicLong sum = new AtomicLong(0);
+    for (int i = 0; i < producers * perProducer; i++) {
+      sum.addAndGet(queue.take());
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    assertEquals(sum.get(), (long) producers * perProducer * (perProducer + 1) / 2);
+    assertTrue(queue.isEmpty());
+  }
+}
@@ -28,6 +28,7 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -146,4 +147,24 @@ public class TopicServiceTest {
     assertEquals(partNames.get("test").getParent(), partNames.get("ffi"));
     assertEquals(partNames.get("ffi").getParent(), partNames.get("no"));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testGetMappedTopics() {
+    ts.addMappingBetweenTopics("map/a", "map/b");
+    ts.addMappingBetweenTopics("map/b", "map/c");
+    ts.addMappingBetweenTopics("map/c", "map/a");
+
+    // Mappings are followed transitively, and cycles never map a topic to itself
+    assertEquals(ts.getMappedTopics("map/a"), new HashSet<>(Arrays.asList("map/b", "map/c")));
+    assertEquals(ts.getMappedTopics("map/c"), new HashSet<>(Arrays.asList("map/a", "map/b")));
+    assertTrue(ts.getMappedTopics("map/d").isEmpty());
+
+    ts.deleteMapping("map/b");
+    assertEquals(ts.getMappedTopics("map/a"), new HashSet<>(Arrays.asList("map/b")));
+    assertEquals(ts.getMappedTopics("map/c"), new HashSet<>(Arrays.asList("map/a", "map/b")));
+
+    ts.deleteMapping("map/a");
+    ts.deleteMapping("map/c");
+    assertTrue(ts.getMappedTopics("map/c").isEmpty());
+  }
+}
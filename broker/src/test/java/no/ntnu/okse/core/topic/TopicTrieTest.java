@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.topic;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.testng.Assert.*;
+
+public class TopicTrieTest {
+
+  TopicTrie<String> trie;
+
+  @BeforeMethod
+  public void setUp() {
+    trie = new TopicTrie<>();
+    for (String pattern : Arrays.asList("a/b", "a/+", "a/#", "#", "a/*/c", "a/#/c", "b")) {
+      trie.add(pattern, pattern);
+    }
+  }
+
+  @Test
+  public void testMatchExact() {
+    assertEquals(trie.match("b"), new HashSet<>(Arrays.asList("#", "b")));
+  }
+
+  @Test
+  public void testMatchSingleLevelWildcards() {
+    assertEquals(trie.match("a/b"), new HashSet<>(Arrays.asList("a/b", "a/+", "a/#", "#")));
+    assertEquals(trie.match("a/x/c"),
+        new HashSet<>(Arrays.asList("a/*/c", "a/#/c", "a/#", "#")));
+    assertFalse(trie.match("a/x/y").contains("a/+"));
+  }
+
+  @Test
+  public void testMatchMultiLevelWildcard() {
+    // "#" also matches the parent level, both in MQTT and AMQP
+    assertEquals(trie.match("a"), new HashSet<>(Arrays.asList("a/#", "#")));
+    assertEquals(trie.match("a/x/y/c"), new HashSet<>(Arrays.asList("a/#/c", "a/#", "#")));
+    assertEquals(trie.match("c/d/e"), new HashSet<>(Arrays.asList("#")));
+  }
+
+  @Test
+  public void testGetDoesNotExpandWildcards() {
+    assertEquals(trie.get("a/+"), new HashSet<>(Arrays.asList("a/+")));
+    assertTrue(trie.get("a/x").isEmpty());
+  }
+
+  @Test
+  public void testAddAndRemove() {
+    assertEquals(trie.size(), 7);
+    assertFalse(trie.add("b", "b"));
+    assertTrue(trie.add("b", "b2"));
+    assertEquals(trie.size(), 8);
+
+    assertTrue(trie.remove("a/#/c", "a/#/c"));
+    assertFalse(trie.remove("a/#/c", "a/#/c"));
+    assertFalse(trie.remove("x/y", "x/y"));
+    assertEquals(trie.size(), 7);
+    assertFalse(trie.match("a/x/y/c").contains("a/#/c"));
+
+    trie.clear();
+    assertEquals(trie.size(), 0);
+    assertTrue(trie.match("a/b").isEmpty());
+  }
+
+  @Test
+  public void testMatchKeepsInsertionOrder() {
+    TopicTrie<Integer> ordered = new TopicTrie<>();
+    for (int i = 0; i < 100; i++) {
+      ordered.add("topic", i);
+    }
+    int expected = 0;
+    for (Integer value : ordered.match("topic")) {
+      assertEquals(value.intValue(), expected++);
+    }
+  }
+
+  @Test
+  public void testContainsWildcard() {
+    assertFalse(TopicTrie.containsWildcard("a/b/c"));
+    assertFalse(TopicTrie.containsWildcard("a/b#/c"));
+    assertTrue(TopicTrie.containsWildcard("a/#"));
+    assertTrue(TopicTrie.containsWildcard("a/+/c"));
+    assertTrue(TopicTrie.containsWildcard("*/b"));
+  }
+}
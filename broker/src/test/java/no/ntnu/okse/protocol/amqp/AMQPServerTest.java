@@ -24,9 +24,11 @@
 
 package no.ntnu.okse.protocol.amqp;
 
+import no.ntnu.okse.Application;
 import no.ntnu.okse.core.messaging.Message;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.Data;
 import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.amqp.transport.*;
 import org.apache.qpid.proton.engine.*;
@@ -36,8 +38,10 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 
 import static org.testng.Assert.*;
@@ -154,6 +158,44 @@ public class AMQPServerTest {
     assertEquals(okseMessage.getTopic(), address.getName());
   }
 
+  @Test(groups = "amqp")
+  public void testConvertBinaryOkseMessageToAMQP() {
+    byte[] payload = "Hei".getBytes(StandardCharsets.UTF_8);
+    // Without a content type, the payload is sent as a string value like text messages
+    Message untyped = new Message(payload, null, "test", null, "MQTT");
+    org.apache.qpid.proton.message.Message AMQPMessage = AMQPServer
+        .convertOkseMessageToAMQP(untyped, "0.0.0.0");
+    assertEquals((String) ((AmqpValue) AMQPMessage.getBody()).getValue(), "Hei");
+
+    Message typed = new Message(payload, "application/octet-stream", "test", null, "MQTT");
+    AMQPMessage = AMQPServer.convertOkseMessageToAMQP(typed, "0.0.0.0");
+    assertEquals(((Data) AMQPMessage.getBody()).getValue().getArray(), payload);
+    assertEquals(AMQPMessage.getContentType(), "application/octet-stream");
+  }
+
+  @Test(groups = "amqp", timeOut = 10000)
+  public void testAddMessagesToQueueDoesNotBlockWithRingBufferPipeline() {
+    boolean ringBufferPipeline = Application.RING_BUFFER_PIPELINE;
+    int ringBufferSize = Application.RING_BUFFER_SIZE;
+    Application.RING_BUFFER_PIPELINE = true;
+    Application.RING_BUFFER_SIZE = 4;
+    try {
+      // Nothing drains this server, so a bounded queue would block once it is full
+      AMQPServer server = new AMQPServer(ps, null, true);
+      List<Message> batch = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        batch.add(new Message("Hei " + i, "test/ring", null, "MQTT"));
+      }
+      server.addMessagesToQueue(batch);
+      server.addMessageToQueue(new Message("Hei", "test/ring", null, "MQTT"));
+
+      assertEquals(server.getQueueSize(), 17);
+    } finally {
+      Application.RING_BUFFER_PIPELINE = ringBufferPipeline;
+      Application.RING_BUFFER_SIZE = ringBufferSize;
+    }
+  }
+
   @Test(groups = "amqp")
   public void testCreateAddress() {
     String topic = "test";
@@ -10,7 +10,9 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 import static org.mockito.Mockito.*;
 import static org.testng.AssertJUnit.*;
@@ -91,13 +93,32 @@ public class AMQP091ProtocolServerTest {
     HashSet<Subscriber> subscribers = new HashSet<>();
     for (int i = 0; i < numberOfTopicSubscribers; i++) {
       subscribers.add(createSubscriber("topic"));
-      subscribers.add(createSubscriber("notTopic"));
+      subscribers.add(new Subscriber("localhost", 1234, "topic", "mqtt"));
     }
-    doReturn(subscribers).when(subscriptionService).getAllSubscribers();
+    doReturn(subscribers).when(subscriptionService).getAllSubscribersForTopic("topic");
     protocolServer.sendMessage(message);
     verify(protocolServer, times(numberOfTopicSubscribers)).incrementTotalMessagesSent();
   }
 
+  public void sendMessages_Subscribers() {
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      messages.add(new Message("Message body", "topic", null,
+          protocolServer.getProtocolServerType()));
+    }
+    int numberOfTopicSubscribers = 10;
+    HashSet<Subscriber> subscribers = new HashSet<>();
+    for (int i = 0; i < numberOfTopicSubscribers; i++) {
+      subscribers.add(createSubscriber("topic"));
+      subscribers.add(new Subscriber("localhost", 1234, "topic", "mqtt"));
+    }
+    doReturn(subscribers).when(subscriptionService).getAllSubscribersForTopic("topic");
+    protocolServer.sendMessages(messages);
+    verify(amqpService, times(3)).sendMessage(any(Message.class));
+    verify(subscriptionService, times(1)).getAllSubscribersForTopic("topic");
+    verify(protocolServer, times(3 * numberOfTopicSubscribers)).incrementTotalMessagesSent();
+  }
+
   private Subscriber createSubscriber(String topic) {
     return new Subscriber("localhost", 1234, topic, protocolServer.getProtocolServerType());
   }
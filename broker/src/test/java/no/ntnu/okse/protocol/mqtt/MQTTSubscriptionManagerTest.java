@@ -166,6 +166,30 @@ public class MQTTSubscriptionManagerTest {
     assertEquals(clientID + "2", subs.get(1).getClientID());
   }
 
+  @Test
+  public void getSubscribersByClientIDAndConnection() {
+    MQTTSubscriptionManager subscriptionManager = new MQTTSubscriptionManager();
+    subscriptionManager.initCoreSubscriptionService(SubscriptionService.getInstance());
+
+    String clientID = "testClientID";
+    subscriptionManager.addSubscriber("127.0.0.1", 1883, "testing", clientID);
+    subscriptionManager.addSubscriber("127.0.0.1", 1883, "testing2", clientID);
+    subscriptionManager.addSubscriber("127.1.0.1", 1883, "testing", clientID + "2");
+
+    assertEquals(2, subscriptionManager.getSubscribers(clientID).size());
+    assertEquals(2, subscriptionManager.getSubscribers("127.0.0.1", 1883).size());
+    assertEquals(1, subscriptionManager.getSubscribers("127.1.0.1", 1883).size());
+
+    subscriptionManager.removeSubscriber("127.0.0.1", 1883, "testing2");
+    assertEquals(1, subscriptionManager.getSubscribers(clientID).size());
+    assertEquals(1, subscriptionManager.getSubscribers("127.0.0.1", 1883).size());
+
+    subscriptionManager.removeSubscribers(clientID);
+    assertEquals(0, subscriptionManager.getSubscribers(clientID).size());
+    assertEquals(0, subscriptionManager.getSubscribers("127.0.0.1", 1883).size());
+    assertEquals(1, subscriptionManager.getAllSubscribersFromTopic("testing").size());
+  }
+
   @Test
   public void subscriptionChanged() {
     MQTTSubscriptionManager subscriptionManager = new MQTTSubscriptionManager();
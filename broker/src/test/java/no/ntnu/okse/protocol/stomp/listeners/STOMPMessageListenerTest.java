@@ -53,7 +53,7 @@ public class STOMPMessageListenerTest {
   }
 
   @Test
-  public void messageReceived() {
+  public void messageReceived() throws Exception {
     StampyMessage msg = createSendMessage();
     messageListener_spy.messageReceived(msg, new HostPort("localhost", 61613));
 
@@ -67,13 +67,13 @@ public class STOMPMessageListenerTest {
   }
 
   @Test
-  public void mimeTypes() {
+  public void mimeTypes() throws Exception {
     StampyMessage msg = createMimeTypeMessage("plain/text", "utf-8", "test");
     messageListener_spy.messageReceived(msg, new HostPort("localhost", 61613));
   }
 
   @Test
-  public void differentMessageHeaders() {
+  public void differentMessageHeaders() throws Exception {
     StampyMessage msg = createSendMessageWithHeaders();
     messageListener_spy.messageReceived(msg, new HostPort("localhost", 61613));
 
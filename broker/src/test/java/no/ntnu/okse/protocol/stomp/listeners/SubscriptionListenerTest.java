@@ -4,15 +4,21 @@ import asia.stampy.client.message.subscribe.SubscribeMessage;
 import asia.stampy.common.gateway.HostPort;
 import asia.stampy.common.message.StampyMessage;
 import asia.stampy.common.message.StompMessageType;
+import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.core.subscription.SubscriptionService;
+import no.ntnu.okse.protocol.stomp.STOMPServer;
 import no.ntnu.okse.protocol.stomp.STOMPSubscriptionManager;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.testng.annotations.AfterTest;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.testng.AssertJUnit.assertEquals;
 
 public class SubscriptionListenerTest {
@@ -64,6 +70,103 @@ public class SubscriptionListenerTest {
     assertEquals("bernt", subscriberArgument.getValue().getTopic());
   }
 
+  @Test
+  public void messageReceivedReplaysHistoryBeforeSubscribing() {
+    STOMPServer server = Mockito.mock(STOMPServer.class);
+    STOMPSubscriptionManager subscriptionManager = Mockito.mock(STOMPSubscriptionManager.class);
+    SubscriptionListener replaying = createReplayingListener(server, subscriptionManager);
+    List<Message> history = Arrays.asList(new Message("first", "bernt", null, "stomp"),
+        new Message("second", "bernt", null, "stomp"));
+    Mockito.doReturn(history).when(replaying).getMessageHistory("bernt", 2, 1000L);
+
+    SubscribeMessage msg = (SubscribeMessage) createSubMessage();
+    msg.getHeader().addHeader(SubscriptionListener.HISTORY_LAST_HEADER, "2");
+    msg.getHeader().addHeader(SubscriptionListener.HISTORY_SINCE_HEADER, "1000");
+    replaying.messageReceived(msg, createHostPort());
+
+    // The history goes out before the subscriber can receive any live messages
+    ArgumentCaptor<Subscriber> subscriberArgument = ArgumentCaptor.forClass(Subscriber.class);
+    InOrder inOrder = Mockito.inOrder(server, subscriptionManager);
+    inOrder.verify(server)
+        .sendHistory(Mockito.eq(history), subscriberArgument.capture(), Mockito.eq("ogdans3"));
+    inOrder.verify(subscriptionManager)
+        .addSubscriber(Mockito.any(Subscriber.class), Mockito.eq("ogdans3"));
+    assertEquals("bernt", subscriberArgument.getValue().getTopic());
+  }
+
+  @Test
+  public void messageReceivedWithOnlyLastHeader() {
+    STOMPServer server = Mockito.mock(STOMPServer.class);
+    STOMPSubscriptionManager subscriptionManager = Mockito.mock(STOMPSubscriptionManager.class);
+    SubscriptionListener replaying = createReplayingListener(server, subscriptionManager);
+
+    SubscribeMessage msg = (SubscribeMessage) createSubMessage();
+    msg.getHeader().addHeader(SubscriptionListener.HISTORY_LAST_HEADER, " 5 ");
+    replaying.messageReceived(msg, createHostPort());
+
+    Mockito.verify(replaying).getMessageHistory("bernt", 5, 0L);
+    Mockito.verify(subscriptionManager)
+        .addSubscriber(Mockito.any(Subscriber.class), Mockito.eq("ogdans3"));
+  }
+
+  @Test
+  public void messageReceivedWithoutHistoryHeaders() {
+    STOMPServer server = Mockito.mock(STOMPServer.class);
+    STOMPSubscriptionManager subscriptionManager = Mockito.mock(STOMPSubscriptionManager.class);
+    SubscriptionListener replaying = createReplayingListener(server, subscriptionManager);
+
+    replaying.messageReceived(createSubMessage(), createHostPort());
+
+    Mockito.verify(replaying, Mockito.never())
+        .getMessageHistory(Mockito.anyString(), Mockito.anyInt(), Mockito.anyLong());
+    Mockito.verify(server, Mockito.never())
+        .sendHistory(Mockito.any(), Mockito.any(), Mockito.any());
+  }
+
+  @Test
+  public void messageReceivedWithMalformedHistoryHeader() {
+    STOMPServer server = Mockito.mock(STOMPServer.class);
+    STOMPSubscriptionManager subscriptionManager = Mockito.mock(STOMPSubscriptionManager.class);
+    SubscriptionListener replaying = createReplayingListener(server, subscriptionManager);
+
+    SubscribeMessage msg = (SubscribeMessage) createSubMessage();
+    msg.getHeader().addHeader(SubscriptionListener.HISTORY_LAST_HEADER, "many");
+    replaying.messageReceived(msg, createHostPort());
+
+    // The subscription is still made, just without a replay
+    Mockito.verify(server, Mockito.never())
+        .sendHistory(Mockito.any(), Mockito.any(), Mockito.any());
+    Mockito.verify(subscriptionManager)
+        .addSubscriber(Mockito.any(Subscriber.class), Mockito.eq("ogdans3"));
+  }
+
+  @Test
+  public void messageReceivedOnWildcardDestinationIsNotReplayed() {
+    STOMPServer server = Mockito.mock(STOMPServer.class);
+    STOMPSubscriptionManager subscriptionManager = Mockito.mock(STOMPSubscriptionManager.class);
+    SubscriptionListener replaying = createReplayingListener(server, subscriptionManager);
+
+    SubscribeMessage msg = (SubscribeMessage) createSubMessage();
+    msg.getHeader().setDestination("bernt/#");
+    msg.getHeader().addHeader(SubscriptionListener.HISTORY_LAST_HEADER, "2");
+    replaying.messageReceived(msg, createHostPort());
+
+    Mockito.verify(replaying, Mockito.never())
+        .getMessageHistory(Mockito.anyString(), Mockito.anyInt(), Mockito.anyLong());
+    Mockito.verify(server, Mockito.never())
+        .sendHistory(Mockito.any(), Mockito.any(), Mockito.any());
+    Mockito.verify(subscriptionManager)
+        .addSubscriber(Mockito.any(Subscriber.class), Mockito.eq("ogdans3"));
+  }
+
+  private SubscriptionListener createReplayingListener(STOMPServer server,
+      STOMPSubscriptionManager subscriptionManager) {
+    SubscriptionListener replaying = Mockito.spy(new SubscriptionListener());
+    replaying.setSubscriptionManager(subscriptionManager);
+    replaying.setServer(server);
+    return replaying;
+  }
+
   private HostPort createHostPort() {
     return new HostPort("localhost", 61613);
   }
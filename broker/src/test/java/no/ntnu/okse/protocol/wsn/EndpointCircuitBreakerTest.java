@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.testng.Assert.*;
+
+public class EndpointCircuitBreakerTest {
+
+  private static final String ENDPOINT = "http://localhost:1/";
+
+  ScheduledExecutorService scheduler;
+  List<String> sent;
+  List<String> unreachable;
+
+  @BeforeMethod
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    sent = new CopyOnWriteArrayList<>();
+    unreachable = new CopyOnWriteArrayList<>();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  private EndpointCircuitBreaker<String> create(long backoff, int queueSize,
+      long unreachableAfter) {
+    return create(backoff, queueSize, 0, unreachableAfter);
+  }
+
+  private EndpointCircuitBreaker<String> create(long backoff, int queueSize, int maxAttempts,
+      long unreachableAfter) {
+    return new EndpointCircuitBreaker<>(2, backoff, backoff * 4, queueSize, maxAttempts,
+        unreachableAfter, (endpoint, delivery) -> sent.add(delivery), unreachable::add, scheduler);
+  }
+
+  @Test
+  public void testOpensAfterThresholdAndQueues() {
+    EndpointCircuitBreaker<String> breaker = create(60000, 2, 0);
+    breaker.submit(ENDPOINT, "a");
+    breaker.onFailure(ENDPOINT, "a");
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.CLOSED);
+    breaker.onFailure(ENDPOINT, "a");
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.OPEN);
+    assertEquals(breaker.getOpenCircuitCount(), 1);
+
+    breaker.submit(ENDPOINT, "b");
+    breaker.submit(ENDPOINT, "c");
+    assertEquals(sent.size(), 1);
+    assertEquals(breaker.getQueuedCount(ENDPOINT), 2);
+    assertEquals(breaker.getDroppedCount(), 1);
+
+    // A success closes the circuit and sends everything that was held back
+    breaker.onSuccess(ENDPOINT, "a");
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.CLOSED);
+    assertEquals(sent.subList(1, sent.size()), Arrays.asList("b", "c"));
+    assertEquals(breaker.getQueuedCount(ENDPOINT), 0);
+  }
+
+  @Test
+  public void testProbeAfterBackoff() throws Exception {
+    EndpointCircuitBreaker<String> breaker = create(50, 10, 0);
+    breaker.onFailure(ENDPOINT, "a");
+    breaker.onFailure(ENDPOINT, "b");
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.OPEN);
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (sent.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    // Either the retry of the first delivery or the queued one is sent as the single probe
+    Thread.sleep(100);
+    assertEquals(sent.size(), 1);
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.HALF_OPEN);
+
+    // Deliveries wait while the probe is in flight
+    breaker.submit(ENDPOINT, "c");
+    assertFalse(sent.contains("c"));
+
+    breaker.onFailure(ENDPOINT, sent.get(0));
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.OPEN);
+    breaker.onSuccess(ENDPOINT, sent.get(0));
+    assertTrue(sent.contains("c"));
+  }
+
+  @Test
+  public void testDeliveryIsDroppedAfterMaxAttempts() throws Exception {
+    EndpointCircuitBreaker<String> breaker = new EndpointCircuitBreaker<>(10, 10, 40, 10, 3, 0,
+        (endpoint, delivery) -> sent.add(delivery), unreachable::add, scheduler);
+    String delivery = "a";
+    breaker.submit(ENDPOINT, delivery);
+    breaker.onFailure(ENDPOINT, delivery);
+    breaker.onFailure(ENDPOINT, delivery);
+    assertEquals(breaker.getDroppedCount(), 0);
+    breaker.onFailure(ENDPOINT, delivery);
+    assertEquals(breaker.getDroppedCount(), 1);
+
+    // The two retries are sent, but the delivery is not scheduled again after the third failure
+    Thread.sleep(100);
+    assertEquals(sent.size(), 3);
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  public void testResetForgetsAllEndpoints() {
+    EndpointCircuitBreaker<String> breaker = create(60000, 10, 0);
+    breaker.onFailure(ENDPOINT, "a");
+    breaker.onFailure(ENDPOINT, "b");
+    breaker.onFailure("http://localhost:2/", "c");
+    breaker.onFailure("http://localhost:2/", "d");
+    assertEquals(breaker.getOpenCircuitCount(), 2);
+
+    breaker.reset();
+    assertEquals(breaker.getOpenCircuitCount(), 0);
+    assertEquals(breaker.getQueuedCount(ENDPOINT), 0);
+    assertEquals(breaker.getDroppedCount(), 2);
+  }
+
+  @Test
+  public void testUnreachableEndpointIsReported() throws Exception {
+    EndpointCircuitBreaker<String> breaker = create(60000, 10, 20);
+    breaker.onFailure(ENDPOINT, "a");
+    breaker.onFailure(ENDPOINT, "a");
+    assertTrue(unreachable.isEmpty());
+    Thread.sleep(30);
+    breaker.onFailure(ENDPOINT, "a");
+    assertEquals(unreachable.size(), 1);
+    assertEquals(breaker.getState(ENDPOINT), EndpointCircuitBreaker.State.CLOSED);
+    assertEquals(breaker.getQueuedCount(ENDPOINT), 0);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.ntnunotif.wsnu.base.soap.Soap;
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class NotifyTemplateCacheTest {
+
+  Notify notify;
+  NotifyTemplateCache template;
+
+  @BeforeMethod
+  public void setUp() {
+    notify = new Notify();
+    template = new NotifyTemplateCache(notify,
+        (n, version, raw) -> (version.name() + (raw ? ":raw" : "")).getBytes());
+  }
+
+  @Test
+  public void testVariantsAreSerializedOnce() {
+    byte[] first = template.get(Soap.SoapVersion.SOAP_1_1, false);
+    assertEquals(new String(first), "SOAP_1_1");
+    assertSame(template.get(Soap.SoapVersion.SOAP_1_1, false), first);
+    assertEquals(template.getSerializationCount(), 1);
+
+    assertEquals(new String(template.get(Soap.SoapVersion.SOAP_1_1, true)), "SOAP_1_1:raw");
+    assertEquals(new String(template.get(Soap.SoapVersion.SOAP_1_2_2003, false)),
+        "SOAP_1_2_2003");
+    assertEquals(template.getSerializationCount(), 3);
+  }
+
+  @Test
+  public void testConcurrentRecipientsShareSerialization() throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    CountDownLatch done = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      pool.execute(() -> {
+        template.get(Soap.SoapVersion.SOAP_1_1, false);
+        done.countDown();
+      });
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    pool.shutdownNow();
+    assertEquals(template.getSerializationCount(), 1);
+  }
+
+  @Test
+  public void testFailedSerialization() {
+    NotifyTemplateCache failing = new NotifyTemplateCache(notify, (n, version, raw) -> {
+      throw new IOException("Broken payload");
+    });
+    assertNull(failing.get(Soap.SoapVersion.SOAP_1_1, false));
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.NamespaceContext;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class RecipientFilterEvaluatorTest {
+
+  ForkJoinPool pool;
+  Notify notify;
+  Notify filtered;
+
+  @BeforeMethod
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+    notify = new Notify();
+    filtered = new Notify();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testRecipientsSharingFiltersAreEvaluatedOnce() {
+    RecipientFilterEvaluator evaluator = new RecipientFilterEvaluator(pool, 64);
+    List<String> recipients = Arrays.asList("a", "b", "c", "d", "e");
+    Map<String, String> keys = new HashMap<>();
+    keys.put("a", "even");
+    keys.put("b", "odd");
+    keys.put("c", "even");
+    keys.put("d", "odd");
+    // e has no key, and is evaluated on its own
+    AtomicInteger evaluations = new AtomicInteger();
+
+    Map<String, Notify> result = evaluator.evaluate(recipients, keys::get, notify,
+        (recipient, n) -> {
+          evaluations.incrementAndGet();
+          return recipient.equals("b") ? null : filtered;
+        });
+
+    assertEquals(evaluations.get(), 3);
+    assertEquals(new ArrayList<>(result.keySet()), Arrays.asList("a", "c", "e"));
+    assertSame(result.get("a"), filtered);
+    assertSame(result.get("c"), filtered);
+  }
+
+  @Test
+  public void testParallelEvaluation() {
+    RecipientFilterEvaluator evaluator = new RecipientFilterEvaluator(pool, 2);
+    List<String> recipients = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      recipients.add("recipient-" + i);
+    }
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+
+    // One hundred groups, by the last two characters of the recipient
+    Map<String, Notify> result = evaluator.evaluate(recipients,
+        r -> r.substring(r.length() - 2), notify, (recipient, n) -> {
+          threads.add(Thread.currentThread().getName());
+          return n;
+        });
+
+    assertEquals(new ArrayList<>(result.keySet()), recipients);
+    assertFalse(threads.isEmpty());
+    result.values().forEach(n -> assertSame(n, notify));
+  }
+
+  @Test
+  public void testFilterKey() {
+    NamespaceContext first = namespaces("ns", "http://example.com/a");
+    NamespaceContext second = namespaces("ns", "http://example.com/b");
+
+    String a = RecipientFilterEvaluator.describeFilter("MessageContent", "xpath", "//ns:value",
+        first);
+    String b = RecipientFilterEvaluator.describeFilter("MessageContent", "xpath", "//ns:value ",
+        first);
+    String c = RecipientFilterEvaluator.describeFilter("MessageContent", "xpath", "//ns:value",
+        second);
+    String topic = RecipientFilterEvaluator.describeFilter("TopicExpression", "simple", "ns:root",
+        first);
+
+    assertEquals(a, b);
+    assertNotEquals(a, c);
+    assertEquals(RecipientFilterEvaluator.filterKey(Arrays.asList(a, topic)),
+        RecipientFilterEvaluator.filterKey(Arrays.asList(topic, b)));
+    assertEquals(RecipientFilterEvaluator.filterKey(Collections.emptyList()), "");
+  }
+
+  private static NamespaceContext namespaces(String prefix, String namespace) {
+    return new NamespaceContext() {
+      @Override
+      public String getNamespaceURI(String p) {
+        return prefix.equals(p) ? namespace : null;
+      }
+
+      @Override
+      public String getPrefix(String namespaceURI) {
+        return namespace.equals(namespaceURI) ? prefix : null;
+      }
+
+      @Override
+      public Iterator getPrefixes(String namespaceURI) {
+        return Collections.singletonList(getPrefix(namespaceURI)).iterator();
+      }
+    };
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class StreamingNotifyReaderTest {
+
+  private static final String NOTIFY =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+          + "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" "
+          + "xmlns:wsnt=\"http://docs.oasis-open.org/wsn/b-2\" "
+          + "xmlns:wsa=\"http://www.w3.org/2005/08/addressing\" xmlns:d=\"http://example.com/d\">"
+          + "<s:Header><wsa:Action>Notify</wsa:Action></s:Header>"
+          + "<s:Body><wsnt:Notify>"
+          + "<wsnt:NotificationMessage>"
+          + "<wsnt:Topic xmlns:ns=\"http://example.com/topics\" "
+          + "Dialect=\"http://docs.oasis-open.org/wsn/t-1/TopicExpression/Concrete\">"
+          + " ns:root/child </wsnt:Topic>"
+          + "<wsnt:ProducerReference><wsa:Address>http://producer:8080/</wsa:Address>"
+          + "</wsnt:ProducerReference>"
+          + "<wsnt:Message><d:data id=\"1\"><d:value>%s</d:value></d:data></wsnt:Message>"
+          + "</wsnt:NotificationMessage>"
+          + "<wsnt:NotificationMessage>"
+          + "<wsnt:Message><plain>second<d xmlns=\"http://example.com/d\"><e xmlns=\"\"/></d>"
+          + "</plain></wsnt:Message>"
+          + "</wsnt:NotificationMessage>"
+          + "</wsnt:Notify></s:Body></s:Envelope>";
+
+  StreamingNotifyReader reader;
+
+  @BeforeMethod
+  public void setUp() {
+    reader = new StreamingNotifyReader();
+  }
+
+  @Test
+  public void testPeek() throws Exception {
+    StreamingNotifyReader.Peek peek = reader.peek(stream(String.format(NOTIFY, "1")));
+    assertTrue(peek.isNotify());
+    // The peeked part is still readable
+    assertEquals(read(peek.getRequest()).size(), 2);
+
+    String subscribe = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\">"
+        + "<s:Body><wsnt:Subscribe xmlns:wsnt=\"http://docs.oasis-open.org/wsn/b-2\"/>"
+        + "</s:Body></s:Envelope>";
+    assertFalse(reader.peek(stream(subscribe)).isNotify());
+    assertFalse(reader.peek(stream("not xml")).isNotify());
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    List<StreamingNotifyReader.StreamedNotification> notifications =
+        read(stream(String.format(NOTIFY, "1")));
+
+    StreamingNotifyReader.StreamedNotification first = notifications.get(0);
+    assertEquals(first.getTopic(), "ns:root/child");
+    assertEquals(first.getDialect(), WSNTools._ConcreteTopicExpression);
+    assertEquals(first.getNamespaces().get("ns"), "http://example.com/topics");
+    assertEquals(first.getProducerReference(), "http://producer:8080/");
+    String content = first.getMessageAsString();
+    assertTrue(content.startsWith("<d:data"));
+    assertTrue(content.contains("xmlns:d=\"http://example.com/d\""));
+    assertTrue(content.contains("<d:value>1</d:value>"));
+
+    StreamingNotifyReader.StreamedNotification second = notifications.get(1);
+    assertNull(second.getTopic());
+    assertNull(second.getProducerReference());
+    assertEquals(second.getMessageAsString(),
+        "<plain>second<d xmlns=\"http://example.com/d\"><e xmlns=\"\"></e></d></plain>");
+  }
+
+  @Test
+  public void testLargeNotify() throws Exception {
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      value.append("0123456789");
+    }
+    StreamingNotifyReader.Peek peek = reader.peek(stream(String.format(NOTIFY, value)));
+    assertTrue(peek.isNotify());
+    List<StreamingNotifyReader.StreamedNotification> notifications = read(peek.getRequest());
+    assertTrue(notifications.get(0).getMessageAsString().contains(value));
+  }
+
+  private List<StreamingNotifyReader.StreamedNotification> read(InputStream request)
+      throws Exception {
+    List<StreamingNotifyReader.StreamedNotification> notifications = new ArrayList<>();
+    assertEquals(reader.read(request, notifications::add), notifications.size());
+    return notifications;
+  }
+
+  private static InputStream stream(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+}
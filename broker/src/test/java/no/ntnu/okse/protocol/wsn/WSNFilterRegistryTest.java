@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.oasis_open.docs.wsn.b_2.NotificationMessageHolderType;
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.oasis_open.docs.wsn.b_2.QueryExpressionType;
+import org.oasis_open.docs.wsn.b_2.TopicExpressionType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class WSNFilterRegistryTest {
+
+  private static final String NAMESPACE = "http://example.com/topics";
+
+  WSNFilterRegistry registry;
+  NamespaceContext namespaces;
+
+  @BeforeMethod
+  public void setUp() {
+    registry = new WSNFilterRegistry();
+    namespaces = namespaces("ns", NAMESPACE);
+  }
+
+  @Test
+  public void testFiltersAreInternedAndReleased() {
+    List<WSNFilterRegistry.FilterDefinition> filters = Collections.singletonList(
+        new WSNFilterRegistry.FilterDefinition(topic(WSNTools._ConcreteTopicExpression, "ns:a/b"),
+            namespaces));
+    WSNFilterRegistry.CompiledFilter first = registry.acquire("key", filters);
+    WSNFilterRegistry.CompiledFilter second = registry.acquire("key", filters);
+    assertSame(first, second);
+    assertEquals(registry.size(), 1);
+
+    registry.release("key");
+    assertSame(registry.getFilter("key"), first);
+    registry.release("key");
+    assertNull(registry.getFilter("key"));
+    assertEquals(registry.size(), 0);
+  }
+
+  @Test
+  public void testTopicExpressions() {
+    assertTrue(matches(WSNTools._SimpleTopicExpression, "ns:root", "ns:root"));
+    assertFalse(matches(WSNTools._SimpleTopicExpression, "ns:root", "ns:root/child"));
+    assertTrue(matches(WSNTools._ConcreteTopicExpression, "ns:root/child", "ns:root/child"));
+    assertFalse(matches(WSNTools._ConcreteTopicExpression, "ns:root/child", "root/child"));
+    assertTrue(matches(WSNTools._FullTopicExpression, "ns:root/*", "ns:root/child"));
+    assertFalse(matches(WSNTools._FullTopicExpression, "ns:root/*", "ns:root"));
+    assertTrue(matches(WSNTools._FullTopicExpression, "ns:root//leaf", "ns:root/a/b/leaf"));
+    assertTrue(matches(WSNTools._FullTopicExpression, "ns:root//.", "ns:root"));
+    assertTrue(matches(WSNTools._FullTopicExpression, "ns:root//.", "ns:root/a/b"));
+    assertTrue(matches(WSNTools._FullTopicExpression, "other | ns:root", "ns:root"));
+    assertTrue(matches(WSNTools._FullTopicExpression, "//leaf", "root/leaf"));
+    assertFalse(matches(WSNTools._FullTopicExpression, "//leaf", "root/leaf/more"));
+  }
+
+  @Test
+  public void testEvaluate() throws Exception {
+    Notify notify = new Notify();
+    notify.getNotificationMessage().add(holder("ns:root/a", "<value>1</value>"));
+    notify.getNotificationMessage().add(holder("ns:root/b", "<value>2</value>"));
+
+    WSNFilterRegistry.PreparedNotify prepared = WSNFilterRegistry.prepare(notify,
+        topic -> namespaces);
+
+    WSNFilterRegistry.CompiledFilter all = registry.acquire("all", Collections.emptyList());
+    assertTrue(all.canEvaluate(prepared));
+    assertSame(all.evaluate(prepared), notify);
+
+    WSNFilterRegistry.CompiledFilter topicFilter = registry.acquire("topic", Collections
+        .singletonList(new WSNFilterRegistry.FilterDefinition(
+            topic(WSNTools._ConcreteTopicExpression, "ns:root/b"), namespaces)));
+    Notify filtered = topicFilter.evaluate(prepared);
+    assertEquals(filtered.getNotificationMessage().size(), 1);
+    assertSame(filtered.getNotificationMessage().get(0), notify.getNotificationMessage().get(1));
+
+    QueryExpressionType query = new QueryExpressionType();
+    query.setDialect("http://www.w3.org/TR/1999/REC-xpath-19991116");
+    query.getContent().add("/value = 1");
+    WSNFilterRegistry.CompiledFilter contentFilter = registry.acquire("content",
+        Collections.singletonList(new WSNFilterRegistry.FilterDefinition(query, namespaces)));
+    assertTrue(contentFilter.canEvaluate(prepared));
+    filtered = contentFilter.evaluate(prepared);
+    assertSame(filtered.getNotificationMessage().get(0), notify.getNotificationMessage().get(0));
+
+    WSNFilterRegistry.CompiledFilter none = registry.acquire("none", Collections.singletonList(
+        new WSNFilterRegistry.FilterDefinition(topic(WSNTools._SimpleTopicExpression, "other"),
+            namespaces)));
+    assertNull(none.evaluate(prepared));
+  }
+
+  @Test
+  public void testTopicPath() {
+    Notify notify = new Notify();
+    notify.getNotificationMessage().add(holder("ns:root/child", null));
+    notify.getNotificationMessage().add(holder("ns:root", null));
+    List<String> paths = WSNFilterRegistry.prepare(notify, t -> namespaces).getTopicPaths();
+
+    assertEquals(topicPath(WSNTools._ConcreteTopicExpression, "ns:root/child"), paths.get(0));
+    assertEquals(topicPath(WSNTools._SimpleTopicExpression, "ns:root"), paths.get(1));
+    assertNotEquals(paths.get(0), paths.get(1));
+    // Expressions that may match several topics are not restricted to a topic path
+    assertNull(topicPath(WSNTools._ConcreteTopicExpression, "ns:root/*"));
+    assertNull(topicPath(WSNTools._FullTopicExpression, "ns:root/child"));
+    assertNull(registry.acquire("all", Collections.emptyList()).getTopicPath());
+
+    // Topics that cannot be resolved leave the paths unknown
+    notify.getNotificationMessage().add(holder("unbound:root", null));
+    assertNull(WSNFilterRegistry.prepare(notify, t -> namespaces).getTopicPaths());
+  }
+
+  @Test
+  public void testUncompiledFiltersAreLeftToWSNu() {
+    Notify notify = new Notify();
+    notify.getNotificationMessage().add(holder("ns:root/a", null));
+    WSNFilterRegistry.PreparedNotify prepared = WSNFilterRegistry.prepare(notify,
+        topic -> namespaces);
+
+    WSNFilterRegistry.CompiledFilter producerProperties = registry.acquire("properties",
+        Collections.singletonList(new WSNFilterRegistry.FilterDefinition(new Object(), null)));
+    assertFalse(producerProperties.canEvaluate(prepared));
+
+    WSNFilterRegistry.CompiledFilter xpathTopic = registry.acquire("xpath", Collections
+        .singletonList(new WSNFilterRegistry.FilterDefinition(
+            topic(WSNTools._XpathTopicExpression, "//*"), namespaces)));
+    assertFalse(xpathTopic.canEvaluate(prepared));
+
+    // Message content filters need DOM content
+    QueryExpressionType query = new QueryExpressionType();
+    query.setDialect("http://www.w3.org/TR/1999/REC-xpath-19991116");
+    query.getContent().add("/value");
+    WSNFilterRegistry.CompiledFilter content = registry.acquire("content",
+        Collections.singletonList(new WSNFilterRegistry.FilterDefinition(query, namespaces)));
+    assertFalse(content.canEvaluate(prepared));
+  }
+
+  private boolean matches(String dialect, String expression, String topic) {
+    Notify notify = new Notify();
+    notify.getNotificationMessage().add(holder(topic, null));
+    WSNFilterRegistry.CompiledFilter filter = registry.acquire(dialect + expression,
+        Collections.singletonList(
+            new WSNFilterRegistry.FilterDefinition(topic(dialect, expression), namespaces)));
+    WSNFilterRegistry.PreparedNotify prepared = WSNFilterRegistry.prepare(notify, t -> namespaces);
+    assertTrue(filter.canEvaluate(prepared));
+    return filter.evaluate(prepared) != null;
+  }
+
+  private String topicPath(String dialect, String expression) {
+    return registry.acquire(dialect + expression, Collections.singletonList(
+        new WSNFilterRegistry.FilterDefinition(topic(dialect, expression), namespaces)))
+        .getTopicPath();
+  }
+
+  private static TopicExpressionType topic(String dialect, String expression) {
+    TopicExpressionType topic = new TopicExpressionType();
+    topic.setDialect(dialect);
+    topic.getContent().add(expression);
+    return topic;
+  }
+
+  private static NotificationMessageHolderType holder(String topic, String content) {
+    NotificationMessageHolderType holder = new NotificationMessageHolderType();
+    holder.setTopic(topic(WSNTools._ConcreteTopicExpression, topic));
+    NotificationMessageHolderType.Message message = new NotificationMessageHolderType.Message();
+    if (content != null) {
+      try {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder()
+            .parse(new InputSource(new StringReader(content)));
+        Element element = document.getDocumentElement();
+        message.setAny(element);
+      } catch (Exception e) {
+        fail(e.getMessage());
+      }
+    }
+    holder.setMessage(message);
+    return holder;
+  }
+
+  private static NamespaceContext namespaces(String prefix, String namespace) {
+    return new NamespaceContext() {
+      @Override
+      public String getNamespaceURI(String p) {
+        return prefix.equals(p) ? namespace : null;
+      }
+
+      @Override
+      public String getPrefix(String namespaceURI) {
+        return namespace.equals(namespaceURI) ? prefix : null;
+      }
+
+      @Override
+      public Iterator getPrefixes(String namespaceURI) {
+        return Collections.singletonList(getPrefix(namespaceURI)).iterator();
+      }
+    };
+  }
+}
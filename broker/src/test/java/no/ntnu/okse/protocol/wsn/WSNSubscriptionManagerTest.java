@@ -151,6 +151,32 @@ public class WSNSubscriptionManagerTest {
     assertTrue(sm.getAllRecipients().contains("asdf"));
   }
 
+  @Test
+  public void testGetCandidateRecipients() {
+    Subscriber onA = new Subscriber("0.0.0.0", 8001, "a", "WSNotification");
+    onA.setAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN, "onA");
+    sm.addSubscriber(onA, sh, "{}a");
+    Subscriber onB = new Subscriber("0.0.0.0", 8002, "b", "WSNotification");
+    onB.setAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN, "onB");
+    sm.addSubscriber(onB, sh, "{}b");
+
+    // The subscriber from setUp is not indexed, and may match any topic
+    Collection<String> candidates = sm.getCandidateRecipients(Collections.singletonList("{}a"));
+    assertEquals(new HashSet<>(candidates),
+        new HashSet<>(Arrays.asList("1234567890abcdef", "onA")));
+    assertEquals(sm.getCandidateRecipients(Arrays.asList("{}a", "{}b", null)).size(), 3);
+    assertEquals(sm.getCandidateRecipients(Collections.singletonList("{}c")).size(), 1);
+    // Unknown topics visit every recipient
+    assertEquals(sm.getCandidateRecipients(null).size(), 3);
+
+    tss.removeSubscriber(onA);
+    assertEquals(sm.getCandidateRecipients(Collections.singletonList("{}a")).size(), 1);
+    tss.removeSubscriber(s);
+    assertTrue(sm.getCandidateRecipients(Collections.singletonList("{}a")).isEmpty());
+    assertEquals(sm.getCandidateRecipients(Collections.singletonList("{}b")),
+        Collections.singleton("onB"));
+  }
+
   @Test
   public void testGetSubscriptionHandle() {
     AbstractNotificationProducer.SubscriptionHandle handle = sm
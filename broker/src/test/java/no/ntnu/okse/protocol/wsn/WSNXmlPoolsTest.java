@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 - 2018 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.Assert.*;
+
+public class WSNXmlPoolsTest {
+
+  @Test
+  public void testDocumentBuildersArePooledPerThread() throws Exception {
+    DocumentBuilder builder = WSNXmlPools.getDocumentBuilder();
+    assertTrue(builder.isNamespaceAware());
+    assertSame(WSNXmlPools.getDocumentBuilder(), builder);
+
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    DocumentBuilder other = pool.submit(WSNXmlPools::getDocumentBuilder).get();
+    pool.shutdownNow();
+    assertNotSame(other, builder);
+  }
+
+  @Test
+  public void testTransformerIsResetBetweenUses() throws Exception {
+    Transformer transformer = WSNXmlPools.getTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+
+    assertSame(WSNXmlPools.getTransformer(), transformer);
+    assertEquals(transformer.getOutputProperty(OutputKeys.OMIT_XML_DECLARATION), "yes");
+    assertEquals(transformer.getOutputProperty(OutputKeys.INDENT), "no");
+
+    Element element = WSNTools.buildGenericContentElement("Content", "data");
+    assertEquals(WSNTools.extractRawXmlContentFromDomNode(element), "<Content>data</Content>");
+  }
+
+  @Test
+  public void testFactoriesAreShared() throws Exception {
+    assertSame(WSNXmlPools.getDatatypeFactory(), WSNXmlPools.getDatatypeFactory());
+    assertSame(WSNXmlPools.getContext(), WSNXmlPools.getContext());
+  }
+}
@@ -37,13 +37,9 @@ public abstract class CommandClient {
     client.run();
   }
 
-  protected abstract void createClient();
-
-  protected abstract TestClient getClient();
-
   public abstract void run();
 
-  void initLogger() {
+  protected void initLogger() {
     PatternLayout layout = new PatternLayout("%d{yyyy-MM-dd - HH:mm:ss.SSS} [%p] (%t) %c: - %m%n");
     ConsoleAppender appender = new ConsoleAppender(layout, "System.out");
     Logger.getRootLogger().addAppender(appender);
@@ -8,4 +8,8 @@ public abstract class TopicClient extends CommandClient {
   @Parameter(names = {"--topic", "-t"}, description = "Topic", required = true)
   public List<String> topics;
 
+  protected abstract void createClient();
+
+  protected abstract TestClient getClient();
+
 }
@@ -235,11 +235,15 @@ public class XMPPClient implements TestClient {
     }
   }
 
+  public void setCallback(Callback callback) {
+    this.callback = callback;
+  }
+
   private String generateItemID() {
     return String.format("id*%f*%d", Math.random(), System.currentTimeMillis());
   }
 
-  protected interface Callback {
+  public interface Callback {
 
     void onMessageReceived(String topic, String message);
 
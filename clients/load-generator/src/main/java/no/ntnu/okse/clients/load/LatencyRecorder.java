@@ -0,0 +1,177 @@
+package no.ntnu.okse.clients.load;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records end-to-end latencies as HdrHistograms, with one histogram for every pair of publishing
+ * and subscribing protocol. Recording is lock free and can be done from any client thread, while
+ * reports are produced from a single reporting thread.
+ */
+public class LatencyRecorder {
+
+  // Latencies are recorded in microseconds, up to one minute, with three significant digits
+  private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toMicros(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Map<LoadProtocol, LongAdder> sent = new ConcurrentHashMap<>();
+  private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+  // Only touched by the reporting thread
+  private final Map<String, Histogram> totals = new TreeMap<>();
+  private final LongAdder outOfRange = new LongAdder();
+  private final HistogramLogWriter logWriter;
+
+  private volatile long recordFrom;
+  private long intervalStart;
+
+  /**
+   * @param logWriter writer for interval histograms, or null to only report to the console
+   */
+  public LatencyRecorder(HistogramLogWriter logWriter) {
+    this.logWriter = logWriter;
+    this.intervalStart = System.currentTimeMillis();
+    if (logWriter != null) {
+      logWriter.outputLogFormatVersion();
+      logWriter.outputStartTime(intervalStart);
+      logWriter.outputLegend();
+    }
+  }
+
+  /**
+   * Only record messages sent at or after the given time, so that warm-up traffic is left out
+   *
+   * @param nanoTime time from System.nanoTime()
+   */
+  public void recordFrom(long nanoTime) {
+    recordFrom = nanoTime;
+  }
+
+  /**
+   * Count a sent message
+   *
+   * @param protocol protocol of the publisher
+   */
+  public void sent(LoadProtocol protocol) {
+    sent.computeIfAbsent(protocol, p -> new LongAdder()).increment();
+  }
+
+  /**
+   * Record the latency of a received message
+   *
+   * @param payload the decoded payload
+   * @param subscriberProtocol protocol of the subscriber that received it
+   * @param receivedAt receive time from System.nanoTime()
+   */
+  public void received(LoadPayload payload, LoadProtocol subscriberProtocol, long receivedAt) {
+    if (payload.sentAt < recordFrom) {
+      return;
+    }
+    long latency = TimeUnit.NANOSECONDS.toMicros(receivedAt - payload.sentAt);
+    if (latency < 0 || latency > HIGHEST_TRACKABLE_LATENCY) {
+      outOfRange.increment();
+      return;
+    }
+    recorders.computeIfAbsent(payload.protocol + "->" + subscriberProtocol,
+        k -> new Recorder(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS))
+        .recordValue(latency);
+  }
+
+  /**
+   * Collect the histograms recorded since the last call, print a one line summary per protocol
+   * pair and append them to the histogram log
+   *
+   * @param out stream to print to
+   */
+  public synchronized void reportInterval(PrintStream out) {
+    collectInterval(out);
+  }
+
+  /**
+   * Moves the interval histograms into the totals, printing them if a stream is given
+   */
+  private void collectInterval(PrintStream out) {
+    long now = System.currentTimeMillis();
+    double seconds = Math.max(now - intervalStart, 1) / 1000.0;
+    for (Map.Entry<String, Recorder> entry : new TreeMap<>(recorders).entrySet()) {
+      Histogram interval = entry.getValue().getIntervalHistogram();
+      interval.setStartTimeStamp(intervalStart);
+      interval.setEndTimeStamp(now);
+      interval.setTag(entry.getKey());
+      totals.computeIfAbsent(entry.getKey(),
+          k -> new Histogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS)).add(interval);
+      if (out != null && interval.getTotalCount() > 0) {
+        out.println(String.format("%-16s %10.0f msg/s  p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms",
+            entry.getKey(), interval.getTotalCount() / seconds, millis(interval, 50.0),
+            millis(interval, 99.0), interval.getMaxValue() / 1000.0));
+      }
+      if (logWriter != null) {
+        logWriter.outputIntervalHistogram(interval);
+      }
+    }
+    intervalStart = now;
+  }
+
+  /**
+   * Print the totals for the whole measurement period
+   *
+   * @param out stream to print to
+   * @param durationSeconds length of the measurement period
+   */
+  public synchronized void reportTotals(PrintStream out, double durationSeconds) {
+    collectInterval(null);
+    out.println();
+    out.println("Sent");
+    new TreeMap<>(sent).forEach((protocol, count) -> out.println(String.format(
+        "%-16s %10d msgs %10.0f msg/s", protocol, count.sum(), count.sum() / durationSeconds)));
+    out.println();
+    out.println("Received, end-to-end latency in ms");
+    out.println(String.format("%-16s %10s %10s %9s %9s %9s %9s", "path", "msgs", "msg/s", "p50",
+        "p99", "p999", "max"));
+    Histogram all = new Histogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+    totals.forEach((path, histogram) -> {
+      all.add(histogram);
+      printTotal(out, path, histogram, durationSeconds);
+    });
+    printTotal(out, "all", all, durationSeconds);
+    if (outOfRange.sum() > 0) {
+      out.println(outOfRange.sum() + " latencies were out of range and not recorded");
+    }
+  }
+
+  /**
+   * Collect the histograms recorded since the last report, and return the total of one path
+   *
+   * @param path publishing and subscribing protocol, e.g. "MQTT->STOMP"
+   * @return the total histogram of the path, or null if nothing was recorded on it
+   */
+  synchronized Histogram getTotal(String path) {
+    collectInterval(null);
+    return totals.get(path);
+  }
+
+  /**
+   * @return number of latencies that were negative or too large to be recorded
+   */
+  long getOutOfRangeCount() {
+    return outOfRange.sum();
+  }
+
+  private static void printTotal(PrintStream out, String path, Histogram histogram,
+      double durationSeconds) {
+    out.println(String.format("%-16s %10d %10.0f %9.3f %9.3f %9.3f %9.3f", path,
+        histogram.getTotalCount(), histogram.getTotalCount() / durationSeconds,
+        millis(histogram, 50.0), millis(histogram, 99.0), millis(histogram, 99.9),
+        histogram.getMaxValue() / 1000.0));
+  }
+
+  private static double millis(Histogram histogram, double percentile) {
+    return histogram.getValueAtPercentile(percentile) / 1000.0;
+  }
+}
@@ -0,0 +1,270 @@
+package no.ntnu.okse.clients.load;
+
+import com.beust.jcommander.Parameter;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import no.ntnu.okse.clients.CommandClient;
+import no.ntnu.okse.clients.TestClient;
+import org.HdrHistogram.HistogramLogWriter;
+import org.apache.log4j.Logger;
+
+/**
+ * Generates sustained load against a running broker. For every selected protocol it starts a
+ * number of publishers and subscribers on the same topic, so every subscriber receives the
+ * messages of every publisher, translated across protocols by the broker. Each payload carries the
+ * time it was sent, and the end-to-end latency of every received message is recorded per pair of
+ * publishing and subscribing protocol.
+ *
+ * When publishers are rate limited, the send time is the time the message was scheduled to be
+ * sent, so a stalled broker shows up as latency instead of as fewer samples.
+ */
+public class LoadGenerator extends CommandClient {
+
+  private static final Logger log = Logger.getLogger(LoadGenerator.class);
+
+  @Parameter(names = {"--protocols"}, description = "Protocols to use, e.g. mqtt,stomp,amqp091")
+  public List<String> protocols = Collections.singletonList("mqtt");
+
+  @Parameter(names = {"--publishers"}, description = "Number of publishers per protocol")
+  public int publishers = 1;
+
+  @Parameter(names = {"--subscribers"}, description = "Number of subscribers per protocol")
+  public int subscribers = 1;
+
+  @Parameter(names = {"--topic", "-t"}, description = "Topic")
+  public String topic = "okse/load";
+
+  @Parameter(names = {"--rate"}, description = "Messages per second per publisher, 0 for no limit")
+  public int rate = 100;
+
+  @Parameter(names = {"--size"}, description = "Payload size in characters")
+  public int payloadSize = 128;
+
+  @Parameter(names = {"--duration"}, description = "Measurement duration in seconds")
+  public int duration = 30;
+
+  @Parameter(names = {"--warmup"}, description = "Warm-up duration in seconds, not measured")
+  public int warmup = 5;
+
+  @Parameter(names = {"--settle"}, description = "Seconds between subscribing and publishing")
+  public int settle = 2;
+
+  @Parameter(names = {"--drain"}, description = "Seconds to wait for messages after publishing")
+  public int drain = 2;
+
+  @Parameter(names = {"--report-interval"}, description = "Seconds between progress reports")
+  public int reportInterval = 1;
+
+  @Parameter(names = {"--histogram-log"}, description = "File to write interval histograms to")
+  public String histogramLog;
+
+  @Parameter(names = {"--mqtt-port"}, description = "MQTT port")
+  public int mqttPort = LoadProtocol.MQTT.getDefaultPort();
+
+  @Parameter(names = {"--amqp-port"}, description = "AMQP 1.0 port")
+  public int amqpPort = LoadProtocol.AMQP.getDefaultPort();
+
+  @Parameter(names = {"--amqp091-port"}, description = "AMQP 0.9.1 port")
+  public int amqp091Port = LoadProtocol.AMQP091.getDefaultPort();
+
+  @Parameter(names = {"--stomp-port"}, description = "STOMP port")
+  public int stompPort = LoadProtocol.STOMP.getDefaultPort();
+
+  @Parameter(names = {"--wsn-port"}, description = "WS-Notification port")
+  public int wsnPort = LoadProtocol.WSN.getDefaultPort();
+
+  @Parameter(names = {"--xmpp-port"}, description = "XMPP port")
+  public int xmppPort = LoadProtocol.XMPP.getDefaultPort();
+
+  @Parameter(names = {"--wsn-url"}, description = "Host Notification Broker url")
+  public String wsnUrlExtension = "";
+
+  @Parameter(names = {"--wsn-client-host"}, description = "Host WSN subscribers listen on")
+  public String wsnClientHost = "localhost";
+
+  @Parameter(names = {"--wsn-client-port"}, description = "First port WSN subscribers listen on")
+  public int wsnClientPort = 9000;
+
+  @Parameter(names = {"--xmpp-password"}, description = "Password of the XMPP accounts")
+  public String xmppPassword = "password";
+
+  private final String runId = Long.toHexString(System.currentTimeMillis());
+  private final List<TestClient> subscriberClients = new ArrayList<>();
+  private final List<Thread> publisherThreads = new ArrayList<>();
+  private List<LoadProtocol> selectedProtocols;
+  private LatencyRecorder recorder;
+
+  public static void main(String[] args) {
+    launch(new LoadGenerator(), args);
+  }
+
+  /**
+   * The port the broker listens on for a protocol
+   *
+   * @param protocol protocol
+   * @return port
+   */
+  int portFor(LoadProtocol protocol) {
+    switch (protocol) {
+      case MQTT:
+        return mqttPort;
+      case AMQP:
+        return amqpPort;
+      case AMQP091:
+        return amqp091Port;
+      case STOMP:
+        return stompPort;
+      case WSN:
+        return wsnPort;
+      case XMPP:
+        return xmppPort;
+      default:
+        return protocol.getDefaultPort();
+    }
+  }
+
+  public void run() {
+    initLogger();
+    try {
+      selectedProtocols = new ArrayList<>();
+      for (String protocol : protocols) {
+        selectedProtocols.add(LoadProtocol.valueOf(protocol.trim().toUpperCase()));
+      }
+    } catch (IllegalArgumentException e) {
+      System.out.println("Unknown protocol, use one of: " + Arrays.toString(LoadProtocol.values()));
+      return;
+    }
+    try {
+      HistogramLogWriter logWriter =
+          histogramLog == null ? null : new HistogramLogWriter(histogramLog);
+      recorder = new LatencyRecorder(logWriter);
+    } catch (FileNotFoundException e) {
+      System.out.println("Could not open histogram log " + histogramLog);
+      return;
+    }
+
+    createSubscribers();
+    sleepSeconds(settle);
+
+    long start = System.nanoTime();
+    long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+    long end = measureFrom + TimeUnit.SECONDS.toNanos(duration);
+    recorder.recordFrom(measureFrom);
+    System.out.println(String.format(
+        "Running %d publishers and %d subscribers per protocol on %s for %ds (+%ds warm-up)",
+        publishers, subscribers, selectedProtocols, duration, warmup));
+
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+    reporter.scheduleAtFixedRate(() -> recorder.reportInterval(System.out), reportInterval,
+        reportInterval, TimeUnit.SECONDS);
+    for (LoadProtocol protocol : selectedProtocols) {
+      for (int i = 0; i < publishers; i++) {
+        startPublisher(protocol, i, end);
+      }
+    }
+    for (Thread thread : publisherThreads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    sleepSeconds(drain);
+    reporter.shutdownNow();
+
+    recorder.reportTotals(System.out, duration);
+    subscriberClients.forEach(LoadGenerator::disconnectQuietly);
+    System.exit(0);
+  }
+
+  /**
+   * Creates, connects and subscribes all subscribers
+   */
+  private void createSubscribers() {
+    for (LoadProtocol protocol : selectedProtocols) {
+      for (int i = 0; i < subscribers; i++) {
+        TestClient client = protocol.createClient(this, clientName(protocol, "sub", i),
+            (topic, content) -> {
+              long receivedAt = System.nanoTime();
+              LoadPayload payload = LoadPayload.decode(content);
+              if (payload != null) {
+                recorder.received(payload, protocol, receivedAt);
+              }
+            });
+        client.connect();
+        protocol.subscribe(client, this, i, topic);
+        subscriberClients.add(client);
+      }
+    }
+  }
+
+  /**
+   * Starts a publisher thread that publishes until the given time
+   *
+   * @param protocol protocol to publish with
+   * @param index publisher number
+   * @param end System.nanoTime() to stop at
+   */
+  private void startPublisher(LoadProtocol protocol, int index, long end) {
+    Thread thread = new Thread(() -> {
+      TestClient client = protocol.createClient(this, clientName(protocol, "pub", index), null);
+      client.connect();
+      long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+      long next = System.nanoTime();
+      long sequence = 0;
+      while (next < end) {
+        long sentAt;
+        if (interval > 0) {
+          long wait = next - System.nanoTime();
+          if (wait > 0) {
+            LockSupport.parkNanos(wait);
+          }
+          // Measure from the scheduled time, to avoid coordinated omission
+          sentAt = next;
+          next += interval;
+        } else {
+          sentAt = System.nanoTime();
+          next = sentAt;
+        }
+        try {
+          client.publish(topic,
+              LoadPayload.encode(protocol, index, sequence++, sentAt, payloadSize));
+          recorder.sent(protocol);
+        } catch (Exception e) {
+          log.error("Failed to publish with " + protocol + " publisher " + index, e);
+        }
+      }
+      disconnectQuietly(client);
+    });
+    thread.setName("publisher-" + protocol + "-" + index);
+    publisherThreads.add(thread);
+    thread.start();
+  }
+
+  private String clientName(LoadProtocol protocol, String role, int index) {
+    return "okse-load-" + runId + "-" + protocol.name().toLowerCase() + "-" + role + "-" + index;
+  }
+
+  private static void disconnectQuietly(TestClient client) {
+    try {
+      client.disconnect();
+    } catch (Exception e) {
+      log.debug("Failed to disconnect cleanly", e);
+    }
+  }
+
+  private static void sleepSeconds(int seconds) {
+    try {
+      Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
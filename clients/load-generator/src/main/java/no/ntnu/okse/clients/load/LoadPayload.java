@@ -0,0 +1,76 @@
+package no.ntnu.okse.clients.load;
+
+/**
+ * Encodes and decodes the payloads sent by the load generator. Every payload carries the protocol
+ * and publisher that sent it, a sequence number and the time it was sent, padded to the requested
+ * size. Only characters that survive every protocol translation in the broker are used, and the
+ * payload is located by its marker, so wrapping added on the way is ignored.
+ */
+public final class LoadPayload {
+
+  private static final String MARKER = "okse-load|";
+  private static final char SEPARATOR = '|';
+  private static final char PADDING = 'x';
+
+  public final LoadProtocol protocol;
+  public final int publisher;
+  public final long sequence;
+  public final long sentAt;
+
+  private LoadPayload(LoadProtocol protocol, int publisher, long sequence, long sentAt) {
+    this.protocol = protocol;
+    this.publisher = publisher;
+    this.sequence = sequence;
+    this.sentAt = sentAt;
+  }
+
+  /**
+   * Create a payload
+   *
+   * @param protocol protocol of the publisher
+   * @param publisher publisher number
+   * @param sequence sequence number of the message
+   * @param sentAt send time from System.nanoTime()
+   * @param size minimum payload size in characters
+   * @return payload string
+   */
+  public static String encode(LoadProtocol protocol, int publisher, long sequence, long sentAt,
+      int size) {
+    StringBuilder payload = new StringBuilder(Math.max(size, 64))
+        .append(MARKER)
+        .append(protocol.name()).append(SEPARATOR)
+        .append(publisher).append(SEPARATOR)
+        .append(sequence).append(SEPARATOR)
+        .append(sentAt).append(SEPARATOR);
+    while (payload.length() < size) {
+      payload.append(PADDING);
+    }
+    return payload.toString();
+  }
+
+  /**
+   * Decode a received payload
+   *
+   * @param content received message content
+   * @return the decoded payload, or null if the content was not sent by the load generator
+   */
+  public static LoadPayload decode(String content) {
+    if (content == null) {
+      return null;
+    }
+    int start = content.indexOf(MARKER);
+    if (start < 0) {
+      return null;
+    }
+    String[] fields = content.substring(start + MARKER.length()).split("\\|", 5);
+    if (fields.length < 5) {
+      return null;
+    }
+    try {
+      return new LoadPayload(LoadProtocol.valueOf(fields[0]), Integer.parseInt(fields[1]),
+          Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package no.ntnu.okse.clients.load;
+
+import asia.stampy.server.message.message.MessageMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+import no.ntnu.okse.clients.TestClient;
+import no.ntnu.okse.clients.amqp.AMQPClient;
+import no.ntnu.okse.clients.amqp091.AMQP091Client;
+import no.ntnu.okse.clients.mqtt.MQTTClient;
+import no.ntnu.okse.clients.stomp.StompCallback;
+import no.ntnu.okse.clients.stomp.StompClient;
+import no.ntnu.okse.clients.wsn.WSNClient;
+import no.ntnu.okse.clients.xmpp.XMPPClient;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.w3c.dom.Element;
+
+/**
+ * The protocols the load generator can drive, with their default ports and how to create
+ * publishing and subscribing clients for them
+ */
+public enum LoadProtocol {
+
+  MQTT(1883) {
+    @Override
+    TestClient createClient(LoadGenerator config, String name,
+        BiConsumer<String, String> receiver) {
+      MQTTClient client = new MQTTClient(config.host, config.portFor(this), name);
+      if (receiver != null) {
+        client.setCallback(new MqttCallback() {
+          public void connectionLost(Throwable throwable) {
+          }
+
+          public void messageArrived(String topic, MqttMessage message) {
+            receiver.accept(topic, new String(message.getPayload(), StandardCharsets.UTF_8));
+          }
+
+          public void deliveryComplete(IMqttDeliveryToken token) {
+          }
+        });
+      }
+      return client;
+    }
+  },
+
+  AMQP(5672) {
+    @Override
+    TestClient createClient(LoadGenerator config, String name,
+        BiConsumer<String, String> receiver) {
+      AMQPClient client = new AMQPClient(config.host, config.portFor(this));
+      if (receiver != null) {
+        // Prevent subscriber from timing out
+        client.setTimeout(-1L);
+        client.setCallback(message -> receiver.accept(message.getAddress(), bodyOf(message)));
+      }
+      return client;
+    }
+  },
+
+  AMQP091(56720) {
+    @Override
+    TestClient createClient(LoadGenerator config, String name,
+        BiConsumer<String, String> receiver) {
+      AMQP091Client client = new AMQP091Client(config.host, config.portFor(this));
+      if (receiver != null) {
+        client.setCallback(receiver::accept);
+      }
+      return client;
+    }
+  },
+
+  STOMP(61613) {
+    @Override
+    TestClient createClient(LoadGenerator config, String name,
+        BiConsumer<String, String> receiver) {
+      StompClient client = new StompClient(config.host, config.portFor(this));
+      client.setCallback(new StompCallback() {
+        @Override
+        public void messageReceived(MessageMessage message) {
+          if (receiver != null) {
+            receiver.accept(message.getHeader().getDestination(),
+                String.valueOf(message.getBody()));
+          }
+        }
+      });
+      return client;
+    }
+  },
+
+  WSN(61000) {
+    @Override
+    TestClient createClient(LoadGenerator config, String name,
+        BiConsumer<String, String> receiver) {
+      WSNClient client = new WSNClient(config.host, config.portFor(this), config.wsnUrlExtension);
+      if (receiver != null) {
+        client.setCallback(message -> {
+          Object o = message.getMessage().getAny();
+          if (o instanceof Element) {
+            receiver.accept(String.valueOf(message.getTopic().getContent()),
+                ((Element) o).getTextContent());
+          }
+        });
+      }
+      return client;
+    }
+
+    @Override
+    void subscribe(TestClient client, LoadGenerator config, int index, String topic) {
+      // Every subscriber needs its own consumer endpoint
+      ((WSNClient) client).subscribe(topic, config.wsnClientHost, config.wsnClientPort + index);
+    }
+  },
+
+  XMPP(5222) {
+    @Override
+    TestClient createClient(LoadGenerator config, String name,
+        BiConsumer<String, String> receiver) {
+      XMPPClient client = new XMPPClient(config.host, config.portFor(this),
+          name + "@" + config.host, config.xmppPassword);
+      if (receiver != null) {
+        client.setCallback(receiver::accept);
+      }
+      return client;
+    }
+  };
+
+  private final int defaultPort;
+
+  LoadProtocol(int defaultPort) {
+    this.defaultPort = defaultPort;
+  }
+
+  /**
+   * @return the port the broker listens on for this protocol by default
+   */
+  public int getDefaultPort() {
+    return defaultPort;
+  }
+
+  /**
+   * Create a client for this protocol
+   *
+   * @param config load generator configuration
+   * @param name unique client name
+   * @param receiver callback for received messages, or null for publishers
+   * @return a client that is not yet connected
+   */
+  abstract TestClient createClient(LoadGenerator config, String name,
+      BiConsumer<String, String> receiver);
+
+  /**
+   * Subscribe a client created by this protocol to a topic
+   *
+   * @param client the subscribing client
+   * @param config load generator configuration
+   * @param index subscriber number
+   * @param topic topic
+   */
+  void subscribe(TestClient client, LoadGenerator config, int index, String topic) {
+    client.subscribe(topic);
+  }
+
+  private static String bodyOf(Message message) {
+    Section body = message.getBody();
+    if (body instanceof AmqpValue) {
+      return String.valueOf(((AmqpValue) body).getValue());
+    }
+    if (body instanceof Data) {
+      Binary binary = ((Data) body).getValue();
+      return new String(binary.getArray(), binary.getArrayOffset(), binary.getLength(),
+          StandardCharsets.UTF_8);
+    }
+    return String.valueOf(body);
+  }
+}
@@ -0,0 +1,96 @@
+package no.ntnu.okse.clients.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class LatencyRecorderTest {
+
+  private static final long START = 1000000000L;
+
+  LatencyRecorder recorder;
+
+  @BeforeMethod
+  public void setUp() {
+    recorder = new LatencyRecorder(null);
+  }
+
+  private void receive(LoadProtocol from, LoadProtocol to, long sentAt, long latencyMillis) {
+    LoadPayload payload = LoadPayload.decode(LoadPayload.encode(from, 0, 0, sentAt, 0));
+    recorder.received(payload, to, sentAt + TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+  }
+
+  @Test
+  public void testPercentiles() {
+    for (int i = 1; i <= 100; i++) {
+      receive(LoadProtocol.MQTT, LoadProtocol.STOMP, START + i, i);
+    }
+    Histogram histogram = recorder.getTotal("MQTT->STOMP");
+
+    // Latencies are kept in microseconds with three significant digits
+    assertEquals(histogram.getTotalCount(), 100);
+    assertEquals(histogram.getValueAtPercentile(50.0), 50000.0, 50.0);
+    assertEquals(histogram.getValueAtPercentile(99.0), 99000.0, 99.0);
+    assertEquals(histogram.getMaxValue(), 100000.0, 100.0);
+    assertEquals(histogram.getMinValue(), 1000.0, 1.0);
+  }
+
+  @Test
+  public void testPathsAreKeptApart() {
+    receive(LoadProtocol.MQTT, LoadProtocol.STOMP, START, 1);
+    receive(LoadProtocol.STOMP, LoadProtocol.MQTT, START, 2);
+    receive(LoadProtocol.STOMP, LoadProtocol.MQTT, START, 3);
+
+    assertEquals(recorder.getTotal("MQTT->STOMP").getTotalCount(), 1);
+    assertEquals(recorder.getTotal("STOMP->MQTT").getTotalCount(), 2);
+    assertNull(recorder.getTotal("AMQP->AMQP"));
+  }
+
+  @Test
+  public void testTotalsAddUpIntervals() {
+    receive(LoadProtocol.MQTT, LoadProtocol.MQTT, START, 10);
+    recorder.reportInterval(new PrintStream(new ByteArrayOutputStream()));
+    receive(LoadProtocol.MQTT, LoadProtocol.MQTT, START, 20);
+
+    Histogram histogram = recorder.getTotal("MQTT->MQTT");
+    assertEquals(histogram.getTotalCount(), 2);
+    assertEquals(histogram.getMaxValue(), 20000.0, 20.0);
+  }
+
+  @Test
+  public void testWarmUpIsNotRecorded() {
+    recorder.recordFrom(START);
+    receive(LoadProtocol.MQTT, LoadProtocol.MQTT, START - 1, 1);
+    receive(LoadProtocol.MQTT, LoadProtocol.MQTT, START, 1);
+
+    assertEquals(recorder.getTotal("MQTT->MQTT").getTotalCount(), 1);
+  }
+
+  @Test
+  public void testOutOfRangeLatencies() {
+    receive(LoadProtocol.MQTT, LoadProtocol.MQTT, START, -1);
+    receive(LoadProtocol.MQTT, LoadProtocol.MQTT, START, TimeUnit.MINUTES.toMillis(2));
+
+    assertEquals(recorder.getOutOfRangeCount(), 2);
+    assertNull(recorder.getTotal("MQTT->MQTT"));
+  }
+
+  @Test
+  public void testReportTotals() {
+    recorder.sent(LoadProtocol.MQTT);
+    recorder.sent(LoadProtocol.MQTT);
+    receive(LoadProtocol.MQTT, LoadProtocol.STOMP, START, 5);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    recorder.reportTotals(new PrintStream(out), 1);
+
+    String report = out.toString();
+    assertTrue(report.matches("(?s).*MQTT\\s+2 msgs.*"));
+    assertTrue(report.matches("(?s).*MQTT->STOMP\\s+1 .*"));
+    assertTrue(report.matches("(?s).*all\\s+1 .*"));
+  }
+}
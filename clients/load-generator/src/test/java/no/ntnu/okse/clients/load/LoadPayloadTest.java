@@ -0,0 +1,57 @@
+package no.ntnu.okse.clients.load;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class LoadPayloadTest {
+
+  @Test
+  public void testEncodeAndDecode() {
+    // System.nanoTime() may be negative
+    long sentAt = -123456789012L;
+    String content = LoadPayload.encode(LoadProtocol.STOMP, 3, 42, sentAt, 0);
+    LoadPayload payload = LoadPayload.decode(content);
+
+    assertNotNull(payload);
+    assertEquals(payload.protocol, LoadProtocol.STOMP);
+    assertEquals(payload.publisher, 3);
+    assertEquals(payload.sequence, 42);
+    assertEquals(payload.sentAt, sentAt);
+  }
+
+  @Test
+  public void testEncodePadsToSize() {
+    String content = LoadPayload.encode(LoadProtocol.MQTT, 0, 0, System.nanoTime(), 256);
+    assertEquals(content.length(), 256);
+    assertEquals(LoadPayload.decode(content).sequence, 0);
+
+    // The timestamp is never cut to fit a small size
+    long sentAt = Long.MAX_VALUE;
+    content = LoadPayload.encode(LoadProtocol.MQTT, 0, 0, sentAt, 8);
+    assertTrue(content.length() > 8);
+    assertEquals(LoadPayload.decode(content).sentAt, sentAt);
+  }
+
+  @Test
+  public void testDecodeIgnoresWrapping() {
+    long sentAt = System.nanoTime();
+    String content = "<Content>" + LoadPayload.encode(LoadProtocol.WSN, 1, 7, sentAt, 100)
+        + "</Content>";
+    LoadPayload payload = LoadPayload.decode(content);
+
+    assertNotNull(payload);
+    assertEquals(payload.protocol, LoadProtocol.WSN);
+    assertEquals(payload.sequence, 7);
+    assertEquals(payload.sentAt, sentAt);
+  }
+
+  @Test
+  public void testDecodeForeignContent() {
+    assertNull(LoadPayload.decode(null));
+    assertNull(LoadPayload.decode("hello"));
+    assertNull(LoadPayload.decode("okse-load|MQTT|1|2"));
+    assertNull(LoadPayload.decode("okse-load|SMTP|1|2|3|"));
+    assertNull(LoadPayload.decode("okse-load|MQTT|1|2|now|"));
+  }
+}
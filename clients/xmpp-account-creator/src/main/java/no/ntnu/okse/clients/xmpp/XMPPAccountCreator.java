@@ -2,7 +2,6 @@ package no.ntnu.okse.clients.xmpp;
 
 import com.beust.jcommander.Parameter;
 import no.ntnu.okse.clients.CommandClient;
-import no.ntnu.okse.clients.TestClient;
 
 public class XMPPAccountCreator extends CommandClient {
 
@@ -21,16 +20,10 @@ public class XMPPAccountCreator extends CommandClient {
     launch(new XMPPAccountCreator(), args);
   }
 
-  @Override
-  protected void createClient() {
+  private void createClient() {
     client = new XMPPClient(host, port, jid, password);
   }
 
-  @Override
-  protected TestClient getClient() {
-    return client;
-  }
-
   @Override
   public void run() {
     createClient();
@@ -0,0 +1,46 @@
+#!/bin/bash
+
+# Boots a local broker from the build output, runs the load generator against it and stops the
+# broker again. All arguments are passed on to the load generator, e.g.
+#   ./loadtest.sh --protocols mqtt,stomp,amqp091 --publishers 4 --subscribers 4 --rate 1000
+
+JVM_MEMORY="-Xms256m -Xmx1024m"
+
+DIR=$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )
+ROOT="$DIR/.."
+BROKER_JAR="$ROOT/broker/target/okse-broker-3.0.0.jar"
+LOAD_JAR="$ROOT/clients/load-generator/target/load-generator.jar"
+WORK_DIR="$DIR/loadtest"
+BROKER_PORT=${BROKER_PORT:-1883}
+
+if ! which java >/dev/null; then
+    echo "Java is not found in your path, is it installed?"
+    exit 1
+fi
+for JAR in "$BROKER_JAR" "$LOAD_JAR"; do
+    if [ ! -f "$JAR" ]; then
+        echo "$JAR not found, build the project with mvn package first"
+        exit 1
+    fi
+done
+
+# The broker creates its config and log directories in the working directory
+mkdir -p "$WORK_DIR"
+cd "$WORK_DIR"
+java $JVM_MEMORY -jar "$BROKER_JAR" > broker.out 2>&1 &
+BROKER_PID=$!
+trap "kill $BROKER_PID 2>/dev/null; wait $BROKER_PID 2>/dev/null" EXIT
+
+echo "Waiting for the broker to accept connections on port $BROKER_PORT..."
+for i in $(seq 1 60); do
+    if (echo > /dev/tcp/localhost/$BROKER_PORT) 2>/dev/null; then
+        break
+    fi
+    if ! kill -0 $BROKER_PID 2>/dev/null; then
+        echo "The broker exited, see $WORK_DIR/broker.out"
+        exit 1
+    fi
+    sleep 1
+done
+
+java -jar "$LOAD_JAR" --host localhost "$@"